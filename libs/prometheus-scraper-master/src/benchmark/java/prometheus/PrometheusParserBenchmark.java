@@ -0,0 +1,344 @@
+package prometheus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import prometheus.binary.DelimitedProtobufMetricsProcessor;
+import prometheus.text.StreamingTextPrometheusMetricsProcessor;
+import prometheus.text.TextPrometheusMetricsProcessor;
+import prometheus.types.Counter;
+import prometheus.types.Gauge;
+import prometheus.types.Histogram;
+import prometheus.types.Metric;
+import prometheus.types.MetricFamily;
+import prometheus.types.Summary;
+import prometheus.walkers.CollectorPrometheusMetricsWalker;
+
+/**
+ * This is a command line utility that compares the line based and the streaming text parsers side by side.
+ * It parses the same payload with both of them, checks whether they produce the same metric families and then
+ * reports the time and the bytes allocated per parse. The same metric families are also encoded in the delimited
+ * protocol buffers format, to compare the cost of decoding the two exposition formats.
+ *
+ * The payload is read from the file given on the command line. If no file is given, a payload similar to what a
+ * Spring Boot actuator exposes is generated (JVM gauges, one histogram per HTTP endpoint, circuit breaker counters).
+ * Use --iterations=N to change the number of measured parses and --endpoints=N to change the generated payload.
+ */
+public class PrometheusParserBenchmark {
+
+    private interface Parser {
+        List<MetricFamily> parse(byte[] payload);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = 2000;
+        int endpoints = 50;
+        byte[] payload = null;
+
+        for (String arg : args) {
+            if (arg.startsWith("--iterations=")) {
+                iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+            } else if (arg.startsWith("--endpoints=")) {
+                endpoints = Integer.parseInt(arg.substring("--endpoints=".length()));
+            } else if (arg.startsWith("--")) {
+                throw new Exception("Invalid argument: " + arg);
+            } else {
+                payload = Files.readAllBytes(Paths.get(arg));
+            }
+        }
+        if (payload == null) {
+            payload = generatePayload(endpoints).getBytes(StandardCharsets.UTF_8);
+        }
+
+        Parser lineParser = data -> {
+            CollectorPrometheusMetricsWalker walker = new CollectorPrometheusMetricsWalker();
+            new TextPrometheusMetricsProcessor(new ByteArrayInputStream(data), walker).walk();
+            return walker.getAllMetricFamilies();
+        };
+        Parser streamingParser = data -> {
+            CollectorPrometheusMetricsWalker walker = new CollectorPrometheusMetricsWalker();
+            new StreamingTextPrometheusMetricsProcessor(new ByteArrayInputStream(data), walker).walk();
+            return walker.getAllMetricFamilies();
+        };
+
+        List<MetricFamily> expected = lineParser.parse(payload);
+        List<MetricFamily> actual = streamingParser.parse(payload);
+        String difference = compare(expected, actual);
+        int metrics = expected.stream().mapToInt(family -> family.getMetrics().size()).sum();
+        System.out.printf(Locale.ROOT, "Payload: %d bytes, %d families, %d metrics - %s%n",
+                payload.length, expected.size(), metrics,
+                (difference == null) ? "both parsers agree" : "the parsers differ on " + difference);
+
+        Parser protobufParser = data -> {
+            CollectorPrometheusMetricsWalker walker = new CollectorPrometheusMetricsWalker();
+            new DelimitedProtobufMetricsProcessor(new ByteArrayInputStream(data), walker).walk();
+            return walker.getAllMetricFamilies();
+        };
+        byte[] protobufPayload = encodeDelimited(actual);
+        difference = compare(actual, protobufParser.parse(protobufPayload));
+        System.out.printf(Locale.ROOT, "Protobuf payload: %d bytes - %s%n", protobufPayload.length,
+                (difference == null) ? "same metric families as the text" : "differs from the text on " + difference);
+
+        // warm up all the parsers before measuring any of them
+        run(lineParser, payload, iterations);
+        run(streamingParser, payload, iterations);
+        run(protobufParser, protobufPayload, iterations);
+
+        report("line", lineParser, payload, iterations);
+        report("streaming", streamingParser, payload, iterations);
+        report("protobuf", protobufParser, protobufPayload, iterations);
+    }
+
+    private static void report(String name, Parser parser, byte[] payload, int iterations) {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        long allocatedBefore = allocatedBytes(threadBean);
+        long start = System.nanoTime();
+        run(parser, payload, iterations);
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes(threadBean) - allocatedBefore;
+
+        System.out.printf(Locale.ROOT, "%-10s %10.1f us/parse %12d bytes allocated/parse%n",
+                name, elapsed / 1000.0 / iterations, allocated < 0 ? -1 : allocated / iterations);
+    }
+
+    private static void run(Parser parser, byte[] payload, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            if (parser.parse(payload).isEmpty()) {
+                throw new IllegalStateException("Nothing was parsed");
+            }
+        }
+    }
+
+    private static long allocatedBytes(ThreadMXBean threadBean) {
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * @return a description of the first difference found, or null if the families are the same.
+     *         HELP texts are not compared, the line based parser does not always fill them in.
+     */
+    private static String compare(List<MetricFamily> expected, List<MetricFamily> actual) {
+        if (expected.size() != actual.size()) {
+            return String.format("expected %d families, found %d", expected.size(), actual.size());
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            MetricFamily expectedFamily = expected.get(i);
+            MetricFamily actualFamily = actual.get(i);
+            if (!expectedFamily.getName().equals(actualFamily.getName())
+                    || expectedFamily.getType() != actualFamily.getType()
+                    || expectedFamily.getMetrics().size() != actualFamily.getMetrics().size()) {
+                return "family " + expectedFamily.getName();
+            }
+            for (int j = 0; j < expectedFamily.getMetrics().size(); j++) {
+                if (!sameMetric(expectedFamily.getMetrics().get(j), actualFamily.getMetrics().get(j))) {
+                    return "metric " + expectedFamily.getName() + expectedFamily.getMetrics().get(j).getLabels();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean sameMetric(Metric expected, Metric actual) {
+        if (!expected.getName().equals(actual.getName()) || !expected.getLabels().equals(actual.getLabels())) {
+            return false;
+        }
+        if (expected instanceof Counter) {
+            return Double.compare(((Counter) expected).getValue(), ((Counter) actual).getValue()) == 0;
+        }
+        if (expected instanceof Gauge) {
+            return Double.compare(((Gauge) expected).getValue(), ((Gauge) actual).getValue()) == 0;
+        }
+        if (expected instanceof Summary) {
+            Summary e = (Summary) expected;
+            Summary a = (Summary) actual;
+            if (e.getSampleCount() != a.getSampleCount() || Double.compare(e.getSampleSum(), a.getSampleSum()) != 0
+                    || e.getQuantiles().size() != a.getQuantiles().size()) {
+                return false;
+            }
+            for (int i = 0; i < e.getQuantiles().size(); i++) {
+                if (Double.compare(e.getQuantiles().get(i).getQuantile(), a.getQuantiles().get(i).getQuantile()) != 0
+                        || Double.compare(e.getQuantiles().get(i).getValue(), a.getQuantiles().get(i).getValue()) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        Histogram e = (Histogram) expected;
+        Histogram a = (Histogram) actual;
+        if (e.getSampleCount() != a.getSampleCount() || Double.compare(e.getSampleSum(), a.getSampleSum()) != 0
+                || e.getBuckets().size() != a.getBuckets().size()) {
+            return false;
+        }
+        for (int i = 0; i < e.getBuckets().size(); i++) {
+            if (Double.compare(e.getBuckets().get(i).getUpperBound(), a.getBuckets().get(i).getUpperBound()) != 0
+                    || e.getBuckets().get(i).getCumulativeCount() != a.getBuckets().get(i).getCumulativeCount()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // encodes the metric families as the delimited protocol buffers format described by metrics.proto
+    private static byte[] encodeDelimited(List<MetricFamily> families) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (MetricFamily family : families) {
+            ByteArrayOutputStream familyOut = new ByteArrayOutputStream();
+            writeString(familyOut, 1, family.getName());
+            writeString(familyOut, 2, family.getHelp() == null ? "" : family.getHelp());
+            switch (family.getType()) {
+                case COUNTER -> writeVarint(familyOut, 3 << 3, 0);
+                case GAUGE -> writeVarint(familyOut, 3 << 3, 1);
+                case SUMMARY -> writeVarint(familyOut, 3 << 3, 2);
+                case HISTOGRAM -> writeVarint(familyOut, 3 << 3, 4);
+            }
+            for (Metric metric : family.getMetrics()) {
+                ByteArrayOutputStream metricOut = new ByteArrayOutputStream();
+                for (Map.Entry<String, String> label : metric.getLabels().entrySet()) {
+                    ByteArrayOutputStream labelOut = new ByteArrayOutputStream();
+                    writeString(labelOut, 1, label.getKey());
+                    writeString(labelOut, 2, label.getValue());
+                    writeMessage(metricOut, 1, labelOut);
+                }
+                ByteArrayOutputStream valueOut = new ByteArrayOutputStream();
+                if (metric instanceof Counter) {
+                    writeDouble(valueOut, 1, ((Counter) metric).getValue());
+                    writeMessage(metricOut, 3, valueOut);
+                } else if (metric instanceof Gauge) {
+                    writeDouble(valueOut, 1, ((Gauge) metric).getValue());
+                    writeMessage(metricOut, 2, valueOut);
+                } else if (metric instanceof Summary) {
+                    Summary summary = (Summary) metric;
+                    writeVarint(valueOut, 1 << 3, summary.getSampleCount());
+                    writeDouble(valueOut, 2, summary.getSampleSum());
+                    for (Summary.Quantile quantile : summary.getQuantiles()) {
+                        ByteArrayOutputStream quantileOut = new ByteArrayOutputStream();
+                        writeDouble(quantileOut, 1, quantile.getQuantile());
+                        writeDouble(quantileOut, 2, quantile.getValue());
+                        writeMessage(valueOut, 3, quantileOut);
+                    }
+                    writeMessage(metricOut, 4, valueOut);
+                } else {
+                    Histogram histogram = (Histogram) metric;
+                    writeVarint(valueOut, 1 << 3, histogram.getSampleCount());
+                    writeDouble(valueOut, 2, histogram.getSampleSum());
+                    for (Histogram.Bucket bucket : histogram.getBuckets()) {
+                        ByteArrayOutputStream bucketOut = new ByteArrayOutputStream();
+                        writeVarint(bucketOut, 1 << 3, bucket.getCumulativeCount());
+                        writeDouble(bucketOut, 2, bucket.getUpperBound());
+                        writeMessage(valueOut, 3, bucketOut);
+                    }
+                    writeMessage(metricOut, 7, valueOut);
+                }
+                writeMessage(familyOut, 4, metricOut);
+            }
+            writeVarint(out, 0, familyOut.size());
+            out.writeBytes(familyOut.toByteArray());
+        }
+        return out.toByteArray();
+    }
+
+    // writes the tag (if not 0) followed by the value
+    private static void writeVarint(ByteArrayOutputStream out, int tag, long value) {
+        if (tag != 0) {
+            writeVarint(out, 0, tag);
+        }
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeDouble(ByteArrayOutputStream out, int field, double value) {
+        writeVarint(out, 0, (field << 3) | 1);
+        long bits = Double.doubleToRawLongBits(value);
+        for (int i = 0; i < 8; i++) {
+            out.write((int) (bits >>> (8 * i)) & 0xFF);
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, int field, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, (field << 3) | 2, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static void writeMessage(ByteArrayOutputStream out, int field, ByteArrayOutputStream message) {
+        writeVarint(out, (field << 3) | 2, message.size());
+        out.writeBytes(message.toByteArray());
+    }
+
+    private static String generatePayload(int endpoints) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# HELP system_cpu_usage The \"recent cpu usage\" for the whole system\n");
+        sb.append("# TYPE system_cpu_usage gauge\n");
+        sb.append("system_cpu_usage 0.0734126984126984\n");
+        sb.append("# HELP jvm_memory_used_bytes The amount of used memory\n");
+        sb.append("# TYPE jvm_memory_used_bytes gauge\n");
+        for (String area : new String[] { "heap", "nonheap" }) {
+            for (String pool : new String[] { "G1 Eden Space", "G1 Old Gen", "Metaspace", "CodeCache" }) {
+                sb.append("jvm_memory_used_bytes{area=\"").append(area).append("\",id=\"").append(pool)
+                        .append("\",} 4.1943040E7\n");
+            }
+        }
+
+        double[] buckets = { 0.001, 0.001048576, 0.001398101, 0.001747626, 0.002097151, 0.002446676, 0.002796201,
+                0.003145726, 0.003495251, 0.003844776, 0.004194304, 0.005592405, 0.006990506, 0.008388607,
+                0.009786708, 0.011184809, 0.01258291, 0.013981011, 0.015379112, 0.016777216, 0.022369621,
+                0.027962026, 0.033554431, 0.039146836, 0.044739241, 0.050331646, 0.055924051, 0.061516456,
+                0.067108864, 0.089478485, 0.111848106, 0.134217727, 0.156587348, 0.178956969, 0.20132659,
+                0.223696211, 0.246065832, 0.268435456, 0.357913941, 0.447392426, 0.536870911, 0.626349396,
+                0.715827881, 0.805306366, 0.894784851, 0.984263336, 1.073741824, 1.431655765, 1.789569706,
+                2.147483647, 2.505397588, 2.863311529, 3.22122547, 3.579139411, 3.937053352, 4.294967296,
+                5.726623061, 7.158278826, 8.589934591, 10.021590356, 11.453246121, 12.884901886, 14.316557651,
+                15.748213416, 17.179869184, 22.906492245, 28.633115306, 30.0 };
+        sb.append("# HELP http_server_requests_seconds\n");
+        sb.append("# TYPE http_server_requests_seconds histogram\n");
+        for (int endpoint = 0; endpoint < endpoints; endpoint++) {
+            String labels = "exception=\"None\",method=\"GET\",outcome=\"SUCCESS\",status=\"200\",uri=\"/rest/endpoint"
+                    + endpoint + "/{id}\"";
+            long count = 0;
+            for (double bucket : buckets) {
+                count += endpoint % 7;
+                sb.append("http_server_requests_seconds_bucket{").append(labels).append(",le=\"").append(bucket)
+                        .append("\",} ").append((double) count).append('\n');
+            }
+            sb.append("http_server_requests_seconds_bucket{").append(labels).append(",le=\"+Inf\",} ")
+                    .append((double) count).append('\n');
+            sb.append("http_server_requests_seconds_count{").append(labels).append(",} ").append((double) count)
+                    .append('\n');
+            sb.append("http_server_requests_seconds_sum{").append(labels).append(",} ").append(count * 0.0123456)
+                    .append('\n');
+        }
+        sb.append("# HELP http_server_requests_seconds_max\n");
+        sb.append("# TYPE http_server_requests_seconds_max gauge\n");
+        for (int endpoint = 0; endpoint < endpoints; endpoint++) {
+            sb.append("http_server_requests_seconds_max{exception=\"None\",method=\"GET\",outcome=\"SUCCESS\","
+                    + "status=\"200\",uri=\"/rest/endpoint").append(endpoint).append("/{id}\",} 0.0158\n");
+        }
+
+        sb.append("# HELP resilience4j_circuitbreaker_calls_seconds Total number of successful calls\n");
+        sb.append("# TYPE resilience4j_circuitbreaker_calls_seconds summary\n");
+        for (String kind : new String[] { "successful", "failed", "ignored" }) {
+            String labels = "kind=\"" + kind + "\",name=\"restaurantService\"";
+            sb.append("resilience4j_circuitbreaker_calls_seconds_count{").append(labels).append(",} 1234.0\n");
+            sb.append("resilience4j_circuitbreaker_calls_seconds_sum{").append(labels).append(",} 56.789\n");
+        }
+        sb.append("# HELP resilience4j_circuitbreaker_not_permitted_calls_total Total number of not permitted calls\n");
+        sb.append("# TYPE resilience4j_circuitbreaker_not_permitted_calls_total counter\n");
+        sb.append("resilience4j_circuitbreaker_not_permitted_calls_total{kind=\"not_permitted\",name=\"restaurantService\",} 3.0\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,105 @@
+package prometheus;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Selects which metric families, and which metrics within them, a scrape should produce.
+ * A family is identified by its name (as returned by {@link prometheus.types.MetricFamily#getName()}) and a
+ * metric is accepted only if every one of its labels is accepted by the label predicate of its family.
+ *
+ * Parsers that support it apply the filter while reading the data, so that rejected families and metrics
+ * are skipped without being built. Otherwise the {@link PrometheusMetricsProcessor} applies it before
+ * notifying the walker.
+ */
+public class MetricFamilyFilter {
+
+    /**
+     * A filter that accepts everything.
+     */
+    public static final MetricFamilyFilter ACCEPT_ALL = new Builder().build();
+
+    public static class Builder {
+        private Predicate<String> familyPredicate;
+        private final Map<String, BiPredicate<String, String>> labelPredicates = new HashMap<>();
+
+        /**
+         * Only the families with the given names will be accepted.
+         */
+        public Builder acceptFamilies(Collection<String> familyNames) {
+            Set<String> names = new HashSet<>(familyNames);
+            return acceptFamilies(names::contains);
+        }
+
+        /**
+         * Only the families whose name satisfies the predicate will be accepted.
+         */
+        public Builder acceptFamilies(Predicate<String> familyPredicate) {
+            this.familyPredicate = (this.familyPredicate == null)
+                    ? familyPredicate
+                    : this.familyPredicate.or(familyPredicate);
+            return this;
+        }
+
+        /**
+         * The metrics of the given family will be accepted only if all their labels satisfy the predicate,
+         * which is given the label name and value.
+         */
+        public Builder acceptLabels(String familyName, BiPredicate<String, String> labelPredicate) {
+            labelPredicates.merge(familyName, labelPredicate, BiPredicate::and);
+            return this;
+        }
+
+        public MetricFamilyFilter build() {
+            return new MetricFamilyFilter(this);
+        }
+    }
+
+    private final Predicate<String> familyPredicate;
+    private final Map<String, BiPredicate<String, String>> labelPredicates;
+
+    protected MetricFamilyFilter(Builder builder) {
+        this.familyPredicate = builder.familyPredicate;
+        this.labelPredicates = new HashMap<>(builder.labelPredicates);
+    }
+
+    /**
+     * @param familyName the name of the metric family
+     * @return true if the family should be scraped
+     */
+    public boolean acceptsFamily(String familyName) {
+        return familyPredicate == null || familyPredicate.test(familyName);
+    }
+
+    /**
+     * @param familyName the name of the metric family
+     * @return the predicate the labels of the metrics of the family must satisfy, or null if all metrics
+     *         of the family are accepted
+     */
+    public BiPredicate<String, String> getLabelPredicate(String familyName) {
+        return labelPredicates.isEmpty() ? null : labelPredicates.get(familyName);
+    }
+
+    /**
+     * @param familyName the name of the metric family
+     * @param labels the labels of a metric of the family
+     * @return true if the metric should be scraped
+     */
+    public boolean acceptsMetric(String familyName, Map<String, String> labels) {
+        BiPredicate<String, String> labelPredicate = getLabelPredicate(familyName);
+        if (labelPredicate == null) {
+            return true;
+        }
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            if (!labelPredicate.test(label.getKey(), label.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
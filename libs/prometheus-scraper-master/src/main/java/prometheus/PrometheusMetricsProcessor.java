@@ -17,12 +17,24 @@ public abstract class PrometheusMetricsProcessor<T> {
 
     private final InputStream inputStream;
     private final PrometheusMetricsWalker walker;
+    private final MetricFamilyFilter filter;
 
     /**
      * @param inputStream where the Prometheus metrics are that the walker will traverse.
      * @param theWalker the actual object that will be notified about the metrics as they are encountered
      */
     public PrometheusMetricsProcessor(InputStream inputStream, PrometheusMetricsWalker theWalker) {
+        this(inputStream, theWalker, null);
+    }
+
+    /**
+     * @param inputStream where the Prometheus metrics are that the walker will traverse.
+     * @param theWalker the actual object that will be notified about the metrics as they are encountered
+     * @param filter selects the metric families and metrics the walker will be notified about;
+     *               if null, all of them are
+     */
+    public PrometheusMetricsProcessor(InputStream inputStream, PrometheusMetricsWalker theWalker,
+            MetricFamilyFilter filter) {
         if (inputStream == null) {
             throw new IllegalArgumentException("Stream must not be null");
         }
@@ -32,6 +44,7 @@ public abstract class PrometheusMetricsProcessor<T> {
             throw new IllegalArgumentException("Walker must not be null");
         }
         this.walker = theWalker;
+        this.filter = (filter != null) ? filter : MetricFamilyFilter.ACCEPT_ALL;
     }
 
     /**
@@ -53,6 +66,15 @@ public abstract class PrometheusMetricsProcessor<T> {
             while (metricFamily != null) {
                 prometheus.types.MetricFamily convertedMetricFamily = convert(metricFamily);
 
+                // parsers that cannot filter while reading the data leave this to us
+                if (!filter.acceptsFamily(convertedMetricFamily.getName())) {
+                    metricFamily = parser.parse();
+                    continue;
+                }
+                if (filter.getLabelPredicate(convertedMetricFamily.getName()) != null) {
+                    convertedMetricFamily = filterMetrics(convertedMetricFamily);
+                }
+
                 // let the walker know we are traversing a new family of metrics
                 walker.walkMetricFamily(convertedMetricFamily, familyIndex++);
 
@@ -97,6 +119,19 @@ public abstract class PrometheusMetricsProcessor<T> {
         walker.walkFinish(familyIndex, totalMetrics);
     }
 
+    private MetricFamily filterMetrics(MetricFamily metricFamily) {
+        MetricFamily.Builder builder = new MetricFamily.Builder()
+                .setName(metricFamily.getName())
+                .setHelp(metricFamily.getHelp())
+                .setType(metricFamily.getType());
+        for (prometheus.types.Metric metric : metricFamily.getMetrics()) {
+            if (filter.acceptsMetric(metricFamily.getName(), metric.getLabels())) {
+                builder.addMetric(metric);
+            }
+        }
+        return builder.build();
+    }
+
     /**
      * @return the input stream where the metric family data in a specific data format is found
      */
@@ -111,6 +146,13 @@ public abstract class PrometheusMetricsProcessor<T> {
         return walker;
     }
 
+    /**
+     * @return the filter selecting the metric families and metrics the walker will be notified about
+     */
+    protected MetricFamilyFilter getFilter() {
+        return filter;
+    }
+
     /**
      * @return a new parser instance that can be used to parse the formatted data
      *         found in the {@link #getInputStream() input stream}.
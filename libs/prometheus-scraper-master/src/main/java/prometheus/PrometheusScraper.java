@@ -5,12 +5,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.List;
+import java.util.Locale;
 
 import org.jboss.logging.Logger;
-import prometheus.binary.BinaryPrometheusMetricsProcessor;
+import prometheus.binary.DelimitedProtobufMetricsProcessor;
+import prometheus.text.StreamingTextPrometheusMetricsProcessor;
+import prometheus.text.TextParserMode;
 import prometheus.text.TextPrometheusMetricsProcessor;
+import prometheus.transport.PrometheusTransport;
+import prometheus.transport.ScrapeResponse;
+import prometheus.transport.UrlConnectionTransport;
 import prometheus.types.MetricFamily;
 import prometheus.walkers.CollectorPrometheusMetricsWalker;
 import prometheus.walkers.PrometheusMetricsWalker;
@@ -22,9 +27,14 @@ import prometheus.walkers.PrometheusMetricsWalker;
  */
 public class PrometheusScraper {
     private static final Logger log = Logger.getLogger(PrometheusScraper.class);
+    private static final PrometheusTransport DEFAULT_TRANSPORT = new UrlConnectionTransport();
 
     private final URL url;
     private final PrometheusDataFormat knownDataFormat;
+    private TextParserMode textParserMode = TextParserMode.LINE;
+    private MetricFamilyFilter metricFamilyFilter = MetricFamilyFilter.ACCEPT_ALL;
+    private PrometheusTransport transport = DEFAULT_TRANSPORT;
+    private boolean binaryFormatPreferred = true;
 
     // see openConnection() for where this is used
     protected class OpenConnectionDetails {
@@ -129,26 +139,130 @@ public class PrometheusScraper {
 
             // if we were given a content type - we use it always. If we were not given a content type,
             // then use the one given to the constructor (if one was given).
-            if (contentType == null || contentType.contains("unknown")) {
+            if ((contentType == null || contentType.contains("unknown")) && this.knownDataFormat != null) {
                 contentType = this.knownDataFormat.getContentType();
             }
+            if (contentType == null) {
+                contentType = getTextFormatContentType();
+            }
 
             PrometheusMetricsProcessor<?> processor;
+            String mediaType = getMediaType(contentType);
 
-            if (contentType.contains("application/vnd.google.protobuf")) {
-                processor = new BinaryPrometheusMetricsProcessor(inputStream, walker);
-            } else if (contentType.contains("text/plain")) {
-                processor = new TextPrometheusMetricsProcessor(inputStream, walker);
+            // the protobuf exposition format is always a sequence of length-delimited MetricFamily messages,
+            // so every protobuf response is decoded as such, whether it carries the encoding parameter or not
+            if (mediaType.equals("application/vnd.google.protobuf")) {
+                processor = new DelimitedProtobufMetricsProcessor(inputStream, walker, metricFamilyFilter);
+            } else if (mediaType.equals("text/plain")) {
+                processor = createTextProcessor(inputStream, walker);
             } else {
                 // unknown - since all Prometheus endpoints are required to support text, try it
                 log.debugf("Unknown content type for URL [%s]. Trying text format.", url);
-                processor = new TextPrometheusMetricsProcessor(inputStream, walker);
+                processor = createTextProcessor(inputStream, walker);
             }
 
             processor.walk();
         }
     }
 
+    /**
+     * @return the parser used when the endpoint provides text data
+     */
+    public TextParserMode getTextParserMode() {
+        return textParserMode;
+    }
+
+    /**
+     * Selects the parser used when the endpoint provides text data. The default is {@link TextParserMode#LINE}.
+     *
+     * @param textParserMode the text parser to use
+     */
+    public void setTextParserMode(TextParserMode textParserMode) {
+        if (textParserMode == null) {
+            throw new IllegalArgumentException("Text parser mode must not be null");
+        }
+        this.textParserMode = textParserMode;
+    }
+
+    /**
+     * @return the filter selecting the metric families and metrics that are scraped
+     */
+    public MetricFamilyFilter getMetricFamilyFilter() {
+        return metricFamilyFilter;
+    }
+
+    /**
+     * Restricts the scrape to the metric families and metrics accepted by the given filter.
+     * With the {@link TextParserMode#STREAMING streaming} text parser the rejected data is skipped while it is read,
+     * so a narrow filter makes the scrape considerably cheaper.
+     *
+     * @param metricFamilyFilter the filter to use, or null to scrape everything
+     */
+    public void setMetricFamilyFilter(MetricFamilyFilter metricFamilyFilter) {
+        this.metricFamilyFilter = (metricFamilyFilter != null) ? metricFamilyFilter : MetricFamilyFilter.ACCEPT_ALL;
+    }
+
+    /**
+     * @return the transport used to fetch the data from HTTP endpoints
+     */
+    public PrometheusTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets the transport used to fetch the data from HTTP endpoints, typically a
+     * {@link prometheus.transport.PooledHttpTransport} shared by all the scrapers of the application.
+     * The scraper does not own the transport - it never closes it. URLs that are not HTTP (e.g. files)
+     * are always opened with a plain {@link java.net.URLConnection}.
+     *
+     * @param transport the transport to use, or null to open a new connection for each scrape
+     */
+    public void setTransport(PrometheusTransport transport) {
+        this.transport = (transport != null) ? transport : DEFAULT_TRANSPORT;
+    }
+
+    /**
+     * @return true if the delimited protocol buffers format is requested in preference to the text format
+     */
+    public boolean isBinaryFormatPreferred() {
+        return binaryFormatPreferred;
+    }
+
+    /**
+     * By default the scraper asks the endpoint for the delimited protocol buffers format, which is cheaper to decode,
+     * and accepts the text format from endpoints that do not offer it (e.g. Micrometer). Whatever the endpoint
+     * answers, the data is decoded according to the content type of its response.
+     *
+     * @param binaryFormatPreferred false to only ask for the text format
+     */
+    public void setBinaryFormatPreferred(boolean binaryFormatPreferred) {
+        this.binaryFormatPreferred = binaryFormatPreferred;
+    }
+
+    /**
+     * This is the value of the Accept header sent to the Prometheus endpoint.
+     *
+     * @return the formats accepted by the scraper, in order of preference
+     */
+    protected String getAcceptHeader() {
+        String text = getTextFormatContentType() + ";q=0.5,*/*;q=0.1";
+        return binaryFormatPreferred ? getBinaryFormatContentType() + ";q=0.7," + text : text;
+    }
+
+    // the type/subtype of a content type, without its parameters
+    private static String getMediaType(String contentType) {
+        int parametersStart = contentType.indexOf(';');
+        String mediaType = (parametersStart < 0) ? contentType : contentType.substring(0, parametersStart);
+        return mediaType.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private PrometheusMetricsProcessor<?> createTextProcessor(InputStream inputStream, PrometheusMetricsWalker walker) {
+        if (textParserMode == TextParserMode.STREAMING) {
+            return new StreamingTextPrometheusMetricsProcessor(inputStream, walker, metricFamilyFilter);
+        }
+        return new TextPrometheusMetricsProcessor(inputStream, walker, metricFamilyFilter);
+    }
+
     /**
      * This is the content type of the supported Prometheus binary format.
      * This can be used in the Accept header when making the HTTP request to the Prometheus endpoint.
@@ -156,7 +270,7 @@ public class PrometheusScraper {
      * @return binary format content type
      */
     protected String getBinaryFormatContentType() {
-        return "application/vnd.google.protobuf; proto=io.prometheus.client.MetricFamily; encoding=delimited";
+        return "application/vnd.google.protobuf;proto=io.prometheus.client.MetricFamily;encoding=delimited";
     }
 
     /**
@@ -166,7 +280,7 @@ public class PrometheusScraper {
      * @return text format content type
      */
     protected String getTextFormatContentType() {
-        return "text/plain; version 0.0.4";
+        return "text/plain;version=0.0.4";
     }
 
     /**
@@ -180,7 +294,7 @@ public class PrometheusScraper {
      * If subclasses return a null content type in the returned object the data format passed to this
      * object's constructor will be assumed as the data format in the input stream.
      *
-     * The default implementation is to simply open an unsecured connection to the URL.
+     * The default implementation fetches the data through the {@link #setTransport(PrometheusTransport) transport}.
      *
      * @param url the Prometheus endpoint
      * @return connection details for the Prometheus endpoint
@@ -188,10 +302,8 @@ public class PrometheusScraper {
      * @throws IOException if the connection could not be opened
      */
     protected OpenConnectionDetails openConnection(URL endpointUrl) throws IOException {
-        URLConnection conn = endpointUrl.openConnection();
-        conn.setRequestProperty("Accept", "application/*");
-        InputStream stream = conn.getInputStream();
-        String contentType = conn.getContentType();
-        return new OpenConnectionDetails(stream, contentType);
+        boolean http = endpointUrl.getProtocol().equals("http") || endpointUrl.getProtocol().equals("https");
+        ScrapeResponse response = (http ? transport : DEFAULT_TRANSPORT).fetch(endpointUrl, getAcceptHeader());
+        return new OpenConnectionDetails(response.getInputStream(), response.getContentType());
     }
 }
@@ -3,6 +3,7 @@ package prometheus;
 import java.net.URL;
 
 import org.jboss.logging.Logger.Level;
+import prometheus.text.TextParserMode;
 import prometheus.walkers.JSONPrometheusMetricsWalker;
 import prometheus.walkers.LoggingPrometheusMetricsWalker;
 import prometheus.walkers.PrometheusMetricsWalker;
@@ -26,6 +27,7 @@ public class PrometheusScraperCli {
         }
 
         PrometheusMetricsWalkerType walkerType = PrometheusMetricsWalkerType.SIMPLE;
+        TextParserMode textParserMode = TextParserMode.LINE;
         URL url = null;
 
         for (String arg : args) {
@@ -38,6 +40,8 @@ public class PrometheusScraperCli {
                     walkerType = PrometheusMetricsWalkerType.SIMPLE;
                 } else if (arg.equalsIgnoreCase("--log")) {
                     walkerType = PrometheusMetricsWalkerType.LOG;
+                } else if (arg.equalsIgnoreCase("--streaming")) {
+                    textParserMode = TextParserMode.STREAMING;
                 } else {
                     throw new Exception("Invalid argument: " + arg);
                 }
@@ -70,6 +74,7 @@ public class PrometheusScraperCli {
         }
 
         PrometheusScraper scraper = new PrometheusScraper(url);
+        scraper.setTextParserMode(textParserMode);
         scraper.scrape(walker);
     }
 
@@ -1,7 +1,16 @@
 package prometheus;
 
+import java.nio.charset.StandardCharsets;
+
 public class Util {
 
+    // exact powers of ten representable as doubles, used by the fast path of convertBytesToDouble
+    private static final double[] EXACT_POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
     public static double convertStringToDouble(String valueString) {
         double doubleValue;
         if (valueString.equalsIgnoreCase("NaN")) {
@@ -23,4 +32,114 @@ public class Util {
         }
         return String.format("%f", value);
     }
+
+    /**
+     * Same as {@link #convertStringToDouble(String)} but reads the value straight from a region of a byte array,
+     * so that parsers working on raw bytes do not need to build a String for every sample value.
+     *
+     * Decimal values with at most 15 significant digits and a small exponent (which covers what
+     * Prometheus clients usually emit) are converted without allocating. Anything else falls back to
+     * {@link Double#valueOf(String)}, so the result is always identical to {@link #convertStringToDouble(String)}.
+     *
+     * @param bytes the buffer containing the ASCII representation of the value
+     * @param start index of the first byte of the value
+     * @param end index after the last byte of the value
+     * @return the double value
+     * @throws NumberFormatException if the bytes are not a valid number
+     */
+    public static double convertBytesToDouble(byte[] bytes, int start, int end) {
+        int index = start;
+        boolean negative = false;
+        if (index < end && (bytes[index] == '+' || bytes[index] == '-')) {
+            negative = bytes[index] == '-';
+            index++;
+        }
+
+        if (end - index == 3) {
+            if (regionEqualsIgnoreCase(bytes, index, "Inf")) {
+                return negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+            }
+            if (regionEqualsIgnoreCase(bytes, index, "NaN")) {
+                return Double.NaN;
+            }
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean digitsFound = false;
+        boolean exact = true;
+
+        while (index < end && bytes[index] >= '0' && bytes[index] <= '9') {
+            if (significantDigits < 15) {
+                mantissa = mantissa * 10 + (bytes[index] - '0');
+                if (mantissa != 0) {
+                    significantDigits++;
+                }
+            } else {
+                exact = false;
+            }
+            digitsFound = true;
+            index++;
+        }
+        if (index < end && bytes[index] == '.') {
+            index++;
+            while (index < end && bytes[index] >= '0' && bytes[index] <= '9') {
+                if (significantDigits < 15) {
+                    mantissa = mantissa * 10 + (bytes[index] - '0');
+                    exponent--;
+                    if (mantissa != 0) {
+                        significantDigits++;
+                    }
+                } else {
+                    exact = false;
+                }
+                digitsFound = true;
+                index++;
+            }
+        }
+        if (digitsFound && index < end && (bytes[index] == 'e' || bytes[index] == 'E')) {
+            index++;
+            boolean negativeExponent = false;
+            if (index < end && (bytes[index] == '+' || bytes[index] == '-')) {
+                negativeExponent = bytes[index] == '-';
+                index++;
+            }
+            int explicitExponent = 0;
+            boolean exponentDigitsFound = false;
+            while (index < end && bytes[index] >= '0' && bytes[index] <= '9') {
+                if (explicitExponent < 1000) {
+                    explicitExponent = explicitExponent * 10 + (bytes[index] - '0');
+                }
+                exponentDigitsFound = true;
+                index++;
+            }
+            if (!exponentDigitsFound) {
+                exact = false;
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        if (!digitsFound || index != end || !exact || mantissa > MAX_EXACT_MANTISSA
+                || exponent < -22 || exponent > 22) {
+            // not a plain decimal we can convert exactly - let the JDK deal with it
+            return convertStringToDouble(new String(bytes, start, end - start, StandardCharsets.US_ASCII));
+        }
+
+        // both the mantissa and the power of ten are exact doubles, so a single division or multiplication
+        // is correctly rounded and gives the same result as Double.valueOf()
+        double value = (exponent < 0)
+                ? mantissa / EXACT_POWERS_OF_TEN[-exponent]
+                : mantissa * EXACT_POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    private static boolean regionEqualsIgnoreCase(byte[] bytes, int start, String expected) {
+        for (int i = 0; i < expected.length(); i++) {
+            if (Character.toLowerCase((char) bytes[start + i]) != Character.toLowerCase(expected.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -9,6 +9,7 @@ import io.prometheus.client.Metrics.Metric;
 import io.prometheus.client.Metrics.MetricFamily;
 import io.prometheus.client.Metrics.Quantile;
 import io.prometheus.client.Metrics.Summary;
+import prometheus.MetricFamilyFilter;
 import prometheus.PrometheusMetricsProcessor;
 import prometheus.types.MetricType;
 import prometheus.walkers.PrometheusMetricsWalker;
@@ -21,6 +22,11 @@ public class BinaryPrometheusMetricsProcessor extends PrometheusMetricsProcessor
         super(inputStream, theWalker);
     }
 
+    public BinaryPrometheusMetricsProcessor(InputStream inputStream, PrometheusMetricsWalker theWalker,
+            MetricFamilyFilter filter) {
+        super(inputStream, theWalker, filter);
+    }
+
     @Override
     public BinaryPrometheusMetricDataParser createPrometheusMetricDataParser() {
         return new BinaryPrometheusMetricDataParser(getInputStream());
@@ -0,0 +1,348 @@
+package prometheus.binary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+import org.jboss.logging.Logger;
+import prometheus.MetricFamilyFilter;
+import prometheus.PrometheusMetricDataParser;
+import prometheus.types.Counter;
+import prometheus.types.Gauge;
+import prometheus.types.Histogram;
+import prometheus.types.Metric;
+import prometheus.types.MetricFamily;
+import prometheus.types.MetricType;
+import prometheus.types.Summary;
+
+/**
+ * Decodes the delimited protocol buffers format straight into the common metric types. Unlike
+ * {@link BinaryPrometheusMetricDataParser}, which goes through the generated {@code io.prometheus.client.Metrics}
+ * classes, this reads the wire format field by field, so no intermediate protobuf objects are created. It also
+ * supports histograms, which the generated classes bundled with this library do not know about.
+ *
+ * The metric families are produced the same way the text parsers produce them: counter family names always end
+ * with {@code _total}, untyped families are reported as gauges and the histograms always have a {@code +Inf}
+ * bucket (which the protobuf format leaves implicit).
+ */
+public class DelimitedProtobufMetricDataParser extends PrometheusMetricDataParser<MetricFamily> {
+    private static final Logger log = Logger.getLogger(DelimitedProtobufMetricDataParser.class);
+
+    // field numbers from metrics.proto
+    private static final int FAMILY_NAME = 1;
+    private static final int FAMILY_HELP = 2;
+    private static final int FAMILY_TYPE = 3;
+    private static final int FAMILY_METRIC = 4;
+
+    private static final int METRIC_LABEL = 1;
+    private static final int METRIC_GAUGE = 2;
+    private static final int METRIC_COUNTER = 3;
+    private static final int METRIC_SUMMARY = 4;
+    private static final int METRIC_UNTYPED = 5;
+    private static final int METRIC_HISTOGRAM = 7;
+
+    private static final int TYPE_COUNTER = 0;
+    private static final int TYPE_GAUGE = 1;
+    private static final int TYPE_SUMMARY = 2;
+    private static final int TYPE_UNTYPED = 3;
+    private static final int TYPE_HISTOGRAM = 4;
+    private static final int TYPE_GAUGE_HISTOGRAM = 5;
+
+    private final MetricFamilyFilter filter;
+    private final ProtobufReader reader;
+
+    /**
+     * Provides the input stream where the parser will look for metric data.
+     * NOTE: this object will not own this stream - it will never attempt to close it.
+     *
+     * @param inputStream the stream where the metric data can be found
+     * @param filter selects the metric families and metrics to decode; if null, all of them are
+     */
+    public DelimitedProtobufMetricDataParser(InputStream inputStream, MetricFamilyFilter filter) {
+        super(inputStream);
+        this.filter = (filter != null) ? filter : MetricFamilyFilter.ACCEPT_ALL;
+        this.reader = new ProtobufReader(inputStream);
+    }
+
+    public DelimitedProtobufMetricDataParser(InputStream inputStream) {
+        this(inputStream, null);
+    }
+
+    @Override
+    public MetricFamily parse() throws IOException {
+        while (reader.hasMoreData()) {
+            long previousLimit = reader.pushLimit(reader.readVarint());
+            MetricFamily metricFamily = readMetricFamily();
+            reader.popLimit(previousLimit);
+            if (metricFamily != null) {
+                return metricFamily;
+            }
+            // the family was rejected by the filter - go on with the next one
+        }
+        return null;
+    }
+
+    private MetricFamily readMetricFamily() throws IOException {
+        String name = null;
+        String help = "";
+        int type = TYPE_COUNTER;
+        MetricFamily.Builder builder = null;
+        BiPredicate<String, String> labelPredicate = null;
+
+        while (!reader.isAtLimit()) {
+            int tag = reader.readTag();
+            switch (tag >>> 3) {
+                case FAMILY_NAME:
+                    name = reader.readString();
+                    break;
+                case FAMILY_HELP:
+                    help = reader.readString();
+                    break;
+                case FAMILY_TYPE:
+                    type = (int) reader.readVarint();
+                    break;
+                case FAMILY_METRIC:
+                    if (builder == null) {
+                        // name and type precede the metrics, so we can now decide whether we want this family
+                        builder = createFamilyBuilder(name, type);
+                        if (builder == null) {
+                            return null;
+                        }
+                        labelPredicate = filter.getLabelPredicate(getFamilyName(name, type));
+                    }
+                    long previousLimit = reader.pushLimit(reader.readVarint());
+                    Metric metric = readMetric(getFamilyName(name, type), type, labelPredicate);
+                    reader.popLimit(previousLimit);
+                    if (metric != null) {
+                        builder.addMetric(metric);
+                    }
+                    break;
+                default:
+                    reader.skipField(tag);
+            }
+        }
+
+        if (builder == null) {
+            builder = createFamilyBuilder(name, type); // a family without metrics
+            if (builder == null) {
+                return null;
+            }
+        }
+        return builder.setHelp(help).build();
+    }
+
+    private MetricFamily.Builder createFamilyBuilder(String name, int type) throws IOException {
+        if (name == null) {
+            throw new IOException("Metric family without a name");
+        }
+        String familyName = getFamilyName(name, type);
+        MetricType metricType = getMetricType(type);
+        if (metricType == null) {
+            log.debugf("Metric family [%s] has an unsupported type [%d] - it will be ignored", familyName, type);
+            return null;
+        }
+        if (!filter.acceptsFamily(familyName)) {
+            return null;
+        }
+        return new MetricFamily.Builder().setName(familyName).setType(metricType);
+    }
+
+    /**
+     * @return the decoded metric, or null if it was rejected by the label predicate
+     */
+    private Metric readMetric(String familyName, int type, BiPredicate<String, String> labelPredicate)
+            throws IOException {
+        Map<String, String> labels = new LinkedHashMap<>();
+        double value = Double.NaN;
+        Summary.Builder summaryBuilder = null;
+        Histogram.Builder histogramBuilder = null;
+
+        while (!reader.isAtLimit()) {
+            int tag = reader.readTag();
+            switch (tag >>> 3) {
+                case METRIC_LABEL: {
+                    long previousLimit = reader.pushLimit(reader.readVarint());
+                    String labelName = "";
+                    String labelValue = "";
+                    while (!reader.isAtLimit()) {
+                        int labelTag = reader.readTag();
+                        if (labelTag >>> 3 == 1) {
+                            labelName = reader.readString();
+                        } else if (labelTag >>> 3 == 2) {
+                            labelValue = reader.readString();
+                        } else {
+                            reader.skipField(labelTag);
+                        }
+                    }
+                    reader.popLimit(previousLimit);
+                    if (labelPredicate != null && !labelPredicate.test(labelName, labelValue)) {
+                        return null;
+                    }
+                    labels.put(labelName, labelValue);
+                    break;
+                }
+                case METRIC_GAUGE:
+                case METRIC_COUNTER:
+                case METRIC_UNTYPED:
+                    value = readValue();
+                    break;
+                case METRIC_SUMMARY:
+                    summaryBuilder = readSummary();
+                    break;
+                case METRIC_HISTOGRAM:
+                    histogramBuilder = readHistogram();
+                    break;
+                default:
+                    reader.skipField(tag); // e.g. the timestamp, which is NOT supported
+            }
+        }
+
+        Metric.Builder<?> metricBuilder;
+        switch (getMetricType(type)) {
+            case COUNTER:
+                metricBuilder = new Counter.Builder().setValue(value);
+                break;
+            case GAUGE:
+                metricBuilder = new Gauge.Builder().setValue(value);
+                break;
+            case SUMMARY:
+                metricBuilder = (summaryBuilder != null) ? summaryBuilder : new Summary.Builder();
+                break;
+            default:
+                metricBuilder = (histogramBuilder != null) ? histogramBuilder : new Histogram.Builder();
+                break;
+        }
+        return metricBuilder.setName(familyName).addLabels(labels).build();
+    }
+
+    // reads a Gauge, Counter or Untyped message: they all hold their value in field 1
+    private double readValue() throws IOException {
+        double value = Double.NaN;
+        long previousLimit = reader.pushLimit(reader.readVarint());
+        while (!reader.isAtLimit()) {
+            int tag = reader.readTag();
+            if (tag >>> 3 == 1) {
+                value = reader.readDouble();
+            } else {
+                reader.skipField(tag);
+            }
+        }
+        reader.popLimit(previousLimit);
+        return value;
+    }
+
+    private Summary.Builder readSummary() throws IOException {
+        Summary.Builder builder = new Summary.Builder();
+        long previousLimit = reader.pushLimit(reader.readVarint());
+        while (!reader.isAtLimit()) {
+            int tag = reader.readTag();
+            switch (tag >>> 3) {
+                case 1:
+                    builder.setSampleCount(reader.readVarint());
+                    break;
+                case 2:
+                    builder.setSampleSum(reader.readDouble());
+                    break;
+                case 3: {
+                    double quantile = Double.NaN;
+                    double quantileValue = Double.NaN;
+                    long quantileLimit = reader.pushLimit(reader.readVarint());
+                    while (!reader.isAtLimit()) {
+                        int quantileTag = reader.readTag();
+                        if (quantileTag >>> 3 == 1) {
+                            quantile = reader.readDouble();
+                        } else if (quantileTag >>> 3 == 2) {
+                            quantileValue = reader.readDouble();
+                        } else {
+                            reader.skipField(quantileTag);
+                        }
+                    }
+                    reader.popLimit(quantileLimit);
+                    builder.addQuantile(quantile, quantileValue);
+                    break;
+                }
+                default:
+                    reader.skipField(tag);
+            }
+        }
+        reader.popLimit(previousLimit);
+        return builder;
+    }
+
+    private Histogram.Builder readHistogram() throws IOException {
+        Histogram.Builder builder = new Histogram.Builder();
+        long sampleCount = 0;
+        double lastUpperBound = Double.NaN;
+        long previousLimit = reader.pushLimit(reader.readVarint());
+        while (!reader.isAtLimit()) {
+            int tag = reader.readTag();
+            switch (tag >>> 3) {
+                case 1:
+                    sampleCount = reader.readVarint();
+                    break;
+                case 2:
+                    builder.setSampleSum(reader.readDouble());
+                    break;
+                case 4:
+                    sampleCount = (long) reader.readDouble(); // sample_count_float
+                    break;
+                case 3: {
+                    long cumulativeCount = 0;
+                    double upperBound = Double.NaN;
+                    long bucketLimit = reader.pushLimit(reader.readVarint());
+                    while (!reader.isAtLimit()) {
+                        int bucketTag = reader.readTag();
+                        if (bucketTag >>> 3 == 1) {
+                            cumulativeCount = reader.readVarint();
+                        } else if (bucketTag >>> 3 == 4) {
+                            cumulativeCount = (long) reader.readDouble(); // cumulative_count_float
+                        } else if (bucketTag >>> 3 == 2) {
+                            upperBound = reader.readDouble();
+                        } else {
+                            reader.skipField(bucketTag); // e.g. the exemplar
+                        }
+                    }
+                    reader.popLimit(bucketLimit);
+                    builder.addBucket(upperBound, cumulativeCount);
+                    lastUpperBound = upperBound;
+                    break;
+                }
+                default:
+                    reader.skipField(tag); // e.g. the native histogram fields
+            }
+        }
+        reader.popLimit(previousLimit);
+
+        builder.setSampleCount(sampleCount);
+        if (lastUpperBound != Double.POSITIVE_INFINITY) {
+            builder.addBucket(Double.POSITIVE_INFINITY, sampleCount);
+        }
+        return builder;
+    }
+
+    private static String getFamilyName(String name, int type) {
+        if (type == TYPE_COUNTER && !name.endsWith("_total")) {
+            return name + "_total";
+        }
+        return name;
+    }
+
+    private static MetricType getMetricType(int type) {
+        switch (type) {
+            case TYPE_COUNTER:
+                return MetricType.COUNTER;
+            case TYPE_GAUGE:
+            case TYPE_UNTYPED:
+                return MetricType.GAUGE;
+            case TYPE_SUMMARY:
+                return MetricType.SUMMARY;
+            case TYPE_HISTOGRAM:
+            case TYPE_GAUGE_HISTOGRAM:
+                return MetricType.HISTOGRAM;
+            default:
+                return null;
+        }
+    }
+}
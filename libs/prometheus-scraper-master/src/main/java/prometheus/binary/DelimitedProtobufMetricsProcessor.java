@@ -0,0 +1,34 @@
+package prometheus.binary;
+
+import java.io.InputStream;
+
+import prometheus.MetricFamilyFilter;
+import prometheus.PrometheusMetricsProcessor;
+import prometheus.types.MetricFamily;
+import prometheus.walkers.PrometheusMetricsWalker;
+
+/**
+ * This will iterate over a list of Prometheus metrics that are given as delimited protocol buffer data,
+ * decoding them straight into the common metric types with a {@link DelimitedProtobufMetricDataParser}.
+ */
+public class DelimitedProtobufMetricsProcessor extends PrometheusMetricsProcessor<MetricFamily> {
+    public DelimitedProtobufMetricsProcessor(InputStream inputStream, PrometheusMetricsWalker theWalker) {
+        super(inputStream, theWalker);
+    }
+
+    public DelimitedProtobufMetricsProcessor(InputStream inputStream, PrometheusMetricsWalker theWalker,
+            MetricFamilyFilter filter) {
+        super(inputStream, theWalker, filter);
+    }
+
+    @Override
+    public DelimitedProtobufMetricDataParser createPrometheusMetricDataParser() {
+        return new DelimitedProtobufMetricDataParser(getInputStream(), getFilter());
+    }
+
+    @Override
+    protected MetricFamily convert(MetricFamily metricFamily) {
+        return metricFamily; // no conversion necessary - the parser already uses the common api
+    }
+
+}
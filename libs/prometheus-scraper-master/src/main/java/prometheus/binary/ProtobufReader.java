@@ -0,0 +1,163 @@
+package prometheus.binary;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A minimal reader of the protocol buffers wire format. It reads the stream through a reusable buffer and lets the
+ * caller decode the fields it is interested in one at a time, so no intermediate message objects are created.
+ * Nested messages are handled by {@link #pushLimit(long) pushing} the end of the message as the current limit.
+ */
+class ProtobufReader {
+    static final int WIRETYPE_VARINT = 0;
+    static final int WIRETYPE_FIXED64 = 1;
+    static final int WIRETYPE_LENGTH_DELIMITED = 2;
+    static final int WIRETYPE_FIXED32 = 5;
+
+    private final InputStream inputStream;
+    private final byte[] buffer = new byte[8 * 1024];
+    private int bufferPosition;
+    private int bufferLimit;
+    private long bufferOffset; // position in the stream of the first byte of the buffer
+    private long limit = Long.MAX_VALUE;
+
+    ProtobufReader(InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    /**
+     * @return true if there is more data in the stream
+     */
+    boolean hasMoreData() throws IOException {
+        return bufferPosition < bufferLimit || fill();
+    }
+
+    /**
+     * @return true if the end of the current message has been reached
+     */
+    boolean isAtLimit() {
+        return getPosition() >= limit;
+    }
+
+    /**
+     * Makes the next {@code length} bytes the current message.
+     *
+     * @return the previous limit, to be restored with {@link #popLimit(long)}
+     */
+    long pushLimit(long length) throws IOException {
+        long newLimit = getPosition() + length;
+        if (length < 0 || newLimit > limit) {
+            throw new IOException("Invalid message length: " + length);
+        }
+        long previousLimit = limit;
+        limit = newLimit;
+        return previousLimit;
+    }
+
+    /**
+     * Skips what is left of the current message and restores the previous limit.
+     */
+    void popLimit(long previousLimit) throws IOException {
+        skip(limit - getPosition());
+        limit = previousLimit;
+    }
+
+    int readTag() throws IOException {
+        return (int) readVarint();
+    }
+
+    long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    double readDouble() throws IOException {
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits |= (long) readByte() << (8 * i);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    String readString() throws IOException {
+        int length = (int) readVarint();
+        if (length < 0 || getPosition() + length > limit) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        if (bufferLimit - bufferPosition >= length) {
+            String value = new String(buffer, bufferPosition, length, StandardCharsets.UTF_8);
+            bufferPosition += length;
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) readByte();
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    void skipField(int tag) throws IOException {
+        switch (tag & 0x7) {
+            case WIRETYPE_VARINT:
+                readVarint();
+                break;
+            case WIRETYPE_FIXED64:
+                skip(8);
+                break;
+            case WIRETYPE_LENGTH_DELIMITED:
+                skip(readVarint());
+                break;
+            case WIRETYPE_FIXED32:
+                skip(4);
+                break;
+            default:
+                throw new IOException("Unsupported wire type in tag " + tag);
+        }
+    }
+
+    private long getPosition() {
+        return bufferOffset + bufferPosition;
+    }
+
+    private int readByte() throws IOException {
+        if (bufferPosition == bufferLimit && !fill()) {
+            throw new EOFException("Unexpected end of the protocol buffers data");
+        }
+        return buffer[bufferPosition++] & 0xff;
+    }
+
+    private void skip(long length) throws IOException {
+        while (length > 0) {
+            if (bufferPosition == bufferLimit && !fill()) {
+                throw new EOFException("Unexpected end of the protocol buffers data");
+            }
+            int skipped = (int) Math.min(length, bufferLimit - bufferPosition);
+            bufferPosition += skipped;
+            length -= skipped;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        bufferOffset += bufferLimit;
+        bufferPosition = 0;
+        bufferLimit = 0;
+        int read;
+        do {
+            read = inputStream.read(buffer, 0, buffer.length);
+        } while (read == 0);
+        if (read < 0) {
+            return false;
+        }
+        bufferLimit = read;
+        return true;
+    }
+}
@@ -0,0 +1,696 @@
+package prometheus.text;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+import org.jboss.logging.Logger;
+import prometheus.MetricFamilyFilter;
+import prometheus.PrometheusMetricDataParser;
+import prometheus.Util;
+import prometheus.types.Counter;
+import prometheus.types.Gauge;
+import prometheus.types.Histogram;
+import prometheus.types.Metric;
+import prometheus.types.MetricFamily;
+import prometheus.types.MetricType;
+import prometheus.types.Summary;
+
+/**
+ * A streaming alternative to {@link TextPrometheusMetricDataParser}. It produces the same metric families,
+ * but rather than turning every line into a String and every sample into a {@link TextSample}, it reads the
+ * stream through a reusable byte window, tokenizes each line in place and converts the sample values directly
+ * from the bytes. Names and label values are deduplicated through a {@link TextTokenCache}, and samples are
+ * folded into their metric builders as soon as they are read. Allocation is therefore proportional to the
+ * number of metrics found, not to the number of lines (e.g. the buckets of a histogram) in the stream.
+ *
+ * A {@link MetricFamilyFilter} can be given to the parser: the lines of rejected families are skipped as soon as
+ * their metric name is recognized, and samples with a rejected label are dropped before their value is read.
+ *
+ * The only intentional differences from the line-based parser are that the HELP text of the metric families
+ * is always filled in, and that a HELP line following the TYPE line of a counter no longer loses its samples.
+ */
+public class StreamingTextPrometheusMetricDataParser extends PrometheusMetricDataParser<MetricFamily> {
+    private static final Logger log = Logger.getLogger(StreamingTextPrometheusMetricDataParser.class);
+
+    private static final int DEFAULT_WINDOW_SIZE = 8 * 1024;
+
+    // what a sample line contributes to the metric it belongs to
+    private static final int SAMPLE_VALUE = 0; // counter/gauge value, summary quantile or histogram bucket
+    private static final int SAMPLE_COUNT = 1;
+    private static final int SAMPLE_SUM = 2;
+
+    // the byte window over the input stream: [windowPosition, windowLimit) holds data not yet split into lines
+    private byte[] window;
+    private int windowPosition;
+    private int windowLimit;
+    private boolean endOfStream;
+
+    // the line currently being processed, as a region of the window
+    private int lineStart;
+    private int lineEnd;
+    private boolean pendingLine; // set when the current line starts the next metric family
+
+    private final MetricFamilyFilter filter;
+    private final TextTokenCache tokens = new TextTokenCache();
+    private byte[] unescapeBuffer = new byte[64];
+
+    // the labels of the sample line being processed, minus the "le" and "quantile" pseudo-labels
+    private String[] labelNames = new String[8];
+    private String[] labelValues = new String[8];
+    private int labelCount;
+    private boolean pseudoLabelFound;
+    private double pseudoLabelValue;
+    private final LabelSet labelSetProbe = new LabelSet();
+
+    // the metric family being built up
+    private String familyName;
+    private String familyBaseName; // the name as found in the HELP/TYPE lines
+    private String familyHelp;
+    private MetricType familyType;
+    private boolean familySkipped; // rejected by the filter
+    private BiPredicate<String, String> familyLabelPredicate;
+    private final Map<LabelSet, Metric.Builder<?>> familyBuilders = new LinkedHashMap<>();
+    private LabelSet lastLabelSet;
+    private Metric.Builder<?> lastBuilder;
+
+    /**
+     * Provides the input stream where the parser will look for metric data.
+     * NOTE: this object will not own this stream - it should never attempt to close it.
+     *
+     * @param inputStream the stream where the metric data can be found
+     */
+    public StreamingTextPrometheusMetricDataParser(InputStream inputStream) {
+        this(inputStream, null);
+    }
+
+    /**
+     * @param inputStream the stream where the metric data can be found
+     * @param filter selects the metric families and metrics to parse; if null, all of them are
+     */
+    public StreamingTextPrometheusMetricDataParser(InputStream inputStream, MetricFamilyFilter filter) {
+        this(inputStream, filter, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param inputStream the stream where the metric data can be found
+     * @param filter selects the metric families and metrics to parse; if null, all of them are
+     * @param windowSize the initial size of the byte window; it grows if a single line does not fit in it
+     */
+    public StreamingTextPrometheusMetricDataParser(InputStream inputStream, MetricFamilyFilter filter,
+            int windowSize) {
+        super(inputStream);
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Window size must be positive");
+        }
+        this.filter = (filter != null) ? filter : MetricFamilyFilter.ACCEPT_ALL;
+        this.window = new byte[windowSize];
+    }
+
+    @Override
+    public MetricFamily parse() throws IOException {
+        while (true) {
+            MetricFamily metricFamily = parseFamily();
+            if (metricFamily != null || !familySkipped) {
+                return metricFamily;
+            }
+            // the family was rejected by the filter - go on with the next one
+        }
+    }
+
+    // returns null either at the end of the stream or if the family was rejected by the filter
+    private MetricFamily parseFamily() throws IOException {
+        clearFamily();
+
+        // if we were previously called, the first line of this family has already been read
+        if (pendingLine) {
+            pendingLine = false;
+        } else if (!nextLine()) {
+            return null;
+        }
+
+        // do a quick check to see if we are getting passed in binary format rather than text
+        if (lineEnd > lineStart && window[lineStart] < 0) {
+            throw new IOException("Doesn't look like the metric data is in text format");
+        }
+
+        do {
+            int start = lineStart;
+            int end = lineEnd;
+            while (start < end && window[start] <= ' ') {
+                start++;
+            }
+            while (end > start && window[end - 1] <= ' ') {
+                end--;
+            }
+            if (start == end) {
+                continue; // ignore blank lines
+            }
+
+            boolean sameFamily;
+            try {
+                sameFamily = (window[start] == '#') ? processCommentLine(start, end) : processSampleLine(start, end);
+            } catch (Exception e) {
+                log.debugf("Failed to process line - it will be ignored: %s", lineToString(start, end));
+                sameFamily = true;
+            }
+
+            if (!sameFamily) {
+                // we are hitting a new metric family; we'll start from this line the next time we are called
+                pendingLine = true;
+                break;
+            }
+        } while (nextLine());
+
+        if (familyName == null || familySkipped) {
+            return null;
+        }
+        return finishFamily();
+    }
+
+    /**
+     * @return false if the line belongs to the next metric family
+     */
+    private boolean processCommentLine(int start, int end) {
+        if (start + 1 >= end || !isWhitespace(window[start + 1])) {
+            return true; // just a comment
+        }
+        int keywordStart = skipWhitespace(start + 1, end);
+        int keywordEnd = skipToken(keywordStart, end);
+        boolean help = regionEquals(keywordStart, keywordEnd, "HELP");
+        if (!help && !regionEquals(keywordStart, keywordEnd, "TYPE")) {
+            return true; // just a comment
+        }
+
+        int nameStart = skipWhitespace(keywordEnd, end);
+        int nameEnd = skipToken(nameStart, end);
+        if (nameStart == nameEnd) {
+            return true;
+        }
+        int restStart = skipWhitespace(nameEnd, end);
+
+        if (familyName != null && !regionEquals(nameStart, nameEnd, familyBaseName)
+                && !regionEquals(nameStart, nameEnd, familyName)) {
+            return false;
+        }
+
+        if (help) {
+            if (familyName == null) {
+                startFamily(tokens.get(window, nameStart, nameEnd), MetricType.GAUGE); // default if no TYPE
+            }
+            familyHelp = unescape(restStart, end, false, false);
+        } else {
+            MetricType type = parseType(restStart, skipToken(restStart, end));
+            if (type == null) {
+                log.debugf("Unsupported metric type - it will be ignored: %s", lineToString(start, end));
+                return true;
+            }
+            startFamily(familyName == null ? tokens.get(window, nameStart, nameEnd) : familyBaseName, type);
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the line belongs to the next metric family
+     */
+    private boolean processSampleLine(int start, int end) {
+        int nameEnd = start;
+        while (nameEnd < end && window[nameEnd] != '{' && !isWhitespace(window[nameEnd])) {
+            nameEnd++;
+        }
+
+        int sampleKind = (familyName == null) ? -1 : matchSampleName(start, nameEnd);
+        if (sampleKind < 0) {
+            if (familyName != null) {
+                return false;
+            }
+            log.debugf("Ignoring an unexpected metric: %s", lineToString(start, end));
+            return true;
+        }
+        if (familySkipped) {
+            return true;
+        }
+
+        labelCount = 0;
+        pseudoLabelFound = false;
+        int position = skipWhitespace(nameEnd, end);
+        if (position < end && window[position] == '{') {
+            position = parseLabels(position + 1, end);
+            if (position < 0) {
+                return true; // rejected by the filter
+            }
+        }
+
+        int valueStart = skipWhitespace(position, end);
+        int valueEnd = skipToken(valueStart, end); // anything after the value is a timestamp - NOT supported
+        double value = Util.convertBytesToDouble(window, valueStart, valueEnd);
+
+        addSample(sampleKind, value);
+        return true;
+    }
+
+    // returns the position after the labels, or -1 if a label was rejected by the filter
+    private int parseLabels(int position, int end) {
+        while (true) {
+            position = skipWhitespace(position, end);
+            if (position >= end) {
+                throw new IllegalStateException("Unterminated labels");
+            }
+            if (window[position] == '}') {
+                return position + 1;
+            }
+
+            int nameStart = position;
+            while (position < end && window[position] != '=' && window[position] != '}'
+                    && !isWhitespace(window[position])) {
+                position++;
+            }
+            int nameEnd = position;
+            position = skipWhitespace(position, end);
+            if (position < end && window[position] == '}') {
+                return position + 1; // a label without a value is ignored
+            }
+            if (position >= end || window[position] != '=') {
+                throw new IllegalStateException("Invalid label");
+            }
+            position = skipWhitespace(position + 1, end);
+            if (position >= end || window[position] != '"') {
+                throw new IllegalStateException("Invalid label value");
+            }
+
+            int valueStart = ++position;
+            boolean escaped = false;
+            while (position < end && window[position] != '"') {
+                if (window[position] == '\\') {
+                    escaped = true;
+                    position++;
+                }
+                position++;
+            }
+            if (position >= end) {
+                throw new IllegalStateException("Unterminated label value");
+            }
+            int valueEnd = position++;
+
+            if (!addLabel(nameStart, nameEnd, valueStart, valueEnd, escaped)) {
+                return -1;
+            }
+
+            position = skipWhitespace(position, end);
+            if (position < end && window[position] == ',') {
+                position++;
+            } else if (position < end && window[position] == '}') {
+                return position + 1;
+            } else {
+                throw new IllegalStateException("Invalid labels");
+            }
+        }
+    }
+
+    // returns false if the label was rejected by the filter
+    private boolean addLabel(int nameStart, int nameEnd, int valueStart, int valueEnd, boolean escaped) {
+        // the quantile and le labels are not "real" labels - they identify a part of a summary or histogram
+        if ((familyType == MetricType.SUMMARY && regionEquals(nameStart, nameEnd, "quantile"))
+                || (familyType == MetricType.HISTOGRAM && regionEquals(nameStart, nameEnd, "le"))) {
+            pseudoLabelFound = true;
+            pseudoLabelValue = escaped
+                    ? Util.convertStringToDouble(unescape(valueStart, valueEnd, true, false))
+                    : Util.convertBytesToDouble(window, valueStart, valueEnd);
+            return true;
+        }
+
+        String name = tokens.get(window, nameStart, nameEnd);
+        String value = escaped ? unescape(valueStart, valueEnd, true, true) : tokens.get(window, valueStart, valueEnd);
+        if (familyLabelPredicate != null && !familyLabelPredicate.test(name, value)) {
+            return false;
+        }
+
+        for (int i = 0; i < labelCount; i++) {
+            if (labelNames[i].equals(name)) {
+                labelValues[i] = value;
+                return true;
+            }
+        }
+        if (labelCount == labelNames.length) {
+            labelNames = Arrays.copyOf(labelNames, labelCount * 2);
+            labelValues = Arrays.copyOf(labelValues, labelCount * 2);
+        }
+        labelNames[labelCount] = name;
+        labelValues[labelCount] = value;
+        labelCount++;
+        return true;
+    }
+
+    private void addSample(int sampleKind, double value) {
+        switch (familyType) {
+            case COUNTER:
+                familyBuilders.put(newLabelSet(),
+                        addLabels(new Counter.Builder().setName(familyName).setValue(value)));
+                break;
+            case GAUGE:
+                familyBuilders.put(newLabelSet(),
+                        addLabels(new Gauge.Builder().setName(familyName).setValue(value)));
+                break;
+            case SUMMARY: {
+                Summary.Builder builder = (Summary.Builder) findBuilder();
+                if (builder == null) {
+                    builder = addLabels(new Summary.Builder().setName(familyName));
+                    putBuilder(builder);
+                }
+                if (sampleKind == SAMPLE_COUNT) {
+                    builder.setSampleCount((long) value);
+                } else if (sampleKind == SAMPLE_SUM) {
+                    builder.setSampleSum(value);
+                } else if (pseudoLabelFound) {
+                    builder.addQuantile(pseudoLabelValue, value);
+                } else {
+                    log.debugf("Summary quantile sample is missing the 'quantile' label: %s",
+                            lineToString(lineStart, lineEnd));
+                }
+                break;
+            }
+            case HISTOGRAM: {
+                Histogram.Builder builder = (Histogram.Builder) findBuilder();
+                if (builder == null) {
+                    builder = addLabels(new Histogram.Builder().setName(familyName));
+                    putBuilder(builder);
+                }
+                if (sampleKind == SAMPLE_COUNT) {
+                    builder.setSampleCount((long) value);
+                } else if (sampleKind == SAMPLE_SUM) {
+                    builder.setSampleSum(value);
+                } else if (pseudoLabelFound) {
+                    builder.addBucket(pseudoLabelValue, (long) value);
+                } else {
+                    log.debugf("Histogram bucket sample is missing the 'le' label: %s",
+                            lineToString(lineStart, lineEnd));
+                }
+                break;
+            }
+        }
+    }
+
+    private <B extends Metric.Builder<?>> B addLabels(B builder) {
+        for (int i = 0; i < labelCount; i++) {
+            builder.addLabel(labelNames[i], labelValues[i]);
+        }
+        return builder;
+    }
+
+    // looks up the builder of the metric identified by the current labels; the samples of a summary or
+    // histogram are normally adjacent, so the builder used for the previous line is checked first
+    private Metric.Builder<?> findBuilder() {
+        labelSetProbe.set(labelNames, labelValues, labelCount);
+        if (lastLabelSet != null && lastLabelSet.equals(labelSetProbe)) {
+            return lastBuilder;
+        }
+        Metric.Builder<?> builder = familyBuilders.get(labelSetProbe);
+        if (builder != null) {
+            lastLabelSet = labelSetProbe.copy();
+            lastBuilder = builder;
+        }
+        return builder;
+    }
+
+    private void putBuilder(Metric.Builder<?> builder) {
+        lastLabelSet = newLabelSet();
+        lastBuilder = builder;
+        familyBuilders.put(lastLabelSet, builder);
+    }
+
+    private LabelSet newLabelSet() {
+        labelSetProbe.set(labelNames, labelValues, labelCount);
+        return labelSetProbe.copy();
+    }
+
+    private void startFamily(String baseName, MetricType type) {
+        familyBaseName = baseName;
+        familyType = type;
+        if (type == MetricType.COUNTER && !baseName.endsWith("_total")) {
+            familyName = baseName + "_total";
+        } else {
+            familyName = baseName;
+        }
+        familySkipped = !filter.acceptsFamily(familyName);
+        familyLabelPredicate = filter.getLabelPredicate(familyName);
+    }
+
+    private void clearFamily() {
+        familyName = null;
+        familyBaseName = null;
+        familyHelp = "";
+        familyType = null;
+        familySkipped = false;
+        familyLabelPredicate = null;
+        familyBuilders.clear();
+        lastLabelSet = null;
+        lastBuilder = null;
+    }
+
+    private MetricFamily finishFamily() {
+        MetricFamily.Builder metricFamilyBuilder = new MetricFamily.Builder()
+                .setName(familyName)
+                .setHelp(familyHelp)
+                .setType(familyType);
+
+        for (Metric.Builder<?> builder : familyBuilders.values()) {
+            try {
+                metricFamilyBuilder.addMetric(builder.build());
+            } catch (Exception e) {
+                log.debugf(e, "Error building metric for metric family [%s] - it will be ignored", familyName);
+            }
+        }
+
+        return metricFamilyBuilder.build();
+    }
+
+    /**
+     * @return the kind of the sample if the name belongs to the current family, -1 otherwise
+     */
+    private int matchSampleName(int start, int end) {
+        int familyNameLength = familyName.length();
+        if (end - start < familyNameLength || !regionEquals(start, start + familyNameLength, familyName)) {
+            return -1;
+        }
+        int suffixStart = start + familyNameLength;
+        switch (familyType) {
+            case COUNTER:
+            case GAUGE:
+                return (suffixStart == end) ? SAMPLE_VALUE : -1;
+            case SUMMARY:
+                if (suffixStart == end) {
+                    return SAMPLE_VALUE;
+                }
+                break;
+            case HISTOGRAM:
+                if (regionEquals(suffixStart, end, "_bucket")) {
+                    return SAMPLE_VALUE;
+                }
+                break;
+        }
+        if (regionEquals(suffixStart, end, "_count")) {
+            return SAMPLE_COUNT;
+        }
+        if (regionEquals(suffixStart, end, "_sum")) {
+            return SAMPLE_SUM;
+        }
+        return -1;
+    }
+
+    private MetricType parseType(int start, int end) {
+        if (regionEqualsIgnoreCase(start, end, "counter")) {
+            return MetricType.COUNTER;
+        } else if (regionEqualsIgnoreCase(start, end, "gauge") || regionEqualsIgnoreCase(start, end, "untyped")) {
+            return MetricType.GAUGE;
+        } else if (regionEqualsIgnoreCase(start, end, "summary")) {
+            return MetricType.SUMMARY;
+        } else if (regionEqualsIgnoreCase(start, end, "histogram")) {
+            return MetricType.HISTOGRAM;
+        }
+        return null;
+    }
+
+    /**
+     * Makes the next line of the stream the current line, reading more data into the window when needed.
+     *
+     * @return false if there are no more lines
+     */
+    private boolean nextLine() throws IOException {
+        int scanPosition = windowPosition;
+        while (true) {
+            // Prometheus end of line character is a newline
+            for (int i = scanPosition; i < windowLimit; i++) {
+                if (window[i] == '\n') {
+                    lineStart = windowPosition;
+                    lineEnd = i;
+                    windowPosition = i + 1;
+                    return true;
+                }
+            }
+
+            if (endOfStream) {
+                if (windowPosition == windowLimit) {
+                    return false;
+                }
+                lineStart = windowPosition;
+                lineEnd = windowLimit;
+                windowPosition = windowLimit;
+                return true;
+            }
+
+            // no complete line left in the window - make room for more data and read it
+            int remaining = windowLimit - windowPosition;
+            if (windowPosition > 0) {
+                System.arraycopy(window, windowPosition, window, 0, remaining);
+                windowPosition = 0;
+                windowLimit = remaining;
+            } else if (windowLimit == window.length) {
+                window = Arrays.copyOf(window, window.length * 2);
+            }
+            scanPosition = windowLimit;
+
+            int read = getInputStream().read(window, windowLimit, window.length - windowLimit);
+            if (read < 0) {
+                endOfStream = true;
+            } else {
+                windowLimit += read;
+            }
+        }
+    }
+
+    private String unescape(int start, int end, boolean labelValue, boolean cache) {
+        if (unescapeBuffer.length < end - start) {
+            unescapeBuffer = new byte[end - start];
+        }
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            byte b = window[i];
+            if (b == '\\' && i + 1 < end) {
+                byte next = window[++i];
+                if (next == '\\') {
+                    unescapeBuffer[length++] = '\\';
+                } else if (next == 'n') {
+                    unescapeBuffer[length++] = '\n';
+                } else if (next == '"' && labelValue) {
+                    unescapeBuffer[length++] = '"';
+                } else {
+                    unescapeBuffer[length++] = '\\';
+                    unescapeBuffer[length++] = next;
+                }
+            } else {
+                unescapeBuffer[length++] = b;
+            }
+        }
+        return cache
+                ? tokens.get(unescapeBuffer, 0, length)
+                : new String(unescapeBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private String lineToString(int start, int end) {
+        return new String(window, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private int skipWhitespace(int position, int end) {
+        while (position < end && isWhitespace(window[position])) {
+            position++;
+        }
+        return position;
+    }
+
+    private int skipToken(int position, int end) {
+        while (position < end && !isWhitespace(window[position])) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    // metric and label names are ASCII, so they can be compared with the window byte by byte
+    private boolean regionEquals(int start, int end, String expected) {
+        if (end - start != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (window[start + i] != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean regionEqualsIgnoreCase(int start, int end, String expected) {
+        if (end - start != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (Character.toLowerCase((char) window[start + i]) != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The identity of a metric within its family. The parser keeps a single mutable instance to probe
+     * the builders map, and only copies it when a new metric is found.
+     */
+    private static class LabelSet {
+        private String[] names;
+        private String[] values;
+        private int size;
+        private int hash;
+
+        void set(String[] names, String[] values, int size) {
+            this.names = names;
+            this.values = values;
+            this.size = size;
+            int h = 1;
+            for (int i = 0; i < size; i++) {
+                h = 31 * h + names[i].hashCode();
+                h = 31 * h + values[i].hashCode();
+            }
+            this.hash = h;
+        }
+
+        LabelSet copy() {
+            LabelSet copy = new LabelSet();
+            copy.names = Arrays.copyOf(names, size);
+            copy.values = Arrays.copyOf(values, size);
+            copy.size = size;
+            copy.hash = hash;
+            return copy;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof LabelSet)) {
+                return false;
+            }
+            LabelSet other = (LabelSet) obj;
+            if (hash != other.hash || size != other.size) {
+                return false;
+            }
+            for (int i = 0; i < size; i++) {
+                if (!names[i].equals(other.names[i]) || !values[i].equals(other.values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package prometheus.text;
+
+import java.io.InputStream;
+
+import prometheus.MetricFamilyFilter;
+import prometheus.PrometheusMetricsProcessor;
+import prometheus.types.MetricFamily;
+import prometheus.walkers.PrometheusMetricsWalker;
+
+/**
+ * This will iterate over a list of Prometheus metrics that are given as text data,
+ * using the {@link StreamingTextPrometheusMetricDataParser}.
+ */
+public class StreamingTextPrometheusMetricsProcessor extends PrometheusMetricsProcessor<MetricFamily> {
+    public StreamingTextPrometheusMetricsProcessor(InputStream inputStream, PrometheusMetricsWalker theWalker) {
+        super(inputStream, theWalker);
+    }
+
+    public StreamingTextPrometheusMetricsProcessor(InputStream inputStream, PrometheusMetricsWalker theWalker,
+            MetricFamilyFilter filter) {
+        super(inputStream, theWalker, filter);
+    }
+
+    @Override
+    public StreamingTextPrometheusMetricDataParser createPrometheusMetricDataParser() {
+        return new StreamingTextPrometheusMetricDataParser(getInputStream(), getFilter());
+    }
+
+    @Override
+    protected MetricFamily convert(MetricFamily metricFamily) {
+        return metricFamily; // no conversion necessary - our text parser already uses the common api
+    }
+
+}
@@ -0,0 +1,16 @@
+package prometheus.text;
+
+/**
+ * The parsers that can be used to read Prometheus text data.
+ */
+public enum TextParserMode {
+    /**
+     * The original line based parser, see {@link TextPrometheusMetricDataParser}.
+     */
+    LINE,
+
+    /**
+     * The streaming parser that tokenizes the data in place, see {@link StreamingTextPrometheusMetricDataParser}.
+     */
+    STREAMING
+}
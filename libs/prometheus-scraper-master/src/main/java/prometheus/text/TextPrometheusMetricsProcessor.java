@@ -2,6 +2,7 @@ package prometheus.text;
 
 import java.io.InputStream;
 
+import prometheus.MetricFamilyFilter;
 import prometheus.PrometheusMetricsProcessor;
 import prometheus.types.MetricFamily;
 import prometheus.walkers.PrometheusMetricsWalker;
@@ -14,6 +15,11 @@ public class TextPrometheusMetricsProcessor extends PrometheusMetricsProcessor<M
         super(inputStream, theWalker);
     }
 
+    public TextPrometheusMetricsProcessor(InputStream inputStream, PrometheusMetricsWalker theWalker,
+            MetricFamilyFilter filter) {
+        super(inputStream, theWalker, filter);
+    }
+
     @Override
     public TextPrometheusMetricDataParser createPrometheusMetricDataParser() {
         return new TextPrometheusMetricDataParser(getInputStream());
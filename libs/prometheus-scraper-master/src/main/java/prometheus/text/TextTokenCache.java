@@ -0,0 +1,92 @@
+package prometheus.text;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Deduplicates the strings produced while tokenizing Prometheus text data. Tokens are looked up by their raw
+ * bytes, so a String is only created the first time a given metric name, label name or label value is seen.
+ * Subsequent occurrences (e.g. the labels repeated on every bucket line of a histogram) return the same instance
+ * without allocating.
+ *
+ * This is a simple open addressing table. It is not thread safe - each parser owns its own cache.
+ */
+class TextTokenCache {
+    // very long tokens are unlikely to repeat, so they are not worth keeping around
+    private static final int MAX_CACHED_TOKEN_LENGTH = 256;
+    private static final int MAX_ENTRIES = 1 << 14;
+
+    private byte[][] keys = new byte[256][];
+    private String[] values = new String[256];
+    private int[] hashes = new int[256];
+    private int size;
+
+    /**
+     * @param bytes the buffer containing the token
+     * @param start index of the first byte of the token
+     * @param end index after the last byte of the token
+     * @return the token decoded as UTF-8
+     */
+    public String get(byte[] bytes, int start, int end) {
+        int length = end - start;
+        if (length == 0) {
+            return "";
+        }
+        if (length > MAX_CACHED_TOKEN_LENGTH) {
+            return new String(bytes, start, length, StandardCharsets.UTF_8);
+        }
+
+        int hash = hash(bytes, start, end);
+        int mask = keys.length - 1;
+        int index = hash & mask;
+        byte[] key;
+        while ((key = keys[index]) != null) {
+            if (hashes[index] == hash && Arrays.equals(key, 0, key.length, bytes, start, end)) {
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+
+        String value = new String(bytes, start, length, StandardCharsets.UTF_8);
+        if (size < MAX_ENTRIES) {
+            keys[index] = Arrays.copyOfRange(bytes, start, end);
+            values[index] = value;
+            hashes[index] = hash;
+            if (++size * 2 > keys.length) {
+                resize();
+            }
+        }
+        return value;
+    }
+
+    private void resize() {
+        byte[][] oldKeys = keys;
+        String[] oldValues = values;
+        int[] oldHashes = hashes;
+
+        keys = new byte[oldKeys.length * 2][];
+        values = new String[oldKeys.length * 2];
+        hashes = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int index = oldHashes[i] & mask;
+                while (keys[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+                hashes[index] = oldHashes[i];
+            }
+        }
+    }
+
+    private static int hash(byte[] bytes, int start, int end) {
+        int hash = 1;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,93 @@
+package prometheus.transport;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A snapshot of the usage statistics of a {@link PooledHttpTransport}.
+ */
+public class PoolStats {
+    private final int maxConnectionsPerHost;
+    private final Map<String, Integer> activeConnectionsPerHost;
+    private final long requests;
+    private final long failures;
+    private final long timeouts;
+    private final long poolWaits;
+    private final long compressedResponses;
+    private final long bytesReceived;
+
+    public PoolStats(int maxConnectionsPerHost, Map<String, Integer> activeConnectionsPerHost, long requests,
+            long failures, long timeouts, long poolWaits, long compressedResponses, long bytesReceived) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.activeConnectionsPerHost = Collections.unmodifiableMap(activeConnectionsPerHost);
+        this.requests = requests;
+        this.failures = failures;
+        this.timeouts = timeouts;
+        this.poolWaits = poolWaits;
+        this.compressedResponses = compressedResponses;
+        this.bytesReceived = bytesReceived;
+    }
+
+    /**
+     * @return the maximum number of connections that can be open at the same time towards a single host
+     */
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * @return for each host that has been scraped, the number of connections currently in use
+     */
+    public Map<String, Integer> getActiveConnectionsPerHost() {
+        return activeConnectionsPerHost;
+    }
+
+    /**
+     * @return the total number of scrapes requested
+     */
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return the number of scrapes that failed, timeouts included
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the number of scrapes that did not complete before their deadline
+     */
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * @return the number of scrapes that had to wait for a connection because the pool of the host was exhausted
+     */
+    public long getPoolWaits() {
+        return poolWaits;
+    }
+
+    /**
+     * @return the number of responses that were received gzip compressed
+     */
+    public long getCompressedResponses() {
+        return compressedResponses;
+    }
+
+    /**
+     * @return the number of bytes received on the wire, before decompression
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PoolStats[requests=%d, failures=%d, timeouts=%d, poolWaits=%d, compressedResponses=%d, "
+                + "bytesReceived=%d, activeConnectionsPerHost=%s]", requests, failures, timeouts, poolWaits,
+                compressedResponses, bytesReceived, activeConnectionsPerHost);
+    }
+}
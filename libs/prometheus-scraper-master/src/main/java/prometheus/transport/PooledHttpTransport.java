@@ -0,0 +1,238 @@
+package prometheus.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+import org.jboss.logging.Logger;
+
+/**
+ * A transport backed by a single {@link HttpClient}, meant to be shared by all the scrapers of an application.
+ * Connections are kept alive and reused across scrapes, responses are requested gzip compressed, and
+ * every scrape has a deadline covering the wait for a connection, the connection setup and the download of the data.
+ *
+ * The number of connections open at the same time towards a single host is bounded: each scrape holds one of the
+ * host's permits until its response has been fully received, so with HTTP/1.1 no more than
+ * {@link Builder#setMaxConnectionsPerHost(int) maxConnectionsPerHost} connections are ever opened to a host.
+ */
+public class PooledHttpTransport implements PrometheusTransport {
+    private static final Logger log = Logger.getLogger(PooledHttpTransport.class);
+
+    public static class Builder {
+        private Duration connectTimeout = Duration.ofSeconds(2);
+        private Duration readTimeout = Duration.ofSeconds(5);
+        private int maxConnectionsPerHost = 4;
+        private boolean gzip = true;
+
+        /**
+         * @param connectTimeout how long to wait for a connection, either from the pool or a new one
+         */
+        public Builder setConnectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * @param readTimeout how long to wait for the whole response once connected
+         */
+        public Builder setReadTimeout(Duration readTimeout) {
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        public Builder setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        /**
+         * @param gzip whether to ask the endpoints for gzip compressed responses
+         */
+        public Builder setGzip(boolean gzip) {
+            this.gzip = gzip;
+            return this;
+        }
+
+        public PooledHttpTransport build() {
+            return new PooledHttpTransport(this);
+        }
+    }
+
+    private final Duration connectTimeout;
+    private final Duration readTimeout;
+    private final int maxConnectionsPerHost;
+    private final boolean gzip;
+    private final ExecutorService executor;
+    private final HttpClient client;
+
+    private final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder poolWaits = new LongAdder();
+    private final LongAdder compressedResponses = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+
+    protected PooledHttpTransport(Builder builder) {
+        if (builder.connectTimeout == null || builder.connectTimeout.isNegative() || builder.connectTimeout.isZero()) {
+            throw new IllegalArgumentException("Connect timeout must be positive");
+        }
+        if (builder.readTimeout == null || builder.readTimeout.isNegative() || builder.readTimeout.isZero()) {
+            throw new IllegalArgumentException("Read timeout must be positive");
+        }
+        if (builder.maxConnectionsPerHost <= 0) {
+            throw new IllegalArgumentException("Max connections per host must be positive");
+        }
+        this.connectTimeout = builder.connectTimeout;
+        this.readTimeout = builder.readTimeout;
+        this.maxConnectionsPerHost = builder.maxConnectionsPerHost;
+        this.gzip = builder.gzip;
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "prometheus-transport");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build();
+    }
+
+    @Override
+    public ScrapeResponse fetch(URL url, String acceptHeader) throws IOException {
+        return fetch(url, acceptHeader, connectTimeout, readTimeout);
+    }
+
+    /**
+     * Same as {@link #fetch(URL, String)}, with deadlines specific to this request.
+     *
+     * @param connectTimeout how long to wait for a connection; the setup of a new connection is also bounded
+     *                       by the connect timeout of the transport
+     * @param readTimeout how long to wait for the whole response once connected
+     */
+    public ScrapeResponse fetch(URL url, String acceptHeader, Duration connectTimeout, Duration readTimeout)
+            throws IOException {
+        requests.increment();
+        long deadline = System.nanoTime() + connectTimeout.toNanos() + readTimeout.toNanos();
+        String host = getHostKey(url);
+        Semaphore permits = hostPermits.computeIfAbsent(host, key -> new Semaphore(maxConnectionsPerHost, true));
+
+        try {
+            if (!permits.tryAcquire()) {
+                poolWaits.increment();
+                if (!permits.tryAcquire(connectTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                    throw new HttpTimeoutException("No connection to " + host + " available within " + connectTimeout);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failures.increment();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to " + host);
+        } catch (HttpTimeoutException e) {
+            failures.increment();
+            timeouts.increment();
+            throw e;
+        }
+
+        try {
+            HttpResponse<byte[]> response = send(url, acceptHeader, deadline);
+            if (response.statusCode() < 200 || response.statusCode() >= 300) {
+                throw new IOException("Unexpected HTTP status " + response.statusCode() + " from " + url);
+            }
+
+            byte[] body = response.body();
+            bytesReceived.add(body.length);
+            InputStream stream = new ByteArrayInputStream(body);
+            if (response.headers().firstValue("Content-Encoding").filter("gzip"::equalsIgnoreCase).isPresent()) {
+                compressedResponses.increment();
+                stream = new GZIPInputStream(stream);
+            }
+            return new ScrapeResponse(stream, response.headers().firstValue("Content-Type").orElse(null));
+        } catch (IOException e) {
+            failures.increment();
+            if (e instanceof HttpTimeoutException) {
+                timeouts.increment();
+            }
+            throw e;
+        } finally {
+            permits.release();
+        }
+    }
+
+    private HttpResponse<byte[]> send(URL url, String acceptHeader, long deadline) throws IOException {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(url.toURI())
+                    .timeout(Duration.ofNanos(Math.max(1, deadline - System.nanoTime())))
+                    .header("Accept", acceptHeader)
+                    .header("Accept-Encoding", gzip ? "gzip" : "identity")
+                    .GET()
+                    .build();
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL: " + url, e);
+        }
+
+        CompletableFuture<HttpResponse<byte[]>> future = client.sendAsync(request,
+                HttpResponse.BodyHandlers.ofByteArray());
+        try {
+            return future.get(Math.max(1, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new HttpTimeoutException("Scraping " + url + " did not complete in time");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while scraping " + url);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to scrape " + url, e.getCause());
+        }
+    }
+
+    /**
+     * @return the current usage statistics of the transport
+     */
+    public PoolStats getStats() {
+        Map<String, Integer> activeConnectionsPerHost = new TreeMap<>();
+        hostPermits.forEach((host, permits) ->
+                activeConnectionsPerHost.put(host, maxConnectionsPerHost - permits.availablePermits()));
+        return new PoolStats(maxConnectionsPerHost, activeConnectionsPerHost, requests.sum(), failures.sum(),
+                timeouts.sum(), poolWaits.sum(), compressedResponses.sum(), bytesReceived.sum());
+    }
+
+    @Override
+    public void close() {
+        log.debugf("Closing transport: %s", getStats());
+        executor.shutdownNow();
+    }
+
+    private static String getHostKey(URL url) {
+        int port = (url.getPort() == -1) ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol() + "://" + url.getHost() + ":" + port;
+    }
+}
@@ -0,0 +1,28 @@
+package prometheus.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Fetches the metric data exposed by a Prometheus endpoint.
+ * A transport can be shared by several {@link prometheus.PrometheusScraper scrapers},
+ * so implementations must be thread safe.
+ */
+public interface PrometheusTransport extends Closeable {
+
+    /**
+     * @param url the Prometheus endpoint
+     * @param acceptHeader the value of the Accept header to send to the endpoint
+     * @return the response of the endpoint; the caller must close it
+     * @throws IOException if the data could not be fetched
+     */
+    ScrapeResponse fetch(URL url, String acceptHeader) throws IOException;
+
+    /**
+     * Releases the resources held by the transport.
+     */
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,38 @@
+package prometheus.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The data returned by a Prometheus endpoint, already decompressed.
+ */
+public class ScrapeResponse implements Closeable {
+    private final InputStream inputStream;
+    private final String contentType;
+
+    /**
+     * @param inputStream the metric data
+     * @param contentType the content type of the data, or null if unknown
+     */
+    public ScrapeResponse(InputStream inputStream, String contentType) {
+        if (inputStream == null) {
+            throw new IllegalArgumentException("Stream must not be null");
+        }
+        this.inputStream = inputStream;
+        this.contentType = contentType;
+    }
+
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+}
@@ -0,0 +1,19 @@
+package prometheus.transport;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * Opens a new {@link URLConnection} for each scrape. This works with any kind of URL (including files)
+ * and is what the scraper uses when no other transport is configured.
+ */
+public class UrlConnectionTransport implements PrometheusTransport {
+
+    @Override
+    public ScrapeResponse fetch(URL url, String acceptHeader) throws IOException {
+        URLConnection conn = url.openConnection();
+        conn.setRequestProperty("Accept", acceptHeader);
+        return new ScrapeResponse(conn.getInputStream(), conn.getContentType());
+    }
+}
@@ -0,0 +1,112 @@
+package it.polimi.ramses.snapshotdelta;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+// Encodes the snapshots sent to a single receiver, remembering the last snapshot sent for each instance.
+// The subclasses create the deltas and the endpoint metrics of their side of the wire.
+public abstract class AbstractSnapshotDeltaEncoder<S, T extends MetricsSnapshotView<S, E, C>, E extends EndpointMetricsView<O>,
+        O extends OutcomeMetricsView, C, D extends MetricsSnapshotDelta<S, E, C>> {
+    private final int keyframeInterval;
+    // Map<InstanceId, EncodedInstance>
+    private final Map<String, EncodedInstance<T>> encodedInstances = new HashMap<>();
+
+    private static class EncodedInstance<T> {
+        private T lastSnapshot;
+        private long sequence;
+        private int deltasSinceKeyframe;
+    }
+
+    // A keyframe is sent for an instance after keyframeInterval deltas
+    protected AbstractSnapshotDeltaEncoder(int keyframeInterval) {
+        if (keyframeInterval <= 0)
+            throw new IllegalArgumentException("The keyframe interval must be positive");
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    // An empty delta of the snapshot. The fields shared by every side of the wire are set by the encoder
+    protected abstract D newDelta(T snapshot);
+
+    // Endpoint metrics without any outcome
+    protected abstract E newEndpointMetrics(String endpoint, String httpMethod);
+
+    public synchronized D encode(T snapshot) {
+        EncodedInstance<T> encodedInstance = encodedInstances.computeIfAbsent(snapshot.getInstanceId(), instanceId -> new EncodedInstance<>());
+        T base = encodedInstance.lastSnapshot;
+        boolean keyframe = base == null || encodedInstance.deltasSinceKeyframe >= keyframeInterval;
+
+        D delta = newDelta(snapshot);
+        delta.setServiceId(snapshot.getServiceId());
+        delta.setInstanceId(snapshot.getInstanceId());
+        delta.setSequence(++encodedInstance.sequence);
+        delta.setKeyframe(keyframe);
+        delta.setStatus(snapshot.getStatus());
+        delta.setCpuUsage(snapshot.getCpuUsage());
+        delta.setDiskTotalSpace(snapshot.getDiskTotalSpace());
+        delta.setDiskFreeSpace(snapshot.getDiskFreeSpace());
+        delta.setTimestamp(snapshot.getTimestamp());
+
+        if (keyframe) {
+            delta.getHttpMetrics().putAll(snapshot.getHttpMetrics());
+            delta.getCircuitBreakerMetrics().putAll(snapshot.getCircuitBreakerMetrics());
+            encodedInstance.deltasSinceKeyframe = 0;
+        } else {
+            snapshot.getHttpMetrics().forEach((endpointId, endpointMetrics) -> {
+                E baseMetrics = base.getHttpMetrics().get(endpointId);
+                E changedMetrics = getChangedOutcomes(baseMetrics, endpointMetrics);
+                if (changedMetrics != null)
+                    delta.getHttpMetrics().put(endpointId, changedMetrics);
+                Set<String> removedOutcomes = getRemovedOutcomes(baseMetrics, endpointMetrics);
+                if (!removedOutcomes.isEmpty())
+                    delta.getRemovedOutcomes().put(endpointId, removedOutcomes);
+            });
+            base.getHttpMetrics().keySet().stream().filter(endpointId -> !snapshot.getHttpMetrics().containsKey(endpointId)).forEach(delta.getRemovedHttpMetrics()::add);
+            snapshot.getCircuitBreakerMetrics().forEach((circuitBreakerName, circuitBreakerMetrics) -> {
+                if (!circuitBreakerMetrics.equals(base.getCircuitBreakerMetrics().get(circuitBreakerName)))
+                    delta.getCircuitBreakerMetrics().put(circuitBreakerName, circuitBreakerMetrics);
+            });
+            base.getCircuitBreakerMetrics().keySet().stream().filter(circuitBreakerName -> !snapshot.getCircuitBreakerMetrics().containsKey(circuitBreakerName)).forEach(delta.getRemovedCircuitBreakerMetrics()::add);
+            encodedInstance.deltasSinceKeyframe++;
+        }
+        encodedInstance.lastSnapshot = snapshot;
+        return delta;
+    }
+
+    // The next snapshot of every instance is sent as a keyframe
+    public synchronized void reset() {
+        encodedInstances.clear();
+    }
+
+    // Returns the endpoint with only the outcomes that differ from the base endpoint, or null if none does
+    private E getChangedOutcomes(E base, E current) {
+        if (base == null)
+            return current;
+        E changedMetrics = null;
+        for (Map.Entry<String, O> outcome : current.getOutcomeMetrics().entrySet()) {
+            if (isSameOutcome(base.getOutcomeMetrics().get(outcome.getKey()), outcome.getValue()))
+                continue;
+            if (changedMetrics == null)
+                changedMetrics = newEndpointMetrics(current.getEndpoint(), current.getHttpMethod());
+            changedMetrics.getOutcomeMetrics().put(outcome.getKey(), outcome.getValue());
+        }
+        return changedMetrics;
+    }
+
+    // Returns the outcomes of the base endpoint that the current endpoint no longer has (e.g., after a restart of the instance)
+    private Set<String> getRemovedOutcomes(E base, E current) {
+        Set<String> removedOutcomes = new HashSet<>();
+        if (base != null)
+            base.getOutcomeMetrics().keySet().stream().filter(outcome -> !current.getOutcomeMetrics().containsKey(outcome)).forEach(removedOutcomes::add);
+        return removedOutcomes;
+    }
+
+    private static boolean isSameOutcome(OutcomeMetricsView a, OutcomeMetricsView b) {
+        return a != null && Objects.equals(a.getOutcome(), b.getOutcome()) && a.getStatus() == b.getStatus() && a.getCount() == b.getCount()
+                && Double.compare(a.getTotalDuration(), b.getTotalDuration()) == 0 && Double.compare(a.getMaxDuration(), b.getMaxDuration()) == 0
+                && Arrays.equals(a.getBucketBounds(), b.getBucketBounds()) && Arrays.equals(a.getBucketCounts(), b.getBucketCounts());
+    }
+}
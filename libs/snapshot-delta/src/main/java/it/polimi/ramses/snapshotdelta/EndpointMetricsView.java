@@ -0,0 +1,11 @@
+package it.polimi.ramses.snapshotdelta;
+
+import java.util.Map;
+
+// The metrics of an http endpoint, as read by the SnapshotDeltaEncoder
+public interface EndpointMetricsView<O extends OutcomeMetricsView> {
+    String getEndpoint();
+    String getHttpMethod();
+    // Map<OutcomeStatus, OutcomeMetrics>
+    Map<String, O> getOutcomeMetrics();
+}
@@ -0,0 +1,142 @@
+package it.polimi.ramses.snapshotdelta;
+
+import java.util.*;
+
+// A snapshot encoded against the previous snapshot of the same instance. A keyframe carries all the metrics, a delta
+// only the http outcomes and the circuit breakers changed since the previous snapshot, and the keys of the removed
+// ones (including the outcomes removed from the endpoints that are kept). The scalar fields are always set.
+// Each side of the wire extends it with its own metrics classes, so that the deltas are (de)serialized into them.
+public class MetricsSnapshotDelta<S, E, C> {
+    private String serviceId;
+    private String instanceId;
+    // Position of the snapshot in the sequence of snapshots of the instance. A delta applies to the snapshot with the previous sequence number
+    private long sequence;
+    private boolean keyframe;
+
+    private S status;
+    private Double cpuUsage;
+    private Double diskTotalSpace;
+    private Double diskFreeSpace;
+    private Date timestamp;
+
+    // Map<HTTP-Method@endpoint, HttpRequestMetrics>, holding only the changed outcomes of each endpoint
+    private Map<String, E> httpMetrics = new HashMap<>();
+    private Set<String> removedHttpMetrics = new HashSet<>();
+    // Map<HTTP-Method@endpoint, outcomes removed from the endpoint>, for the endpoints that are not removed
+    private Map<String, Set<String>> removedOutcomes = new HashMap<>();
+    // Map<CircuitBreakerName, CircuitBreakerMetrics>
+    private Map<String, C> circuitBreakerMetrics = new HashMap<>();
+    private Set<String> removedCircuitBreakerMetrics = new HashSet<>();
+
+    public String getServiceId() {
+        return serviceId;
+    }
+
+    public void setServiceId(String serviceId) {
+        this.serviceId = serviceId;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public void setInstanceId(String instanceId) {
+        this.instanceId = instanceId;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public boolean isKeyframe() {
+        return keyframe;
+    }
+
+    public void setKeyframe(boolean keyframe) {
+        this.keyframe = keyframe;
+    }
+
+    public S getStatus() {
+        return status;
+    }
+
+    public void setStatus(S status) {
+        this.status = status;
+    }
+
+    public Double getCpuUsage() {
+        return cpuUsage;
+    }
+
+    public void setCpuUsage(Double cpuUsage) {
+        this.cpuUsage = cpuUsage;
+    }
+
+    public Double getDiskTotalSpace() {
+        return diskTotalSpace;
+    }
+
+    public void setDiskTotalSpace(Double diskTotalSpace) {
+        this.diskTotalSpace = diskTotalSpace;
+    }
+
+    public Double getDiskFreeSpace() {
+        return diskFreeSpace;
+    }
+
+    public void setDiskFreeSpace(Double diskFreeSpace) {
+        this.diskFreeSpace = diskFreeSpace;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(Date timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public Map<String, E> getHttpMetrics() {
+        return httpMetrics;
+    }
+
+    public void setHttpMetrics(Map<String, E> httpMetrics) {
+        this.httpMetrics = httpMetrics;
+    }
+
+    public Set<String> getRemovedHttpMetrics() {
+        return removedHttpMetrics;
+    }
+
+    public void setRemovedHttpMetrics(Set<String> removedHttpMetrics) {
+        this.removedHttpMetrics = removedHttpMetrics;
+    }
+
+    public Map<String, Set<String>> getRemovedOutcomes() {
+        return removedOutcomes;
+    }
+
+    public void setRemovedOutcomes(Map<String, Set<String>> removedOutcomes) {
+        this.removedOutcomes = removedOutcomes;
+    }
+
+    public Map<String, C> getCircuitBreakerMetrics() {
+        return circuitBreakerMetrics;
+    }
+
+    public void setCircuitBreakerMetrics(Map<String, C> circuitBreakerMetrics) {
+        this.circuitBreakerMetrics = circuitBreakerMetrics;
+    }
+
+    public Set<String> getRemovedCircuitBreakerMetrics() {
+        return removedCircuitBreakerMetrics;
+    }
+
+    public void setRemovedCircuitBreakerMetrics(Set<String> removedCircuitBreakerMetrics) {
+        this.removedCircuitBreakerMetrics = removedCircuitBreakerMetrics;
+    }
+}
@@ -0,0 +1,20 @@
+package it.polimi.ramses.snapshotdelta;
+
+import java.util.Date;
+import java.util.Map;
+
+// A snapshot of the metrics of an instance, as read by the SnapshotDeltaEncoder.
+// S is the status of the instance, E the metrics of an http endpoint and C the metrics of a circuit breaker.
+public interface MetricsSnapshotView<S, E extends EndpointMetricsView<?>, C> {
+    String getServiceId();
+    String getInstanceId();
+    S getStatus();
+    Double getCpuUsage();
+    Double getDiskTotalSpace();
+    Double getDiskFreeSpace();
+    Date getTimestamp();
+    // Map<HTTP-Method@endpoint, HttpRequestMetrics>
+    Map<String, E> getHttpMetrics();
+    // Map<CircuitBreakerName, CircuitBreakerMetrics>
+    Map<String, C> getCircuitBreakerMetrics();
+}
@@ -0,0 +1,12 @@
+package it.polimi.ramses.snapshotdelta;
+
+// The metrics of an outcome of an http endpoint, as read by the SnapshotDeltaEncoder
+public interface OutcomeMetricsView {
+    String getOutcome();
+    int getStatus();
+    long getCount();
+    double getTotalDuration();
+    double getMaxDuration();
+    double[] getBucketBounds();
+    long[] getBucketCounts();
+}
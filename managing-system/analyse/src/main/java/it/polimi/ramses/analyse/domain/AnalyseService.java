@@ -7,6 +7,10 @@ import it.polimi.ramses.knowledge.domain.Modules;
 import it.polimi.ramses.knowledge.domain.adaptation.specifications.QoSSpecification;
 import it.polimi.ramses.knowledge.domain.adaptation.specifications.Availability;
 import it.polimi.ramses.knowledge.domain.adaptation.specifications.AverageResponseTime;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.LoadSpecification;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.PercentileResponseTime;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.Throughput;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.Utilization;
 import it.polimi.ramses.knowledge.domain.adaptation.specifications.Vulnerability;
 import it.polimi.ramses.knowledge.domain.adaptation.values.QoSCollection;
 import it.polimi.ramses.knowledge.domain.adaptation.values.QoSHistory;
@@ -14,16 +18,29 @@ import it.polimi.ramses.knowledge.domain.architecture.Instance;
 import it.polimi.ramses.knowledge.domain.architecture.InstanceStatus;
 import it.polimi.ramses.knowledge.domain.architecture.Service;
 import it.polimi.ramses.knowledge.domain.architecture.ServiceConfiguration;
-import it.polimi.ramses.knowledge.domain.metrics.HttpEndpointMetrics;
-import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceWindowStats;
+import it.polimi.ramses.knowledge.domain.metrics.LatencyHistogram;
+import it.polimi.ramses.knowledge.rest.api.ServicesMapCache;
 import it.polimi.ramses.knowledge.rest.api.UpdateServiceQosCollectionRequest;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Clock;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
 
 @Getter
 @Setter
@@ -38,6 +55,13 @@ public class AnalyseService {
     private double unreachableRateThreshold;
     private double qosSatisfactionRate;
     private long maxBootTimeSeconds;
+    // Number of threads analysing the services. With 1, the services are analysed one after the other
+    @Setter(AccessLevel.NONE)
+    private int analysisParallelism;
+    // Directory where the inputs of each analysis are recorded (see AnalysisRecording). Empty to disable the recording
+    private String recordingDir;
+    // Fixed when replaying recorded inputs (see ParallelAnalysisRegressionTest)
+    private Clock clock = Clock.systemUTC();
 
     // Variables to temporary store the new values specified by an admin until they are applied during the next loop iteration
     private Integer newMetricsWindowSize;
@@ -70,16 +94,35 @@ public class AnalyseService {
     @Autowired
     private PlanClient planClient;
 
+    @Autowired
+    private RequestRateForecaster requestRateForecaster;
+
+    // The services are not copied, although the analysis adds the new QoS values to them: the same values are sent to
+    // the Knowledge, so the services come back with them with the next changes. If the analysis fails, the cache is
+    // invalidated, dropping the values that may not have been sent
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private ServicesMapCache servicesMapCache;
+
+    // Null if the services are analysed one after the other
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private ForkJoinPool analysisPool;
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private final ObjectMapper recordingMapper = Jackson2ObjectMapperBuilder.json().build();
+
     public AnalyseService(
         @Value("${ANALYSIS_WINDOW_SIZE}") int analysisWindowSize,
         @Value("${METRICS_WINDOW_SIZE}") int metricsWindowSize,
         @Value("${FAILURE_RATE_THRESHOLD}") double failureRateThreshold,
         @Value("${UNREACHABLE_RATE_THRESHOLD}") double unreachableRateThreshold,
         @Value("${QOS_SATISFACTION_RATE}") double qosSatisfactionRate,
-        @Value("${MAX_BOOT_TIME_SECONDS}") long maxBootTimeSeconds
+        @Value("${MAX_BOOT_TIME_SECONDS}") long maxBootTimeSeconds,
+        @Value("${ANALYSIS_PARALLELISM}") int analysisParallelism,
+        @Value("${ANALYSIS_RECORDING_DIR}") String recordingDir
     ) {
         if (analysisWindowSize < 1)
             throw new IllegalArgumentException("Analysis window size must be greater than 0");
+        if (analysisWindowSize > QoSHistory.CAPACITY)
+            throw new IllegalArgumentException("Analysis window size must not be greater than " + QoSHistory.CAPACITY + ", the number of values kept in the QoS histories");
         if (metricsWindowSize < 2)
             throw new IllegalArgumentException("Metrics window size must be greater than 1.");
         if (failureRateThreshold < 0 || failureRateThreshold > 1)
@@ -92,28 +135,57 @@ public class AnalyseService {
             throw new IllegalArgumentException("Qos satisfaction rate must be between 0 and 1.");
         if (maxBootTimeSeconds < 1)
             throw new IllegalArgumentException("Max boot time seconds must be greater than 0.");
+        if (analysisParallelism < 1)
+            throw new IllegalArgumentException("Analysis parallelism must be greater than 0.");
         this.analysisWindowSize = analysisWindowSize;
         this.metricsWindowSize = metricsWindowSize;
         this.failureRateThreshold = failureRateThreshold;
         this.unreachableRateThreshold = unreachableRateThreshold;
         this.qosSatisfactionRate = qosSatisfactionRate;
         this.maxBootTimeSeconds = maxBootTimeSeconds;
+        this.analysisParallelism = analysisParallelism;
+        this.recordingDir = recordingDir;
+        if (analysisParallelism > 1)
+            analysisPool = new ForkJoinPool(analysisParallelism);
         log.debug("AnalysisWindowSize: {}", analysisWindowSize);
         log.debug("MetricsWindowSize: {}", metricsWindowSize);
     }
 
+    @PostConstruct
+    public void init() {
+        servicesMapCache = new ServicesMapCache(knowledgeClient::getServicesMapChanges, false);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (analysisPool != null)
+            analysisPool.shutdown();
+    }
+
     // Start the Analyse Module routine
     public void startAnalysis() {
         try {
             log.debug("Starting Analyse routine");
             knowledgeClient.notifyModuleStart(Modules.ANALYSE);
             updateWindowAndThresholds();
-            currentArchitectureMap = knowledgeClient.getServicesMap();
+            currentArchitectureMap = servicesMapCache.getServicesMap();
+            // The request rate models of the services no longer in the architecture are dropped
+            for (String serviceId : requestRateForecaster.getServiceIds()) {
+                if (!currentArchitectureMap.containsKey(serviceId))
+                    requestRateForecaster.remove(serviceId);
+            }
+            // The statistics of the metrics windows of all the instances to analyse, fetched with a single request
+            Map<String, Map<String, InstanceWindowStats>> windowsStats = knowledgeClient.getLatestNWindowStatsOfAnalysableInstances(metricsWindowSize);
+            if (!recordingDir.isEmpty())
+                recordInputs(windowsStats);
             servicesToSkip = new HashSet<>();
             servicesForcedAdaptationOptionsMap = new HashMap<>();
             servicesProposedAdaptationOptionsMap = new HashMap<>();
-            analyse();
-            adapt();
+            if (analysisPool == null) {
+                analyse(windowsStats);
+                adapt();
+            } else
+                analyseAndAdaptInParallel(windowsStats);
             StringBuffer sb = new StringBuffer();
             for (String serviceId : servicesProposedAdaptationOptionsMap.keySet()) {
                 for (AdaptationOption opt : servicesProposedAdaptationOptionsMap.get(serviceId)) {
@@ -134,6 +206,7 @@ public class AnalyseService {
             log.debug("Ending Analyse routine. Notifying the Plan to start the next iteration.\n");
             planClient.start();
         }  catch (Exception e) {
+            servicesMapCache.invalidate();
             knowledgeClient.setFailedModule(Modules.ANALYSE);
             e.printStackTrace();
             throw new RuntimeException("Error during the Analyse execution: " + e.getMessage());
@@ -145,84 +218,105 @@ public class AnalyseService {
      * their value to compute each new QoS.Value of the services. It also computes a list of
      * forced Adaptation Options to be applied immediately, as the creation (or removal) of instances upon failures.
      */
-    private void analyse() {
+    private void analyse(Map<String, Map<String, InstanceWindowStats>> windowsStats) {
         log.debug("\nStarting analysis logic");
         for (Service service : currentArchitectureMap.values()) {
-            servicesForcedAdaptationOptionsMap.put(service.getServiceId(), new LinkedList<>());
-            log.debug("Analysing service {}", service.getServiceId());
-            boolean existsInstanceWithNewQoSValues = false;
-            boolean atLeastOneBootingInstance = false;
-            List<InstanceStats> instancesStats = new ArrayList<>();
-            // Analyze all the instances
-            for (Instance instance : service.getInstances()) {
-                if (instance.getCurrentStatus() == InstanceStatus.SHUTDOWN) {
-                    // Ignore shutdown instances (they will disappear from the architecture map when no metrics will be received anymore)
-                    log.debug("Instance {} is shutdown, ignoring it", instance.getInstanceId());
-                    servicesToSkip.add(instance.getServiceId());
-                    continue;
-                }
-                if (instance.getCurrentStatus() == InstanceStatus.BOOTING) {
-                    if ((new Date().getTime() - instance.getLatestInstanceMetricsSnapshot().getTimestamp().getTime()) > maxBootTimeSeconds * 1000) {
-                        log.debug("Instance " + instance.getInstanceId() + " is still booting after " + maxBootTimeSeconds + " seconds. Forcing it to shutdown.");
-                        servicesForcedAdaptationOptionsMap.get(service.getServiceId()).add(new ShutdownInstanceOption(service.getServiceId(), service.getCurrentImplementationId(), instance.getInstanceId(), "Instance boot timed out", true));
-                    } else {
-                        log.debug("Instance {} is booting, ignoring it", instance.getInstanceId());
-                        atLeastOneBootingInstance = true;
-                    }
-                    servicesToSkip.add(service.getServiceId());
-                    continue;
-                }
-                if (instance.getCurrentStatus() == InstanceStatus.FAILED) {
-                    log.debug("{}: Instance {} is in FAILED status. Forcing it to shutdown.", service.getServiceId(), instance.getInstanceId());
-                    servicesForcedAdaptationOptionsMap.get(service.getServiceId()).add(new ShutdownInstanceOption(service.getServiceId(), service.getCurrentImplementationId(), instance.getInstanceId(), "Instance failed", true));
-                    servicesToSkip.add(service.getServiceId());
-                    continue;
-                }
-
-                // Get the latest "metricsWindowSize" metrics of the instance collected after the latest adaptation of the service
-                List<InstanceMetricsSnapshot> metrics = knowledgeClient.getLatestNMetricsOfCurrentInstance(instance.getServiceId(), instance.getInstanceId(), metricsWindowSize);
-
-                // Not enough data to perform analysis. Can happen only at startup or after an adaptation.
-                if (metrics.size() != metricsWindowSize) {
-                    instancesStats.add(new InstanceStats(instance));
-                    continue;
-                }
-
-                double failureRate = metrics.stream().reduce(0.0, (acc, m) -> acc + (m.isFailed() ? 1:0), Double::sum) / metrics.size();
-                double unreachableRate = metrics.stream().reduce(0.0, (acc, m) -> acc + (m.isUnreachable() ? 1:0), Double::sum) / metrics.size();
-                double inactiveRate = failureRate + unreachableRate;
+            List<AdaptationOption> forcedAdaptationOptions = new LinkedList<>();
+            servicesForcedAdaptationOptionsMap.put(service.getServiceId(), forcedAdaptationOptions);
+            analyseService(service, windowsStats, forcedAdaptationOptions, servicesToSkip);
+        }
+    }
 
-                if (unreachableRate >= unreachableRateThreshold || failureRate >= failureRateThreshold || inactiveRate >= 1) { //in ordine di probabilità
-                    log.debug("{}: Rates conditions of instance {} not satisfied.", service.getServiceId(), instance.getInstanceId());
-                    servicesForcedAdaptationOptionsMap.get(service.getServiceId()).add(new ShutdownInstanceOption(service.getServiceId(), service.getCurrentImplementationId(), instance.getInstanceId(), "Instance failed or unreachable", true));
-                    servicesToSkip.add(service.getServiceId());
-                    continue;
+    /**
+     * Analyses a single service (see analyse()).
+     *
+     * @param forcedAdaptationOptions the list where the forced Adaptation Options of the service are added
+     * @param skippedServices the set where the service is added if it must be skipped
+     */
+    private void analyseService(Service service, Map<String, Map<String, InstanceWindowStats>> windowsStats, List<AdaptationOption> forcedAdaptationOptions, Set<String> skippedServices) {
+        log.debug("Analysing service {}", service.getServiceId());
+        boolean existsInstanceWithNewQoSValues = false;
+        boolean atLeastOneBootingInstance = false;
+        List<InstanceStats> instancesStats = new ArrayList<>();
+        // Analyze all the instances
+        for (Instance instance : service.getInstances()) {
+            if (instance.getCurrentStatus() == InstanceStatus.SHUTDOWN) {
+                // Ignore shutdown instances (they will disappear from the architecture map when no metrics will be received anymore)
+                log.debug("Instance {} is shutdown, ignoring it", instance.getInstanceId());
+                skippedServices.add(instance.getServiceId());
+                continue;
+            }
+            if (instance.getCurrentStatus() == InstanceStatus.BOOTING) {
+                if ((now().getTime() - instance.getLatestInstanceMetricsSnapshot().getTimestamp().getTime()) > maxBootTimeSeconds * 1000) {
+                    log.debug("Instance " + instance.getInstanceId() + " is still booting after " + maxBootTimeSeconds + " seconds. Forcing it to shutdown.");
+                    forcedAdaptationOptions.add(new ShutdownInstanceOption(service.getServiceId(), service.getCurrentImplementationId(), instance.getInstanceId(), "Instance boot timed out", true));
+                } else {
+                    log.debug("Instance {} is booting, ignoring it", instance.getInstanceId());
+                    atLeastOneBootingInstance = true;
                 }
-
-                List<InstanceMetricsSnapshot> activeMetrics = metrics.stream().filter(instanceMetricsSnapshot -> instanceMetricsSnapshot.isActive() && instanceMetricsSnapshot.getHttpMetrics().size()>0).toList(); //la lista contiene almeno un elemento grazie all'inactive rate
-
-                InstanceMetricsSnapshot oldestActiveMetrics = activeMetrics.get(activeMetrics.size() - 1);
-                InstanceMetricsSnapshot latestActiveMetrics = activeMetrics.get(0);
-                instancesStats.add(new InstanceStats(instance, computeInstanceAvgResponseTime(instance, oldestActiveMetrics, latestActiveMetrics), computeInstanceAvailability(instance, oldestActiveMetrics, latestActiveMetrics)));
-                existsInstanceWithNewQoSValues = true;
+                skippedServices.add(service.getServiceId());
+                continue;
             }
+            if (instance.getCurrentStatus() == InstanceStatus.FAILED) {
+                log.debug("{}: Instance {} is in FAILED status. Forcing it to shutdown.", service.getServiceId(), instance.getInstanceId());
+                forcedAdaptationOptions.add(new ShutdownInstanceOption(service.getServiceId(), service.getCurrentImplementationId(), instance.getInstanceId(), "Instance failed", true));
+                skippedServices.add(service.getServiceId());
+                continue;
+            }
+
+            // Statistics of the latest "metricsWindowSize" metrics of the instance collected after the latest adaptation of the service
+            InstanceWindowStats windowStats = windowsStats.getOrDefault(service.getServiceId(), Map.of()).get(instance.getInstanceId());
+            // The status of the instance changed in the Knowledge after the services map was read
+            if (windowStats == null)
+                windowStats = InstanceWindowStats.of(instance.getServiceId(), instance.getInstanceId(),
+                        knowledgeClient.getLatestNMetricsOfCurrentInstance(instance.getServiceId(), instance.getInstanceId(), metricsWindowSize));
 
-            if (instancesStats.isEmpty() && !atLeastOneBootingInstance) {
-                log.warn("{}: no active or booting instances. Forcing AddInstance option.", service.getServiceId());
-                servicesForcedAdaptationOptionsMap.get(service.getServiceId()).add(new AddInstanceOption(service.getServiceId(), service.getCurrentImplementationId(), "No instances available", true));
-                servicesToSkip.add(service.getServiceId());
+            // Not enough data to perform analysis. Can happen only at startup or after an adaptation.
+            if (windowStats.getSnapshotsCount() != metricsWindowSize) {
+                instancesStats.add(new InstanceStats(instance));
                 continue;
             }
 
-            if (!existsInstanceWithNewQoSValues) {
-                log.warn("{}: no instances with enough metrics to compute new values for the QoSes. Skipping its analysis.", service.getServiceId());
+            double failureRate = windowStats.getFailureRate();
+            double unreachableRate = windowStats.getUnreachableRate();
+            double inactiveRate = failureRate + unreachableRate;
+
+            if (unreachableRate >= unreachableRateThreshold || failureRate >= failureRateThreshold || inactiveRate >= 1) { //in ordine di probabilità
+                log.debug("{}: Rates conditions of instance {} not satisfied.", service.getServiceId(), instance.getInstanceId());
+                forcedAdaptationOptions.add(new ShutdownInstanceOption(service.getServiceId(), service.getCurrentImplementationId(), instance.getInstanceId(), "Instance failed or unreachable", true));
+                skippedServices.add(service.getServiceId());
                 continue;
             }
 
-            // Given the stats of each service instance, compute the QoS for the service and for its instances
-            // The QoS of the service are not computed if the service is in the set of services to skip
-            updateQoSHistory(service, instancesStats, servicesToSkip.contains(service.getServiceId()));
+            instancesStats.add(new InstanceStats(instance, computeInstanceAvgResponseTime(instance, windowStats), computeInstanceAvailability(instance, windowStats),
+                    computeInstancePercentileResponseTime(service, instance, windowStats), windowStats.getSuccessfulRequestsHistogram(),
+                    computeInstanceLoad(service, instance, Throughput.class, windowStats.getRequestsRate()),
+                    computeInstanceLoad(service, instance, Utilization.class, windowStats.getAverageCpuUsage())));
+            existsInstanceWithNewQoSValues = true;
+        }
+
+        if (instancesStats.isEmpty() && !atLeastOneBootingInstance) {
+            log.warn("{}: no active or booting instances. Forcing AddInstance option.", service.getServiceId());
+            forcedAdaptationOptions.add(new AddInstanceOption(service.getServiceId(), service.getCurrentImplementationId(), "No instances available", true));
+            skippedServices.add(service.getServiceId());
+            return;
+        }
+
+        if (!existsInstanceWithNewQoSValues) {
+            log.warn("{}: no instances with enough metrics to compute new values for the QoSes. Skipping its analysis.", service.getServiceId());
+            return;
+        }
+
+        // The request rate of the service is forecast only when all its instances serve the requests
+        if (service.getQoSSpecifications().containsKey(Throughput.class) && !skippedServices.contains(service.getServiceId())) {
+            if (!requestRateForecaster.hasModel(service.getServiceId()))
+                requestRateForecaster.seed(service.getServiceId(), getPastRequestRates(service));
+            requestRateForecaster.observe(service.getServiceId(), instancesStats.stream().mapToDouble(InstanceStats::getThroughput).sum(), now());
         }
+
+        // Given the stats of each service instance, compute the QoS for the service and for its instances
+        // The QoS of the service are not computed if the service is in the set of services to skip
+        updateQoSHistory(service, instancesStats, skippedServices.contains(service.getServiceId()));
     }
 
     /** For a given service, it computes the new latest QoS value for its instances and for itself from the InstancesStats (which are built on the metrics window).
@@ -239,7 +333,10 @@ public class AnalyseService {
         Map<Class<? extends QoSSpecification>, QoSHistory.Value> newServiceValues = new HashMap<>();
         double serviceAvailability = 0;
         double serviceAverageResponseTime = 0;
-        Date now = new Date();
+        // Used for the percentile response time of the service only when its histogram cannot be computed
+        double serviceWeightedPercentileResponseTime = 0;
+        List<Class<? extends QoSSpecification>> optionalQoSClasses = getOptionalQoSClasses(service);
+        Date now = now();
         for (InstanceStats instanceStats : instancesStats) {
             String instanceId = instanceStats.getInstance().getInstanceId();
             if (instanceStats.isFromNewData()) { // only for the instances with a full metrics window
@@ -250,11 +347,16 @@ public class AnalyseService {
                 newInstancesValues.get(instanceId).put(AverageResponseTime.class, newInstanceValue);
                 newInstanceValue = currentInstanceQoSCollection.createNewQoSValue(Availability.class, instanceStats.getAvailability(), now);
                 newInstancesValues.get(instanceId).put(Availability.class, newInstanceValue);
+                for (Class<? extends QoSSpecification> qosClass : optionalQoSClasses) {
+                    newInstanceValue = currentInstanceQoSCollection.createNewQoSValue(qosClass, getInstanceValueForOptionalQoS(instanceStats, qosClass), now);
+                    newInstancesValues.get(instanceId).put(qosClass, newInstanceValue);
+                }
             }
             double weight = (service.getConfiguration().getLoadBalancerType() == ServiceConfiguration.LoadBalancerType.WEIGHTED_RANDOM) ?
                     service.getLoadBalancerWeight(instanceStats.getInstance()) : 1.0/instancesStats.size();
             serviceAvailability += instanceStats.getAvailability() * weight;
             serviceAverageResponseTime += instanceStats.getAverageResponseTime() * weight;
+            serviceWeightedPercentileResponseTime += instanceStats.getPercentileResponseTime() * weight;
         }
 
         Map<String, Map<Class<? extends QoSSpecification>, QoSHistory.Value>> newInstancesCurrentValues = new HashMap<>();
@@ -268,27 +370,49 @@ public class AnalyseService {
             newServiceValues.put(AverageResponseTime.class, newServiceValue);
             newServiceValue = currentImplementationQoSCollection.createNewQoSValue(Availability.class, serviceAvailability, now);
             newServiceValues.put(Availability.class, newServiceValue);
+            for (Class<? extends QoSSpecification> qosClass : optionalQoSClasses) {
+                double serviceValue = qosClass == PercentileResponseTime.class ?
+                        computeServicePercentileResponseTime(service, instancesStats, serviceWeightedPercentileResponseTime) :
+                        computeServiceLoad(instancesStats, qosClass);
+                newServiceValue = currentImplementationQoSCollection.createNewQoSValue(qosClass, serviceValue, now);
+                newServiceValues.put(qosClass, newServiceValue);
+            }
 
             // Logic for creating the current value
-            List<Double> serviceAvailabilityHistory = service.getLatestAnalysisWindowForQoS(Availability.class, analysisWindowSize);
-            List<Double> serviceAvgRespTimeHistory = service.getLatestAnalysisWindowForQoS(AverageResponseTime.class, analysisWindowSize);
-            if (serviceAvailabilityHistory != null && serviceAvgRespTimeHistory != null) { // Null if there are not AnalysisWindowSize VALID values in the history
+            Double serviceAvailabilityAverage = service.getLatestAnalysisWindowAverageForQoS(Availability.class, analysisWindowSize);
+            Double serviceAvgRespTimeAverage = service.getLatestAnalysisWindowAverageForQoS(AverageResponseTime.class, analysisWindowSize);
+            // The values of the optional QoS are added with the ones of the other QoS, so their windows are filled with theirs
+            Map<Class<? extends QoSSpecification>, Double> serviceOptionalQoSAverages = new HashMap<>();
+            for (Class<? extends QoSSpecification> qosClass : optionalQoSClasses) {
+                Double serviceOptionalQoSAverage = service.getLatestAnalysisWindowAverageForQoS(qosClass, analysisWindowSize);
+                if (serviceOptionalQoSAverage != null)
+                    serviceOptionalQoSAverages.put(qosClass, serviceOptionalQoSAverage);
+            }
+            if (serviceAvailabilityAverage != null && serviceAvgRespTimeAverage != null && serviceOptionalQoSAverages.size() == optionalQoSClasses.size()) { // Null if there are not AnalysisWindowSize VALID values in the history
                 // If we should not propose adaptation options for the given service, don't update its QoS History (i.e., there are booting or shutdown instances)
                 // Update the current values for the QoS of the service.
                 QoSHistory.Value newServiceCurrentValue;
-                newServiceCurrentValue = service.changeCurrentValueForQoS(Availability.class, serviceAvailabilityHistory.stream().mapToDouble(Double::doubleValue).average().orElseThrow(), now);
+                newServiceCurrentValue = service.changeCurrentValueForQoS(Availability.class, serviceAvailabilityAverage, now);
                 newServiceCurrentValues.put(Availability.class, newServiceCurrentValue);
-                newServiceCurrentValue = service.changeCurrentValueForQoS(AverageResponseTime.class, serviceAvgRespTimeHistory.stream().mapToDouble(Double::doubleValue).average().orElseThrow(), now);
+                newServiceCurrentValue = service.changeCurrentValueForQoS(AverageResponseTime.class, serviceAvgRespTimeAverage, now);
                 newServiceCurrentValues.put(AverageResponseTime.class, newServiceCurrentValue);
+                for (Class<? extends QoSSpecification> qosClass : optionalQoSClasses) {
+                    newServiceCurrentValue = service.changeCurrentValueForQoS(qosClass, serviceOptionalQoSAverages.get(qosClass), now);
+                    newServiceCurrentValues.put(qosClass, newServiceCurrentValue);
+                }
 
                 service.getInstances().forEach(instance -> {
                     // Update the current values for the QoS of the instances.
                     QoSHistory.Value newInstanceCurrentValue;
                     newInstancesCurrentValues.put(instance.getInstanceId(), new HashMap<>());
-                    newInstanceCurrentValue = instance.changeCurrentValueForQoS(Availability.class, instance.getLatestFilledAnalysisWindowForQoS(Availability.class, analysisWindowSize).stream().mapToDouble(Double::doubleValue).average().orElseThrow(), now);
+                    newInstanceCurrentValue = instance.changeCurrentValueForQoS(Availability.class, instance.getLatestFilledAnalysisWindowAverageForQoS(Availability.class, analysisWindowSize), now);
                     newInstancesCurrentValues.get(instance.getInstanceId()).put(Availability.class, newInstanceCurrentValue);
-                    newInstanceCurrentValue = instance.changeCurrentValueForQoS(AverageResponseTime.class, instance.getLatestFilledAnalysisWindowForQoS(AverageResponseTime.class, analysisWindowSize).stream().mapToDouble(Double::doubleValue).average().orElseThrow(), now);
+                    newInstanceCurrentValue = instance.changeCurrentValueForQoS(AverageResponseTime.class, instance.getLatestFilledAnalysisWindowAverageForQoS(AverageResponseTime.class, analysisWindowSize), now);
                     newInstancesCurrentValues.get(instance.getInstanceId()).put(AverageResponseTime.class, newInstanceCurrentValue);
+                    for (Class<? extends QoSSpecification> qosClass : optionalQoSClasses) {
+                        newInstanceCurrentValue = instance.changeCurrentValueForQoS(qosClass, instance.getLatestFilledAnalysisWindowAverageForQoS(qosClass, analysisWindowSize), now);
+                        newInstancesCurrentValues.get(instance.getInstanceId()).put(qosClass, newInstanceCurrentValue);
+                    }
                 });
 
                 log.debug("{} has a full analysis window. Updating its current values and its instances' current values.", service.getServiceId());
@@ -336,22 +460,9 @@ public class AnalyseService {
             servicesRequiringOrCompletingAdaptation.put(serviceId, true);
             return servicesRequiringOrCompletingAdaptation.get(serviceId);
         }
-        List<AdaptationOption> proposedAdaptationOptions = new LinkedList<>();
-        List<Double> serviceAvailabilityHistory = service.getLatestAnalysisWindowForQoS(Availability.class, analysisWindowSize);
-        List<Double> serviceAvgRespTimeHistory = service.getLatestAnalysisWindowForQoS(AverageResponseTime.class, analysisWindowSize);
-        if (serviceAvailabilityHistory == null || serviceAvgRespTimeHistory == null) {
-            log.warn("{}: the analysis window is not filled yet. Skipping the proposal of Adaptation Options.", serviceId);
+        List<AdaptationOption> proposedAdaptationOptions = computeOwnAdaptationOptions(service);
+        if (proposedAdaptationOptions == null)
             return servicesRequiringOrCompletingAdaptation.get(serviceId);
-        }
-        log.debug("{}: current Availability value: {} @ {}", service.getServiceId(), service.getCurrentValueForQoS(Availability.class), service.getCurrentImplementation().getQoSCollection().getValuesHistoryForQoS(Availability.class).get(analysisWindowSize-1).getTimestamp());
-        log.debug("{}: current ART value: {} @ {}", service.getServiceId(), service.getCurrentValueForQoS(AverageResponseTime.class), service.getCurrentImplementation().getQoSCollection().getValuesHistoryForQoS(AverageResponseTime.class).get(analysisWindowSize-1).getTimestamp());
-        proposedAdaptationOptions.addAll(handleAvailabilityAnalysis(service, serviceAvailabilityHistory));
-        proposedAdaptationOptions.addAll(handleAverageResponseTimeAnalysis(service, serviceAvgRespTimeHistory));
-        if (service.shouldConsiderChangingImplementation()) {
-            proposedAdaptationOptions.add(createChangeImplementationOption(service, Availability.class));
-            proposedAdaptationOptions.add(createChangeImplementationOption(service, AverageResponseTime.class));
-            proposedAdaptationOptions.add(createChangeImplementationOption(service, Vulnerability.class));
-        }
 
         // If there are proposed adaptation options for the service, say that the service requires adaptation.
         // Otherwise, use the previous information
@@ -375,6 +486,146 @@ public class AnalyseService {
         return servicesRequiringOrCompletingAdaptation.get(serviceId);
     }
 
+    /**
+     * Computes the adaptation options of a service from its own QoS values, regardless of its dependencies.
+     * @return the adaptation options, or null if the analysis window of the service is not filled yet
+     */
+    private List<AdaptationOption> computeOwnAdaptationOptions(Service service) {
+        String serviceId = service.getServiceId();
+        List<AdaptationOption> proposedAdaptationOptions = new LinkedList<>();
+        List<Double> serviceAvailabilityHistory = service.getLatestAnalysisWindowForQoS(Availability.class, analysisWindowSize);
+        List<Double> serviceAvgRespTimeHistory = service.getLatestAnalysisWindowForQoS(AverageResponseTime.class, analysisWindowSize);
+        List<Class<? extends QoSSpecification>> optionalQoSClasses = getOptionalQoSClasses(service);
+        Map<Class<? extends QoSSpecification>, List<Double>> serviceOptionalQoSHistories = new HashMap<>();
+        for (Class<? extends QoSSpecification> qosClass : optionalQoSClasses) {
+            List<Double> serviceOptionalQoSHistory = service.getLatestAnalysisWindowForQoS(qosClass, analysisWindowSize);
+            if (serviceOptionalQoSHistory != null)
+                serviceOptionalQoSHistories.put(qosClass, serviceOptionalQoSHistory);
+        }
+        if (serviceAvailabilityHistory == null || serviceAvgRespTimeHistory == null || serviceOptionalQoSHistories.size() != optionalQoSClasses.size()) {
+            log.warn("{}: the analysis window is not filled yet. Skipping the proposal of Adaptation Options.", serviceId);
+            return null;
+        }
+        log.debug("{}: current Availability value: {} @ {}", service.getServiceId(), service.getCurrentValueForQoS(Availability.class), service.getCurrentImplementation().getQoSCollection().getQoSHistory(Availability.class).getValue(analysisWindowSize-1).getTimestamp());
+        log.debug("{}: current ART value: {} @ {}", service.getServiceId(), service.getCurrentValueForQoS(AverageResponseTime.class), service.getCurrentImplementation().getQoSCollection().getQoSHistory(AverageResponseTime.class).getValue(analysisWindowSize-1).getTimestamp());
+        proposedAdaptationOptions.addAll(handleAvailabilityAnalysis(service, serviceAvailabilityHistory));
+        proposedAdaptationOptions.addAll(handleAverageResponseTimeAnalysis(service, serviceAvgRespTimeHistory));
+        if (serviceOptionalQoSHistories.containsKey(PercentileResponseTime.class))
+            proposedAdaptationOptions.addAll(handlePercentileResponseTimeAnalysis(service, serviceOptionalQoSHistories.get(PercentileResponseTime.class)));
+        if (serviceOptionalQoSHistories.containsKey(Throughput.class)) {
+            proposedAdaptationOptions.addAll(handleLoadAnalysis(service, Throughput.class, serviceOptionalQoSHistories.get(Throughput.class)));
+            handleThroughputForecast(service, proposedAdaptationOptions);
+        }
+        if (serviceOptionalQoSHistories.containsKey(Utilization.class))
+            proposedAdaptationOptions.addAll(handleLoadAnalysis(service, Utilization.class, serviceOptionalQoSHistories.get(Utilization.class)));
+        if (service.shouldConsiderChangingImplementation()) {
+            proposedAdaptationOptions.add(createChangeImplementationOption(service, Availability.class));
+            proposedAdaptationOptions.add(createChangeImplementationOption(service, AverageResponseTime.class));
+            if (serviceOptionalQoSHistories.containsKey(PercentileResponseTime.class))
+                proposedAdaptationOptions.add(createChangeImplementationOption(service, PercentileResponseTime.class));
+            proposedAdaptationOptions.add(createChangeImplementationOption(service, Vulnerability.class));
+        }
+        return proposedAdaptationOptions;
+    }
+
+    /**
+     * Parallel version of analyse() followed by adapt(), with the same results.
+     * Each service is analysed by a task of the analysis pool, which also computes the adaptation options of the
+     * service from its own QoS values. Whether a service requires (or is completing) an adaptation depends only on
+     * its own analysis, while whether its options are proposed also depends on its dependencies: the proposal for a
+     * service waits for the analyses of the service and of its dependencies only, so the services are processed in
+     * the topological order of the dependencies graph, and the independent ones at the same time. Since a proposal
+     * waits for analyses and never for other proposals, cycles of dependencies cannot block it.
+     */
+    private void analyseAndAdaptInParallel(Map<String, Map<String, InstanceWindowStats>> windowsStats) {
+        log.debug("\nStarting parallel analysis and adaptation logic");
+        Map<String, CompletableFuture<ServiceAnalysis>> analyses = new HashMap<>();
+        for (Service service : currentArchitectureMap.values())
+            analyses.put(service.getServiceId(), CompletableFuture.supplyAsync(() -> analyseServiceAndComputeOwnOptions(service, windowsStats), analysisPool));
+
+        Map<String, CompletableFuture<List<AdaptationOption>>> proposals = new HashMap<>();
+        for (Service service : currentArchitectureMap.values()) {
+            List<CompletableFuture<ServiceAnalysis>> awaitedAnalyses = new LinkedList<>();
+            awaitedAnalyses.add(analyses.get(service.getServiceId()));
+            service.getDependencies().stream().map(analyses::get).filter(Objects::nonNull).forEach(awaitedAnalyses::add);
+            proposals.put(service.getServiceId(), CompletableFuture.allOf(awaitedAnalyses.toArray(new CompletableFuture[0]))
+                    .thenApplyAsync(ignored -> chooseProposedAdaptationOptions(service, analyses), analysisPool));
+        }
+        try {
+            CompletableFuture.allOf(proposals.values().toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : new RuntimeException(e.getCause());
+        }
+
+        for (Service service : currentArchitectureMap.values()) {
+            String serviceId = service.getServiceId();
+            ServiceAnalysis analysis = analyses.get(serviceId).join();
+            servicesForcedAdaptationOptionsMap.put(serviceId, analysis.getForcedAdaptationOptions());
+            if (analysis.isSkipped())
+                servicesToSkip.add(serviceId);
+            List<AdaptationOption> proposedAdaptationOptions = proposals.get(serviceId).join();
+            if (proposedAdaptationOptions != null)
+                servicesProposedAdaptationOptionsMap.put(serviceId, proposedAdaptationOptions);
+        }
+    }
+
+    // Task analysing a service in analyseAndAdaptInParallel(). Same logic of analyseService() and of the first part of computeAdaptationOptions()
+    private ServiceAnalysis analyseServiceAndComputeOwnOptions(Service service, Map<String, Map<String, InstanceWindowStats>> windowsStats) {
+        String serviceId = service.getServiceId();
+        List<AdaptationOption> forcedAdaptationOptions = new LinkedList<>();
+        Set<String> skippedServices = new HashSet<>();
+        analyseService(service, windowsStats, forcedAdaptationOptions, skippedServices);
+        if (skippedServices.contains(serviceId)) {
+            log.warn("{}: the analysis decided to skip adaptation for this service.", serviceId);
+            return new ServiceAnalysis(forcedAdaptationOptions, true, true, null);
+        }
+        List<AdaptationOption> ownAdaptationOptions = computeOwnAdaptationOptions(service);
+        boolean requiringOrCompletingAdaptation = !forcedAdaptationOptions.isEmpty() || (ownAdaptationOptions != null && !ownAdaptationOptions.isEmpty());
+        return new ServiceAnalysis(forcedAdaptationOptions, false, requiringOrCompletingAdaptation, ownAdaptationOptions);
+    }
+
+    // Task choosing the options to propose for a service in analyseAndAdaptInParallel(), run when the analyses of the
+    // service and of its dependencies are completed. Same logic of the second part of computeAdaptationOptions().
+    // Returns null if no option is proposed
+    private List<AdaptationOption> chooseProposedAdaptationOptions(Service service, Map<String, CompletableFuture<ServiceAnalysis>> analyses) {
+        String serviceId = service.getServiceId();
+        ServiceAnalysis analysis = analyses.get(serviceId).join();
+        if (analysis.getOwnAdaptationOptions() == null)
+            return null;
+        for (String dependencyId : service.getDependencies()) {
+            CompletableFuture<ServiceAnalysis> dependencyAnalysis = analyses.get(dependencyId);
+            if (dependencyAnalysis == null)
+                throw new RuntimeException(serviceId + ": dependency " + dependencyId + " not found");
+            log.debug("{}: Possibly computing adaptation options for dependency {}", serviceId, dependencyId);
+            if (dependencyAnalysis.join().isRequiringOrCompletingAdaptation()) {
+                log.debug("{}: dependency {} has problems. First solving dependency's problems", serviceId, dependencyId);
+                return null;
+            }
+        }
+        if (analysis.isRequiringOrCompletingAdaptation() && !analysis.getOwnAdaptationOptions().isEmpty()) {
+            log.debug("{}: no problems for dependencies. Proposing adaptation options", serviceId);
+            return analysis.getOwnAdaptationOptions();
+        }
+        return null;
+    }
+
+    // Records the inputs of the analysis, so that the ParallelAnalysisRegressionTest can replay it
+    private void recordInputs(Map<String, Map<String, InstanceWindowStats>> windowsStats) {
+        long analysisTime = clock.millis();
+        AnalysisRecording recording = new AnalysisRecording(analysisTime, metricsWindowSize, analysisWindowSize, failureRateThreshold,
+                unreachableRateThreshold, qosSatisfactionRate, maxBootTimeSeconds, currentArchitectureMap, windowsStats);
+        File file = Paths.get(recordingDir, "analysis-" + analysisTime + ".json").toFile();
+        try {
+            recordingMapper.writeValue(file, recording);
+        } catch (IOException e) {
+            log.error("Error recording the inputs of the analysis in {}: {}", file, e.getMessage());
+        }
+    }
+
+    private Date now() {
+        return new Date(clock.millis());
+    }
+
     private AdaptationOption createChangeImplementationOption(Service service, Class<? extends QoSSpecification> goal) {
         List<String> possibleImplementations = new LinkedList<>();
         for (String possibleImplementationId : service.getPossibleImplementations().keySet())
@@ -425,44 +676,196 @@ public class AnalyseService {
         return adaptationOptions;
     }
 
-    private double computeInstanceAvgResponseTime(Instance instance, InstanceMetricsSnapshot oldestActiveMetrics, InstanceMetricsSnapshot latestActiveMetrics) {
-        double successfulRequestsDuration = 0;
-        double successfulRequestsCount = 0;
+    private List<AdaptationOption> handlePercentileResponseTimeAnalysis(Service service, List<Double> servicePercentileRespTimeHistory) {
+        List<AdaptationOption> adaptationOptions = new LinkedList<>();
+        PercentileResponseTime percentileRespTimeSpecs = (PercentileResponseTime) service.getQoSSpecifications().get(PercentileResponseTime.class);
+        if (!percentileRespTimeSpecs.isSatisfied(servicePercentileRespTimeHistory, qosSatisfactionRate)){
+            log.debug("{}: P{} RT is not satisfied at rate {}. Current value: {}. Threshold: {}", service.getServiceId(), percentileRespTimeSpecs.getPercentile(), qosSatisfactionRate, service.getCurrentValueForQoS(PercentileResponseTime.class), percentileRespTimeSpecs.getMaxThreshold());
 
-        for (String endpoint : latestActiveMetrics.getHttpMetrics().keySet()) {
-            successfulRequestsDuration += latestActiveMetrics.getHttpMetrics().get(endpoint).getTotalDurationOfSuccessful();
-            successfulRequestsCount += latestActiveMetrics.getHttpMetrics().get(endpoint).getTotalCountOfSuccessful();
-            HttpEndpointMetrics oldestEndpointMetrics = oldestActiveMetrics.getHttpMetrics().get(endpoint);
-            if (oldestEndpointMetrics != null) {
-                successfulRequestsDuration -= oldestEndpointMetrics.getTotalDurationOfSuccessful();
-                successfulRequestsCount -= oldestEndpointMetrics.getTotalCountOfSuccessful();
-            }
+            List<Instance> instances = service.getInstances();
+            List<Instance> slowInstances = instances.stream().filter(
+                    i -> !percentileRespTimeSpecs.isSatisfied(i.getCurrentValueForQoS(PercentileResponseTime.class).getDoubleValue())
+            ).toList();
+
+            // If there is more than one instance and at least one instance satisfies the percentile response time specifications, then we can try to change the LB weights.
+            if (instances.size()>1 && slowInstances.size()<instances.size() && service.getConfiguration().getLoadBalancerType().equals(ServiceConfiguration.LoadBalancerType.WEIGHTED_RANDOM))
+                adaptationOptions.add(new ChangeLoadBalancerWeightsOption(service.getServiceId(), service.getCurrentImplementationId(), PercentileResponseTime.class, "At least one instance satisfies the percentile response time specifications"));
+            adaptationOptions.add(new AddInstanceOption(service.getServiceId(), service.getCurrentImplementationId(), PercentileResponseTime.class, "The service percentile response time specification is not satisfied"));
+        }
+        else{
+            log.debug("{}: P{} RT is satisfied at rate {}", service.getServiceId(), percentileRespTimeSpecs.getPercentile(), qosSatisfactionRate);
+        }
+        return adaptationOptions;
+    }
+
+    // The load of each instance of the service must stay in the band of the specification: above it, an instance is
+    // added; when it stays below it, the least loaded instance is shut down, so that the others take its load
+    private List<AdaptationOption> handleLoadAnalysis(Service service, Class<? extends QoSSpecification> loadClass, List<Double> serviceLoadHistory) {
+        List<AdaptationOption> adaptationOptions = new LinkedList<>();
+        LoadSpecification loadSpecs = (LoadSpecification) service.getQoSSpecifications().get(loadClass);
+        long aboveBandCount = serviceLoadHistory.stream().filter(loadSpecs::isAboveBand).count();
+        long belowBandCount = serviceLoadHistory.stream().filter(loadSpecs::isBelowBand).count();
+        if (!loadSpecs.isSatisfied(serviceLoadHistory, qosSatisfactionRate) && aboveBandCount >= belowBandCount) {
+            log.debug("{}: {} is above the band at rate {}. Current value: {}. Band: {}", service.getServiceId(), loadClass.getSimpleName(), qosSatisfactionRate, service.getCurrentValueForQoS(loadClass), loadSpecs.getConstraintDescription());
+            adaptationOptions.add(new AddInstanceOption(service.getServiceId(), service.getCurrentImplementationId(), loadClass, "The service " + loadClass.getSimpleName() + " is above the band of its specification"));
+        } else if ((double) belowBandCount / serviceLoadHistory.size() >= qosSatisfactionRate && service.getInstances().size() > 1) {
+            log.debug("{}: {} is below the band at rate {}. Current value: {}. Band: {}", service.getServiceId(), loadClass.getSimpleName(), qosSatisfactionRate, service.getCurrentValueForQoS(loadClass), loadSpecs.getConstraintDescription());
+            // The instances without a load value yet (e.g., created before the load specification) are not candidates
+            Optional<Instance> leastLoadedInstance = service.getInstances().stream()
+                    .filter(i -> getCurrentValue(i.getQoSCollection(), loadClass) != null)
+                    .min(Comparator.comparingDouble(i -> getCurrentValue(i.getQoSCollection(), loadClass)));
+            if (leastLoadedInstance.isPresent())
+                adaptationOptions.add(new ShutdownInstanceOption(service.getServiceId(), service.getCurrentImplementationId(), leastLoadedInstance.get().getInstanceId(), loadClass, "The service " + loadClass.getSimpleName() + " is below the band of its specification"));
+            else
+                log.warn("{}: no instance has a {} value. Cannot choose the instance to shutdown", service.getServiceId(), loadClass.getSimpleName());
+        } else {
+            log.debug("{}: {} is in the band at rate {}", service.getServiceId(), loadClass.getSimpleName(), qosSatisfactionRate);
         }
-        if (successfulRequestsCount == 0) {
+        return adaptationOptions;
+    }
+
+    // A new instance serves requests only after booting, so the throughput is also checked on the request rate forecast
+    // one boot time ahead: an instance is proposed ahead of the load when the forecast takes the throughput of the
+    // current instances above the band, and the shutdown of an instance is withdrawn when the forecast takes the
+    // throughput of the remaining ones above it
+    private void handleThroughputForecast(Service service, List<AdaptationOption> proposedAdaptationOptions) {
+        Double forecastedRequestRate = requestRateForecaster.forecast(service.getServiceId(), maxBootTimeSeconds);
+        if (forecastedRequestRate == null)
+            return;
+        Throughput throughputSpecs = (Throughput) service.getQoSSpecifications().get(Throughput.class);
+        int instancesCount = service.getInstances().size();
+        double forecastedLoad = forecastedRequestRate / instancesCount;
+        log.debug("{}: forecast request rate in {}s: {}. Forecast Throughput: {}", service.getServiceId(), maxBootTimeSeconds, forecastedRequestRate, forecastedLoad);
+        if (instancesCount > 1 && throughputSpecs.isAboveBand(forecastedRequestRate / (instancesCount - 1)) &&
+                proposedAdaptationOptions.removeIf(option -> option instanceof ShutdownInstanceOption && option.getQosGoal() == Throughput.class))
+            log.debug("{}: the forecast Throughput would be above the band without the instance to shutdown. Withdrawing its shutdown", service.getServiceId());
+        if (throughputSpecs.isAboveBand(forecastedLoad) &&
+                proposedAdaptationOptions.stream().noneMatch(option -> option instanceof AddInstanceOption && option.getQosGoal() == Throughput.class)) {
+            AddInstanceOption addInstanceOption = new AddInstanceOption(service.getServiceId(), service.getCurrentImplementationId(), Throughput.class, "The forecast Throughput is above the band of its specification");
+            addInstanceOption.setForecastedLoad(forecastedLoad);
+            proposedAdaptationOptions.add(addInstanceOption);
+        }
+    }
+
+    private double computeInstanceAvgResponseTime(Instance instance, InstanceWindowStats windowStats) {
+        if (windowStats.getSuccessfulRequestsCount() == 0) {
             log.warn("{}: No successful requests for instance {}. Using its current value for ART", instance.getServiceId(), instance.getInstanceId());
             return instance.getCurrentValueForQoS(AverageResponseTime.class).getDoubleValue();
         }
-        return successfulRequestsDuration/successfulRequestsCount;
+        return windowStats.getSuccessfulRequestsDuration()/windowStats.getSuccessfulRequestsCount();
     }
 
-    private double computeInstanceAvailability(Instance instance, InstanceMetricsSnapshot oldestActiveMetrics, InstanceMetricsSnapshot latestActiveMetrics){
-        double successfulRequestsCount = 0;
-        double totalRequestsCount = 0;
+    // NaN if the service has no PercentileResponseTime specification
+    private double computeInstancePercentileResponseTime(Service service, Instance instance, InstanceWindowStats windowStats) {
+        PercentileResponseTime percentileRespTimeSpecs = (PercentileResponseTime) service.getQoSSpecifications().get(PercentileResponseTime.class);
+        if (percentileRespTimeSpecs == null)
+            return Double.NaN;
+        LatencyHistogram histogram = windowStats.getSuccessfulRequestsHistogram();
+        if (histogram == null || histogram.getCount() == 0) {
+            log.warn("{}: No latency histogram of the successful requests for instance {}. Using its current value for the percentile RT", instance.getServiceId(), instance.getInstanceId());
+            return instance.getCurrentValueForQoS(PercentileResponseTime.class).getDoubleValue();
+        }
+        return histogram.getPercentile(percentileRespTimeSpecs.getPercentile());
+    }
 
-        for(String endpoint : latestActiveMetrics.getHttpMetrics().keySet()){
-            HttpEndpointMetrics oldestEndpointMetrics = oldestActiveMetrics.getHttpMetrics().get(endpoint);
-            totalRequestsCount += latestActiveMetrics.getHttpMetrics().get(endpoint).getTotalCount();
-            successfulRequestsCount += latestActiveMetrics.getHttpMetrics().get(endpoint).getTotalCountOfSuccessful();
-            if (oldestEndpointMetrics != null) {
-                totalRequestsCount -= oldestEndpointMetrics.getTotalCount();
-                successfulRequestsCount -= oldestEndpointMetrics.getTotalCountOfSuccessful();
+    // NaN if the service has no specification for the load. The latest value of the instance is used when the load
+    // cannot be computed from its window (e.g., there is only one active snapshot, or the CPU usage is not exposed)
+    private double computeInstanceLoad(Service service, Instance instance, Class<? extends QoSSpecification> loadClass, double windowLoad) {
+        if (!service.getQoSSpecifications().containsKey(loadClass))
+            return Double.NaN;
+        if (Double.isNaN(windowLoad)) {
+            Double currentLoad = getCurrentValue(instance.getQoSCollection(), loadClass);
+            if (currentLoad != null) {
+                log.warn("{}: Cannot compute the {} of instance {} from its metrics. Using its current value", instance.getServiceId(), loadClass.getSimpleName(), instance.getInstanceId());
+                return currentLoad;
             }
+            // The instance has no load value yet (e.g., it was created before the load specification)
+            currentLoad = getCurrentValue(service.getCurrentImplementation().getQoSCollection(), loadClass);
+            if (currentLoad != null) {
+                log.warn("{}: Cannot compute the {} of instance {} from its metrics, and it has no current value. Using the current value of the service", instance.getServiceId(), loadClass.getSimpleName(), instance.getInstanceId());
+                return currentLoad;
+            }
+            log.warn("{}: Cannot compute the {} of instance {} from its metrics, and neither it nor the service has a current value. Using 0", instance.getServiceId(), loadClass.getSimpleName(), instance.getInstanceId());
+            return 0;
         }
-        if (totalRequestsCount == 0) {
+        return windowLoad;
+    }
+
+    // The current value of the QoS in the collection, or null if it has none (no history for the QoS, or no value yet)
+    private static Double getCurrentValue(QoSCollection qoSCollection, Class<? extends QoSSpecification> qosClass) {
+        QoSHistory<? extends QoSSpecification> history = qoSCollection.getQoSHistory(qosClass);
+        return history == null || history.getCurrentValue() == null ? null : history.getCurrentValue().getDoubleValue();
+    }
+
+    // The request rates of the service in the Throughput history kept by the Knowledge, <timestamp, requests/s>.
+    // The service has a Throughput value only for the iterations where its rate was observed, and each of its instances
+    // has its own value with the same timestamp, so the rate is the sum of the values of the instances at that time.
+    // The instances that have since left the service are not counted
+    private SortedMap<Long, Double> getPastRequestRates(Service service) {
+        Map<Long, Double> instancesRates = new HashMap<>();
+        for (Instance instance : service.getInstances()) {
+            QoSHistory<Throughput> instanceHistory = instance.getQoSCollection().getQoSHistory(Throughput.class);
+            if (instanceHistory == null)
+                continue;
+            for (QoSHistory.Value value : instanceHistory.getValuesStack())
+                instancesRates.merge(value.getTimestamp().getTime(), value.getDoubleValue(), Double::sum);
+        }
+        SortedMap<Long, Double> requestRates = new TreeMap<>();
+        for (QoSHistory.Value value : service.getValuesHistoryForQoS(Throughput.class)) {
+            Double requestRate = instancesRates.get(value.getTimestamp().getTime());
+            if (requestRate != null)
+                requestRates.put(value.getTimestamp().getTime(), requestRate);
+        }
+        return requestRates;
+    }
+
+    // The load specifications are about each instance, so the load of the service is the average load of its instances
+    private double computeServiceLoad(List<InstanceStats> instancesStats, Class<? extends QoSSpecification> loadClass) {
+        return instancesStats.stream().mapToDouble(instanceStats -> getInstanceValueForOptionalQoS(instanceStats, loadClass)).average().orElse(0);
+    }
+
+    // The QoS specified for the service among the ones that a service may not have
+    private List<Class<? extends QoSSpecification>> getOptionalQoSClasses(Service service) {
+        List<Class<? extends QoSSpecification>> optionalQoSClasses = List.of(PercentileResponseTime.class, Throughput.class, Utilization.class);
+        return optionalQoSClasses.stream().filter(qosClass -> service.getQoSSpecifications().containsKey(qosClass)).toList();
+    }
+
+    private double getInstanceValueForOptionalQoS(InstanceStats instanceStats, Class<? extends QoSSpecification> qosClass) {
+        if (qosClass == PercentileResponseTime.class)
+            return instanceStats.getPercentileResponseTime();
+        if (qosClass == Throughput.class)
+            return instanceStats.getThroughput();
+        if (qosClass == Utilization.class)
+            return instanceStats.getUtilization();
+        throw new RuntimeException("Unknown optional QoS " + qosClass.getSimpleName());
+    }
+
+    // The percentile of the service is computed on the requests served by all its instances, merging their histograms,
+    // so the share of the requests of each instance weighs as it did. When an instance has no histogram of its window
+    // (e.g., it is filling it), the percentiles of the instances cannot be merged, and their weighted average is used
+    private double computeServicePercentileResponseTime(Service service, List<InstanceStats> instancesStats, double weightedPercentileResponseTime) {
+        PercentileResponseTime percentileRespTimeSpecs = (PercentileResponseTime) service.getQoSSpecifications().get(PercentileResponseTime.class);
+        LatencyHistogram serviceHistogram = null;
+        for (InstanceStats instanceStats : instancesStats) {
+            LatencyHistogram instanceHistogram = instanceStats.getSuccessfulRequestsHistogram();
+            if (!instanceStats.isFromNewData() || instanceHistogram == null)
+                return weightedPercentileResponseTime;
+            if (serviceHistogram == null)
+                serviceHistogram = instanceHistogram.copy();
+            else if (!serviceHistogram.add(instanceHistogram))
+                return weightedPercentileResponseTime;
+        }
+        if (serviceHistogram == null || serviceHistogram.getCount() == 0)
+            return weightedPercentileResponseTime;
+        return serviceHistogram.getPercentile(percentileRespTimeSpecs.getPercentile());
+    }
+
+    private double computeInstanceAvailability(Instance instance, InstanceWindowStats windowStats){
+        if (windowStats.getTotalRequestsCount() == 0) {
             log.warn("{}: No successful requests for instance {}. Using its current value for Availability", instance.getServiceId(), instance.getInstanceId());
             return instance.getCurrentValueForQoS(Availability.class).getDoubleValue();
         }
-        return successfulRequestsCount/totalRequestsCount;
+        return windowStats.getSuccessfulRequestsCount()/windowStats.getTotalRequestsCount();
     }
 
     // Methods to update the Analyse configuration
@@ -475,6 +878,8 @@ public class AnalyseService {
     public void setNewAnalysisWindowSize(Integer newAnalysisWindowSize) throws IllegalArgumentException {
         if (newAnalysisWindowSize < 1)
             throw new IllegalArgumentException("Analysis window size must be greater than 0");
+        if (newAnalysisWindowSize > QoSHistory.CAPACITY)
+            throw new IllegalArgumentException("Analysis window size must not be greater than " + QoSHistory.CAPACITY + ", the number of values kept in the QoS histories");
         this.newAnalysisWindowSize = newAnalysisWindowSize;
     }
 
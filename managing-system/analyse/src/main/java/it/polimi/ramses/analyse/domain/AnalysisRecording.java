@@ -0,0 +1,43 @@
+package it.polimi.ramses.analyse.domain;
+
+import it.polimi.ramses.knowledge.domain.architecture.Service;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceWindowStats;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// Inputs of an iteration of the Analyse, recorded when ANALYSIS_RECORDING_DIR is set and replayed by the ParallelAnalysisRegressionTest
+// and by the RequestRateForecasterBacktestTest
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AnalysisRecording {
+    // Time of the analysis, in milliseconds since the epoch
+    private long timestamp;
+    private int metricsWindowSize;
+    private int analysisWindowSize;
+    private double failureRateThreshold;
+    private double unreachableRateThreshold;
+    private double qosSatisfactionRate;
+    private long maxBootTimeSeconds;
+    // <serviceId, Service> as read from the Knowledge
+    private Map<String, Service> servicesMap;
+    // <serviceId, <instanceId, statistics of the latest metrics>>
+    private Map<String, Map<String, InstanceWindowStats>> windowsStats;
+
+    // The recording files in the given directory, in the order of the analyses, or the given file if it is not a directory
+    public static List<File> listRecordings(File file) {
+        if (!file.isDirectory())
+            return List.of(file);
+        File[] files = file.listFiles((dir, name) -> name.startsWith("analysis-") && name.endsWith(".json"));
+        if (files == null)
+            return List.of();
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+}
@@ -2,8 +2,13 @@ package it.polimi.ramses.analyse.domain;
 
 import it.polimi.ramses.knowledge.domain.adaptation.specifications.Availability;
 import it.polimi.ramses.knowledge.domain.adaptation.specifications.AverageResponseTime;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.PercentileResponseTime;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.QoSSpecification;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.Throughput;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.Utilization;
 import it.polimi.ramses.knowledge.domain.adaptation.specifications.Vulnerability;
 import it.polimi.ramses.knowledge.domain.architecture.Instance;
+import it.polimi.ramses.knowledge.domain.metrics.LatencyHistogram;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -17,13 +22,24 @@ public class InstanceStats {
     private Instance instance;
     private double averageResponseTime;
     private double availability;
+    // NaN if the service has no PercentileResponseTime specification
+    private double percentileResponseTime;
+    // Latency histogram of the successful requests of the metrics window. Null if not available
+    private LatencyHistogram successfulRequestsHistogram;
+    // Requests per second and CPU usage of the instance. NaN if the service has no Throughput/Utilization specification
+    private double throughput;
+    private double utilization;
     private double vulnerabilityScore;
     private boolean fromNewData;
 
-    public InstanceStats(Instance instance, double averageResponseTime, double availability) {
+    public InstanceStats(Instance instance, double averageResponseTime, double availability, double percentileResponseTime, LatencyHistogram successfulRequestsHistogram, double throughput, double utilization) {
         this.instance = instance;
         this.averageResponseTime = averageResponseTime;
         this.availability = availability;
+        this.percentileResponseTime = percentileResponseTime;
+        this.successfulRequestsHistogram = successfulRequestsHistogram;
+        this.throughput = throughput;
+        this.utilization = utilization;
         this.vulnerabilityScore = instance.getVulnerabilityScore();
         fromNewData = true;
     }
@@ -32,8 +48,16 @@ public class InstanceStats {
         this.instance = instance;
         availability = instance.getLatestValueForQoS(Availability.class).getDoubleValue();
         averageResponseTime = instance.getLatestValueForQoS(AverageResponseTime.class).getDoubleValue();
+        percentileResponseTime = getLatestValueIfSpecified(instance, PercentileResponseTime.class);
+        throughput = getLatestValueIfSpecified(instance, Throughput.class);
+        utilization = getLatestValueIfSpecified(instance, Utilization.class);
         vulnerabilityScore = instance.getVulnerabilityScore();
         this.fromNewData = false;
     }
 
+    private static double getLatestValueIfSpecified(Instance instance, Class<? extends QoSSpecification> qosClass) {
+        return instance.getQoSCollection().getQoSHistory(qosClass) == null ? Double.NaN :
+                instance.getLatestValueForQoS(qosClass).getDoubleValue();
+    }
+
 }
@@ -0,0 +1,126 @@
+package it.polimi.ramses.analyse.domain;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Online forecast of the request rate of each service, with Holt's linear trend method (double exponential smoothing):
+// the level of the rate and its trend, in requests/s per second, are smoothed at each observation and the rate is
+// projected linearly from them. The observations come at the (irregular) times of the analysis iterations, so the
+// trend is updated on the time elapsed since the previous observation rather than on the number of observations.
+// The rate of a service is the one of all its instances, so it does not change when the service is scaled.
+// The model of a service can be seeded with the rates observed before it was created (e.g., before a restart of the
+// Analyse), so that the service is forecast without waiting for the warm up observations.
+@Slf4j
+@Component
+public class RequestRateForecaster {
+    @Getter
+    private final double levelSmoothing;
+    @Getter
+    private final double trendSmoothing;
+    // Number of observations of a service before its rate is forecast
+    @Getter
+    private final int warmUpObservations;
+    // <serviceId, model of its request rate>
+    private final Map<String, Model> models = new ConcurrentHashMap<>();
+
+    public RequestRateForecaster(
+        @Value("${FORECAST_LEVEL_SMOOTHING}") double levelSmoothing,
+        @Value("${FORECAST_TREND_SMOOTHING}") double trendSmoothing,
+        @Value("${FORECAST_WARM_UP_OBSERVATIONS}") int warmUpObservations
+    ) {
+        if (levelSmoothing <= 0 || levelSmoothing > 1)
+            throw new IllegalArgumentException("Forecast level smoothing must be in (0, 1].");
+        if (trendSmoothing <= 0 || trendSmoothing > 1)
+            throw new IllegalArgumentException("Forecast trend smoothing must be in (0, 1].");
+        if (warmUpObservations < 2)
+            throw new IllegalArgumentException("Forecast warm up observations must be greater than 1.");
+        this.levelSmoothing = levelSmoothing;
+        this.trendSmoothing = trendSmoothing;
+        this.warmUpObservations = warmUpObservations;
+    }
+
+    // Adds the request rate of the service observed at the given time. Observations not newer than the latest one are ignored
+    public void observe(String serviceId, double requestRate, Date timestamp) {
+        if (Double.isNaN(requestRate))
+            return;
+        Model model = models.computeIfAbsent(serviceId, id -> new Model());
+        synchronized (model) {
+            model.update(requestRate, timestamp.getTime());
+        }
+    }
+
+    // Creates the model of the service from its past request rates (<timestamp in milliseconds, requests/s>), unless it already has one
+    public void seed(String serviceId, SortedMap<Long, Double> requestRates) {
+        models.computeIfAbsent(serviceId, id -> {
+            Model model = new Model();
+            requestRates.forEach((timestamp, requestRate) -> {
+                if (!Double.isNaN(requestRate))
+                    model.update(requestRate, timestamp);
+            });
+            if (model.observations > 0)
+                log.debug("{}: request rate model seeded with {} past observations", serviceId, model.observations);
+            return model;
+        });
+    }
+
+    public boolean hasModel(String serviceId) {
+        return models.containsKey(serviceId);
+    }
+
+    // The services with a model
+    public Set<String> getServiceIds() {
+        return Set.copyOf(models.keySet());
+    }
+
+    /**
+     * Forecasts the request rate of the service.
+     * @param horizonSeconds the time after the latest observation of the service
+     * @return the forecast in requests/s, or null if the service has less than warmUpObservations observations
+     */
+    public Double forecast(String serviceId, long horizonSeconds) {
+        Model model = models.get(serviceId);
+        if (model == null)
+            return null;
+        synchronized (model) {
+            if (model.observations < warmUpObservations)
+                return null;
+            return Math.max(0, model.level + model.trend * horizonSeconds);
+        }
+    }
+
+    public void remove(String serviceId) {
+        models.remove(serviceId);
+    }
+
+    private class Model {
+        private int observations = 0;
+        private double level;
+        // Requests/s per second
+        private double trend;
+        private long latestTimestamp;
+
+        private void update(double requestRate, long timestamp) {
+            if (observations == 0) {
+                level = requestRate;
+                trend = 0;
+            } else {
+                if (timestamp <= latestTimestamp)
+                    return;
+                double elapsedSeconds = (timestamp - latestTimestamp) / 1000.0;
+                double previousLevel = level;
+                level = levelSmoothing * requestRate + (1 - levelSmoothing) * (level + trend * elapsedSeconds);
+                trend = trendSmoothing * (level - previousLevel) / elapsedSeconds + (1 - trendSmoothing) * trend;
+            }
+            latestTimestamp = timestamp;
+            observations++;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package it.polimi.ramses.analyse.domain;
+
+import it.polimi.ramses.knowledge.domain.adaptation.options.AdaptationOption;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+// Result of the analysis of a single service, computed in parallel with the ones of the other services
+@Getter
+@AllArgsConstructor
+public class ServiceAnalysis {
+    // Adaptation Options to apply regardless of the dependencies (e.g., the shutdown of a failed instance)
+    private final List<AdaptationOption> forcedAdaptationOptions;
+    // True if the service is in the servicesToSkip set of the AnalyseService
+    private final boolean skipped;
+    // True if the service is in transient state or requires adaptation, i.e., if its dependents must wait for it
+    private final boolean requiringOrCompletingAdaptation;
+    // Adaptation Options computed from the QoS values of the service. Null if it is skipped or if its analysis window is not filled yet
+    private final List<AdaptationOption> ownAdaptationOptions;
+}
@@ -1,10 +1,13 @@
 package it.polimi.ramses.analyse.externalInterfaces;
 
+import it.polimi.ramses.knowledge.codec.InterModuleFeignConfiguration;
 import it.polimi.ramses.knowledge.domain.Modules;
 import it.polimi.ramses.knowledge.domain.adaptation.options.AdaptationOption;
 import it.polimi.ramses.knowledge.domain.adaptation.values.QoSCollection;
 import it.polimi.ramses.knowledge.domain.architecture.Service;
 import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceWindowStats;
+import it.polimi.ramses.knowledge.rest.api.ServicesMapDelta;
 import it.polimi.ramses.knowledge.rest.api.UpdateServiceQosCollectionRequest;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.http.ResponseEntity;
@@ -14,7 +17,7 @@ import java.util.List;
 import java.util.Map;
 
 
-@FeignClient(name = "KNOWLEDGE", url = "${KNOWLEDGE_URL}")
+@FeignClient(name = "KNOWLEDGE", url = "${KNOWLEDGE_URL}", configuration = InterModuleFeignConfiguration.class)
 public interface KnowledgeClient {
     @PutMapping("/rest/activeModule")
     ResponseEntity<String> notifyModuleStart(@RequestParam Modules module);
@@ -22,6 +25,10 @@ public interface KnowledgeClient {
     @GetMapping("/rest/servicesMap")
     Map<String, Service> getServicesMap();
 
+    // Services changed since the given version of the services map. See ServicesMapCache
+    @GetMapping("/rest/servicesMap/changes")
+    ServicesMapDelta getServicesMapChanges(@RequestParam long epoch, @RequestParam long since);
+
     @GetMapping("/rest/metrics/getLatestNOfCurrentInstance")
     List<InstanceMetricsSnapshot> getLatestNMetricsOfCurrentInstance(
             @RequestParam String serviceId,
@@ -29,6 +36,10 @@ public interface KnowledgeClient {
             @RequestParam int n
     );
 
+    // <serviceId, <instanceId, statistics of the latest n metrics>> of the instances that are neither booting, failed nor shut down
+    @GetMapping("/rest/metrics/getLatestNWindowStatsOfAnalysableInstances")
+    Map<String, Map<String, InstanceWindowStats>> getLatestNWindowStatsOfAnalysableInstances(@RequestParam int n);
+
     @PostMapping("/rest/proposeAdaptationOptions")
     ResponseEntity<String> proposeAdaptationOptions(@RequestBody Map<String, List<AdaptationOption>> adaptationOptions);
 
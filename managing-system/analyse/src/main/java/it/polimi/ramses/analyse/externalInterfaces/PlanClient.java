@@ -1,9 +1,10 @@
 package it.polimi.ramses.analyse.externalInterfaces;
 
+import it.polimi.ramses.knowledge.codec.InterModuleFeignConfiguration;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.GetMapping;
 
-@FeignClient(name = "PLAN", url = "${PLAN_URL}")
+@FeignClient(name = "PLAN", url = "${PLAN_URL}", configuration = InterModuleFeignConfiguration.class)
 public interface PlanClient {
 
     @GetMapping(path="/rest/start")
@@ -0,0 +1,326 @@
+package it.polimi.ramses.analyse.domain;
+
+import it.polimi.ramses.analyse.externalInterfaces.KnowledgeClient;
+import it.polimi.ramses.knowledge.domain.Modules;
+import it.polimi.ramses.knowledge.domain.adaptation.options.AdaptationOption;
+import it.polimi.ramses.knowledge.domain.adaptation.options.AddInstanceOption;
+import it.polimi.ramses.knowledge.domain.adaptation.options.ChangeLoadBalancerWeightsOption;
+import it.polimi.ramses.knowledge.domain.adaptation.options.ShutdownInstanceOption;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.Availability;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.AverageResponseTime;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.LoadSpecification;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.PercentileResponseTime;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.QoSSpecification;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.Throughput;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.Utilization;
+import it.polimi.ramses.knowledge.domain.adaptation.values.QoSCollection;
+import it.polimi.ramses.knowledge.domain.architecture.Instance;
+import it.polimi.ramses.knowledge.domain.architecture.InstanceStatus;
+import it.polimi.ramses.knowledge.domain.architecture.Service;
+import it.polimi.ramses.knowledge.domain.architecture.ServiceConfiguration;
+import it.polimi.ramses.knowledge.domain.architecture.ServiceImplementation;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceWindowStats;
+import it.polimi.ramses.knowledge.domain.metrics.LatencyHistogram;
+import it.polimi.ramses.knowledge.rest.api.ServicesMapDelta;
+import it.polimi.ramses.knowledge.rest.api.UpdateServiceQosCollectionRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Analysis of the QoS that a service may not have (see AnalyseService.getOptionalQoSClasses). Each test analyses a
+// service with two active instances, whose QoS histories hold all but the latest value of the analysis window, so that
+// the analysis fills the window and proposes the adaptation options of the service. Availability and average response
+// time are satisfied.
+class OptionalQoSAnalysisTest {
+    private static final String SERVICE_ID = "SERVICE";
+    private static final long TIMESTAMP = 1_700_000_000_000L;
+    private static final int ANALYSIS_WINDOW_SIZE = 3;
+    private static final int METRICS_WINDOW_SIZE = 2;
+    private static final long MAX_BOOT_TIME_SECONDS = 120;
+    // Time span of the requests of the metrics windows, in ms
+    private static final long REQUESTS_TIME_SPAN = 10_000;
+    private static final double[] BUCKET_BOUNDS = {100, 250, 500, 1000};
+
+    private final RequestRateForecaster requestRateForecaster = new RequestRateForecaster(0.5, 0.3, 3);
+    private final Map<String, InstanceWindowStats> windowsStats = new HashMap<>();
+    private Service service;
+    private Instance first, second;
+    private Service analysedService;
+
+    @Test
+    void percentileAboveThresholdProposesNewInstanceAndWeightsChange() {
+        PercentileResponseTime percentileResponseTime = new PercentileResponseTime();
+        percentileResponseTime.setWeight(1.0);
+        percentileResponseTime.setPercentile(95);
+        percentileResponseTime.setMaxThreshold(300);
+        createService(percentileResponseTime);
+        fillHistory(service.getCurrentImplementation().getQoSCollection(), PercentileResponseTime.class, 400, 400);
+        fillHistory(first.getQoSCollection(), PercentileResponseTime.class, 400, 400);
+        fillHistory(second.getQoSCollection(), PercentileResponseTime.class, 200, 200);
+        // The requests of the first instance take 250-500 ms, the ones of the second 100-250 ms
+        addWindowStats(first, 10, Double.NaN, createHistogram(0, 0, 100, 100));
+        addWindowStats(second, 10, Double.NaN, createHistogram(0, 100, 100, 100));
+
+        List<AdaptationOption> options = analyse();
+        // The p95 of the service is the one of the merged histograms: 250 + 250 * (190 - 100) / (200 - 100)
+        assertEquals(475, getLatestServiceValue(PercentileResponseTime.class), 1e-9);
+        assertEquals(487.5, getLatestInstanceValue(first, PercentileResponseTime.class), 1e-9);
+        // The second instance satisfies the specification, so its share of the requests can grow
+        assertEquals(Set.of(AddInstanceOption.class, ChangeLoadBalancerWeightsOption.class),
+                getOptionsFor(options, PercentileResponseTime.class).stream().map(Object::getClass).collect(Collectors.toSet()));
+    }
+
+    @Test
+    void throughputAboveBandProposesNewInstance() {
+        createService(createLoadSpecification(new Throughput(), 5, 20));
+        fillHistory(service.getCurrentImplementation().getQoSCollection(), Throughput.class, 30, 30);
+        fillHistory(first.getQoSCollection(), Throughput.class, 30, 30);
+        fillHistory(second.getQoSCollection(), Throughput.class, 30, 30);
+        addWindowStats(first, 30, Double.NaN, null);
+        addWindowStats(second, 30, Double.NaN, null);
+
+        List<AdaptationOption> throughputOptions = getOptionsFor(analyse(), Throughput.class);
+        assertEquals(30, getLatestServiceValue(Throughput.class), 1e-9);
+        // The forecast is also above the band, but the instance is already proposed
+        assertEquals(1, throughputOptions.size());
+        AddInstanceOption addInstanceOption = assertInstanceOf(AddInstanceOption.class, throughputOptions.get(0));
+        assertNull(addInstanceOption.getForecastedLoad());
+    }
+
+    @Test
+    void throughputBelowBandShutsDownLeastLoadedInstance() {
+        createService(createLoadSpecification(new Throughput(), 5, 20));
+        fillHistory(service.getCurrentImplementation().getQoSCollection(), Throughput.class, 1.5, 1.5);
+        fillHistory(first.getQoSCollection(), Throughput.class, 2, 2);
+        fillHistory(second.getQoSCollection(), Throughput.class, 1, 1);
+        addWindowStats(first, 2, Double.NaN, null);
+        addWindowStats(second, 1, Double.NaN, null);
+
+        List<AdaptationOption> throughputOptions = getOptionsFor(analyse(), Throughput.class);
+        assertEquals(1.5, getLatestServiceValue(Throughput.class), 1e-9);
+        // The request rate is steady, so the remaining instance can take it
+        assertEquals(1, throughputOptions.size());
+        ShutdownInstanceOption shutdownInstanceOption = assertInstanceOf(ShutdownInstanceOption.class, throughputOptions.get(0));
+        assertEquals(second.getInstanceId(), shutdownInstanceOption.getInstanceToShutdownId());
+    }
+
+    @Test
+    void throughputShutdownIsWithdrawnWhenForecastIsAboveBand() {
+        createService(createLoadSpecification(new Throughput(), 5, 20));
+        fillHistory(service.getCurrentImplementation().getQoSCollection(), Throughput.class, 1, 3);
+        fillHistory(first.getQoSCollection(), Throughput.class, 0.5, 1.5);
+        fillHistory(second.getQoSCollection(), Throughput.class, 0.5, 1.5);
+        addWindowStats(first, 7, Double.NaN, null);
+        addWindowStats(second, 7, Double.NaN, null);
+        // The request rate of the service grows by 0.25 requests/s per second, up to the 14 requests/s of the analysis
+        observeRequestRates(4, 6.5, 9, 11.5);
+
+        // The service is below the band in 2 of the 3 values of its window, but the forecast rate (about 34 requests/s)
+        // would be above it on a single instance, and not on the current two
+        assertTrue(getOptionsFor(analyse(), Throughput.class).isEmpty());
+    }
+
+    @Test
+    void throughputForecastAboveBandProposesNewInstanceAhead() {
+        createService(createLoadSpecification(new Throughput(), 5, 20));
+        fillHistory(service.getCurrentImplementation().getQoSCollection(), Throughput.class, 8, 8);
+        fillHistory(first.getQoSCollection(), Throughput.class, 8, 8);
+        fillHistory(second.getQoSCollection(), Throughput.class, 8, 8);
+        addWindowStats(first, 9, Double.NaN, null);
+        addWindowStats(second, 9, Double.NaN, null);
+        // The request rate of the service grows by 0.4 requests/s per second, up to the 18 requests/s of the analysis
+        observeRequestRates(2, 6, 10, 14);
+
+        List<AdaptationOption> throughputOptions = getOptionsFor(analyse(), Throughput.class);
+        // The service is in the band, but not the forecast rate (about 50 requests/s) on the current two instances
+        assertEquals(1, throughputOptions.size());
+        AddInstanceOption addInstanceOption = assertInstanceOf(AddInstanceOption.class, throughputOptions.get(0));
+        assertNotNull(addInstanceOption.getForecastedLoad());
+        assertTrue(addInstanceOption.getForecastedLoad() > 20, "Forecast load " + addInstanceOption.getForecastedLoad());
+    }
+
+    @Test
+    void utilizationOfInstanceWithoutCurrentValueFallsBackToService() {
+        createService(createLoadSpecification(new Utilization(), 0.3, 0.8));
+        fillHistory(service.getCurrentImplementation().getQoSCollection(), Utilization.class, 0.1, 0.1);
+        service.changeCurrentValueForQoS(Utilization.class, 0.2, new Date(TIMESTAMP - 60_000));
+        fillHistory(first.getQoSCollection(), Utilization.class, 0.1, 0.1);
+        fillHistory(second.getQoSCollection(), Utilization.class, 0.1, 0.1);
+        // The first instance does not expose its CPU usage and has no current value to use in its place
+        first.getQoSCollection().getQoSHistory(Utilization.class).setCurrentValue(null);
+        addWindowStats(first, 10, Double.NaN, null);
+        addWindowStats(second, 10, 0.1, null);
+
+        List<AdaptationOption> utilizationOptions = getOptionsFor(analyse(), Utilization.class);
+        assertEquals(0.2, getLatestInstanceValue(first, Utilization.class), 1e-9);
+        assertEquals(0.15, getLatestServiceValue(Utilization.class), 1e-9);
+        assertEquals(1, utilizationOptions.size());
+        ShutdownInstanceOption shutdownInstanceOption = assertInstanceOf(ShutdownInstanceOption.class, utilizationOptions.get(0));
+        assertEquals(second.getInstanceId(), shutdownInstanceOption.getInstanceToShutdownId());
+    }
+
+    // Analyses the service and returns its proposed adaptation options
+    private List<AdaptationOption> analyse() {
+        KnowledgeStub knowledgeStub = new KnowledgeStub();
+        AnalyseService analyseService = new AnalyseService(ANALYSIS_WINDOW_SIZE, METRICS_WINDOW_SIZE, 0.1, 0.35, 0.6,
+                MAX_BOOT_TIME_SECONDS, 1, "");
+        analyseService.setClock(Clock.fixed(Instant.ofEpochMilli(TIMESTAMP), ZoneOffset.UTC));
+        analyseService.setKnowledgeClient(knowledgeStub);
+        analyseService.setRequestRateForecaster(requestRateForecaster);
+        analyseService.setPlanClient(() -> "OK");
+        analyseService.init();
+        try {
+            analyseService.startAnalysis();
+        } finally {
+            analyseService.destroy();
+        }
+        analysedService = analyseService.getCurrentArchitectureMap().get(SERVICE_ID);
+        return knowledgeStub.proposedAdaptationOptions.getOrDefault(SERVICE_ID, List.of());
+    }
+
+    // A service with a single implementation, Availability, average response time and the given specification
+    private void createService(QoSSpecification optionalSpecification) {
+        ServiceImplementation implementation = new ServiceImplementation("service-impl", 1.0, 1, 0.4);
+        implementation.setBenchmark(Availability.class, 0.99);
+        implementation.setBenchmark(AverageResponseTime.class, 100.0);
+        implementation.setBenchmark(PercentileResponseTime.class, 200.0);
+        implementation.setBenchmark(Throughput.class, 10.0);
+        implementation.setBenchmark(Utilization.class, 0.5);
+        service = new Service(SERVICE_ID, List.of(implementation), List.of());
+        service.setCurrentImplementationId(implementation.getImplementationId());
+        service.setLatestAdaptationDate(new Date(TIMESTAMP - 600_000));
+        Availability availability = new Availability();
+        availability.setWeight(1.0);
+        availability.setMinThreshold(0.9);
+        AverageResponseTime averageResponseTime = new AverageResponseTime();
+        averageResponseTime.setWeight(1.0);
+        averageResponseTime.setMaxThreshold(200.0);
+        service.setAllQoS(List.<QoSSpecification>of(availability, averageResponseTime, optionalSpecification));
+
+        ServiceConfiguration configuration = new ServiceConfiguration(SERVICE_ID);
+        configuration.setTimestamp(new Date(TIMESTAMP - 600_000));
+        configuration.setLoadBalancerType(ServiceConfiguration.LoadBalancerType.WEIGHTED_RANDOM);
+        service.setConfiguration(configuration);
+        first = createInstance("10.0.0.1:58080");
+        second = createInstance("10.0.0.2:58080");
+        fillHistory(service.getCurrentImplementation().getQoSCollection(), Availability.class, 0.99, 0.99);
+        fillHistory(service.getCurrentImplementation().getQoSCollection(), AverageResponseTime.class, 100, 100);
+    }
+
+    private Instance createInstance(String address) {
+        Instance instance = service.createInstance(address);
+        instance.setCurrentStatus(InstanceStatus.ACTIVE);
+        service.getConfiguration().addLoadBalancerWeight(instance.getInstanceId(), 0.5);
+        fillHistory(instance.getQoSCollection(), Availability.class, 0.99, 0.99);
+        fillHistory(instance.getQoSCollection(), AverageResponseTime.class, 100, 100);
+        return instance;
+    }
+
+    private static <T extends LoadSpecification> T createLoadSpecification(T loadSpecification, double minThreshold, double maxThreshold) {
+        loadSpecification.setWeight(1.0);
+        loadSpecification.setMinThreshold(minThreshold);
+        loadSpecification.setMaxThreshold(maxThreshold);
+        return loadSpecification;
+    }
+
+    // Adds the values to the history, one per minute, the latest one a minute before the analysis
+    private static void fillHistory(QoSCollection qoSCollection, Class<? extends QoSSpecification> qosClass, double... values) {
+        for (int i = 0; i < values.length; i++)
+            qoSCollection.createNewQoSValue(qosClass, values[i], new Date(TIMESTAMP - (values.length - i) * 60_000L));
+    }
+
+    // Metrics window of an active instance serving the given request rate, all successful in 100 ms. A NaN CPU usage is not exposed
+    private void addWindowStats(Instance instance, double requestRate, double cpuUsage, LatencyHistogram histogram) {
+        InstanceWindowStats stats = new InstanceWindowStats(SERVICE_ID, instance.getInstanceId());
+        stats.setSnapshotsCount(METRICS_WINDOW_SIZE);
+        stats.setActiveCount(METRICS_WINDOW_SIZE);
+        stats.setRequestsTimeSpan(REQUESTS_TIME_SPAN);
+        stats.setTotalRequestsCount(requestRate * REQUESTS_TIME_SPAN / 1000);
+        stats.setSuccessfulRequestsCount(stats.getTotalRequestsCount());
+        stats.setSuccessfulRequestsDuration(stats.getTotalRequestsCount() * 100);
+        if (!Double.isNaN(cpuUsage)) {
+            stats.setCpuUsageSum(cpuUsage * METRICS_WINDOW_SIZE);
+            stats.setCpuUsageCount(METRICS_WINDOW_SIZE);
+        }
+        stats.setSuccessfulRequestsHistogram(histogram);
+        windowsStats.put(instance.getInstanceId(), stats);
+    }
+
+    private static LatencyHistogram createHistogram(long... cumulativeCounts) {
+        LatencyHistogram histogram = new LatencyHistogram(BUCKET_BOUNDS);
+        histogram.setBucketCounts(cumulativeCounts);
+        histogram.setCount(cumulativeCounts[cumulativeCounts.length - 1]);
+        return histogram;
+    }
+
+    // Request rates of the service observed every 10 seconds, the latest one 10 seconds before the analysis
+    private void observeRequestRates(double... requestRates) {
+        for (int i = 0; i < requestRates.length; i++)
+            requestRateForecaster.observe(SERVICE_ID, requestRates[i], new Date(TIMESTAMP - (requestRates.length - i) * 10_000L));
+    }
+
+    private double getLatestServiceValue(Class<? extends QoSSpecification> qosClass) {
+        return analysedService.getCurrentImplementation().getQoSCollection().getQoSHistory(qosClass).getLatestValue().getDoubleValue();
+    }
+
+    private double getLatestInstanceValue(Instance instance, Class<? extends QoSSpecification> qosClass) {
+        return analysedService.getInstance(instance.getInstanceId()).getQoSCollection().getQoSHistory(qosClass).getLatestValue().getDoubleValue();
+    }
+
+    private static List<AdaptationOption> getOptionsFor(List<AdaptationOption> options, Class<? extends QoSSpecification> qosGoal) {
+        return options.stream().filter(option -> option.getQosGoal() == qosGoal).toList();
+    }
+
+    // Serves the service and the metrics windows of its instances, and records the proposed adaptation options
+    private class KnowledgeStub implements KnowledgeClient {
+        private Map<String, List<AdaptationOption>> proposedAdaptationOptions = Map.of();
+
+        @Override
+        public ResponseEntity<String> notifyModuleStart(Modules module) {
+            return ResponseEntity.ok().build();
+        }
+
+        @Override
+        public Map<String, Service> getServicesMap() {
+            return Map.of(SERVICE_ID, service);
+        }
+
+        @Override
+        public ServicesMapDelta getServicesMapChanges(long epoch, long since) {
+            return new ServicesMapDelta(1, 1, true, new HashMap<>(Map.of(SERVICE_ID, service)));
+        }
+
+        @Override
+        public List<InstanceMetricsSnapshot> getLatestNMetricsOfCurrentInstance(String serviceId, String instanceId, int n) {
+            return List.of();
+        }
+
+        @Override
+        public Map<String, Map<String, InstanceWindowStats>> getLatestNWindowStatsOfAnalysableInstances(int n) {
+            return Map.of(SERVICE_ID, windowsStats);
+        }
+
+        @Override
+        public ResponseEntity<String> proposeAdaptationOptions(Map<String, List<AdaptationOption>> adaptationOptions) {
+            proposedAdaptationOptions = adaptationOptions;
+            return ResponseEntity.ok().build();
+        }
+
+        @Override
+        public String setFailedModule(Modules module) {
+            return "OK";
+        }
+
+        @Override
+        public void updateServiceQosCollection(UpdateServiceQosCollectionRequest request) {
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package it.polimi.ramses.analyse.domain;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.polimi.ramses.analyse.externalInterfaces.KnowledgeClient;
+import it.polimi.ramses.knowledge.domain.Modules;
+import it.polimi.ramses.knowledge.domain.adaptation.options.AdaptationOption;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.Availability;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.AverageResponseTime;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.QoSSpecification;
+import it.polimi.ramses.knowledge.domain.adaptation.values.QoSHistory;
+import it.polimi.ramses.knowledge.domain.architecture.Instance;
+import it.polimi.ramses.knowledge.domain.architecture.InstanceStatus;
+import it.polimi.ramses.knowledge.domain.architecture.Service;
+import it.polimi.ramses.knowledge.domain.architecture.ServiceConfiguration;
+import it.polimi.ramses.knowledge.domain.architecture.ServiceImplementation;
+import it.polimi.ramses.knowledge.domain.metrics.HttpEndpointMetrics;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceWindowStats;
+import it.polimi.ramses.knowledge.rest.api.ServicesMapDelta;
+import it.polimi.ramses.knowledge.rest.api.UpdateServiceQosCollectionRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// Regression test of the parallel analysis. Each input is analysed by an AnalyseService with ANALYSIS_PARALLELISM=1
+// (the services are analysed one after the other) and by one with a higher parallelism, both against a stub of the
+// Knowledge serving the same copy of the input. The test fails unless the two runs propose the same adaptation
+// options, skip the same services, push the same QoS values to the Knowledge and leave the services in the same state.
+// The inputs are synthetic architectures, with random dependencies (including cycles), instance statuses, QoS
+// histories and metrics windows, and the recordings of the Analyse found in ANALYSIS_RECORDING_DIR, if set.
+class ParallelAnalysisRegressionTest {
+    private static final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+    private static final int PARALLELISM = 4;
+    private static final int SYNTHETIC_INPUTS = 50;
+    private static final int SERVICES = 20;
+    private static final int INSTANCES_PER_SERVICE = 4;
+    private static final long SEED = 42;
+
+    @Test
+    void parallelAnalysisMatchesSequentialOnSyntheticArchitectures() throws IOException {
+        Map<String, byte[]> inputs = new LinkedHashMap<>();
+        Random random = new Random(SEED);
+        for (int i = 0; i < SYNTHETIC_INPUTS; i++)
+            inputs.put("synthetic-" + i, mapper.writeValueAsBytes(createSyntheticRecording(random, SERVICES, INSTANCES_PER_SERVICE)));
+        assertEquals(Map.of(), findMismatches(inputs), "Inputs analysed differently with parallelism " + PARALLELISM + " (seed " + SEED + ")");
+    }
+
+    @Test
+    void parallelAnalysisMatchesSequentialOnRecordings() throws IOException {
+        String recordingDir = System.getenv("ANALYSIS_RECORDING_DIR");
+        assumeTrue(recordingDir != null && !recordingDir.isEmpty(), "ANALYSIS_RECORDING_DIR not set");
+        List<File> recordingFiles = AnalysisRecording.listRecordings(new File(recordingDir));
+        assumeTrue(!recordingFiles.isEmpty(), "No recordings in " + recordingDir);
+        Map<String, byte[]> inputs = new LinkedHashMap<>();
+        for (File file : recordingFiles)
+            inputs.put(file.getPath(), mapper.writeValueAsBytes(mapper.readValue(file, AnalysisRecording.class)));
+        assertEquals(Map.of(), findMismatches(inputs), "Recordings analysed differently with parallelism " + PARALLELISM);
+    }
+
+    // <input, differences between the sequential and the parallel run>, for the inputs where the two runs differ
+    private static Map<String, List<String>> findMismatches(Map<String, byte[]> inputs) throws IOException {
+        Map<String, List<String>> mismatches = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> input : inputs.entrySet()) {
+            // Each run gets its own copy of the input, since the analysis changes the services
+            Run sequential = run(mapper.readValue(input.getValue(), AnalysisRecording.class), 1);
+            Run parallel = run(mapper.readValue(input.getValue(), AnalysisRecording.class), PARALLELISM);
+            List<String> differences = sequential.compareTo(parallel);
+            if (!differences.isEmpty())
+                mismatches.put(input.getKey(), differences);
+        }
+        return mismatches;
+    }
+
+    private static Run run(AnalysisRecording recording, int parallelism) {
+        Run run = new Run();
+        AnalyseService analyseService = new AnalyseService(recording.getAnalysisWindowSize(), recording.getMetricsWindowSize(),
+                recording.getFailureRateThreshold(), recording.getUnreachableRateThreshold(), recording.getQosSatisfactionRate(),
+                recording.getMaxBootTimeSeconds(), parallelism, "");
+        analyseService.setClock(Clock.fixed(Instant.ofEpochMilli(recording.getTimestamp()), ZoneOffset.UTC));
+        analyseService.setKnowledgeClient(new KnowledgeStub(recording, run));
+        analyseService.setRequestRateForecaster(new RequestRateForecaster(0.5, 0.3, 3));
+        analyseService.setPlanClient(() -> {
+            run.planStarted = true;
+            return "OK";
+        });
+        analyseService.init();
+        try {
+            analyseService.startAnalysis();
+        } catch (RuntimeException e) {
+            // Already reported to the stub of the Knowledge
+        } finally {
+            analyseService.destroy();
+        }
+        run.skippedServices = analyseService.getServicesToSkip() == null ? Set.of() : new TreeSet<>(analyseService.getServicesToSkip());
+        run.servicesAfterAnalysis = analyseService.getCurrentArchitectureMap();
+        return run;
+    }
+
+    // Outcome of an analysis, as seen by the Knowledge and the Plan
+    private static class Run {
+        private boolean failed;
+        private boolean planStarted;
+        private Map<String, List<AdaptationOption>> proposedAdaptationOptions;
+        private final Map<String, UpdateServiceQosCollectionRequest> qosUpdates = new TreeMap<>();
+        private Set<String> skippedServices;
+        private Map<String, Service> servicesAfterAnalysis;
+
+        private List<String> compareTo(Run other) {
+            List<String> differences = new ArrayList<>();
+            if (failed != other.failed)
+                differences.add("failure");
+            // The services analysed before a failure depend on the scheduling
+            if (failed || other.failed)
+                return differences;
+            if (planStarted != other.planStarted)
+                differences.add("start of the Plan");
+            if (!Objects.equals(mapper.valueToTree(proposedAdaptationOptions), mapper.valueToTree(other.proposedAdaptationOptions)))
+                differences.add("proposed adaptation options");
+            if (!skippedServices.equals(other.skippedServices))
+                differences.add("skipped services " + skippedServices + " vs " + other.skippedServices);
+            if (!mapper.valueToTree(qosUpdates).equals(mapper.valueToTree(other.qosUpdates)))
+                differences.add("QoS values sent to the Knowledge");
+            JsonNode services = mapper.valueToTree(servicesAfterAnalysis), otherServices = mapper.valueToTree(other.servicesAfterAnalysis);
+            if (!Objects.equals(services, otherServices))
+                differences.add("services after the analysis");
+            return differences;
+        }
+    }
+
+    // Serves the recorded inputs and records what the analysis sends to the Knowledge
+    private static class KnowledgeStub implements KnowledgeClient {
+        private final AnalysisRecording recording;
+        private final Run run;
+
+        private KnowledgeStub(AnalysisRecording recording, Run run) {
+            this.recording = recording;
+            this.run = run;
+        }
+
+        @Override
+        public ResponseEntity<String> notifyModuleStart(Modules module) {
+            return ResponseEntity.ok().build();
+        }
+
+        @Override
+        public Map<String, Service> getServicesMap() {
+            return recording.getServicesMap();
+        }
+
+        @Override
+        public ServicesMapDelta getServicesMapChanges(long epoch, long since) {
+            return new ServicesMapDelta(1, 1, true, recording.getServicesMap());
+        }
+
+        @Override
+        public List<InstanceMetricsSnapshot> getLatestNMetricsOfCurrentInstance(String serviceId, String instanceId, int n) {
+            // The instances missing from the recorded windows had no metrics when the analysis was recorded
+            return List.of();
+        }
+
+        @Override
+        public Map<String, Map<String, InstanceWindowStats>> getLatestNWindowStatsOfAnalysableInstances(int n) {
+            return recording.getWindowsStats();
+        }
+
+        @Override
+        public ResponseEntity<String> proposeAdaptationOptions(Map<String, List<AdaptationOption>> adaptationOptions) {
+            run.proposedAdaptationOptions = adaptationOptions;
+            return ResponseEntity.ok().build();
+        }
+
+        @Override
+        public String setFailedModule(Modules module) {
+            run.failed = true;
+            return "OK";
+        }
+
+        @Override
+        public void updateServiceQosCollection(UpdateServiceQosCollectionRequest request) {
+            synchronized (run.qosUpdates) {
+                if (run.qosUpdates.put(request.getServiceId(), request) != null)
+                    throw new RuntimeException("QoS values of " + request.getServiceId() + " sent twice");
+            }
+        }
+    }
+
+    private static AnalysisRecording createSyntheticRecording(Random random, int serviceCount, int instancesPerService) {
+        int metricsWindowSize = 2 + random.nextInt(4), analysisWindowSize = 1 + random.nextInt(5);
+        long maxBootTimeSeconds = 120, timestamp = 1_700_000_000_000L + random.nextInt(1_000_000);
+        Map<String, Service> servicesMap = new LinkedHashMap<>();
+        Map<String, Map<String, InstanceWindowStats>> windowsStats = new HashMap<>();
+        for (int s = 0; s < serviceCount; s++) {
+            String serviceId = "SERVICE-" + s;
+            // The dependencies mostly go to the previous services (a DAG), sometimes to the next ones (cycles)
+            List<String> dependencies = new ArrayList<>();
+            for (int d = 0; d < serviceCount; d++) {
+                if (d != s && random.nextInt(d < s ? 5 : 40) == 0)
+                    dependencies.add("SERVICE-" + d);
+            }
+            Service service = createService(random, serviceId, dependencies, instancesPerService, analysisWindowSize, timestamp, maxBootTimeSeconds);
+            servicesMap.put(serviceId, service);
+            Map<String, InstanceWindowStats> serviceWindowsStats = new HashMap<>();
+            for (Instance instance : service.getInstances()) {
+                InstanceStatus status = instance.getCurrentStatus();
+                // The Knowledge only sends the windows of the analysable instances, and some instances have no metrics yet
+                if (status == InstanceStatus.BOOTING || status == InstanceStatus.FAILED || status == InstanceStatus.SHUTDOWN || random.nextInt(10) == 0)
+                    continue;
+                int size = random.nextInt(8) == 0 ? metricsWindowSize - 1 : metricsWindowSize;
+                List<InstanceMetricsSnapshot> window = createMetricsWindow(random, instance, size, timestamp);
+                serviceWindowsStats.put(instance.getInstanceId(), InstanceWindowStats.of(serviceId, instance.getInstanceId(), window));
+            }
+            windowsStats.put(serviceId, serviceWindowsStats);
+        }
+        return new AnalysisRecording(timestamp, metricsWindowSize, analysisWindowSize, 0.1, 0.35, 0.6, maxBootTimeSeconds, servicesMap, windowsStats);
+    }
+
+    private static Service createService(Random random, String serviceId, List<String> dependencies, int instanceCount,
+                                         int analysisWindowSize, long timestamp, long maxBootTimeSeconds) {
+        List<ServiceImplementation> implementations = new ArrayList<>();
+        for (int i = 0; i < 1 + random.nextInt(2); i++) {
+            // A trust of 0 makes the analysis consider changing the implementation
+            ServiceImplementation implementation = new ServiceImplementation(serviceId.toLowerCase() + "-impl-" + i, 1.0, random.nextInt(3), 0.4);
+            implementation.setBenchmark(Availability.class, 0.9 + random.nextDouble() * 0.1);
+            implementation.setBenchmark(AverageResponseTime.class, 100.0 + random.nextDouble() * 150);
+            implementations.add(implementation);
+        }
+        Service service = new Service(serviceId, implementations, dependencies);
+        service.setCurrentImplementationId(implementations.get(0).getImplementationId());
+        service.setLatestAdaptationDate(new Date(timestamp - 600_000));
+        Availability availability = new Availability();
+        availability.setWeight(0.5);
+        availability.setMinThreshold(0.9);
+        AverageResponseTime averageResponseTime = new AverageResponseTime();
+        averageResponseTime.setWeight(0.5);
+        averageResponseTime.setMaxThreshold(200.0);
+        service.setAllQoS(List.<QoSSpecification>of(availability, averageResponseTime));
+
+        ServiceConfiguration configuration = new ServiceConfiguration(serviceId);
+        configuration.setTimestamp(new Date(timestamp - 600_000));
+        configuration.setLoadBalancerType(random.nextInt(4) == 0 ? ServiceConfiguration.LoadBalancerType.UNKNOWN : ServiceConfiguration.LoadBalancerType.WEIGHTED_RANDOM);
+        service.setConfiguration(configuration);
+        for (int i = 0; i < instanceCount; i++) {
+            Instance instance = service.createInstance("10.0.0." + i + ":" + (58080 + i));
+            instance.setCurrentStatus(randomStatus(random));
+            if (instance.getCurrentStatus() == InstanceStatus.BOOTING) {
+                // Some instances have been booting for longer than the maximum boot time
+                long bootTime = (long) (random.nextDouble() * 2 * maxBootTimeSeconds * 1000);
+                instance.getLatestInstanceMetricsSnapshot().setStatus(InstanceStatus.BOOTING);
+                instance.getLatestInstanceMetricsSnapshot().setTimestamp(new Date(timestamp - bootTime));
+            }
+            fillHistory(random, instance.getQoSCollection().getQoSHistory(Availability.class), 0.85, 0.15, analysisWindowSize + 2, timestamp);
+            fillHistory(random, instance.getQoSCollection().getQoSHistory(AverageResponseTime.class), 100, 150, analysisWindowSize + 2, timestamp);
+            configuration.addLoadBalancerWeight(instance.getInstanceId(), 1.0 / instanceCount);
+        }
+        fillHistory(random, service.getCurrentImplementation().getQoSCollection().getQoSHistory(Availability.class), 0.85, 0.15, analysisWindowSize + 2, timestamp);
+        fillHistory(random, service.getCurrentImplementation().getQoSCollection().getQoSHistory(AverageResponseTime.class), 100, 150, analysisWindowSize + 2, timestamp);
+        if (random.nextInt(5) == 0)
+            service.invalidateQoSHistory(Availability.class);
+        return service;
+    }
+
+    private static InstanceStatus randomStatus(Random random) {
+        int r = random.nextInt(40);
+        if (r == 0)
+            return InstanceStatus.BOOTING;
+        if (r == 1)
+            return InstanceStatus.FAILED;
+        if (r == 2)
+            return InstanceStatus.SHUTDOWN;
+        if (r == 3)
+            return InstanceStatus.UNREACHABLE;
+        return InstanceStatus.ACTIVE;
+    }
+
+    // Adds up to maxValues values in [min, min + range) to the history, one per minute before the given timestamp
+    private static void fillHistory(Random random, QoSHistory<?> history, double min, double range, int maxValues, long timestamp) {
+        int values = random.nextInt(maxValues + 1);
+        for (int i = values; i > 0; i--)
+            history.addValue(min + random.nextDouble() * range, new Date(timestamp - i * 60_000L));
+    }
+
+    // Snapshots of the instance, newest first, with cumulative counters as sent by the Monitor
+    private static List<InstanceMetricsSnapshot> createMetricsWindow(Random random, Instance instance, int size, long timestamp) {
+        List<InstanceMetricsSnapshot> window = new ArrayList<>();
+        long successes = random.nextInt(1000), errors = random.nextInt(10);
+        double duration = successes * 120.0;
+        double errorRate = random.nextInt(4) == 0 ? 0.3 : 0.02;
+        for (int i = size - 1; i >= 0; i--) {
+            InstanceMetricsSnapshot snapshot = new InstanceMetricsSnapshot(instance.getServiceId(), instance.getInstanceId());
+            int r = random.nextInt(20);
+            snapshot.setStatus(r == 0 ? InstanceStatus.UNREACHABLE : r == 1 ? InstanceStatus.FAILED : InstanceStatus.ACTIVE);
+            snapshot.setTimestamp(new Date(timestamp - i * 10_000L));
+            if (snapshot.isActive()) {
+                // Some instances receive no requests during the window
+                long requests = random.nextInt(10) == 0 ? 0 : random.nextInt(200);
+                long newErrors = Math.round(requests * errorRate * random.nextDouble());
+                successes += requests - newErrors;
+                errors += newErrors;
+                duration += (requests - newErrors) * (50 + random.nextDouble() * 250);
+                HttpEndpointMetrics endpointMetrics = new HttpEndpointMetrics();
+                endpointMetrics.setEndpoint("/api");
+                endpointMetrics.setHttpMethod("GET");
+                endpointMetrics.getOutcomeMetrics().put("SUCCESS", createOutcomeMetrics("SUCCESS", 200, successes, duration));
+                endpointMetrics.getOutcomeMetrics().put("SERVER_ERROR", createOutcomeMetrics("SERVER_ERROR", 500, errors, errors * 30.0));
+                snapshot.addHttpMetrics(endpointMetrics);
+            }
+            window.add(0, snapshot);
+        }
+        return window;
+    }
+
+    private static HttpEndpointMetrics.OutcomeMetrics createOutcomeMetrics(String outcome, int status, long count, double totalDuration) {
+        HttpEndpointMetrics.OutcomeMetrics outcomeMetrics = new HttpEndpointMetrics.OutcomeMetrics(outcome);
+        outcomeMetrics.setStatus(status);
+        outcomeMetrics.setCount(count);
+        outcomeMetrics.setTotalDuration(totalDuration);
+        return outcomeMetrics;
+    }
+}
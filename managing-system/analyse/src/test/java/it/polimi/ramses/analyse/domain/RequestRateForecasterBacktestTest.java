@@ -0,0 +1,238 @@
+package it.polimi.ramses.analyse.domain;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.Throughput;
+import it.polimi.ramses.knowledge.domain.architecture.Service;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceWindowStats;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// Backtest of the RequestRateForecaster. A request rate series is replayed in order and forecast one horizon ahead
+// after each observation. For each series the backtest scores:
+// - the mean absolute (percentage) error of the forecasts against the rate observed one horizon later, interpolated
+//   between the observations, and the error of the persistence forecast (the rate stays as it is) as a baseline;
+// - the SLA violations, i.e., the observations where the throughput of the instances is above the band of the
+//   Throughput specification (or above the given capacity, for the services without one);
+// - the violations anticipated, i.e., the ones where the forecast made at least one horizon before (the latest one)
+//   already took the throughput of the instances of the time above the band, so that an instance proposed then would
+//   have been up in time;
+// - the false alarms, i.e., the forecasts above the band that the rate observed one horizon later did not confirm.
+// The synthetic series are checked against the persistence baseline. The recordings of the Analyse found in
+// ANALYSIS_RECORDING_DIR, if set, are replayed as the Analyse observes them (i.e., only when the service has no booting
+// or shutdown instances), with the MAX_BOOT_TIME_SECONDS of the recordings as the horizon, and their scores are reported.
+class RequestRateForecasterBacktestTest {
+    private static final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+    private static final double LEVEL_SMOOTHING = 0.5;
+    private static final double TREND_SMOOTHING = 0.3;
+    private static final int WARM_UP_OBSERVATIONS = 3;
+    private static final long HORIZON_SECONDS = 120;
+    private static final long PERIOD_SECONDS = 5;
+
+    @Test
+    void forecastBeatsPersistenceOnRamp() {
+        // The rate grows from 10 to 100 requests/s in 10 minutes, with some noise, on 4 instances serving 20 requests/s each
+        Random random = new Random(42);
+        List<Observation> series = new ArrayList<>();
+        for (long t = 0; t <= 600; t += PERIOD_SECONDS)
+            series.add(new Observation(t * 1000, 10 + 0.15 * t + random.nextDouble() - 0.5, 4, 20.0));
+        Score score = backtest(series, HORIZON_SECONDS, newForecaster());
+        assertTrue(score.forecasts > 0, "No forecast scored");
+        assertTrue(score.absoluteError < score.persistenceAbsoluteError / 2, "Forecast not better than persistence: " + score);
+        assertTrue(score.anticipatedViolations > 0, "No SLA violation anticipated: " + score);
+    }
+
+    @Test
+    void forecastFollowsSteadyRate() {
+        List<Observation> series = new ArrayList<>();
+        for (long t = 0; t <= 600; t += PERIOD_SECONDS)
+            series.add(new Observation(t * 1000, 50, 4, 20.0));
+        Score score = backtest(series, HORIZON_SECONDS, newForecaster());
+        assertTrue(score.forecasts > 0, "No forecast scored");
+        assertEquals(0, score.absoluteError, 1e-6);
+        assertEquals(0, score.falseAlarms);
+    }
+
+    @Test
+    void seededModelForecastsWithoutWarmUp() {
+        RequestRateForecaster forecaster = newForecaster();
+        SortedMap<Long, Double> pastRequestRates = new TreeMap<>();
+        for (long t = 0; t < 300; t += PERIOD_SECONDS)
+            pastRequestRates.put(t * 1000, 10 + 0.1 * t);
+        forecaster.seed("service", pastRequestRates);
+        forecaster.observe("service", 40, new Date(300_000));
+        Double forecast = forecaster.forecast("service", HORIZON_SECONDS);
+        assertNotNull(forecast);
+        assertEquals(40 + 0.1 * HORIZON_SECONDS, forecast, 1);
+        // A model is seeded only when it is created
+        forecaster.seed("service", new TreeMap<>(Map.of(0L, 1000.0)));
+        assertEquals(forecast, forecaster.forecast("service", HORIZON_SECONDS));
+    }
+
+    @Test
+    void backtestRecordings() throws IOException {
+        String recordingDir = System.getenv("ANALYSIS_RECORDING_DIR");
+        assumeTrue(recordingDir != null && !recordingDir.isEmpty(), "ANALYSIS_RECORDING_DIR not set");
+        List<File> recordingFiles = AnalysisRecording.listRecordings(new File(recordingDir));
+        assumeTrue(!recordingFiles.isEmpty(), "No recordings in " + recordingDir);
+
+        // Only the observations are kept, since each recording holds the whole architecture
+        Long horizonSeconds = null;
+        Map<String, List<Observation>> observations = new TreeMap<>();
+        for (File file : recordingFiles) {
+            AnalysisRecording recording = mapper.readValue(file, AnalysisRecording.class);
+            if (horizonSeconds == null)
+                horizonSeconds = recording.getMaxBootTimeSeconds();
+            for (Service service : recording.getServicesMap().values()) {
+                Observation observation = observe(service, recording);
+                if (observation != null)
+                    observations.computeIfAbsent(service.getServiceId(), id -> new ArrayList<>()).add(observation);
+            }
+        }
+
+        Score total = new Score();
+        for (Map.Entry<String, List<Observation>> serviceObservations : observations.entrySet()) {
+            List<Observation> series = serviceObservations.getValue();
+            series.sort(Comparator.comparingLong(observation -> observation.timestamp));
+            Score score = backtest(series, horizonSeconds, newForecaster());
+            System.out.printf("%s: %s%n", serviceObservations.getKey(), score);
+            total.add(score);
+        }
+        System.out.printf("recordings: %d, horizon: %ds, level smoothing: %s, trend smoothing: %s, warm up: %d%n",
+                recordingFiles.size(), horizonSeconds, LEVEL_SMOOTHING, TREND_SMOOTHING, WARM_UP_OBSERVATIONS);
+        System.out.printf("TOTAL: %s%n", total);
+    }
+
+    private static RequestRateForecaster newForecaster() {
+        return new RequestRateForecaster(LEVEL_SMOOTHING, TREND_SMOOTHING, WARM_UP_OBSERVATIONS);
+    }
+
+    // Null if the service would not be observed by the Analyse or none of its instances has a request rate
+    private static Observation observe(Service service, AnalysisRecording recording) {
+        Map<String, InstanceWindowStats> serviceWindowsStats = recording.getWindowsStats().get(service.getServiceId());
+        if (service.isInTransitionState() || service.getInstances().isEmpty() || serviceWindowsStats == null)
+            return null;
+        double requestRate = 0;
+        boolean hasRequestRate = false;
+        for (InstanceWindowStats windowStats : serviceWindowsStats.values()) {
+            if (!Double.isNaN(windowStats.getRequestsRate())) {
+                requestRate += windowStats.getRequestsRate();
+                hasRequestRate = true;
+            }
+        }
+        if (!hasRequestRate)
+            return null;
+        Throughput throughputSpecs = (Throughput) service.getQoSSpecifications().get(Throughput.class);
+        Double capacity = throughputSpecs == null ? null : Double.valueOf(throughputSpecs.getMaxThreshold());
+        return new Observation(recording.getTimestamp(), requestRate, service.getInstances().size(), capacity);
+    }
+
+    private static Score backtest(List<Observation> series, long horizonSeconds, RequestRateForecaster forecaster) {
+        Score score = new Score();
+        long horizon = horizonSeconds * 1000;
+        Double[] forecasts = new Double[series.size()];
+        for (int i = 0; i < series.size(); i++) {
+            Observation observation = series.get(i);
+            forecaster.observe("service", observation.requestRate, new Date(observation.timestamp));
+            forecasts[i] = forecaster.forecast("service", horizonSeconds);
+        }
+        int latestBeforeHorizon = -1;
+        for (int i = 0; i < series.size(); i++) {
+            Observation observation = series.get(i);
+            score.observations++;
+            Double actual = interpolate(series, observation.timestamp + horizon);
+            if (forecasts[i] != null && actual != null) {
+                score.forecasts++;
+                score.absoluteError += Math.abs(forecasts[i] - actual);
+                score.persistenceAbsoluteError += Math.abs(observation.requestRate - actual);
+                if (actual > 0) {
+                    score.percentageForecasts++;
+                    score.absolutePercentageError += Math.abs(forecasts[i] - actual) / actual;
+                }
+            }
+            if (observation.capacity == null)
+                continue;
+            if (forecasts[i] != null && actual != null && forecasts[i] / observation.instances > observation.capacity &&
+                    actual / observation.instances <= observation.capacity)
+                score.falseAlarms++;
+            if (observation.requestRate / observation.instances > observation.capacity) {
+                score.violations++;
+                while (latestBeforeHorizon + 1 < i && series.get(latestBeforeHorizon + 1).timestamp <= observation.timestamp - horizon)
+                    latestBeforeHorizon++;
+                if (latestBeforeHorizon >= 0 && forecasts[latestBeforeHorizon] != null &&
+                        forecasts[latestBeforeHorizon] / observation.instances > observation.capacity)
+                    score.anticipatedViolations++;
+            }
+        }
+        return score;
+    }
+
+    // Request rate at the given time, interpolated between the observations around it. Null after the latest one
+    private static Double interpolate(List<Observation> series, long timestamp) {
+        for (int i = 1; i < series.size(); i++) {
+            Observation before = series.get(i - 1), after = series.get(i);
+            if (after.timestamp >= timestamp) {
+                if (before.timestamp >= timestamp)
+                    return before.requestRate;
+                return before.requestRate + (after.requestRate - before.requestRate) * (timestamp - before.timestamp) / (after.timestamp - before.timestamp);
+            }
+        }
+        return null;
+    }
+
+    private static class Observation {
+        private final long timestamp;
+        // Requests/s served by all the instances of the service
+        private final double requestRate;
+        private final int instances;
+        // Requests/s that an instance can serve within the SLA. Null if unknown
+        private final Double capacity;
+
+        private Observation(long timestamp, double requestRate, int instances, Double capacity) {
+            this.timestamp = timestamp;
+            this.requestRate = requestRate;
+            this.instances = instances;
+            this.capacity = capacity;
+        }
+    }
+
+    private static class Score {
+        private int observations;
+        private int forecasts;
+        private double absoluteError;
+        private double persistenceAbsoluteError;
+        private int percentageForecasts;
+        private double absolutePercentageError;
+        private int violations;
+        private int anticipatedViolations;
+        private int falseAlarms;
+
+        private void add(Score other) {
+            observations += other.observations;
+            forecasts += other.forecasts;
+            absoluteError += other.absoluteError;
+            persistenceAbsoluteError += other.persistenceAbsoluteError;
+            percentageForecasts += other.percentageForecasts;
+            absolutePercentageError += other.absolutePercentageError;
+            violations += other.violations;
+            anticipatedViolations += other.anticipatedViolations;
+            falseAlarms += other.falseAlarms;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("observations: %d, forecasts scored: %d, MAE: %.3f req/s (persistence: %.3f), MAPE: %.1f%%, " +
+                            "SLA violations: %d, anticipated: %d, false alarms: %d",
+                    observations, forecasts, forecasts == 0 ? Double.NaN : absoluteError / forecasts,
+                    forecasts == 0 ? Double.NaN : persistenceAbsoluteError / forecasts,
+                    percentageForecasts == 0 ? Double.NaN : 100 * absolutePercentageError / percentageForecasts,
+                    violations, anticipatedViolations, falseAlarms);
+        }
+    }
+}
@@ -9,9 +9,11 @@ import it.polimi.ramses.knowledge.domain.adaptation.options.AdaptationOption;
 import it.polimi.ramses.knowledge.domain.architecture.Instance;
 import it.polimi.ramses.knowledge.domain.architecture.Service;
 import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.ramses.knowledge.rest.api.ServicesMapCache;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import javax.annotation.PostConstruct;
 import java.util.*;
 
 
@@ -27,8 +29,16 @@ public class DashboardWebService {
 	@Autowired
 	private PlanClient planClient;
 
+	// The dashboard only reads the services: no need to copy them
+	private ServicesMapCache servicesMapCache;
+
+	@PostConstruct
+	public void init() {
+		servicesMapCache = new ServicesMapCache(knowledgeClient::getServicesMapChanges, false);
+	}
+
 	public Service getService(String serviceId) {
-		return knowledgeClient.getService(serviceId);
+		return servicesMapCache.getService(serviceId);
 	}
 
 	public Instance getInstance(String serviceId, String instanceId) {
@@ -36,7 +46,7 @@ public class DashboardWebService {
 	}
 
 	public Map<String, Service> getArchitecture() {
-		return knowledgeClient.getServicesMap();
+		return servicesMapCache.getServicesMap();
 	}
 
 	public Modules getActiveModule() {
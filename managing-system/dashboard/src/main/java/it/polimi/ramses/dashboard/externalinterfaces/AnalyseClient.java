@@ -1,5 +1,6 @@
 package it.polimi.ramses.dashboard.externalinterfaces;
 
+import it.polimi.ramses.knowledge.codec.InterModuleFeignConfiguration;
 import lombok.Getter;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -7,7 +8,7 @@ import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
 
-@FeignClient(name = "ANALYSE", url = "${ANALYSE_URL}")
+@FeignClient(name = "ANALYSE", url = "${ANALYSE_URL}", configuration = InterModuleFeignConfiguration.class)
 public interface AnalyseClient {
 
     @GetMapping("/rest/")
@@ -1,10 +1,12 @@
 package it.polimi.ramses.dashboard.externalinterfaces;
 
+import it.polimi.ramses.knowledge.codec.InterModuleFeignConfiguration;
 import it.polimi.ramses.knowledge.domain.Modules;
 import it.polimi.ramses.knowledge.domain.adaptation.options.AdaptationOption;
 import it.polimi.ramses.knowledge.domain.architecture.Instance;
 import it.polimi.ramses.knowledge.domain.architecture.Service;
 import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.ramses.knowledge.rest.api.ServicesMapDelta;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.*;
 
@@ -13,11 +15,15 @@ import java.util.List;
 import java.util.Map;
 
 
-@FeignClient(name = "KNOWLEDGE", url = "${KNOWLEDGE_URL}")
+@FeignClient(name = "KNOWLEDGE", url = "${KNOWLEDGE_URL}", configuration = InterModuleFeignConfiguration.class)
 public interface KnowledgeClient {
     @GetMapping("/rest/servicesMap")
     Map<String, Service> getServicesMap();
 
+    // Services changed since the given version of the services map. See ServicesMapCache
+    @GetMapping("/rest/servicesMap/changes")
+    ServicesMapDelta getServicesMapChanges(@RequestParam long epoch, @RequestParam long since);
+
     @GetMapping("/rest/service/{serviceId}")
     Service getService(@PathVariable String serviceId);
 
@@ -1,12 +1,13 @@
 package it.polimi.ramses.dashboard.externalinterfaces;
 
+import it.polimi.ramses.knowledge.codec.InterModuleFeignConfiguration;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
 
-@FeignClient(name = "PLAN", url = "${PLAN_URL}")
+@FeignClient(name = "PLAN", url = "${PLAN_URL}", configuration = InterModuleFeignConfiguration.class)
 public interface PlanClient {
 
     @GetMapping("/rest/adaptationStatus")
@@ -0,0 +1,50 @@
+package it.polimi.ramses.embedded;
+
+import it.polimi.ramses.analyse.AnalyseApplication;
+import it.polimi.ramses.execute.ExecuteApplication;
+import it.polimi.ramses.execute.externalInterfaces.ConfigManagerClient;
+import it.polimi.ramses.execute.externalInterfaces.InstancesManagerClient;
+import it.polimi.ramses.knowledge.KnowledgeApplication;
+import it.polimi.ramses.monitor.MonitorApplication;
+import it.polimi.ramses.plan.PlanApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.AutoConfigurationExcludeFilter;
+import org.springframework.boot.autoconfigure.AutoConfigurationPackage;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.context.TypeExcludeFilter;
+import org.springframework.cloud.openfeign.EnableFeignClients;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.FilterType;
+
+// Single-JVM deployment of the MAPE-K loop: the Knowledge, Monitor, Analyse, Plan and Execute run in the same Spring
+// context. Their services are the ones of the distributed deployment, but the clients they use to call each other are
+// implemented in process (see the inprocess package): the calls do not go through HTTP and the objects are passed
+// without being serialized. Only the clients of the probe and of the actuators are Feign clients.
+// The services map is shared as the immutable snapshots published by the Knowledge: only the Plan, which changes the
+// services to evaluate the adaptation options, and the Analyse, which adds the new QoS values to them, copy them.
+// The applications of the single modules are excluded from the scan, so that they do not register their Feign clients.
+@SpringBootConfiguration
+@EnableAutoConfiguration
+// The JPA repositories and entities are in the Knowledge
+@AutoConfigurationPackage(basePackages = "it.polimi.ramses.knowledge")
+@ComponentScan(basePackages = "it.polimi.ramses", excludeFilters = {
+        @ComponentScan.Filter(type = FilterType.CUSTOM, classes = TypeExcludeFilter.class),
+        @ComponentScan.Filter(type = FilterType.CUSTOM, classes = AutoConfigurationExcludeFilter.class),
+        @ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE, classes = {KnowledgeApplication.class, MonitorApplication.class,
+                AnalyseApplication.class, PlanApplication.class, ExecuteApplication.class})
+})
+@EnableFeignClients(clients = {
+        it.polimi.ramses.knowledge.externalinterfaces.ProbeClient.class,
+        it.polimi.ramses.monitor.externalinterfaces.ProbeClient.class,
+        ConfigManagerClient.class,
+        InstancesManagerClient.class
+})
+public class EmbeddedApplication {
+
+    public static void main(String[] args) throws Exception {
+        PlanApplication.loadOrToolsLibraries(args);
+        SpringApplication.run(EmbeddedApplication.class, args);
+    }
+
+}
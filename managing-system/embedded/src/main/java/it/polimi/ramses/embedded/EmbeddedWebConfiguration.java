@@ -0,0 +1,20 @@
+package it.polimi.ramses.embedded;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.method.HandlerTypePredicate;
+import org.springframework.web.servlet.config.annotation.PathMatchConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+// The REST APIs of the modules have the same paths (e.g., /rest/start), so each module but the Knowledge is served
+// under its own prefix
+@Configuration
+public class EmbeddedWebConfiguration implements WebMvcConfigurer {
+
+    @Override
+    public void configurePathMatch(PathMatchConfigurer configurer) {
+        configurer.addPathPrefix("/monitor", HandlerTypePredicate.forBasePackage("it.polimi.ramses.monitor"));
+        configurer.addPathPrefix("/analyse", HandlerTypePredicate.forBasePackage("it.polimi.ramses.analyse"));
+        configurer.addPathPrefix("/plan", HandlerTypePredicate.forBasePackage("it.polimi.ramses.plan"));
+        configurer.addPathPrefix("/execute", HandlerTypePredicate.forBasePackage("it.polimi.ramses.execute"));
+    }
+}
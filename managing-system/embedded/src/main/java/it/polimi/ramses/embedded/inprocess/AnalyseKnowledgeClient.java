@@ -0,0 +1,75 @@
+package it.polimi.ramses.embedded.inprocess;
+
+import it.polimi.ramses.analyse.externalInterfaces.KnowledgeClient;
+import it.polimi.ramses.knowledge.domain.Modules;
+import it.polimi.ramses.knowledge.domain.adaptation.options.AdaptationOption;
+import it.polimi.ramses.knowledge.domain.architecture.Service;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceWindowStats;
+import it.polimi.ramses.knowledge.rest.KnowledgeRestController;
+import it.polimi.ramses.knowledge.rest.api.ServicesMapCache;
+import it.polimi.ramses.knowledge.rest.api.ServicesMapDelta;
+import it.polimi.ramses.knowledge.rest.api.UpdateServiceQosCollectionRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// The services of the Knowledge are its published snapshots, which must not be changed. The Analyse adds the new QoS
+// values to the services it caches (see AnalyseService), so it gets copies of them. Only the services changed since
+// its latest synchronization are copied: the others are the copies it already has
+@Component
+public class AnalyseKnowledgeClient implements KnowledgeClient {
+    @Autowired
+    private KnowledgeRestController knowledge;
+
+    @Override
+    public ResponseEntity<String> notifyModuleStart(Modules module) {
+        return knowledge.notifyModuleStart(module);
+    }
+
+    @Override
+    public Map<String, Service> getServicesMap() {
+        return copyOf(knowledge.getServicesMap());
+    }
+
+    @Override
+    public ServicesMapDelta getServicesMapChanges(long epoch, long since) {
+        ServicesMapDelta delta = knowledge.getServicesMapChanges(epoch, since);
+        return new ServicesMapDelta(delta.getEpoch(), delta.getVersion(), delta.isFull(), copyOf(delta.getChangedServices()));
+    }
+
+    private static Map<String, Service> copyOf(Map<String, Service> services) {
+        Map<String, Service> copies = new HashMap<>();
+        services.forEach((serviceId, service) -> copies.put(serviceId, ServicesMapCache.copyOf(service)));
+        return copies;
+    }
+
+    @Override
+    public List<InstanceMetricsSnapshot> getLatestNMetricsOfCurrentInstance(String serviceId, String instanceId, int n) {
+        return knowledge.getLatestNMetricsOfCurrentInstance(serviceId, instanceId, n);
+    }
+
+    @Override
+    public Map<String, Map<String, InstanceWindowStats>> getLatestNWindowStatsOfAnalysableInstances(int n) {
+        return knowledge.getLatestNWindowStatsOfAnalysableInstances(n);
+    }
+
+    @Override
+    public ResponseEntity<String> proposeAdaptationOptions(Map<String, List<AdaptationOption>> adaptationOptions) {
+        return knowledge.proposeAdaptationOptions(adaptationOptions);
+    }
+
+    @Override
+    public String setFailedModule(Modules module) {
+        return knowledge.setFailedModule(module);
+    }
+
+    @Override
+    public void updateServiceQosCollection(UpdateServiceQosCollectionRequest request) {
+        knowledge.updateServiceQosCollection(request);
+    }
+}
@@ -0,0 +1,21 @@
+package it.polimi.ramses.embedded.inprocess;
+
+import it.polimi.ramses.analyse.externalInterfaces.PlanClient;
+import it.polimi.ramses.plan.rest.PlanRestController;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+// The controller starts the Plan in a new thread, as it does for the requests of the distributed deployment.
+// Lazy because the modules notifying each other form a cycle
+@Component
+public class AnalysePlanClient implements PlanClient {
+    @Lazy
+    @Autowired
+    private PlanRestController plan;
+
+    @Override
+    public String start() {
+        return plan.start();
+    }
+}
@@ -0,0 +1,69 @@
+package it.polimi.ramses.embedded.inprocess;
+
+import it.polimi.ramses.execute.externalInterfaces.KnowledgeClient;
+import it.polimi.ramses.knowledge.domain.Modules;
+import it.polimi.ramses.knowledge.domain.adaptation.options.AdaptationOption;
+import it.polimi.ramses.knowledge.domain.architecture.Service;
+import it.polimi.ramses.knowledge.rest.KnowledgeRestController;
+import it.polimi.ramses.knowledge.rest.api.AddInstanceRequest;
+import it.polimi.ramses.knowledge.rest.api.ChangeOfImplementationRequest;
+import it.polimi.ramses.knowledge.rest.api.ServicesMapDelta;
+import it.polimi.ramses.knowledge.rest.api.ShutdownInstanceRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+@Component
+public class ExecuteKnowledgeClient implements KnowledgeClient {
+    @Autowired
+    private KnowledgeRestController knowledge;
+
+    @Override
+    public ResponseEntity<String> notifyModuleStart(Modules module) {
+        return knowledge.notifyModuleStart(module);
+    }
+
+    @Override
+    public Service getService(String serviceId) {
+        return knowledge.getService(serviceId);
+    }
+
+    // The published snapshots of the Knowledge are shared, since the Execute only reads them
+    @Override
+    public ServicesMapDelta getServicesMapChanges(long epoch, long since) {
+        return knowledge.getServicesMapChanges(epoch, since);
+    }
+
+    @Override
+    public Map<String, List<AdaptationOption>> getChosenAdaptationOptions() {
+        return knowledge.getChosenAdaptationOptions();
+    }
+
+    @Override
+    public ResponseEntity<String> setLoadBalancerWeights(String serviceId, Map<String, Double> instanceWeights) {
+        return knowledge.setLoadBalancerWeights(serviceId, instanceWeights);
+    }
+
+    @Override
+    public ResponseEntity<String> notifyShutdownInstance(ShutdownInstanceRequest request) {
+        return knowledge.notifyShutdownInstance(request);
+    }
+
+    @Override
+    public ResponseEntity<String> notifyAddInstance(AddInstanceRequest request) {
+        return knowledge.notifyAddInstance(request);
+    }
+
+    @Override
+    public ResponseEntity<String> notifyChangeOfImplementation(ChangeOfImplementationRequest request) {
+        return knowledge.notifyChangeOfImplementation(request);
+    }
+
+    @Override
+    public String setFailedModule(Modules module) {
+        return knowledge.setFailedModule(module);
+    }
+}
@@ -0,0 +1,20 @@
+package it.polimi.ramses.embedded.inprocess;
+
+import it.polimi.ramses.execute.externalInterfaces.MonitorClient;
+import it.polimi.ramses.monitor.rest.MonitorRestController;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+// Lazy because the modules notifying each other form a cycle
+@Component
+public class ExecuteMonitorClient implements MonitorClient {
+    @Lazy
+    @Autowired
+    private MonitorRestController monitor;
+
+    @Override
+    public void notifyFinishedIteration() {
+        monitor.notifyFinishedIteration();
+    }
+}
@@ -0,0 +1,21 @@
+package it.polimi.ramses.embedded.inprocess;
+
+import it.polimi.ramses.analyse.rest.AnalyseRestController;
+import it.polimi.ramses.monitor.externalinterfaces.AnalyseClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+// The controller starts the Analyse in a new thread, as it does for the requests of the distributed deployment.
+// Lazy because the modules notifying each other form a cycle
+@Component
+public class MonitorAnalyseClient implements AnalyseClient {
+    @Lazy
+    @Autowired
+    private AnalyseRestController analyse;
+
+    @Override
+    public String start() {
+        return analyse.start();
+    }
+}
@@ -0,0 +1,75 @@
+package it.polimi.ramses.embedded.inprocess;
+
+import it.polimi.ramses.knowledge.domain.Modules;
+import it.polimi.ramses.knowledge.domain.architecture.Service;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshotDelta;
+import it.polimi.ramses.knowledge.domain.persistence.MetricsRollup;
+import it.polimi.ramses.knowledge.rest.KnowledgeRestController;
+import it.polimi.ramses.monitor.externalinterfaces.KnowledgeClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+// The Monitor reads the managed services when it is created, so the Knowledge must be initialized first
+@Component
+@DependsOn("knowledgeInit")
+public class MonitorKnowledgeClient implements KnowledgeClient {
+    @Autowired
+    private KnowledgeRestController knowledge;
+
+    @Override
+    public ResponseEntity<String> notifyModuleStart(Modules module) {
+        return knowledge.notifyModuleStart(module);
+    }
+
+    @Override
+    public void addMetricsFromBuffer(Queue<List<InstanceMetricsSnapshot>> metricsSnapshotBuffer) {
+        knowledge.addMetricsFromBuffer(metricsSnapshotBuffer);
+    }
+
+    @Override
+    public ResponseEntity<String> addMetricsDeltasFromBuffer(Queue<List<InstanceMetricsSnapshotDelta>> metricsDeltasBuffer) {
+        return knowledge.addMetricsDeltasFromBuffer(metricsDeltasBuffer);
+    }
+
+    @Override
+    public InstanceMetricsSnapshot getMetrics(long metricsId) {
+        return knowledge.getMetrics(metricsId);
+    }
+
+    @Override
+    public List<InstanceMetricsSnapshot> getMetrics(String instanceId, String before, String after) {
+        return knowledge.getMetrics(instanceId, after, before);
+    }
+
+    @Override
+    public List<MetricsRollup> getMetricsRollups(String instanceId, String after, String before, long resolution) {
+        return knowledge.getMetricsRollups(instanceId, after, before, resolution);
+    }
+
+    @Override
+    public List<InstanceMetricsSnapshot> getLatestMetrics(String serviceId, String instanceId) {
+        return knowledge.getLatestMetrics(serviceId, instanceId);
+    }
+
+    @Override
+    public List<Service> getServices() {
+        return knowledge.getServices();
+    }
+
+    @Override
+    public Map<String, Service> getServicesMap() {
+        return knowledge.getServicesMap();
+    }
+
+    @Override
+    public String setFailedModule(Modules module) {
+        return knowledge.setFailedModule(module);
+    }
+}
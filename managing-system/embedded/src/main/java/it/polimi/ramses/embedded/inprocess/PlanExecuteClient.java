@@ -0,0 +1,21 @@
+package it.polimi.ramses.embedded.inprocess;
+
+import it.polimi.ramses.execute.rest.ExecuteRestController;
+import it.polimi.ramses.plan.externalInterfaces.ExecuteClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+// The controller starts the Execute in a new thread, as it does for the requests of the distributed deployment.
+// Lazy because the modules notifying each other form a cycle
+@Component
+public class PlanExecuteClient implements ExecuteClient {
+    @Lazy
+    @Autowired
+    private ExecuteRestController execute;
+
+    @Override
+    public String start() {
+        return execute.start();
+    }
+}
@@ -0,0 +1,56 @@
+package it.polimi.ramses.embedded.inprocess;
+
+import it.polimi.ramses.knowledge.domain.Modules;
+import it.polimi.ramses.knowledge.domain.adaptation.options.AdaptationOption;
+import it.polimi.ramses.knowledge.domain.architecture.Service;
+import it.polimi.ramses.knowledge.rest.KnowledgeRestController;
+import it.polimi.ramses.knowledge.rest.api.ServicesMapDelta;
+import it.polimi.ramses.plan.externalInterfaces.KnowledgeClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+@Component
+public class PlanKnowledgeClient implements KnowledgeClient {
+    @Autowired
+    private KnowledgeRestController knowledge;
+
+    @Override
+    public ResponseEntity<String> notifyModuleStart(Modules module) {
+        return knowledge.notifyModuleStart(module);
+    }
+
+    @Override
+    public Map<String, Service> getServicesMap() {
+        return knowledge.getServicesMap();
+    }
+
+    // The published snapshots of the Knowledge are shared: the Plan copies the services it reads, since it changes them
+    @Override
+    public ServicesMapDelta getServicesMapChanges(long epoch, long since) {
+        return knowledge.getServicesMapChanges(epoch, since);
+    }
+
+    @Override
+    public ResponseEntity<String> chooseAdaptationOptions(Map<String, List<AdaptationOption>> adaptationOptions) {
+        return knowledge.chooseAdaptationOptions(adaptationOptions);
+    }
+
+    @Override
+    public Map<String, List<AdaptationOption>> getProposedAdaptationOptions() {
+        return knowledge.getProposedAdaptationOptions();
+    }
+
+    @Override
+    public String setFailedModule(Modules module) {
+        return knowledge.setFailedModule(module);
+    }
+
+    @Override
+    public ResponseEntity<String> invalidateQosHistory(String serviceId) {
+        return knowledge.invalidateQosHistory(serviceId);
+    }
+}
@@ -8,10 +8,12 @@ import it.polimi.ramses.knowledge.domain.architecture.Service;
 import it.polimi.ramses.knowledge.domain.architecture.ServiceImplementation;
 import it.polimi.ramses.knowledge.rest.api.AddInstanceRequest;
 import it.polimi.ramses.knowledge.rest.api.ChangeOfImplementationRequest;
+import it.polimi.ramses.knowledge.rest.api.ServicesMapCache;
 import it.polimi.ramses.knowledge.rest.api.ShutdownInstanceRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import javax.annotation.PostConstruct;
 import java.util.*;
 
 @Slf4j
@@ -26,6 +28,14 @@ public class ExecuteService {
     @Autowired
     private InstancesManagerClient instancesManagerClient;
 
+    // The services are only read, so they are not copied
+    private ServicesMapCache servicesMapCache;
+
+    @PostConstruct
+    public void init() {
+        servicesMapCache = new ServicesMapCache(knowledgeClient::getServicesMapChanges, false);
+    }
+
     public void execute() {
         try {
             log.info("Starting Execute step");
@@ -66,7 +76,7 @@ public class ExecuteService {
      */
     private void handleAddInstanceOption(AddInstanceOption addInstanceOption) {
         String serviceId = addInstanceOption.getServiceId();
-        Service service = knowledgeClient.getService(serviceId);
+        Service service = servicesMapCache.getService(serviceId);
         if (!service.getCurrentImplementationId().equals(addInstanceOption.getServiceImplementationId()))
             throw new RuntimeException("Service implementation id mismatch. Expected: " + service.getCurrentImplementationId() + " Actual: " + addInstanceOption.getServiceImplementationId());
         StartNewInstancesResponse instancesResponse = actuatorAddInstances("sbi98/sefa-" + addInstanceOption.getServiceImplementationId() + ":amd64", 1);
@@ -75,7 +85,10 @@ public class ExecuteService {
             throw new RuntimeException("No instances were added");
 
         String newInstancesAddress = instancesResponse.getDockerizedInstances().get(0).getAddress() + ":" + instancesResponse.getDockerizedInstances().get(0).getPort();
-        String newInstanceId = service.createInstance(newInstancesAddress).getInstanceId();
+        // The instance is added to the service by the Knowledge: the cached service is only read
+        String newInstanceId = service.getCurrentImplementationId() + "@" + newInstancesAddress;
+        if (service.getCurrentImplementation().getInstances().containsKey(newInstanceId))
+            throw new RuntimeException("Instance already exists");
         log.info("Adding instance to service " + serviceId + " with new instance " + newInstanceId);
         Map<String, Double> newWeights = addInstanceOption.getFinalWeights(newInstanceId);
         knowledgeClient.notifyAddInstance(new AddInstanceRequest(serviceId, newInstancesAddress));
@@ -131,7 +144,7 @@ public class ExecuteService {
      */
     private void handleChangeImplementationOption(ChangeImplementationOption changeImplementationOption) {
         String serviceId = changeImplementationOption.getServiceId();
-        Service service = knowledgeClient.getService(serviceId);
+        Service service = servicesMapCache.getService(serviceId);
         ServiceImplementation oldImplementation = service.getCurrentImplementation();
 
         // Start new instances of the new implementation
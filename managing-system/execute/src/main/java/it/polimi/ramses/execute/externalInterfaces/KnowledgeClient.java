@@ -1,10 +1,12 @@
 package it.polimi.ramses.execute.externalInterfaces;
 
+import it.polimi.ramses.knowledge.codec.InterModuleFeignConfiguration;
 import it.polimi.ramses.knowledge.domain.Modules;
 import it.polimi.ramses.knowledge.domain.adaptation.options.AdaptationOption;
 import it.polimi.ramses.knowledge.domain.architecture.Service;
 import it.polimi.ramses.knowledge.rest.api.AddInstanceRequest;
 import it.polimi.ramses.knowledge.rest.api.ChangeOfImplementationRequest;
+import it.polimi.ramses.knowledge.rest.api.ServicesMapDelta;
 import it.polimi.ramses.knowledge.rest.api.ShutdownInstanceRequest;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.http.ResponseEntity;
@@ -14,7 +16,7 @@ import java.util.List;
 import java.util.Map;
 
 
-@FeignClient(name = "KNOWLEDGE", url = "${KNOWLEDGE_URL}")
+@FeignClient(name = "KNOWLEDGE", url = "${KNOWLEDGE_URL}", configuration = InterModuleFeignConfiguration.class)
 public interface KnowledgeClient {
 
     @PutMapping("/rest/activeModule")
@@ -23,6 +25,10 @@ public interface KnowledgeClient {
     @GetMapping("/rest/service/{serviceId}")
     Service getService(@PathVariable String serviceId);
 
+    // Services changed since the given version of the services map. See ServicesMapCache
+    @GetMapping("/rest/servicesMap/changes")
+    ServicesMapDelta getServicesMapChanges(@RequestParam long epoch, @RequestParam long since);
+
     @GetMapping("/rest/chosenAdaptationOptions")
     Map<String, List<AdaptationOption>> getChosenAdaptationOptions();
 
@@ -1,9 +1,10 @@
 package it.polimi.ramses.execute.externalInterfaces;
 
+import it.polimi.ramses.knowledge.codec.InterModuleFeignConfiguration;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.GetMapping;
 
-@FeignClient(name = "MONITOR", url = "${MONITOR_URL}")
+@FeignClient(name = "MONITOR", url = "${MONITOR_URL}", configuration = InterModuleFeignConfiguration.class)
 public interface MonitorClient {
 
     @GetMapping("/rest/notifyFinishedIteration")
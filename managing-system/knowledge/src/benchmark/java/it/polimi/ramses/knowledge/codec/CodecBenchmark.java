@@ -0,0 +1,130 @@
+package it.polimi.ramses.knowledge.codec;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.Availability;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.AverageResponseTime;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.QoSSpecification;
+import it.polimi.ramses.knowledge.domain.architecture.Instance;
+import it.polimi.ramses.knowledge.domain.architecture.InstanceStatus;
+import it.polimi.ramses.knowledge.domain.architecture.Service;
+import it.polimi.ramses.knowledge.domain.architecture.ServiceConfiguration;
+import it.polimi.ramses.knowledge.domain.architecture.ServiceImplementation;
+import it.polimi.ramses.knowledge.domain.metrics.HttpEndpointMetrics;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.*;
+
+// Measures the encoding time, decoding time and payload size of the services map (the largest message exchanged by
+// the MAPE-K modules) in each InterModuleFormat, with 10, 100 and 1000 instances.
+// Usage: CodecBenchmark [--iterations=N] [--instances=N1,N2,...]
+public class CodecBenchmark {
+    private static final int INSTANCES_PER_SERVICE = 10;
+    private static final int QOS_HISTORY_SIZE = 20;
+    private static final String[] ENDPOINTS = {"/rest/restaurants", "/rest/restaurants/{id}", "/rest/orders", "/rest/orders/{id}/confirm"};
+
+    public static void main(String[] args) throws Exception {
+        int iterations = 200;
+        int[] instanceCounts = {10, 100, 1000};
+        for (String arg : args) {
+            if (arg.startsWith("--iterations="))
+                iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+            else if (arg.startsWith("--instances="))
+                instanceCounts = Arrays.stream(arg.substring("--instances=".length()).split(",")).mapToInt(Integer::parseInt).toArray();
+            else
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+        }
+
+        // same configuration as the message converters of the modules
+        Map<InterModuleFormat, ObjectMapper> mappers = new EnumMap<>(InterModuleFormat.class);
+        mappers.put(InterModuleFormat.JSON, Jackson2ObjectMapperBuilder.json().build());
+        mappers.put(InterModuleFormat.SMILE, Jackson2ObjectMapperBuilder.smile().build());
+        mappers.put(InterModuleFormat.CBOR, Jackson2ObjectMapperBuilder.cbor().build());
+        TypeReference<Map<String, Service>> servicesType = new TypeReference<>() {};
+
+        System.out.printf("%-10s %-6s %12s %14s %14s%n", "instances", "format", "size (bytes)", "encode (us)", "decode (us)");
+        for (int instanceCount : instanceCounts) {
+            Map<String, Service> services = createServices(instanceCount);
+            for (Map.Entry<InterModuleFormat, ObjectMapper> entry : mappers.entrySet()) {
+                ObjectMapper mapper = entry.getValue();
+                byte[] payload = mapper.writeValueAsBytes(services);
+                // warm up
+                for (int i = 0; i < iterations; i++)
+                    mapper.readValue(mapper.writeValueAsBytes(services), servicesType);
+
+                long encodeTime = 0, decodeTime = 0;
+                for (int i = 0; i < iterations; i++) {
+                    long start = System.nanoTime();
+                    payload = mapper.writeValueAsBytes(services);
+                    encodeTime += System.nanoTime() - start;
+                    start = System.nanoTime();
+                    mapper.readValue(payload, servicesType);
+                    decodeTime += System.nanoTime() - start;
+                }
+                System.out.printf("%-10d %-6s %12d %14.1f %14.1f%n", instanceCount, entry.getKey(), payload.length,
+                        encodeTime / 1000.0 / iterations, decodeTime / 1000.0 / iterations);
+            }
+        }
+    }
+
+    // Builds a chain of services with INSTANCES_PER_SERVICE instances each, all with a QoS history and a metrics snapshot
+    private static Map<String, Service> createServices(int instanceCount) {
+        Map<String, Service> services = new LinkedHashMap<>();
+        Random random = new Random(42);
+        int serviceCount = (instanceCount + INSTANCES_PER_SERVICE - 1) / INSTANCES_PER_SERVICE;
+        for (int s = 0; s < serviceCount; s++) {
+            String serviceId = "SERVICE-" + s;
+            ServiceImplementation implementation = new ServiceImplementation(serviceId.toLowerCase() + "-impl", 1.0, 1, 0.4);
+            implementation.setBenchmark(Availability.class, 0.95);
+            implementation.setBenchmark(AverageResponseTime.class, 100.0);
+            Service service = new Service(serviceId, List.of(implementation), s == 0 ? List.of() : List.of("SERVICE-" + (s - 1)));
+            service.setCurrentImplementationId(implementation.getImplementationId());
+            Availability availability = new Availability();
+            availability.setWeight(0.5);
+            availability.setMinThreshold(0.9);
+            AverageResponseTime averageResponseTime = new AverageResponseTime();
+            averageResponseTime.setWeight(0.5);
+            averageResponseTime.setMaxThreshold(200.0);
+            service.setAllQoS(List.<QoSSpecification>of(availability, averageResponseTime));
+
+            int instancesOfService = Math.min(INSTANCES_PER_SERVICE, instanceCount - s * INSTANCES_PER_SERVICE);
+            for (int i = 0; i < instancesOfService; i++) {
+                Instance instance = service.createInstance("10.0." + s + "." + i + ":" + (58080 + i));
+                instance.setCurrentStatus(InstanceStatus.ACTIVE);
+                for (int v = 0; v < QOS_HISTORY_SIZE; v++) {
+                    Date date = new Date(System.currentTimeMillis() - (QOS_HISTORY_SIZE - v) * 5000L);
+                    instance.getQoSCollection().createNewQoSValue(Availability.class, 0.9 + random.nextDouble() / 10, date);
+                    instance.getQoSCollection().createNewQoSValue(AverageResponseTime.class, 50 + random.nextDouble() * 100, date);
+                }
+                instance.setLatestInstanceMetricsSnapshot(createSnapshot(serviceId, instance.getInstanceId(), random));
+            }
+
+            ServiceConfiguration configuration = new ServiceConfiguration(serviceId);
+            configuration.setTimestamp(new Date());
+            configuration.setLoadBalancerType(ServiceConfiguration.LoadBalancerType.WEIGHTED_RANDOM);
+            service.setConfiguration(configuration);
+            services.put(serviceId, service);
+        }
+        return services;
+    }
+
+    private static InstanceMetricsSnapshot createSnapshot(String serviceId, String instanceId, Random random) {
+        InstanceMetricsSnapshot snapshot = new InstanceMetricsSnapshot(serviceId, instanceId);
+        snapshot.setCpuUsage(random.nextDouble());
+        snapshot.setDiskTotalSpace(5e10);
+        snapshot.setDiskFreeSpace(2e10 + random.nextDouble() * 1e10);
+        for (String endpoint : ENDPOINTS) {
+            HttpEndpointMetrics endpointMetrics = new HttpEndpointMetrics();
+            endpointMetrics.setEndpoint(endpoint);
+            endpointMetrics.setHttpMethod("GET");
+            endpointMetrics.addOrSetOutcomeMetricsDetails("SUCCESS", 200, random.nextInt(10000), random.nextDouble() * 1000);
+            endpointMetrics.addOrSetOutcomeMetricsMaxDuration("SUCCESS", random.nextDouble() * 2);
+            snapshot.addHttpMetrics(endpointMetrics);
+        }
+        snapshot.addCircuitBreakerState("circuitBreaker", "closed", 1);
+        snapshot.addCircuitBreakerFailureRate("circuitBreaker", random.nextDouble());
+        snapshot.applyTimestamp();
+        return snapshot;
+    }
+}
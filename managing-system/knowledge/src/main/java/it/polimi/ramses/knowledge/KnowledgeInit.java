@@ -89,6 +89,16 @@ public class KnowledgeInit implements InitializingBean {
                                 .get(serviceImplementationBenchmarks.getServiceImplementationId())
                                 .setBenchmark(adaptationClass, value));
             });
+            // The instances start with the benchmarks as current values: every implementation needs the benchmark of
+            // every QoS of the service, except Vulnerability. Some of them are optional, so they are checked here
+            service.getQoSSpecifications().keySet().forEach(qosClass -> {
+                if (qosClass.equals(it.polimi.ramses.knowledge.domain.adaptation.specifications.Vulnerability.class))
+                    return;
+                service.getPossibleImplementations().values().forEach(implementation -> {
+                    if (!implementation.getQoSBenchmarks().containsKey(qosClass))
+                        throw new RuntimeException("Implementation " + implementation.getImplementationId() + " of service " + service.getServiceId() + " has no benchmark for " + qosClass.getSimpleName());
+                });
+            });
             instances.forEach(instanceId -> {
                 if (!instanceId.split("@")[0].equals(service.getCurrentImplementationId()))
                     throw new RuntimeException("Service " + service.getServiceId() + " has more than one running implementation");
@@ -96,7 +106,6 @@ public class KnowledgeInit implements InitializingBean {
             });
             service.setConfiguration(probeClient.getServiceConfiguration(service.getServiceId(), service.getCurrentImplementationId()));
             configurationRepository.save(service.getConfiguration());
-            knowledgeService.addService(service);
         });
 
         for (Service service : serviceList) {
@@ -111,7 +120,9 @@ public class KnowledgeInit implements InitializingBean {
             }
         }
 
+        // Publish the services once they are complete: the published services are not modified anymore
         for (Service service : serviceList) {
+            knowledgeService.addService(service);
             log.debug(service.toString());
         }
         log.info("Knowledge initialized");
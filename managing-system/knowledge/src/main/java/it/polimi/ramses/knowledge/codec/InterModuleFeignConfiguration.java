@@ -0,0 +1,38 @@
+package it.polimi.ramses.knowledge.codec;
+
+import feign.RequestInterceptor;
+import feign.codec.Encoder;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
+import org.springframework.cloud.openfeign.support.SpringEncoder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpHeaders;
+
+// Feign configuration of the clients of the managing system modules (not of the probe or of the managed system).
+// The request bodies are encoded in the INTER_MODULE_FORMAT, and the responses are asked in that format with JSON as a
+// fallback. The responses are decoded by the default decoder according to their content type. The modules answer in
+// the binary formats because jackson-dataformat-smile and jackson-dataformat-cbor are on their classpath.
+// Not annotated with @Configuration on purpose: it is referenced by each @FeignClient that uses it.
+public class InterModuleFeignConfiguration {
+    @Value("${INTER_MODULE_FORMAT}")
+    private InterModuleFormat format;
+
+    @Bean
+    public Encoder interModuleEncoder(ObjectFactory<HttpMessageConverters> messageConverters) {
+        Encoder springEncoder = new SpringEncoder(messageConverters);
+        return (object, bodyType, template) -> {
+            if (!template.headers().containsKey(HttpHeaders.CONTENT_TYPE))
+                template.header(HttpHeaders.CONTENT_TYPE, format.getMediaType());
+            springEncoder.encode(object, bodyType, template);
+        };
+    }
+
+    @Bean
+    public RequestInterceptor interModuleAcceptInterceptor() {
+        return template -> {
+            if (format != InterModuleFormat.JSON && !template.headers().containsKey(HttpHeaders.ACCEPT))
+                template.header(HttpHeaders.ACCEPT, format.getMediaType(), InterModuleFormat.JSON.getMediaType() + ";q=0.5");
+        };
+    }
+}
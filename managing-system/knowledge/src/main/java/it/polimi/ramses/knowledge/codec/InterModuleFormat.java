@@ -0,0 +1,17 @@
+package it.polimi.ramses.knowledge.codec;
+
+import lombok.Getter;
+
+// Format of the bodies exchanged by the managing system modules. JSON is always accepted as a fallback
+@Getter
+public enum InterModuleFormat {
+    JSON("application/json"),
+    SMILE("application/x-jackson-smile"),
+    CBOR("application/cbor");
+
+    private final String mediaType;
+
+    InterModuleFormat(String mediaType) {
+        this.mediaType = mediaType;
+    }
+}
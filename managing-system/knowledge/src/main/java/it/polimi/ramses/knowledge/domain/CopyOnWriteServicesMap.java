@@ -0,0 +1,143 @@
+package it.polimi.ramses.knowledge.domain;
+
+import it.polimi.ramses.knowledge.domain.architecture.Service;
+import it.polimi.ramses.knowledge.rest.api.ServicesMapDelta;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Concurrency model of the services of the Knowledge. The published Service objects are immutable snapshots: a
+// writer takes the lock of the services it changes (one lock per service, taken in serviceId order when a writer
+// changes more than one service), applies its changes to private copies and publishes them with a single put each.
+// Readers never take a lock: they get the latest published snapshot of each service, which no one modifies anymore,
+// so they can serialize it while the writers work on the next one. The changes of a writer that fails are discarded.
+// A private copy (see Service.copy) shares with the snapshot the parts that are replaced rather than changed, and the
+// QoS histories until the writer changes them, so that a writer only copies the histories it changes.
+// Every publication gives the service the next version of the map, used to compute the deltas for the clients.
+public class CopyOnWriteServicesMap {
+    private final Map<String, Service> services = new ConcurrentHashMap<>();
+    private final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+    // The epoch tells apart the runs of the Knowledge
+    private final long epoch = System.currentTimeMillis();
+    // <serviceId, version of the latest publication of the service>. Guards version
+    private final Map<String, Long> serviceVersions = new HashMap<>();
+    private long version = 0;
+
+    // Read-only view of the latest snapshots
+    public Map<String, Service> getServicesMap() {
+        return Collections.unmodifiableMap(services);
+    }
+
+    public Service get(String serviceId) {
+        return services.get(serviceId);
+    }
+
+    public Set<String> getServiceIds() {
+        return Collections.unmodifiableSet(services.keySet());
+    }
+
+    // Publishes a new service, or replaces one. The caller must not modify the service afterwards
+    public void put(Service service) {
+        ReentrantLock lock = lockOf(service.getServiceId());
+        lock.lock();
+        try {
+            publish(service);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Applies the change to a copy of the service and publishes it
+    public <R> R update(String serviceId, Function<Service, R> change) {
+        ReentrantLock lock = lockOf(serviceId);
+        lock.lock();
+        try {
+            Service draft = copy(services.get(serviceId));
+            R result = change.apply(draft);
+            publish(draft);
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Applies the change to copies of the given services, made on first use, and publishes the changed ones
+    public void updateAll(Collection<String> serviceIds, Consumer<Drafts> change) {
+        List<ReentrantLock> taken = new ArrayList<>();
+        try {
+            for (String serviceId : new TreeSet<>(serviceIds)) {
+                ReentrantLock lock = lockOf(serviceId);
+                lock.lock();
+                taken.add(lock);
+            }
+            Drafts drafts = new Drafts(new HashSet<>(serviceIds));
+            change.accept(drafts);
+            drafts.drafts.values().forEach(this::publish);
+        } finally {
+            taken.forEach(ReentrantLock::unlock);
+        }
+    }
+
+    // Returns the services published since the given version, or all of them if the version is not of this epoch
+    public ServicesMapDelta getChangesSince(long clientEpoch, long since) {
+        // The versions are read before the services: a service published while the delta is being built is sent
+        // again with the next delta
+        long currentVersion;
+        Map<String, Long> versions;
+        synchronized (serviceVersions) {
+            currentVersion = version;
+            versions = new HashMap<>(serviceVersions);
+        }
+        boolean full = clientEpoch != epoch || since <= 0 || since > currentVersion;
+        Map<String, Service> changedServices = new HashMap<>();
+        services.forEach((serviceId, service) -> {
+            if (full || versions.getOrDefault(serviceId, Long.MAX_VALUE) > since)
+                changedServices.put(serviceId, service);
+        });
+        return new ServicesMapDelta(epoch, currentVersion, full, changedServices);
+    }
+
+    private ReentrantLock lockOf(String serviceId) {
+        return locks.computeIfAbsent(serviceId, id -> new ReentrantLock());
+    }
+
+    private void publish(Service service) {
+        services.put(service.getServiceId(), service);
+        synchronized (serviceVersions) {
+            serviceVersions.put(service.getServiceId(), ++version);
+        }
+    }
+
+    private Service copy(Service service) {
+        if (service == null)
+            throw new RuntimeException("Service not found");
+        return service.copy();
+    }
+
+    // Private copies of the services locked by a writer
+    public class Drafts {
+        private final Set<String> lockedServiceIds;
+        private final Map<String, Service> drafts = new HashMap<>();
+
+        private Drafts(Set<String> lockedServiceIds) {
+            this.lockedServiceIds = lockedServiceIds;
+        }
+
+        // The copy of the service to change
+        public Service edit(String serviceId) {
+            if (!lockedServiceIds.contains(serviceId))
+                throw new IllegalStateException("Service " + serviceId + " is not locked");
+            return drafts.computeIfAbsent(serviceId, id -> copy(services.get(id)));
+        }
+
+        // The copy of the service if it has been changed, its latest snapshot otherwise
+        public Service read(String serviceId) {
+            Service draft = drafts.get(serviceId);
+            return draft != null ? draft : services.get(serviceId);
+        }
+    }
+}
@@ -3,7 +3,10 @@ package it.polimi.ramses.knowledge.domain;
 import it.polimi.ramses.knowledge.domain.adaptation.options.AdaptationOption;
 import it.polimi.ramses.knowledge.domain.adaptation.specifications.Availability;
 import it.polimi.ramses.knowledge.domain.adaptation.specifications.AverageResponseTime;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.LoadSpecification;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.PercentileResponseTime;
 import it.polimi.ramses.knowledge.domain.adaptation.specifications.QoSSpecification;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.Vulnerability;
 import it.polimi.ramses.knowledge.domain.adaptation.values.QoSCollection;
 import it.polimi.ramses.knowledge.domain.adaptation.values.QoSHistory;
 import it.polimi.ramses.knowledge.domain.architecture.Instance;
@@ -11,24 +14,36 @@ import it.polimi.ramses.knowledge.domain.architecture.InstanceStatus;
 import it.polimi.ramses.knowledge.domain.architecture.Service;
 import it.polimi.ramses.knowledge.domain.architecture.ServiceConfiguration;
 import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshotDelta;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsStore;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceWindowStats;
+import it.polimi.ramses.knowledge.domain.metrics.SnapshotReconstructor;
 import it.polimi.ramses.knowledge.domain.persistence.*;
+import it.polimi.ramses.knowledge.rest.api.ServicesMapDelta;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Pageable;
 
+import javax.annotation.PostConstruct;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Slf4j
 @org.springframework.stereotype.Service
 public class KnowledgeService {
     @Autowired
-    private MetricsRepository metricsRepository;
+    private MetricsHistory metricsHistory;
+
+    @Autowired
+    private MetricsWriter metricsWriter;
+
+    @Autowired
+    private MetricsRollupService metricsRollupService;
 
     @Autowired
     private ConfigurationRepository configurationRepository;
@@ -39,169 +54,340 @@ public class KnowledgeService {
     @Autowired
     private QoSRepository qosRepository;
 
-    @Getter
-    private final Map<String, Service> servicesMap = new ConcurrentHashMap<>();
+    // Published snapshots of the services. See CopyOnWriteServicesMap for the concurrency model
+    private final CopyOnWriteServicesMap services = new CopyOnWriteServicesMap();
 
-    private Set<Instance> previouslyActiveInstances = new HashSet<>();
+    // <serviceId, ids of the instances of the service active in the latest metrics received>. Guarded by metricsLock
+    private final Map<String, Set<String>> previouslyActiveInstances = new HashMap<>();
+    // Serializes the metrics buffers. Each service is locked only while its own metrics are applied
+    private final Object metricsLock = new Object();
 
+    // Rebuilds the snapshots sent by the Monitor as deltas
+    private final SnapshotReconstructor snapshotReconstructor = new SnapshotReconstructor();
+
+    @Value("${METRICS_HISTORY_SIZE}")
+    private int metricsHistorySize;
+    // Latest metrics snapshots of each instance, used to answer the Analyse without querying the database
+    private InstanceMetricsStore metricsStore;
+
+    // The maps of adaptation options are replaced, never modified, once published
     // <serviceId, AdaptationOptions proposed by the Analyse>
     @Getter @Setter
-    private Map<String, List<AdaptationOption>> proposedAdaptationOptions = new HashMap<>();
+    private volatile Map<String, List<AdaptationOption>> proposedAdaptationOptions = Map.of();
 
     // <serviceId, AdaptationOptions chosen by the Plan (in this implementation, the Plan chooses ONE option per service)>
     @Getter @Setter
-    private Map<String, List<AdaptationOption>> chosenAdaptationOptions = new HashMap<>();
+    private volatile Map<String, List<AdaptationOption>> chosenAdaptationOptions = Map.of();
 
     @Getter
-    private Modules activeModule = null;
+    private volatile Modules activeModule = null;
 
     @Getter @Setter
-    private Modules failedModule = null;
+    private volatile Modules failedModule = null;
 
 
-    public void setActiveModule(Modules activeModule) {
+    @PostConstruct
+    public void init() {
+        metricsStore = new InstanceMetricsStore(metricsHistorySize);
+    }
+
+    public synchronized void setActiveModule(Modules activeModule) {
         this.activeModule = activeModule;
         if (activeModule == Modules.MONITOR) {
             // A new loop is started: reset the previous chosen options and the current proposed adaptation options
             for (String serviceId : chosenAdaptationOptions.keySet()) {
-                servicesMap.get(serviceId).setLatestAdaptationDate(new Date());
+                services.update(serviceId, service -> {
+                    service.setLatestAdaptationDate(new Date());
+                    return null;
+                });
             }
-            proposedAdaptationOptions = new HashMap<>();
-            chosenAdaptationOptions = new HashMap<>();
+            proposedAdaptationOptions = Map.of();
+            chosenAdaptationOptions = Map.of();
         }
     }
 
     public Date getLatestAdaptationDateForService(String serviceId) {
-        return servicesMap.get(serviceId).getLatestAdaptationDate();
+        return services.get(serviceId).getLatestAdaptationDate();
     }
 
     // Called by the KnowledgeInit
     public void addService(Service service) {
-        servicesMap.put(service.getServiceId(), service);
+        services.put(service);
+    }
+
+    // The services must not be modified: they are the snapshots read concurrently by the other requests
+    public Map<String, Service> getServicesMap() {
+        return services.getServicesMap();
+    }
+
+    // Returns the services changed since the given version, or all of them if the version is not of the current epoch
+    public ServicesMapDelta getServicesMapChangesSince(long epoch, long since) {
+        return services.getChangesSince(epoch, since);
     }
-    
 
     public List<Service> getServicesList(){
-        return servicesMap.values().stream().toList();
+        return services.getServicesMap().values().stream().toList();
     }
 
 
+    // Returns false, without adding any metrics, if the deltas do not apply to the last snapshots received
+    public boolean addMetricsDeltasFromBuffer(Queue<List<InstanceMetricsSnapshotDelta>> metricsDeltasBuffer) {
+        List<List<InstanceMetricsSnapshot>> metricsLists = snapshotReconstructor.reconstruct(metricsDeltasBuffer);
+        if (metricsLists == null)
+            return false;
+        addMetricsFromBuffer(new LinkedList<>(metricsLists));
+        return true;
+    }
+
     public void addMetricsFromBuffer(Queue<List<InstanceMetricsSnapshot>> metricsBuffer) {
-        try {
-            Set<Instance> shutdownInstancesStillMonitored = new HashSet<>();
-            log.info("Saving new set of metrics");
+        log.info("Saving new set of metrics");
+        synchronized (metricsLock) {
+            // <serviceId, the metrics lists of the buffer restricted to the instances of the service>
+            Map<String, List<List<InstanceMetricsSnapshot>>> servicesMetricsLists = new HashMap<>();
+            int listIndex = 0;
             for (List<InstanceMetricsSnapshot> metricsList : metricsBuffer) {
-                Set<Instance> currentlyActiveInstances = new HashSet<>();
-                for (InstanceMetricsSnapshot metricsSnapshot : metricsList) {
-                    Service service = servicesMap.get(metricsSnapshot.getServiceId());
-                    if (!Objects.equals(metricsSnapshot.getServiceImplementationId(), service.getCurrentImplementationId())) //Skip the metricsSnapshot if it is not related to the current implementation
-                        continue;
-                    Instance instance = service.getInstance(metricsSnapshot.getInstanceId());
-                    if (instance == null)
-                        throw new RuntimeException("Instance " +metricsSnapshot.getInstanceId()+" not found in service "+metricsSnapshot.getServiceId());
-                    // If the instance has been shutdown, skip its metrics snapshot in the buffer. Next buffer won't contain its metrics snapshots.
-                    if (instance.getCurrentStatus() != InstanceStatus.SHUTDOWN) {
-                        if (!instance.getLatestInstanceMetricsSnapshot().equals(metricsSnapshot)) {
-                            metricsRepository.save(metricsSnapshot);
-                            instance.setLatestInstanceMetricsSnapshot(metricsSnapshot);
-                            instance.setCurrentStatus(metricsSnapshot.getStatus());
-                        } else
-                            log.warn("Metrics Snapshot already saved: " + metricsSnapshot);
-                        if (metricsSnapshot.isActive() || metricsSnapshot.isUnreachable())
-                            currentlyActiveInstances.add(instance);
-                    } else {
-                        shutdownInstancesStillMonitored.add(instance);
-                    }
-                }
-                // Failure detection of instances
-                if (!previouslyActiveInstances.isEmpty()) {
-                    Set<Instance> failedInstances = new HashSet<>(previouslyActiveInstances);
-                    failedInstances.removeAll(currentlyActiveInstances);
-                    failedInstances.removeIf(instance -> instance.getCurrentStatus() == InstanceStatus.SHUTDOWN);
-                    if (failedInstances.stream().anyMatch(instance -> instance.getCurrentStatus() == InstanceStatus.BOOTING)) {
-                        log.error("Marking as FAILED instances that are BOOTING!");
-                    }
-                    // There should be only the instances that have been shutdown and are still monitored
-                    failedInstances.forEach(instance -> {
-                        instance.setCurrentStatus(InstanceStatus.FAILED);
-                        InstanceMetricsSnapshot metrics = new InstanceMetricsSnapshot(instance.getServiceId(), instance.getInstanceId());
-                        metrics.setStatus(InstanceStatus.FAILED);
-                        metrics.applyTimestamp();
-                        metricsRepository.save(metrics);
-                        instance.setLatestInstanceMetricsSnapshot(metrics);
-                    });
-                }
-                previouslyActiveInstances = new HashSet<>(currentlyActiveInstances);
+                for (InstanceMetricsSnapshot metricsSnapshot : metricsList)
+                    getServiceMetricsLists(servicesMetricsLists, metricsSnapshot.getServiceId(), metricsBuffer.size()).get(listIndex).add(metricsSnapshot);
+                listIndex++;
             }
-            // For each service, remove from the map of instances the instances that have been shutdown that are not monitored anymore
-            for (Service service : servicesMap.values()) {
-                Set<Instance> instancesToBeRemoved = new HashSet<>(service.getShutdownInstances());
-                instancesToBeRemoved.removeAll(shutdownInstancesStillMonitored);
-                for (Instance instance : instancesToBeRemoved) {
-                    log.debug("{}: Removing shutdown instance {}", service.getServiceId(), instance.getInstanceId());
-                    service.removeInstance(instance);
+            // The services without metrics in the buffer are changed too if they had active instances (which have
+            // failed) or shutdown instances (which are not monitored anymore)
+            previouslyActiveInstances.forEach((serviceId, instanceIds) -> {
+                if (!instanceIds.isEmpty())
+                    getServiceMetricsLists(servicesMetricsLists, serviceId, metricsBuffer.size());
+            });
+            services.getServicesMap().values().stream().filter(service -> !service.getShutdownInstances().isEmpty())
+                    .forEach(service -> getServiceMetricsLists(servicesMetricsLists, service.getServiceId(), metricsBuffer.size()));
+
+            try {
+                servicesMetricsLists.forEach(this::addServiceMetrics);
+            } catch (Exception e) {
+                log.error(e.getMessage());
+                e.printStackTrace();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static List<List<InstanceMetricsSnapshot>> getServiceMetricsLists(Map<String, List<List<InstanceMetricsSnapshot>>> servicesMetricsLists, String serviceId, int listsCount) {
+        return servicesMetricsLists.computeIfAbsent(serviceId, id -> {
+            List<List<InstanceMetricsSnapshot>> metricsLists = new ArrayList<>(listsCount);
+            for (int i = 0; i < listsCount; i++)
+                metricsLists.add(new LinkedList<>());
+            return metricsLists;
+        });
+    }
+
+    // Applies the metrics to a copy of the service and, once the copy is published, saves them and forgets the removed
+    // instances. If the update fails, nothing is saved and the active instances of the service are left unchanged
+    private void addServiceMetrics(String serviceId, List<List<InstanceMetricsSnapshot>> metricsLists) {
+        List<InstanceMetricsSnapshot> metricsToSave = new LinkedList<>();
+        List<Instance> removedInstances = new LinkedList<>();
+        Set<String> activeInstances = services.update(serviceId, service -> applyServiceMetrics(service, metricsLists, metricsToSave, removedInstances));
+        metricsToSave.forEach(this::saveMetrics);
+        for (Instance instance : removedInstances) {
+            metricsStore.remove(instance.getInstanceId());
+            metricsHistory.evict(serviceId, instance.getInstanceId());
+        }
+        previouslyActiveInstances.put(serviceId, activeInstances);
+    }
+
+    // Returns the ids of the instances of the service active in the latest metrics list
+    private Set<String> applyServiceMetrics(Service service, List<List<InstanceMetricsSnapshot>> metricsLists, List<InstanceMetricsSnapshot> metricsToSave, List<Instance> removedInstances) {
+        Set<String> previouslyActive = previouslyActiveInstances.getOrDefault(service.getServiceId(), Set.of());
+        Set<String> shutdownInstancesStillMonitored = new HashSet<>();
+        for (List<InstanceMetricsSnapshot> metricsList : metricsLists) {
+            Set<String> currentlyActive = new HashSet<>();
+            for (InstanceMetricsSnapshot metricsSnapshot : metricsList) {
+                if (!Objects.equals(metricsSnapshot.getServiceImplementationId(), service.getCurrentImplementationId())) //Skip the metricsSnapshot if it is not related to the current implementation
+                    continue;
+                Instance instance = service.getInstance(metricsSnapshot.getInstanceId());
+                if (instance == null)
+                    throw new RuntimeException("Instance " +metricsSnapshot.getInstanceId()+" not found in service "+metricsSnapshot.getServiceId());
+                // If the instance has been shutdown, skip its metrics snapshot in the buffer. Next buffer won't contain its metrics snapshots.
+                if (instance.getCurrentStatus() != InstanceStatus.SHUTDOWN) {
+                    if (!instance.getLatestInstanceMetricsSnapshot().equals(metricsSnapshot)) {
+                        metricsToSave.add(metricsSnapshot);
+                        instance.setLatestInstanceMetricsSnapshot(metricsSnapshot);
+                        instance.setCurrentStatus(metricsSnapshot.getStatus());
+                    } else
+                        log.warn("Metrics Snapshot already saved: " + metricsSnapshot);
+                    if (metricsSnapshot.isActive() || metricsSnapshot.isUnreachable())
+                        currentlyActive.add(instance.getInstanceId());
+                } else {
+                    shutdownInstancesStillMonitored.add(instance.getInstanceId());
                 }
             }
-        } catch (Exception e) {
-            log.error(e.getMessage());
-            e.printStackTrace();
-            throw new RuntimeException(e);
+            // Failure detection of instances
+            Set<String> failedInstances = new HashSet<>(previouslyActive);
+            failedInstances.removeAll(currentlyActive);
+            failedInstances.removeIf(instanceId -> {
+                Instance instance = service.getInstance(instanceId);
+                return instance == null || instance.getCurrentStatus() == InstanceStatus.SHUTDOWN;
+            });
+            if (failedInstances.stream().anyMatch(instanceId -> service.getInstance(instanceId).getCurrentStatus() == InstanceStatus.BOOTING)) {
+                log.error("Marking as FAILED instances that are BOOTING!");
+            }
+            // There should be only the instances that have been shutdown and are still monitored
+            for (String instanceId : failedInstances) {
+                Instance instance = service.getInstance(instanceId);
+                instance.setCurrentStatus(InstanceStatus.FAILED);
+                InstanceMetricsSnapshot metrics = new InstanceMetricsSnapshot(instance.getServiceId(), instance.getInstanceId());
+                metrics.setStatus(InstanceStatus.FAILED);
+                metrics.applyTimestamp();
+                metricsToSave.add(metrics);
+                instance.setLatestInstanceMetricsSnapshot(metrics);
+            }
+            previouslyActive = currentlyActive;
+        }
+        // Remove from the map of instances the instances that have been shutdown that are not monitored anymore
+        List<Instance> instancesToBeRemoved = service.getShutdownInstances();
+        instancesToBeRemoved.removeIf(instance -> shutdownInstancesStillMonitored.contains(instance.getInstanceId()));
+        for (Instance instance : instancesToBeRemoved) {
+            log.debug("{}: Removing shutdown instance {}", service.getServiceId(), instance.getInstanceId());
+            service.removeInstance(instance);
+            removedInstances.add(instance);
         }
+        return previouslyActive;
     }
 
     public void markInstanceAsShutdown(String serviceId, String instanceId) {
-        Service service = servicesMap.get(serviceId);
+        InstanceMetricsSnapshot metrics = services.update(serviceId, service -> markInstanceAsShutdown(service, instanceId));
+        saveMetrics(metrics);
+    }
+
+    // Returns the SHUTDOWN snapshot of the instance, to be saved once the service is published
+    private InstanceMetricsSnapshot markInstanceAsShutdown(Service service, String instanceId) {
         Instance instance = service.getInstance(instanceId);
         InstanceMetricsSnapshot metrics = new InstanceMetricsSnapshot(instance.getServiceId(), instance.getInstanceId());
         metrics.setStatus(InstanceStatus.SHUTDOWN);
         metrics.applyTimestamp();
-        metricsRepository.save(metrics);
         instance.setCurrentStatus(InstanceStatus.SHUTDOWN);
         instance.setLatestInstanceMetricsSnapshot(metrics);
+        return metrics;
     }
 
     public void changeServiceImplementation(String serviceId, String newImplementationId, List<String> newInstancesAddresses){
-        Service service = servicesMap.get(serviceId);
-        service.getCurrentImplementation().setPenalty(0);
+        List<InstanceMetricsSnapshot> shutdownMetrics = services.update(serviceId, service -> {
+            List<InstanceMetricsSnapshot> metricsOfRemovedInstances = new LinkedList<>();
+            service.getCurrentImplementation().setPenalty(0);
 
-        for (Instance instance : service.getInstances()) {
-            markInstanceAsShutdown(serviceId, instance.getInstanceId());
-            service.removeInstance(instance);
-        }
-        service.setCurrentImplementationId(newImplementationId);
+            for (Instance instance : service.getInstances()) {
+                metricsOfRemovedInstances.add(markInstanceAsShutdown(service, instance.getInstanceId()));
+                service.removeInstance(instance);
+            }
+            service.setCurrentImplementationId(newImplementationId);
 
-        for (String instanceAddress : newInstancesAddresses) {
-            service.createInstance(instanceAddress);
-        }
+            for (String instanceAddress : newInstancesAddresses) {
+                service.createInstance(instanceAddress);
+            }
 
-        if (service.getConfiguration().getLoadBalancerType() == ServiceConfiguration.LoadBalancerType.WEIGHTED_RANDOM) {
-            Map<String, Double> newWeights = new HashMap<>();
-            for(Instance instance : service.getInstances()){
-                newWeights.put(instance.getInstanceId(), 1.0/service.getInstances().size());
+            if (service.getConfiguration().getLoadBalancerType() == ServiceConfiguration.LoadBalancerType.WEIGHTED_RANDOM) {
+                Map<String, Double> newWeights = new HashMap<>();
+                for(Instance instance : service.getInstances()){
+                    newWeights.put(instance.getInstanceId(), 1.0/service.getInstances().size());
+                }
+                setLoadBalancerWeights(service, newWeights);
             }
-            setLoadBalancerWeights(serviceId, newWeights);
+            return metricsOfRemovedInstances;
+        });
+        for (InstanceMetricsSnapshot metrics : shutdownMetrics) {
+            saveMetrics(metrics);
+            metricsStore.remove(metrics.getInstanceId());
+            metricsHistory.evict(serviceId, metrics.getInstanceId());
         }
     }
 
     public void addInstance(String serviceId, String instanceAddress){
-        Service service = servicesMap.get(serviceId);
-        service.createInstance(instanceAddress);
+        services.update(serviceId, service -> service.createInstance(instanceAddress));
     }
 
     public InstanceMetricsSnapshot getMetrics(long id) {
-        return metricsRepository.findById(id).orElse(null);
+        return metricsHistory.findById(id);
+    }
+
+    // Makes the snapshot available to the Analyse right away and persists it in the background
+    private void saveMetrics(InstanceMetricsSnapshot metricsSnapshot) {
+        metricsStore.add(metricsSnapshot);
+        metricsHistory.recordLatest(metricsSnapshot);
+        metricsWriter.enqueue(metricsSnapshot);
     }
 
     public void changeServicesConfigurations(Map<String, ServiceConfiguration> newConfigurations){
         for (String serviceId : newConfigurations.keySet()){
-            Service service = servicesMap.get(serviceId);
-            service.setConfiguration(newConfigurations.get(serviceId));
-            configurationRepository.save(newConfigurations.get(serviceId));
+            // Saved before the publication of the service, since saving it changes the configuration
+            services.update(serviceId, service -> {
+                service.setConfiguration(newConfigurations.get(serviceId));
+                configurationRepository.save(service.getConfiguration());
+                return null;
+            });
         }
     }
 
     public List<InstanceMetricsSnapshot> getLatestNMetricsOfCurrentInstance(String serviceId, String instanceId, int n) {
-        QoSCollection qosCollection = servicesMap.get(serviceId).getInstance(instanceId).getQoSCollection();
+        return getLatestNMetricsOfCurrentInstance(services.get(serviceId).getInstance(instanceId), n);
+    }
+
+    // <serviceId, <instanceId, latest n metrics>> of all the instances that are neither booting, failed nor shut down,
+    // i.e., the ones analysed by the Analyse. The metrics are the ones of getLatestNMetricsOfCurrentInstance
+    public Map<String, Map<String, List<InstanceMetricsSnapshot>>> getLatestNMetricsOfAnalysableInstances(int n) {
+        Map<String, Map<String, List<InstanceMetricsSnapshot>>> servicesMetrics = new HashMap<>();
+        for (Service service : services.getServicesMap().values()) {
+            Map<String, List<InstanceMetricsSnapshot>> instancesMetrics = new HashMap<>();
+            for (Instance instance : service.getInstances()) {
+                InstanceStatus status = instance.getCurrentStatus();
+                if (status != InstanceStatus.BOOTING && status != InstanceStatus.FAILED && status != InstanceStatus.SHUTDOWN)
+                    instancesMetrics.put(instance.getInstanceId(), getLatestNMetricsOfCurrentInstance(instance, n));
+            }
+            servicesMetrics.put(service.getServiceId(), instancesMetrics);
+        }
+        return servicesMetrics;
+    }
+
+    // <serviceId, <instanceId, statistics of the latest n metrics>> of the instances of getLatestNMetricsOfAnalysableInstances.
+    // The statistics come from the running counters of the metrics store, so the Analyse does not need the snapshots
+    public Map<String, Map<String, InstanceWindowStats>> getLatestNWindowStatsOfAnalysableInstances(int n) {
+        Map<String, Map<String, InstanceWindowStats>> servicesStats = new HashMap<>();
+        for (Service service : services.getServicesMap().values()) {
+            Map<String, InstanceWindowStats> instancesStats = new HashMap<>();
+            for (Instance instance : service.getInstances()) {
+                InstanceStatus status = instance.getCurrentStatus();
+                if (status != InstanceStatus.BOOTING && status != InstanceStatus.FAILED && status != InstanceStatus.SHUTDOWN)
+                    instancesStats.put(instance.getInstanceId(), getLatestNWindowStatsOfCurrentInstance(instance, n));
+            }
+            servicesStats.put(service.getServiceId(), instancesStats);
+        }
+        return servicesStats;
+    }
+
+    private InstanceWindowStats getLatestNWindowStatsOfCurrentInstance(Instance instance, int n) {
+        Date after = getLatestQoSValueDate(instance);
+        // As for the snapshots, the window is computed from the database only when the store may miss some of its snapshots
+        if (n <= metricsStore.getCapacity()) {
+            InstanceWindowStats windowStats = metricsStore.getLatestWindowStats(instance.getServiceId(), instance.getInstanceId(), after, n);
+            if (windowStats.getSnapshotsCount() >= n || metricsStore.covers(instance.getInstanceId(), after))
+                return windowStats;
+        }
+        return InstanceWindowStats.of(instance.getServiceId(), instance.getInstanceId(), metricsHistory.findLatestOfCurrentInstance(instance.getInstanceId(), after, n));
+    }
+
+    private List<InstanceMetricsSnapshot> getLatestNMetricsOfCurrentInstance(Instance instance, int n) {
+        String instanceId = instance.getInstanceId();
+        Date after = getLatestQoSValueDate(instance);
+        // The store holds at most the latest metricsHistorySize snapshots of each instance, and only the ones received
+        // since the Knowledge started. A window shorter than n (e.g., after an adaptation, until it fills again) is
+        // complete unless the store started after the given date: only then the database may hold the missing snapshots
+        if (n <= metricsStore.getCapacity()) {
+            List<InstanceMetricsSnapshot> snapshots = metricsStore.getLatest(instanceId, after, n);
+            if (snapshots.size() >= n || metricsStore.covers(instanceId, after))
+                return snapshots;
+        }
+        return metricsHistory.findLatestOfCurrentInstance(instanceId, after, n);
+    }
+
+    // Date of the latest QoS value of the instance: the metrics of the current instance are the ones taken after it
+    private Date getLatestQoSValueDate(Instance instance) {
+        QoSCollection qosCollection = instance.getQoSCollection();
         QoSHistory.Value availabilityLatestValue = qosCollection.getQoSHistory(Availability.class).getLatestValue();
         QoSHistory.Value artLatestValue = qosCollection.getQoSHistory(AverageResponseTime.class).getLatestValue();
         if (availabilityLatestValue == null)
@@ -210,25 +396,31 @@ public class KnowledgeService {
             artLatestValue = qosCollection.getQoSHistory(AverageResponseTime.class).getCurrentValue();
         if (availabilityLatestValue == null || artLatestValue == null)
             throw new RuntimeException("THIS SHOULD NOT HAPPEN");
-        return metricsRepository.findLatestOfCurrentInstanceOrderByTimestampDesc(instanceId, artLatestValue.getTimestamp().after(availabilityLatestValue.getTimestamp()) ? artLatestValue.getTimestamp() : availabilityLatestValue.getTimestamp(), Pageable.ofSize(n)).stream().toList();
+        return artLatestValue.getTimestamp().after(availabilityLatestValue.getTimestamp()) ? artLatestValue.getTimestamp() : availabilityLatestValue.getTimestamp();
     }
 
     public List<InstanceMetricsSnapshot> getAllInstanceMetricsBetween(String instanceId, String startDateStr, String endDateStr) {
         Date startDate = Date.from(LocalDateTime.parse(startDateStr).toInstant(ZoneOffset.UTC));
         Date endDate = Date.from(LocalDateTime.parse(endDateStr).toInstant(ZoneOffset.UTC));
-        return metricsRepository.findAllByInstanceIdAndTimestampBetween(instanceId, startDate, endDate).stream().toList();
+        return metricsHistory.findAllByInstanceIdAndTimestampBetween(instanceId, startDate, endDate);
+    }
+
+    public List<MetricsRollup> getInstanceMetricsRollupsBetween(String instanceId, String startDateStr, String endDateStr, long resolutionSeconds) {
+        Date startDate = Date.from(LocalDateTime.parse(startDateStr).toInstant(ZoneOffset.UTC));
+        Date endDate = Date.from(LocalDateTime.parse(endDateStr).toInstant(ZoneOffset.UTC));
+        return metricsRollupService.getInstanceMetricsRollups(instanceId, startDate, endDate, resolutionSeconds * 1000);
     }
 
     public InstanceMetricsSnapshot getLatestByInstanceId(String instanceId) {
-        return metricsRepository.findLatestByInstanceId(instanceId).stream().findFirst().orElse(null);
+        return metricsHistory.findLatestByInstanceId(instanceId);
     }
 
     public List<InstanceMetricsSnapshot> getAllLatestByServiceId(String serviceId) {
-        return metricsRepository.findLatestByServiceId(serviceId).stream().toList();
+        return metricsHistory.findLatestByServiceId(serviceId);
     }
 
     public Service getService(String serviceId) {
-        return servicesMap.get(serviceId);
+        return services.get(serviceId);
     }
 
     public List<AdaptationOption> getChosenAdaptationOptionsHistory(String serviceId, int n) {
@@ -239,47 +431,55 @@ public class KnowledgeService {
         return adaptationChoicesRepository.findAll(Pageable.ofSize(n)).stream().collect(Collectors.groupingBy(AdaptationOption::getServiceId));
     }
 
-    public void proposeAdaptationOptions(Map<String, List<AdaptationOption>> proposedAdaptationOptions) {
-        this.proposedAdaptationOptions = proposedAdaptationOptions;
+    public synchronized void proposeAdaptationOptions(Map<String, List<AdaptationOption>> proposedAdaptationOptions) {
         for (String serviceId : proposedAdaptationOptions.keySet()) {
             if (!proposedAdaptationOptions.get(serviceId).isEmpty()) {
-                Service service = servicesMap.get(serviceId);
-                service.getCurrentImplementation().incrementPenalty();
+                services.update(serviceId, service -> {
+                    service.getCurrentImplementation().incrementPenalty();
+                    return null;
+                });
             }
         }
+        this.proposedAdaptationOptions = Collections.unmodifiableMap(proposedAdaptationOptions);
     }
 
     // Called by the Plan module to choose the adaptation options
-    public void chooseAdaptationOptions(Map<String, List<AdaptationOption>> chosenAdaptationOptions) {
-        this.chosenAdaptationOptions = chosenAdaptationOptions;
-        this.chosenAdaptationOptions.values().forEach(serviceOptions -> {
+    public synchronized void chooseAdaptationOptions(Map<String, List<AdaptationOption>> chosenAdaptationOptions) {
+        chosenAdaptationOptions.values().forEach(serviceOptions -> {
             serviceOptions.forEach(option -> {
                 option.applyTimestamp();
                 adaptationChoicesRepository.save(option);
             });
         });
+        this.chosenAdaptationOptions = Collections.unmodifiableMap(chosenAdaptationOptions);
     }
 
 
     // Update QoS-related properties
     public void addNewInstanceQoSValue(String serviceId, String instanceId, Class<? extends QoSSpecification> qosClass, Double value, Date date) {
-        servicesMap.get(serviceId).getInstance(instanceId).getQoSCollection().createNewQoSValue(qosClass, value, date);
+        services.update(serviceId, service -> service.getInstance(instanceId).getQoSCollection().createNewQoSValue(qosClass, value, date));
     }
 
     public void addNewServiceQoSValue(String serviceId, Class<? extends QoSSpecification> qosClass, Double value, Date date) {
-        servicesMap.get(serviceId).getCurrentImplementation().getQoSCollection().createNewQoSValue(qosClass, value, date);
+        services.update(serviceId, service -> service.getCurrentImplementation().getQoSCollection().createNewQoSValue(qosClass, value, date));
     }
 
     public void updateServiceQoSCollection(String serviceId, QoSCollection qoSCollection) {
-        servicesMap.get(serviceId).getCurrentImplementation().setQoSCollection(qoSCollection);
+        services.update(serviceId, service -> {
+            service.getCurrentImplementation().setQoSCollection(qoSCollection);
+            return null;
+        });
     }
 
     public void updateInstanceQoSCollection(String serviceId, String instanceId, QoSCollection qoSCollection) {
-        servicesMap.get(serviceId).getInstance(instanceId).setQoSCollection(qoSCollection);
+        services.update(serviceId, service -> {
+            service.getInstance(instanceId).setQoSCollection(qoSCollection);
+            return null;
+        });
     }
 
     public void updateService(Service service) {
-        servicesMap.put(service.getServiceId(), service);
+        services.put(service);
     }
 
     public void updateBenchmark(String serviceId, String serviceImplementationId, String simpleClassName, Double value) {
@@ -289,7 +489,7 @@ public class KnowledgeService {
             qosClass = (Class<? extends QoSSpecification>) Class.forName(qosSpecificationClassName);
             if (!QoSSpecification.class.isAssignableFrom(qosClass))
                 throw new RuntimeException("The provided class " + qosClass.getName() + " does not extend the QoS class.");
-            servicesMap.get(serviceId).getPossibleImplementations().get(serviceImplementationId).getQoSBenchmarks().put(qosClass, value);
+            services.update(serviceId, service -> service.getPossibleImplementations().get(serviceImplementationId).getQoSBenchmarks().put(qosClass, value));
             log.info("Updated "+simpleClassName+" benchmark for service " + serviceId + " of implementation " + serviceImplementationId + " to " + value);
         } catch (ClassNotFoundException | ClassCastException e) {
             throw new RuntimeException(e);
@@ -297,7 +497,14 @@ public class KnowledgeService {
     }
 
     public void setLoadBalancerWeights(String serviceId, Map<String, Double> weights) { // serviceId, Map<instanceId, weight>
-        Service service = servicesMap.get(serviceId);
+        services.update(serviceId, service -> {
+            setLoadBalancerWeights(service, weights);
+            return null;
+        });
+    }
+
+    private void setLoadBalancerWeights(Service service, Map<String, Double> weights) {
+        String serviceId = service.getServiceId();
         ServiceConfiguration oldConfiguration = service.getConfiguration();
         ServiceConfiguration newConfiguration = new ServiceConfiguration();
         newConfiguration.setLoadBalancerType(oldConfiguration.getLoadBalancerType());
@@ -314,100 +521,119 @@ public class KnowledgeService {
                                            Map<Class<? extends QoSSpecification>, QoSHistory.Value> newServiceValues,
                                            Map<String, Map<Class<? extends QoSSpecification>, QoSHistory.Value>> newInstancesCurrentValues,
                                            Map<Class<? extends QoSSpecification>, QoSHistory.Value> newServiceCurrentValues) {
-        Service service = servicesMap.get(serviceId);
-        // Update the current value of all the instances of the service
-        newInstancesCurrentValues.forEach((instanceId, newInstanceQoSCurrentValues) -> {
-            Instance instance = service.getInstance(instanceId);
-            newInstanceQoSCurrentValues.forEach((qosClass, qosValue) -> {
-                instance.getQoSCollection().setCurrentValueForQoS(qosClass, qosValue);
+        // The new values are persisted after the publication of the service, out of its lock
+        List<QoSValueEntity> newValueEntities = new LinkedList<>();
+        services.update(serviceId, service -> {
+            // Update the current value of all the instances of the service
+            newInstancesCurrentValues.forEach((instanceId, newInstanceQoSCurrentValues) -> {
+                Instance instance = service.getInstance(instanceId);
+                newInstanceQoSCurrentValues.forEach((qosClass, qosValue) -> {
+                    instance.getQoSCollection().setCurrentValueForQoS(qosClass, qosValue);
+                });
             });
-        });
-        // Add the latest value of each QoS of all the instances of the service. Then persist it.
-        newInstancesValues.forEach((instanceId, newInstanceQoSValues) -> {
-            Instance instance = service.getInstance(instanceId);
-            newInstanceQoSValues.forEach((qosClass, qosValue) -> {
+            // Add the latest value of each QoS of all the instances of the service. Then persist it.
+            newInstancesValues.forEach((instanceId, newInstanceQoSValues) -> {
+                Instance instance = service.getInstance(instanceId);
+                newInstanceQoSValues.forEach((qosClass, qosValue) -> {
+                    double threshold = -1;
+                    QoSSpecification qosSpecification = service.getQoSSpecifications().get(qosClass);
+                    if (qosClass.equals(Availability.class))
+                        threshold = ((Availability) qosSpecification).getMinThreshold();
+                    else if (qosClass.equals(AverageResponseTime.class))
+                        threshold = ((AverageResponseTime) qosSpecification).getMaxThreshold();
+                    else if (qosClass.equals(PercentileResponseTime.class))
+                        threshold = ((PercentileResponseTime) qosSpecification).getMaxThreshold();
+                    else if (qosSpecification instanceof LoadSpecification loadSpecification)
+                        threshold = loadSpecification.getMaxThreshold();
+                    instance.getQoSCollection().addNewQoSValue(qosClass, qosValue);
+                    newValueEntities.add(new QoSValueEntity(serviceId, service.getCurrentImplementationId(), instanceId,
+                            qosClass.getSimpleName(), threshold, instance.getCurrentValueForQoS(qosClass), qosValue));
+                });
+            });
+            // Update the current value of each QoS for the service
+            newServiceCurrentValues.forEach((qosClass, qosValue) -> {
+                service.getCurrentImplementation().getQoSCollection().setCurrentValueForQoS(qosClass, qosValue);
+            });
+            // Add the latest value of each QoS for the service. Then persist it.
+            newServiceValues.forEach((qosClass, qosValue) -> {
                 double threshold = -1;
                 QoSSpecification qosSpecification = service.getQoSSpecifications().get(qosClass);
                 if (qosClass.equals(Availability.class))
                     threshold = ((Availability) qosSpecification).getMinThreshold();
-                else if (qosClass.equals(AverageResponseTime.class))
+                else if (qosClass.equals(AverageResponseTime.class)) {
                     threshold = ((AverageResponseTime) qosSpecification).getMaxThreshold();
-                instance.getQoSCollection().addNewQoSValue(qosClass, qosValue);
-                qosRepository.save(new QoSValueEntity(serviceId, service.getCurrentImplementationId(), instanceId,
-                        qosClass.getSimpleName(), threshold, instance.getCurrentValueForQoS(qosClass), qosValue));
+                    if (qosValue.getDoubleValue() > 5000)
+                        log.warn("Huge ART for service " + serviceId);
+                } else if (qosClass.equals(PercentileResponseTime.class))
+                    threshold = ((PercentileResponseTime) qosSpecification).getMaxThreshold();
+                else if (qosSpecification instanceof LoadSpecification loadSpecification)
+                    threshold = loadSpecification.getMaxThreshold();
+                service.getCurrentImplementation().getQoSCollection().addNewQoSValue(qosClass, qosValue);
+                newValueEntities.add(new QoSValueEntity(serviceId, service.getCurrentImplementationId(), null,
+                        qosClass.getSimpleName(), threshold, service.getCurrentValueForQoS(qosClass), qosValue));
             });
+            return null;
         });
-        // Update the current value of each QoS for the service
-        newServiceCurrentValues.forEach((qosClass, qosValue) -> {
-            service.getCurrentImplementation().getQoSCollection().setCurrentValueForQoS(qosClass, qosValue);
-        });
-        // Add the latest value of each QoS for the service. Then persist it.
-        newServiceValues.forEach((qosClass, qosValue) -> {
-            double threshold = -1;
-            QoSSpecification qosSpecification = service.getQoSSpecifications().get(qosClass);
-            if (qosClass.equals(Availability.class))
-                threshold = ((Availability) qosSpecification).getMinThreshold();
-            else if (qosClass.equals(AverageResponseTime.class)) {
-                threshold = ((AverageResponseTime) qosSpecification).getMaxThreshold();
-                if (qosValue.getDoubleValue() > 5000)
-                    log.warn("Huge ART for service " + serviceId);
-            }
-            service.getCurrentImplementation().getQoSCollection().addNewQoSValue(qosClass, qosValue);
-            qosRepository.save(new QoSValueEntity(serviceId, service.getCurrentImplementationId(), null,
-                    qosClass.getSimpleName(), threshold, service.getCurrentValueForQoS(qosClass), qosValue));
-        });
+        qosRepository.saveAll(newValueEntities);
     }
 
     // Useful methods to investigate the metrics of the instances
 
     public List<InstanceMetricsSnapshot> getAllInstanceMetrics(String instanceId) {
-        return metricsRepository.findAllByInstanceId(instanceId).stream().toList();
+        return metricsHistory.findAllByInstanceId(instanceId);
     }
 
     public List<InstanceMetricsSnapshot> getAllMetricsBetween(String startDateStr, String endDateStr) {
         Date startDate = Date.from(LocalDateTime.parse(startDateStr).toInstant(ZoneOffset.UTC));
         Date endDate = Date.from(LocalDateTime.parse(endDateStr).toInstant(ZoneOffset.UTC));
-        return metricsRepository.findAllByTimestampBetween(startDate, endDate).stream().toList();
+        return metricsHistory.findAllByTimestampBetween(startDate, endDate);
     }
 
     public List<InstanceMetricsSnapshot> getNMetricsBefore(String instanceId, String timestampStr, int n) {
         Date timestamp = Date.from(LocalDateTime.parse(timestampStr).toInstant(ZoneOffset.UTC));
-        return metricsRepository.findAllByInstanceIdAndTimestampBeforeOrderByTimestampDesc(instanceId, timestamp, Pageable.ofSize(n)).stream().toList();
+        return metricsHistory.findNBefore(instanceId, timestamp, n);
     }
 
     public List<InstanceMetricsSnapshot> getNMetricsAfter(String instanceId, String timestampStr, int n) {
         Date timestamp = Date.from(LocalDateTime.parse(timestampStr).toInstant(ZoneOffset.UTC));
-        return metricsRepository.findAllByInstanceIdAndTimestampAfterOrderByTimestampDesc(instanceId, timestamp, Pageable.ofSize(n)).stream().toList();
+        return metricsHistory.findNAfter(instanceId, timestamp, n);
     }
 
     public InstanceMetricsSnapshot getLatestActiveByInstanceId(String instanceId) {
-        return metricsRepository.findLatestOnlineMeasurementByInstanceId(instanceId).stream().findFirst().orElse(null);
+        return metricsHistory.findLatestOnlineMeasurementByInstanceId(instanceId);
     }
 
 
     public void invalidateQosHistory(String serviceId) {
-        Service service = servicesMap.get(serviceId);
-        service.getInstances().forEach(instance -> {
-            instance.invalidateQoSHistory(Availability.class);
-            instance.invalidateQoSHistory(AverageResponseTime.class);
+        String implementationId = services.update(serviceId, service -> {
+            // Vulnerability is a different kind of QoS, with no values computed by the Analyse
+            List<Class<? extends QoSSpecification>> qosClasses = service.getQoSSpecifications().keySet().stream()
+                    .filter(qosClass -> !qosClass.equals(Vulnerability.class)).toList();
+            service.getInstances().forEach(instance -> qosClasses.forEach(qosClass -> instance.invalidateQoSHistory(qosClass)));
+            qosClasses.forEach(qosClass -> service.invalidateQoSHistory(qosClass));
+            return service.getCurrentImplementationId();
         });
-        service.invalidateQoSHistory(Availability.class);
-        service.invalidateQoSHistory(AverageResponseTime.class);
-        qosRepository.invalidateServiceQoSHistory(serviceId, service.getCurrentImplementationId());
+        qosRepository.invalidateServiceQoSHistory(serviceId, implementationId);
     }
 
     public void updateImplementationPreference(String serviceId, String implementationId, double preference) {
-        Service service = servicesMap.get(serviceId);
-        service.getPossibleImplementations().get(implementationId).setPreference(preference);
+        services.update(serviceId, service -> {
+            service.getPossibleImplementations().get(implementationId).setPreference(preference);
+            return null;
+        });
     }
 
     public void updateAvailabilityThreshold(String serviceId, double availabilityThreshold) {
-        Service service = servicesMap.get(serviceId);
-        ((Availability)(service.getQoSSpecifications().get(Availability.class))).setMinThreshold(availabilityThreshold);
+        services.update(serviceId, service -> {
+            ((Availability)(service.getQoSSpecifications().get(Availability.class))).setMinThreshold(availabilityThreshold);
+            return null;
+        });
     }
 
     public void updateResponseTimeThreshold(String serviceId, double responseTimeThreshold) {
-        Service service = servicesMap.get(serviceId);
-        ((AverageResponseTime)(service.getQoSSpecifications().get(AverageResponseTime.class))).setMaxThreshold(responseTimeThreshold);
+        services.update(serviceId, service -> {
+            ((AverageResponseTime)(service.getQoSSpecifications().get(AverageResponseTime.class))).setMaxThreshold(responseTimeThreshold);
+            return null;
+        });
     }
 }
\ No newline at end of file
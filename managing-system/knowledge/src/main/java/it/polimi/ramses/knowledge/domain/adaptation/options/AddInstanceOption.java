@@ -23,6 +23,8 @@ public class AddInstanceOption extends AdaptationOption {
     private Double newInstanceWeight;
     @ElementCollection
     private List<String> instancesToShutdownIds = new LinkedList<>(); //There could be instances whose weight have gone below the shutdown threshold after redistributing the weights
+    // Load of each current instance forecast one boot time ahead, when the option is proposed ahead of the load. Null otherwise
+    private Double forecastedLoad;
 
 
     public AddInstanceOption(String serviceId, String implementationId, Class<? extends QoSSpecification> goal, String comment) {
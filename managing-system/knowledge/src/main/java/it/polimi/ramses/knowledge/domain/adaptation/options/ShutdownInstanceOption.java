@@ -1,6 +1,7 @@
 package it.polimi.ramses.knowledge.domain.adaptation.options;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.QoSSpecification;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -27,6 +28,12 @@ public class ShutdownInstanceOption extends AdaptationOption {
         this.instanceToShutdownId = instanceToShutdownId;
     }
 
+    public ShutdownInstanceOption(String serviceId, String serviceImplementationId, String instanceToShutdownId, Class<? extends QoSSpecification> goal, String comment) {
+        super(serviceId, serviceImplementationId, comment);
+        this.instanceToShutdownId = instanceToShutdownId;
+        super.setQosGoal(goal);
+    }
+
     public ShutdownInstanceOption(String serviceId, String serviceImplementationId, String instanceToShutdownId, String comment, boolean isForced) {
         super(serviceId, serviceImplementationId, comment);
         this.instanceToShutdownId = instanceToShutdownId;
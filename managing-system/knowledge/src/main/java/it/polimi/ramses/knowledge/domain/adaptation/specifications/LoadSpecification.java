@@ -0,0 +1,61 @@
+package it.polimi.ramses.knowledge.domain.adaptation.specifications;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import lombok.Getter;
+import lombok.Setter;
+
+// Target band of the load of each instance of a service. Above the band the service should scale out, before the
+// other QoS degrade; below it, it should scale in
+@Getter
+@Setter
+public abstract class LoadSpecification extends QoSSpecification {
+    @JsonProperty("min_threshold")
+    private double minThreshold;
+    @JsonProperty("max_threshold")
+    private double maxThreshold;
+
+    @Override
+    void fromJson(String json) {
+        Gson gson = new Gson();
+        JsonObject parameter = gson.fromJson(json, JsonObject.class).getAsJsonObject();
+        setWeight(parameter.get("weight").getAsDouble());
+        minThreshold = parameter.get("min_threshold").getAsDouble();
+        maxThreshold = parameter.get("max_threshold").getAsDouble();
+        if (minThreshold < 0 || minThreshold >= maxThreshold)
+            throw new RuntimeException("The band of " + getClass().getSimpleName() + " must have 0 <= min_threshold < max_threshold");
+    }
+
+    @Override
+    @JsonIgnore
+    public boolean isSatisfied(double value) {
+        return value >= minThreshold && value <= maxThreshold;
+    }
+
+    @JsonIgnore
+    public boolean isAboveBand(double value) {
+        return value > maxThreshold;
+    }
+
+    @JsonIgnore
+    public boolean isBelowBand(double value) {
+        return value < minThreshold;
+    }
+
+    // Distance of the value from the band, relative to the threshold it crosses. 0 if the value is in the band
+    @JsonIgnore
+    public double getDistanceFromBand(double value) {
+        if (isAboveBand(value))
+            return (value - maxThreshold) / maxThreshold;
+        if (isBelowBand(value))
+            return (minThreshold - value) / minThreshold;
+        return 0;
+    }
+
+    @Override
+    public String getConstraintDescription() {
+        return minThreshold + " < value < " + maxThreshold;
+    }
+}
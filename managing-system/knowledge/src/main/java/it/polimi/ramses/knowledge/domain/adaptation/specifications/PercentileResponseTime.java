@@ -0,0 +1,54 @@
+package it.polimi.ramses.knowledge.domain.adaptation.specifications;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.math.BigDecimal;
+
+// Constraint on a percentile (e.g., the 95th or the 99th) of the response time of the successful requests, in ms.
+// The percentile is estimated from the latency histograms of the instances (see LatencyHistogram)
+@Getter
+@Setter
+@Slf4j
+public class PercentileResponseTime extends QoSSpecification {
+    private double percentile;
+    @JsonProperty("max_threshold")
+    private double maxThreshold;
+
+    @JsonCreator
+    public PercentileResponseTime() { super(); }
+
+    // used in QoSParser: clazz.getDeclaredConstructor(String.class)
+    public PercentileResponseTime(String json) {
+        super();
+        fromJson(json);
+    }
+
+    @Override
+    void fromJson(String json) {
+        Gson gson = new Gson();
+        JsonObject parameter = gson.fromJson(json, JsonObject.class).getAsJsonObject();
+        super.setWeight(parameter.get("weight").getAsDouble());
+        percentile = parameter.get("percentile").getAsDouble();
+        if (percentile <= 0 || percentile > 100)
+            throw new RuntimeException("The percentile of the response time must be in (0, 100]");
+        maxThreshold = parameter.get("max_threshold").getAsDouble();
+    }
+
+    @Override
+    @JsonIgnore
+    public boolean isSatisfied(double value) {
+        return value <= maxThreshold;
+    }
+
+    @Override
+    public String getConstraintDescription() {
+        return "p" + BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString() + " value < " + maxThreshold;
+    }
+}
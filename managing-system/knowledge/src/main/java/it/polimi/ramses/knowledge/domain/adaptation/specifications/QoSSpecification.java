@@ -14,11 +14,14 @@ import java.util.List;
 @JsonSubTypes({
         @JsonSubTypes.Type(value = Availability.class),
         @JsonSubTypes.Type(value = AverageResponseTime.class),
+        @JsonSubTypes.Type(value = PercentileResponseTime.class),
+        @JsonSubTypes.Type(value = Throughput.class),
+        @JsonSubTypes.Type(value = Utilization.class),
         @JsonSubTypes.Type(value = Vulnerability.class)
         //@JsonSubTypes.Type(value = TotalCost.class)
 })
 @NoArgsConstructor
-public abstract class QoSSpecification {
+public abstract class QoSSpecification implements Cloneable {
 
     private Double weight;
 
@@ -38,6 +41,15 @@ public abstract class QoSSpecification {
 
     public abstract String getConstraintDescription();
 
+    // The fields of the specifications are all values, so a shallow copy is a full one
+    public QoSSpecification copy() {
+        try {
+            return (QoSSpecification) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     abstract void fromJson(String json);
 
     @Override
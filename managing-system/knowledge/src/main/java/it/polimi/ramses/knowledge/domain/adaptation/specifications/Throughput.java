@@ -0,0 +1,16 @@
+package it.polimi.ramses.knowledge.domain.adaptation.specifications;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+// Band of the requests per second served by each instance of a service
+public class Throughput extends LoadSpecification {
+
+    @JsonCreator
+    public Throughput() { super(); }
+
+    // used in QoSParser: clazz.getDeclaredConstructor(String.class)
+    public Throughput(String json) {
+        super();
+        fromJson(json);
+    }
+}
@@ -0,0 +1,16 @@
+package it.polimi.ramses.knowledge.domain.adaptation.specifications;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+// Band of the CPU usage of each instance of a service, in [0, 1]
+public class Utilization extends LoadSpecification {
+
+    @JsonCreator
+    public Utilization() { super(); }
+
+    // used in QoSParser: clazz.getDeclaredConstructor(String.class)
+    public Utilization(String json) {
+        super();
+        fromJson(json);
+    }
+}
@@ -1,13 +1,31 @@
 package it.polimi.ramses.knowledge.domain.adaptation.values;
 
 import it.polimi.ramses.knowledge.domain.adaptation.specifications.QoSSpecification;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
 
 import java.util.*;
 
 @Data
 public class QoSCollection {
     private final Map<Class<? extends QoSSpecification>, QoSHistory<? extends QoSSpecification>> qoSHistoryMap = new HashMap<>();
+    // QoS classes whose history is shared with the collection this one is a copy of. They are copied on first change
+    @Getter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private final Set<Class<? extends QoSSpecification>> sharedQoSClasses = new HashSet<>();
+
+    // Copy of the collection sharing the histories of the QoS, until they are changed. The histories returned by
+    // getQoSHistory must not be changed directly
+    public QoSCollection copy() {
+        QoSCollection copy = new QoSCollection();
+        copy.qoSHistoryMap.putAll(qoSHistoryMap);
+        copy.sharedQoSClasses.addAll(qoSHistoryMap.keySet());
+        return copy;
+    }
 
     public <T extends QoSSpecification> QoSHistory<T> getQoSHistory(Class<T> qosClass) {
         return (QoSHistory<T>) qoSHistoryMap.get(qosClass);
@@ -15,12 +33,12 @@ public class QoSCollection {
 
     // Functions on current value
     public QoSHistory.Value changeCurrentValueForQoS(Class<? extends QoSSpecification> qosSpecificationClass, double value, Date date) {
-        qoSHistoryMap.get(qosSpecificationClass).setCurrentValue(new QoSHistory.Value(value, date));
+        historyToChange(qosSpecificationClass).setCurrentValue(new QoSHistory.Value(value, date));
         return qoSHistoryMap.get(qosSpecificationClass).getCurrentValue();
     }
 
     public void setCurrentValueForQoS(Class<? extends QoSSpecification> qosSpecificationClass, QoSHistory.Value value) {
-        qoSHistoryMap.get(qosSpecificationClass).setCurrentValue(value);
+        historyToChange(qosSpecificationClass).setCurrentValue(value);
     }
 
     public QoSHistory.Value getCurrentValueForQoS(Class<? extends QoSSpecification> qosSpecificationClass) {
@@ -28,19 +46,17 @@ public class QoSCollection {
     }
 
     public void invalidateLatestAndPreviousValuesForQoS(Class<? extends QoSSpecification> qosSpecificationClass) {
-        qoSHistoryMap.get(qosSpecificationClass).invalidateLatestAndPreviousValues();
+        historyToChange(qosSpecificationClass).invalidateLatestAndPreviousValues();
     }
 
 
     // Functions on values history
     public <T extends QoSSpecification> QoSHistory.Value createNewQoSValue(Class<T> qosClass, double value, Date date) {
-        QoSHistory<T> qoSHistory = (QoSHistory<T>) qoSHistoryMap.get(qosClass);
-        return qoSHistory.addValue(value, date);
+        return historyToChange(qosClass).addValue(value, date);
     }
 
     public <T extends QoSSpecification> void addNewQoSValue(Class<T> qosClass, QoSHistory.Value value) {
-        QoSHistory<T> qoSHistory = (QoSHistory<T>) qoSHistoryMap.get(qosClass);
-        qoSHistory.getValuesStack().add(0, value);
+        historyToChange(qosClass).addValue(value);
     }
 
     public <T extends QoSSpecification> List<Double> getLatestAnalysisWindowForQoS(Class<T> qosClass, int windowSize, boolean fillWithCurrentValue) {
@@ -49,6 +65,12 @@ public class QoSCollection {
                 qoSHistoryMap.get(qosClass).getLatestAnalysisWindow(windowSize);
     }
 
+    public <T extends QoSSpecification> Double getLatestAnalysisWindowAverageForQoS(Class<T> qosClass, int windowSize, boolean fillWithCurrentValue) {
+        return fillWithCurrentValue ?
+                qoSHistoryMap.get(qosClass).getLatestFilledAnalysisWindowAverage(windowSize) :
+                qoSHistoryMap.get(qosClass).getLatestAnalysisWindowAverage(windowSize);
+    }
+
     public <T extends QoSSpecification> void createHistory(T qos) {
         if (!qoSHistoryMap.containsKey(qos.getClass())) {
             QoSHistory<T> history = new QoSHistory<>(qos);
@@ -59,4 +81,13 @@ public class QoSCollection {
     public <T extends QoSSpecification> List<QoSHistory.Value> getValuesHistoryForQoS(Class<T> qosClass) {
         return qoSHistoryMap.get(qosClass).getValuesStack();
     }
+
+    private QoSHistory<? extends QoSSpecification> historyToChange(Class<? extends QoSSpecification> qosClass) {
+        QoSHistory<? extends QoSSpecification> history = qoSHistoryMap.get(qosClass);
+        if (sharedQoSClasses.remove(qosClass)) {
+            history = history.copy();
+            qoSHistoryMap.put(qosClass, history);
+        }
+        return history;
+    }
 }
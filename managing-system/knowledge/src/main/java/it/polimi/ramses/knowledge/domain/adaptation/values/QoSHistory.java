@@ -3,70 +3,171 @@ package it.polimi.ramses.knowledge.domain.adaptation.values;
 import com.fasterxml.jackson.annotation.*;
 import it.polimi.ramses.knowledge.domain.adaptation.specifications.QoSSpecification;
 import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 
-@Data
+// Bounded history of the values of a QoS, kept in a ring buffer of primitive arrays. Only the latest CAPACITY values
+// are kept in memory: the older ones are only available from the persistence layer (QoSValueEntity).
+// Each value has a sequence number (0 for the first value ever added). The sequence number of the latest value
+// invalidating itself and the previous values is tracked, so that the valid values are the ones after it.
+// Running (prefix) sums make the average of the latest values O(1).
 @NoArgsConstructor
 public class QoSHistory<T extends QoSSpecification> {
+    public static final int CAPACITY = 64;
 
+    @Getter
+    @Setter
     private T specification;
-    private List<Value> valuesStack = new LinkedList<>();
+    @Getter
+    @Setter
     private QoSHistory.Value currentValue;
 
+    private final double[] values = new double[CAPACITY];
+    private final long[] timestamps = new long[CAPACITY];
+    private final boolean[] invalidating = new boolean[CAPACITY];
+    // sum of all the values added before the value in the same slot
+    private final double[] sumsBefore = new double[CAPACITY];
+    private double totalSum = 0;
+    // number of values ever added, i.e., the sequence number of the next value
+    private long count = 0;
+    // sequence number of the latest invalidating value, -1 if none
+    private long invalidatedUpTo = -1;
+
     public QoSHistory(T specification) {
         this.specification = specification;
     }
 
+    public QoSHistory<T> copy() {
+        QoSHistory<T> copy = new QoSHistory<>(specification);
+        copy.currentValue = currentValue;
+        System.arraycopy(values, 0, copy.values, 0, CAPACITY);
+        System.arraycopy(timestamps, 0, copy.timestamps, 0, CAPACITY);
+        System.arraycopy(invalidating, 0, copy.invalidating, 0, CAPACITY);
+        System.arraycopy(sumsBefore, 0, copy.sumsBefore, 0, CAPACITY);
+        copy.totalSum = totalSum;
+        copy.count = count;
+        copy.invalidatedUpTo = invalidatedUpTo;
+        return copy;
+    }
+
     public Value addValue(double value, Date date) {
-        valuesStack.add(0, new Value(value, date));
-        return valuesStack.get(0);
+        int slot = (int) (count % CAPACITY);
+        values[slot] = value;
+        timestamps[slot] = date.getTime();
+        invalidating[slot] = false;
+        sumsBefore[slot] = totalSum;
+        totalSum += value;
+        count++;
+        return getValue(0);
+    }
+
+    public Value addValue(Value value) {
+        addValue(value.getDoubleValue(), value.getTimestamp());
+        if (value.invalidatesThisAndPreviousValues())
+            invalidateLatestAndPreviousValues();
+        return getValue(0);
+    }
+
+    // Number of values in memory
+    public int size() {
+        return (int) Math.min(count, CAPACITY);
+    }
+
+    // Number of the latest values in memory that are VALID
+    public int validSize() {
+        return (int) Math.min(size(), count - invalidatedUpTo - 1);
+    }
+
+    // Get the i-th latest value (0 is the latest one), or NULL if it is not in memory
+    public Value getValue(int i) {
+        if (i < 0 || i >= size())
+            return null;
+        long sequence = count - 1 - i;
+        int slot = (int) (sequence % CAPACITY);
+        Value value = new Value(values[slot], new Date(timestamps[slot]));
+        if (invalidating[slot])
+            value.invalidateThisAndPreviousValues();
+        return value;
     }
 
     @JsonIgnore
     public Value getLatestValue() {
-        if (valuesStack.size() > 0)
-            return valuesStack.get(0);
-        return null;
+        return getValue(0);
+    }
+
+    // The values in memory, newest first
+    public List<Value> getValuesStack() {
+        List<Value> valuesStack = new ArrayList<>(size());
+        for (int i = 0; i < size(); i++)
+            valuesStack.add(getValue(i));
+        return valuesStack;
+    }
+
+    // Replaces the history with the given values, newest first. Only the latest CAPACITY values are kept
+    public void setValuesStack(List<Value> valuesStack) {
+        count = 0;
+        totalSum = 0;
+        invalidatedUpTo = -1;
+        for (int i = Math.min(valuesStack.size(), CAPACITY) - 1; i >= 0; i--)
+            addValue(valuesStack.get(i));
     }
 
     // Get the latest "size" VALID values from the valueStack. If there are less than "size" VALID values, returns NULL
     public List<Double> getLatestAnalysisWindow(int size) {
-        List<Double> values = new LinkedList<>();
-        if (valuesStack.size() < size)
-            return null;
-        for (int i = 0; i < size; i++) {
-            if (!valuesStack.get(i).invalidatesThisAndPreviousValues())
-                values.add(valuesStack.get(i).getDoubleValue());
-            else
-                break;
-        }
-        if (values.size() < size)
+        if (validSize() < size)
             return null;
-        return values;
+        return getLatestValidValues(size);
     }
 
     // Get the latest "size" VALID values from the valueStack. If there are less than "size" VALID values, the current value is replicated
     public List<Double> getLatestFilledAnalysisWindow(int size) {
-        List<Double> values = new LinkedList<>();
-        int finalSize = Math.min(size, valuesStack.size());
-        for (int i = 0; i < finalSize; i++) {
-            if (!valuesStack.get(i).invalidatesThisAndPreviousValues())
-                values.add(valuesStack.get(i).getDoubleValue());
-            else
-                break;
-        }
+        List<Double> values = getLatestValidValues(Math.min(size, validSize()));
         while (values.size() < size)
             values.add(currentValue.getDoubleValue());
         return values;
     }
 
+    // Average of the latest "size" VALID values. If there are less than "size" VALID values, returns NULL
+    public Double getLatestAnalysisWindowAverage(int size) {
+        if (size <= 0 || validSize() < size)
+            return null;
+        return sumOfLatest(size) / size;
+    }
+
+    // Average of the latest "size" VALID values, where the missing ones are replaced by the current value
+    public double getLatestFilledAnalysisWindowAverage(int size) {
+        int valid = Math.min(size, validSize());
+        double sum = sumOfLatest(valid);
+        if (valid < size)
+            sum += (size - valid) * currentValue.getDoubleValue();
+        return sum / size;
+    }
+
     public void invalidateLatestAndPreviousValues() {
-        if (valuesStack.size() > 0)
-            valuesStack.get(0).invalidateThisAndPreviousValues();
+        if (count > 0) {
+            invalidating[(int) ((count - 1) % CAPACITY)] = true;
+            invalidatedUpTo = count - 1;
+        }
+    }
+
+    private List<Double> getLatestValidValues(int n) {
+        List<Double> latestValues = new LinkedList<>();
+        for (int i = 0; i < n; i++)
+            latestValues.add(values[(int) ((count - 1 - i) % CAPACITY)]);
+        return latestValues;
+    }
+
+    // Sum of the latest n values in memory
+    private double sumOfLatest(int n) {
+        if (n == 0)
+            return 0;
+        return totalSum - sumsBefore[(int) ((count - n) % CAPACITY)];
     }
 
     @Data
@@ -35,10 +35,28 @@ public class Instance {
         qoSCollection = new QoSCollection();
     }
 
+    // Copy of the instance sharing its latest metrics snapshot, which is replaced and never changed, and the QoS
+    // histories, which are copied on change (see QoSCollection.copy)
+    public Instance copy() {
+        Instance copy = new Instance();
+        copy.instanceId = instanceId;
+        copy.serviceId = serviceId;
+        copy.serviceImplementationId = serviceImplementationId;
+        copy.vulnerabilityScore = vulnerabilityScore;
+        copy.currentStatus = currentStatus;
+        copy.qoSCollection = qoSCollection == null ? null : qoSCollection.copy();
+        copy.latestInstanceMetricsSnapshot = latestInstanceMetricsSnapshot;
+        return copy;
+    }
+
     public <T extends QoSSpecification> List<Double> getLatestFilledAnalysisWindowForQoS(Class<T> qoSClass, int n) {
         return getQoSCollection().getLatestAnalysisWindowForQoS(qoSClass, n, true);
     }
 
+    public <T extends QoSSpecification> double getLatestFilledAnalysisWindowAverageForQoS(Class<T> qoSClass, int n) {
+        return getQoSCollection().getLatestAnalysisWindowAverageForQoS(qoSClass, n, true);
+    }
+
     public <T extends QoSSpecification> QoSHistory.Value getCurrentValueForQoS(Class<T> qoSClass) {
         return getQoSCollection().getCurrentValueForQoS(qoSClass);
     }
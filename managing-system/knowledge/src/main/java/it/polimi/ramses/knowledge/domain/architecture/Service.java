@@ -34,6 +34,19 @@ public class Service {
         possibleImplementations.forEach(impl -> {this.possibleImplementations.put(impl.getImplementationId(), impl); impl.setServiceId(getServiceId());});
     }
 
+    // Copy of the service to be changed and published in place of this one. The configuration and the dependencies are
+    // shared, since they are replaced and never changed, as well as the QoS histories until they change
+    public Service copy() {
+        Service copy = new Service(serviceId);
+        copy.currentImplementationId = currentImplementationId;
+        copy.configuration = configuration;
+        copy.dependencies = dependencies;
+        possibleImplementations.forEach((implementationId, implementation) -> copy.possibleImplementations.put(implementationId, implementation.copy()));
+        qoSSpecifications.forEach((qosClass, specification) -> copy.qoSSpecifications.put(qosClass, specification.copy()));
+        copy.latestAdaptationDate = latestAdaptationDate;
+        return copy;
+    }
+
     @JsonIgnore
     public boolean isInTransitionState() {
         return getInstances().stream().anyMatch(instance -> instance.getCurrentStatus() == InstanceStatus.BOOTING || instance.getCurrentStatus() == InstanceStatus.SHUTDOWN);
@@ -107,6 +120,11 @@ public class Service {
         return getCurrentImplementation().getQoSCollection().getLatestAnalysisWindowForQoS(qosClass, n, false);
     }
 
+    // Average of the latest "n" VALID values, or null if there are less than "n" VALID values
+    public <T extends QoSSpecification> Double getLatestAnalysisWindowAverageForQoS(Class<T> qosClass, int n) {
+        return getCurrentImplementation().getQoSCollection().getLatestAnalysisWindowAverageForQoS(qosClass, n, false);
+    }
+
     public <T extends QoSSpecification> List<QoSHistory.Value> getValuesHistoryForQoS(Class<T> qosClass) {
         return getCurrentImplementation().getQoSCollection().getValuesHistoryForQoS(qosClass);
     }
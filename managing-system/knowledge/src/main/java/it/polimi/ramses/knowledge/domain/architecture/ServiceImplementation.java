@@ -39,6 +39,17 @@ public class ServiceImplementation {
         this.instanceLoadShutdownThreshold = instanceLoadShutdownThreshold;
     }
 
+    public ServiceImplementation copy() {
+        ServiceImplementation copy = new ServiceImplementation(implementationId, preference, trust, instanceLoadShutdownThreshold);
+        copy.serviceId = serviceId;
+        instances.forEach((instanceId, instance) -> copy.instances.put(instanceId, instance.copy()));
+        copy.qoSCollection = qoSCollection == null ? null : qoSCollection.copy();
+        copy.qoSBenchmarks.putAll(qoSBenchmarks);
+        copy.penalty = penalty;
+        copy.vulnerabilityScore = vulnerabilityScore;
+        return copy;
+    }
+
     public double getBenchmark(Class<? extends QoSSpecification> qosSpecificationClass) {
         return qoSBenchmarks.get(qosSpecificationClass);
     }
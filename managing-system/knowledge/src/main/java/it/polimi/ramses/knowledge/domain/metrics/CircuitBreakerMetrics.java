@@ -4,6 +4,9 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 import java.util.HashMap;
 import java.util.Map;
@@ -15,7 +18,13 @@ import java.util.Map;
 public class CircuitBreakerMetrics {
 
     @Id
-    @GeneratedValue
+    // Ids are allocated in blocks, so that the inserts can be batched
+    @GeneratedValue(generator = "CircuitBreakerMetrics_id")
+    @GenericGenerator(name = "CircuitBreakerMetrics_id", strategy = "org.hibernate.id.enhanced.TableGenerator", parameters = {
+            @Parameter(name = "table_name", value = "metrics_id_generator"),
+            @Parameter(name = "segment_value", value = "CircuitBreakerMetrics"),
+            @Parameter(name = "increment_size", value = "500"),
+            @Parameter(name = "optimizer", value = "pooled-lo")})
     private Long id;
 
     private String name;
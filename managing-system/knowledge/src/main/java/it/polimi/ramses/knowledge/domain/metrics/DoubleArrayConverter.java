@@ -0,0 +1,28 @@
+package it.polimi.ramses.knowledge.domain.metrics;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+import java.nio.ByteBuffer;
+
+// Stores an array of doubles as a blob of big-endian doubles
+@Converter
+public class DoubleArrayConverter implements AttributeConverter<double[], byte[]> {
+
+    @Override
+    public byte[] convertToDatabaseColumn(double[] array) {
+        if (array == null)
+            return null;
+        ByteBuffer buffer = ByteBuffer.allocate(array.length * Double.BYTES);
+        buffer.asDoubleBuffer().put(array);
+        return buffer.array();
+    }
+
+    @Override
+    public double[] convertToEntityAttribute(byte[] blob) {
+        if (blob == null)
+            return null;
+        double[] array = new double[blob.length / Double.BYTES];
+        ByteBuffer.wrap(blob).asDoubleBuffer().get(array);
+        return array;
+    }
+}
@@ -1,7 +1,11 @@
 package it.polimi.ramses.knowledge.domain.metrics;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import it.polimi.ramses.snapshotdelta.EndpointMetricsView;
+import it.polimi.ramses.snapshotdelta.OutcomeMetricsView;
 import lombok.*;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 import javax.persistence.*;
 import java.util.HashMap;
@@ -13,10 +17,16 @@ import java.util.Set;
 @Getter
 @Setter
 @NoArgsConstructor
-public class HttpEndpointMetrics {
+public class HttpEndpointMetrics implements EndpointMetricsView<HttpEndpointMetrics.OutcomeMetrics> {
 
     @Id
-    @GeneratedValue
+    // Ids are allocated in blocks, so that the inserts can be batched
+    @GeneratedValue(generator = "HttpEndpointMetrics_id")
+    @GenericGenerator(name = "HttpEndpointMetrics_id", strategy = "org.hibernate.id.enhanced.TableGenerator", parameters = {
+            @Parameter(name = "table_name", value = "metrics_id_generator"),
+            @Parameter(name = "segment_value", value = "HttpEndpointMetrics"),
+            @Parameter(name = "increment_size", value = "500"),
+            @Parameter(name = "optimizer", value = "pooled-lo")})
     private Long id;
 
     private String endpoint;
@@ -30,12 +40,20 @@ public class HttpEndpointMetrics {
     @Getter
     @Setter
     @NoArgsConstructor
-    public static class OutcomeMetrics {
+    public static class OutcomeMetrics implements OutcomeMetricsView {
         private String outcome;
         private int status;
         private long count = 0;
         private double totalDuration = 0;
         private double maxDuration = 0;
+        // Latency histogram of the outcome: upper bounds of the buckets in ms, without the +Inf bucket (whose count is
+        // the count of the outcome), and cumulative count of each bucket. Null if the endpoint exposes no histogram
+        @Lob
+        @Convert(converter = DoubleArrayConverter.class)
+        private double[] bucketBounds;
+        @Lob
+        @Convert(converter = LongArrayConverter.class)
+        private long[] bucketCounts;
 
         @JsonIgnore
         @Transient
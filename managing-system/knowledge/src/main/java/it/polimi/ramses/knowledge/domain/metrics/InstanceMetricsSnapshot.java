@@ -2,10 +2,14 @@ package it.polimi.ramses.knowledge.domain.metrics;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import it.polimi.ramses.knowledge.domain.architecture.InstanceStatus;
+import it.polimi.ramses.snapshotdelta.MetricsSnapshotView;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 import java.util.*;
 
@@ -13,9 +17,15 @@ import java.util.*;
 @Getter
 @Setter
 @NoArgsConstructor
-public class InstanceMetricsSnapshot {
+public class InstanceMetricsSnapshot implements MetricsSnapshotView<InstanceStatus, HttpEndpointMetrics, CircuitBreakerMetrics> {
     @Id
-    @GeneratedValue
+    // Ids are allocated in blocks, so that the inserts can be batched
+    @GeneratedValue(generator = "InstanceMetricsSnapshot_id")
+    @GenericGenerator(name = "InstanceMetricsSnapshot_id", strategy = "org.hibernate.id.enhanced.TableGenerator", parameters = {
+            @Parameter(name = "table_name", value = "metrics_id_generator"),
+            @Parameter(name = "segment_value", value = "InstanceMetricsSnapshot"),
+            @Parameter(name = "increment_size", value = "500"),
+            @Parameter(name = "optimizer", value = "pooled-lo")})
     private Long id;
 
     private String serviceId;
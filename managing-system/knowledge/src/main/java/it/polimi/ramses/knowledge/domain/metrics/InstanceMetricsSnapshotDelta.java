@@ -0,0 +1,10 @@
+package it.polimi.ramses.knowledge.domain.metrics;
+
+import it.polimi.ramses.knowledge.domain.architecture.InstanceStatus;
+import it.polimi.ramses.snapshotdelta.MetricsSnapshotDelta;
+import lombok.NoArgsConstructor;
+
+// An InstanceMetricsSnapshot encoded against the previous snapshot of the same instance (see MetricsSnapshotDelta)
+@NoArgsConstructor
+public class InstanceMetricsSnapshotDelta extends MetricsSnapshotDelta<InstanceStatus, HttpEndpointMetrics, CircuitBreakerMetrics> {
+}
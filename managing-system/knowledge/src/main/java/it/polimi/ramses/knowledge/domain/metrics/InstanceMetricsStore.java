@@ -0,0 +1,187 @@
+package it.polimi.ramses.knowledge.domain.metrics;
+
+import lombok.Getter;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Bounded in-memory time series of the metrics snapshots of each instance, newest last. Only the snapshots taken
+// after the latest shutdown of an instance are kept, i.e., the snapshots of its current run.
+// Each series keeps running counters of the failed, unreachable and active snapshots and of the CPU usage, updated as
+// each snapshot arrives, so that the statistics of any window of the series (see InstanceWindowStats) are computed in
+// O(1) from the counters and from the first and the last active snapshot of the window, without going through it.
+public class InstanceMetricsStore {
+    @Getter
+    private final int capacity;
+    // <instanceId, snapshots of the instance in timestamp order>
+    private final Map<String, Series> seriesMap = new ConcurrentHashMap<>();
+
+    public InstanceMetricsStore(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The capacity must be positive");
+        this.capacity = capacity;
+    }
+
+    public void add(InstanceMetricsSnapshot snapshot) {
+        Series series = seriesMap.computeIfAbsent(snapshot.getInstanceId(), id -> new Series(capacity));
+        synchronized (series) {
+            // A shutdown ends the current run of the instance: its previous snapshots are no longer relevant
+            if (snapshot.isShutdown()) {
+                series.clear();
+                return;
+            }
+            series.add(snapshot);
+        }
+    }
+
+    // Returns the latest n snapshots of the current run of the instance taken at or after the given date, newest first
+    public List<InstanceMetricsSnapshot> getLatest(String instanceId, Date after, int n) {
+        Series series = seriesMap.get(instanceId);
+        if (series == null)
+            return List.of();
+        synchronized (series) {
+            long start = series.windowStart(after, n);
+            List<InstanceMetricsSnapshot> latest = new ArrayList<>((int) (series.count - start));
+            for (long sequence = series.count - 1; sequence >= start; sequence--)
+                latest.add(series.get(sequence));
+            return latest;
+        }
+    }
+
+    // Returns the statistics of the snapshots returned by getLatest(instanceId, after, n)
+    public InstanceWindowStats getLatestWindowStats(String serviceId, String instanceId, Date after, int n) {
+        Series series = seriesMap.get(instanceId);
+        if (series == null)
+            return new InstanceWindowStats(serviceId, instanceId);
+        synchronized (series) {
+            return series.windowStats(serviceId, instanceId, series.windowStart(after, n));
+        }
+    }
+
+    // True if the store holds all the snapshots of the current run of the instance taken at or after the given date,
+    // i.e., if its series started at or before that date or with the latest shutdown of the instance. The series of an
+    // instance starts with the first snapshot received after the Knowledge started or after the instance was removed:
+    // the snapshots taken before may only be in the database. The evicted snapshots do not matter, since a window of at
+    // most capacity snapshots only loses some when the store holds capacity snapshots taken after the date
+    public boolean covers(String instanceId, Date after) {
+        Series series = seriesMap.get(instanceId);
+        if (series == null)
+            return false;
+        synchronized (series) {
+            return series.coveredSince != null && series.coveredSince <= after.getTime();
+        }
+    }
+
+    public void remove(String instanceId) {
+        seriesMap.remove(instanceId);
+    }
+
+    // Ring buffer of the latest snapshots of an instance. Each snapshot has a sequence number (0 for the first one of
+    // the current run) and, in the same slot, the values that the counters had before it was added
+    private static class Series {
+        private final InstanceMetricsSnapshot[] snapshots;
+        private final int[] failedBefore;
+        private final int[] unreachableBefore;
+        private final int[] activeBefore;
+        private final double[] cpuUsageSumBefore;
+        private final int[] cpuUsageCountBefore;
+        // <active ordinal % capacity, sequence number of the active snapshot>: the i-th active snapshot of the run
+        private final long[] activeSequences;
+        private long count = 0;
+        private int failedTotal = 0;
+        private int unreachableTotal = 0;
+        private int activeTotal = 0;
+        private double cpuUsageSumTotal = 0;
+        private int cpuUsageCountTotal = 0;
+        // Time since when the series holds all the snapshots of the current run of the instance. Null if still empty
+        private Long coveredSince = null;
+
+        private Series(int capacity) {
+            snapshots = new InstanceMetricsSnapshot[capacity];
+            failedBefore = new int[capacity];
+            unreachableBefore = new int[capacity];
+            activeBefore = new int[capacity];
+            cpuUsageSumBefore = new double[capacity];
+            cpuUsageCountBefore = new int[capacity];
+            activeSequences = new long[capacity];
+        }
+
+        private void add(InstanceMetricsSnapshot snapshot) {
+            if (coveredSince == null)
+                coveredSince = snapshot.getTimestamp().getTime();
+            int slot = slot(count);
+            snapshots[slot] = snapshot;
+            failedBefore[slot] = failedTotal;
+            unreachableBefore[slot] = unreachableTotal;
+            activeBefore[slot] = activeTotal;
+            cpuUsageSumBefore[slot] = cpuUsageSumTotal;
+            cpuUsageCountBefore[slot] = cpuUsageCountTotal;
+            if (snapshot.isFailed())
+                failedTotal++;
+            if (snapshot.isUnreachable())
+                unreachableTotal++;
+            if (snapshot.getCpuUsage() != null) {
+                cpuUsageSumTotal += snapshot.getCpuUsage();
+                cpuUsageCountTotal++;
+            }
+            if (InstanceWindowStats.isActive(snapshot)) {
+                activeSequences[activeTotal % snapshots.length] = count;
+                activeTotal++;
+            }
+            count++;
+        }
+
+        private void clear() {
+            Arrays.fill(snapshots, null);
+            count = 0;
+            failedTotal = 0;
+            unreachableTotal = 0;
+            activeTotal = 0;
+            cpuUsageSumTotal = 0;
+            cpuUsageCountTotal = 0;
+            // The snapshots taken before the shutdown are not part of the current run
+            coveredSince = Long.MIN_VALUE;
+        }
+
+        private InstanceMetricsSnapshot get(long sequence) {
+            return snapshots[slot(sequence)];
+        }
+
+        // Sequence number of the oldest of the latest n snapshots in memory taken at or after the given date.
+        // The snapshots are in timestamp order, so the ones taken at or after the date are found by binary search
+        private long windowStart(Date after, int n) {
+            long low = Math.max(0, count - Math.min(n, snapshots.length)), high = count;
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                if (get(middle).getTimestamp().before(after))
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            return low;
+        }
+
+        private InstanceWindowStats windowStats(String serviceId, String instanceId, long start) {
+            InstanceWindowStats stats = new InstanceWindowStats(serviceId, instanceId);
+            if (start == count)
+                return stats;
+            int startSlot = slot(start);
+            stats.setSnapshotsCount((int) (count - start));
+            stats.setFailedCount(failedTotal - failedBefore[startSlot]);
+            stats.setUnreachableCount(unreachableTotal - unreachableBefore[startSlot]);
+            stats.setActiveCount(activeTotal - activeBefore[startSlot]);
+            stats.setCpuUsageSum(cpuUsageSumTotal - cpuUsageSumBefore[startSlot]);
+            stats.setCpuUsageCount(cpuUsageCountTotal - cpuUsageCountBefore[startSlot]);
+            if (stats.getActiveCount() > 0) {
+                InstanceMetricsSnapshot oldestActive = get(activeSequences[activeBefore[startSlot] % snapshots.length]);
+                InstanceMetricsSnapshot latestActive = get(activeSequences[(activeTotal - 1) % snapshots.length]);
+                stats.setRequestsBetween(oldestActive, latestActive);
+            }
+            return stats;
+        }
+
+        private int slot(long sequence) {
+            return (int) (sequence % snapshots.length);
+        }
+    }
+}
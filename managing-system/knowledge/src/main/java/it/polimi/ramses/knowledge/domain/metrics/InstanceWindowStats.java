@@ -0,0 +1,130 @@
+package it.polimi.ramses.knowledge.domain.metrics;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+// Statistics of the latest metrics snapshots of an instance (its metrics window), as used by the Analyse.
+// The http counters of the snapshots are cumulative, so the requests served in the window are the difference between
+// the counters of the latest and of the oldest active snapshot of the window (the active snapshots being the ones
+// with http metrics). The same holds for the latency histograms of the successful requests.
+@Getter
+@Setter
+@NoArgsConstructor
+public class InstanceWindowStats {
+    private String serviceId;
+    private String instanceId;
+    // Number of snapshots in the window
+    private int snapshotsCount;
+    private int failedCount;
+    private int unreachableCount;
+    private int activeCount;
+    // Requests served between the oldest and the latest active snapshot of the window
+    private double successfulRequestsDuration;
+    private double successfulRequestsCount;
+    private double totalRequestsCount;
+    // Time between the oldest and the latest active snapshot of the window, in ms
+    private long requestsTimeSpan;
+    // CPU usage of the snapshots of the window that have one
+    private double cpuUsageSum;
+    private int cpuUsageCount;
+    // Latency histogram of the successful requests served in the window. Null if an endpoint of the instance exposes
+    // no histogram, or histograms with different buckets
+    private LatencyHistogram successfulRequestsHistogram;
+
+    public InstanceWindowStats(String serviceId, String instanceId) {
+        this.serviceId = serviceId;
+        this.instanceId = instanceId;
+    }
+
+    // Computes the statistics of the given window, newest snapshot first
+    public static InstanceWindowStats of(String serviceId, String instanceId, List<InstanceMetricsSnapshot> window) {
+        InstanceWindowStats stats = new InstanceWindowStats(serviceId, instanceId);
+        InstanceMetricsSnapshot latestActive = null, oldestActive = null;
+        for (InstanceMetricsSnapshot snapshot : window) {
+            stats.snapshotsCount++;
+            if (snapshot.isFailed())
+                stats.failedCount++;
+            if (snapshot.isUnreachable())
+                stats.unreachableCount++;
+            if (snapshot.getCpuUsage() != null) {
+                stats.cpuUsageSum += snapshot.getCpuUsage();
+                stats.cpuUsageCount++;
+            }
+            if (isActive(snapshot)) {
+                stats.activeCount++;
+                if (latestActive == null)
+                    latestActive = snapshot;
+                oldestActive = snapshot;
+            }
+        }
+        if (latestActive != null)
+            stats.setRequestsBetween(oldestActive, latestActive);
+        return stats;
+    }
+
+    static boolean isActive(InstanceMetricsSnapshot snapshot) {
+        return snapshot.isActive() && !snapshot.getHttpMetrics().isEmpty();
+    }
+
+    // Sets the requests counters to the difference between the counters of the two snapshots, endpoint by endpoint
+    void setRequestsBetween(InstanceMetricsSnapshot oldestActive, InstanceMetricsSnapshot latestActive) {
+        successfulRequestsDuration = 0;
+        successfulRequestsCount = 0;
+        totalRequestsCount = 0;
+        successfulRequestsHistogram = null;
+        requestsTimeSpan = latestActive.getTimestamp().getTime() - oldestActive.getTimestamp().getTime();
+        boolean histogramAvailable = true;
+        for (String endpoint : latestActive.getHttpMetrics().keySet()) {
+            HttpEndpointMetrics latestEndpointMetrics = latestActive.getHttpMetrics().get(endpoint);
+            HttpEndpointMetrics oldestEndpointMetrics = oldestActive.getHttpMetrics().get(endpoint);
+            for (HttpEndpointMetrics.OutcomeMetrics latestOutcomeMetrics : latestEndpointMetrics.getOutcomeMetrics().values()) {
+                if (!histogramAvailable || latestOutcomeMetrics.getStatus() >= 500)
+                    continue;
+                if (latestOutcomeMetrics.getBucketBounds() == null) {
+                    histogramAvailable = false;
+                    continue;
+                }
+                if (successfulRequestsHistogram == null)
+                    successfulRequestsHistogram = new LatencyHistogram(latestOutcomeMetrics.getBucketBounds());
+                HttpEndpointMetrics.OutcomeMetrics oldestOutcomeMetrics = oldestEndpointMetrics == null ? null : oldestEndpointMetrics.getOutcomeMetrics().get(latestOutcomeMetrics.getOutcome());
+                histogramAvailable = successfulRequestsHistogram.addBetween(oldestOutcomeMetrics, latestOutcomeMetrics);
+            }
+            successfulRequestsDuration += latestEndpointMetrics.getTotalDurationOfSuccessful();
+            successfulRequestsCount += latestEndpointMetrics.getTotalCountOfSuccessful();
+            totalRequestsCount += latestEndpointMetrics.getTotalCount();
+            if (oldestEndpointMetrics != null) {
+                successfulRequestsDuration -= oldestEndpointMetrics.getTotalDurationOfSuccessful();
+                successfulRequestsCount -= oldestEndpointMetrics.getTotalCountOfSuccessful();
+                totalRequestsCount -= oldestEndpointMetrics.getTotalCount();
+            }
+        }
+        if (!histogramAvailable)
+            successfulRequestsHistogram = null;
+    }
+
+    // Requests per second served in the window, NaN if there is only one active snapshot
+    @JsonIgnore
+    public double getRequestsRate() {
+        return requestsTimeSpan <= 0 ? Double.NaN : totalRequestsCount / (requestsTimeSpan / 1000.0);
+    }
+
+    // NaN if no snapshot of the window has the CPU usage
+    @JsonIgnore
+    public double getAverageCpuUsage() {
+        return cpuUsageCount == 0 ? Double.NaN : cpuUsageSum / cpuUsageCount;
+    }
+
+    @JsonIgnore
+    public double getFailureRate() {
+        return snapshotsCount == 0 ? 0 : (double) failedCount / snapshotsCount;
+    }
+
+    @JsonIgnore
+    public double getUnreachableRate() {
+        return snapshotsCount == 0 ? 0 : (double) unreachableCount / snapshotsCount;
+    }
+}
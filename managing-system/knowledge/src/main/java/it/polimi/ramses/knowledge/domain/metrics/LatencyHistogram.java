@@ -0,0 +1,80 @@
+package it.polimi.ramses.knowledge.domain.metrics;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.Arrays;
+
+// Latency histogram of the requests served in a window, built from the buckets of the http_server_requests_seconds
+// histograms of the instances: the upper bounds of the buckets in ms, the cumulative count of each bucket and the
+// total count of the requests, which also counts the ones above the last bound (the +Inf bucket).
+// The percentiles are estimated as histogram_quantile does in Prometheus, interpolating linearly within a bucket.
+@Getter
+@Setter
+@NoArgsConstructor
+public class LatencyHistogram {
+    private double[] bucketBounds;
+    private long[] bucketCounts;
+    private long count;
+
+    public LatencyHistogram(double[] bucketBounds) {
+        this.bucketBounds = bucketBounds;
+        this.bucketCounts = new long[bucketBounds.length];
+    }
+
+    // Adds the requests of an outcome served between two snapshots. The outcome of the oldest snapshot is null if it
+    // had no requests yet. Returns false, without adding anything, if the outcome has no buckets or different ones
+    boolean addBetween(HttpEndpointMetrics.OutcomeMetrics oldest, HttpEndpointMetrics.OutcomeMetrics latest) {
+        if (!hasSameBuckets(latest) || (oldest != null && !hasSameBuckets(oldest)))
+            return false;
+        for (int i = 0; i < bucketCounts.length; i++)
+            bucketCounts[i] += latest.getBucketCounts()[i] - (oldest == null ? 0 : oldest.getBucketCounts()[i]);
+        count += latest.getCount() - (oldest == null ? 0 : oldest.getCount());
+        return true;
+    }
+
+    // Adds the requests of another histogram. Returns false, without adding anything, if the buckets are different
+    public boolean add(LatencyHistogram other) {
+        if (!Arrays.equals(bucketBounds, other.bucketBounds))
+            return false;
+        for (int i = 0; i < bucketCounts.length; i++)
+            bucketCounts[i] += other.bucketCounts[i];
+        count += other.count;
+        return true;
+    }
+
+    // Copy with the same buckets, to be merged with other histograms
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram(bucketBounds);
+        System.arraycopy(bucketCounts, 0, copy.bucketCounts, 0, bucketCounts.length);
+        copy.count = count;
+        return copy;
+    }
+
+    /**
+     * Estimates a percentile of the latency of the requests.
+     * @param percentile the percentile, in (0, 100]
+     * @return the estimation in ms, or NaN if there are no requests. The requests above the last bound are assumed to
+     * take the last bound, as histogram_quantile does
+     */
+    @JsonIgnore
+    public double getPercentile(double percentile) {
+        if (count <= 0 || bucketBounds.length == 0)
+            return Double.NaN;
+        double rank = percentile / 100 * count;
+        for (int i = 0; i < bucketBounds.length; i++) {
+            if (bucketCounts[i] >= rank) {
+                double lowerBound = i == 0 ? 0 : bucketBounds[i - 1];
+                long lowerCount = i == 0 ? 0 : bucketCounts[i - 1];
+                return lowerBound + (bucketBounds[i] - lowerBound) * (rank - lowerCount) / (bucketCounts[i] - lowerCount);
+            }
+        }
+        return bucketBounds[bucketBounds.length - 1];
+    }
+
+    private boolean hasSameBuckets(HttpEndpointMetrics.OutcomeMetrics outcomeMetrics) {
+        return outcomeMetrics.getBucketCounts() != null && Arrays.equals(bucketBounds, outcomeMetrics.getBucketBounds());
+    }
+}
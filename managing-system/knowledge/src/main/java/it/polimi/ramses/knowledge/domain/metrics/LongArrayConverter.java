@@ -0,0 +1,28 @@
+package it.polimi.ramses.knowledge.domain.metrics;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+import java.nio.ByteBuffer;
+
+// Stores an array of longs as a blob of big-endian longs
+@Converter
+public class LongArrayConverter implements AttributeConverter<long[], byte[]> {
+
+    @Override
+    public byte[] convertToDatabaseColumn(long[] array) {
+        if (array == null)
+            return null;
+        ByteBuffer buffer = ByteBuffer.allocate(array.length * Long.BYTES);
+        buffer.asLongBuffer().put(array);
+        return buffer.array();
+    }
+
+    @Override
+    public long[] convertToEntityAttribute(byte[] blob) {
+        if (blob == null)
+            return null;
+        long[] array = new long[blob.length / Long.BYTES];
+        ByteBuffer.wrap(blob).asLongBuffer().get(array);
+        return array;
+    }
+}
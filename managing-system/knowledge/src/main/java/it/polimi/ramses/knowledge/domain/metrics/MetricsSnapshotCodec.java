@@ -0,0 +1,171 @@
+package it.polimi.ramses.knowledge.domain.metrics;
+
+import java.io.*;
+import java.util.EnumMap;
+import java.util.Map;
+
+// Packs the HTTP and circuit breaker metrics of a snapshot in a single blob, so that a snapshot can be stored in one
+// row. Layout (version 2), all numbers big-endian:
+//   version:byte
+//   endpoints:int, then for each endpoint
+//     httpMethod:utf, endpoint:utf, outcomes:int, then for each outcome
+//       outcome:utf, status:int, count:long, totalDuration:double, maxDuration:double,
+//       buckets:int (-1 if null), then for each bucket upperBound:double and cumulativeCount:long
+//   circuitBreakers:int, then for each circuit breaker
+//     name:utf, state:byte (ordinal, -1 if null), notPermittedCallsCount:int, failureRate:double, slowCallRate:double,
+//     bufferedCallsCount, callCount, slowCallCount as int maps; callDuration, callMaxDuration as double maps
+//   where a map is entries:int (-1 if null), then for each entry outcomeStatus:byte (ordinal) and value
+// Version 1 is version 2 without the buckets of the outcomes. It is still decoded.
+public final class MetricsSnapshotCodec {
+    private static final byte VERSION = 2;
+    private static final byte VERSION_WITHOUT_BUCKETS = 1;
+
+    private MetricsSnapshotCodec() { }
+
+    public static byte[] encode(InstanceMetricsSnapshot snapshot) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeInt(snapshot.getHttpMetrics().size());
+            for (HttpEndpointMetrics endpointMetrics : snapshot.getHttpMetrics().values()) {
+                out.writeUTF(endpointMetrics.getHttpMethod());
+                out.writeUTF(endpointMetrics.getEndpoint());
+                out.writeInt(endpointMetrics.getOutcomeMetrics().size());
+                for (HttpEndpointMetrics.OutcomeMetrics outcomeMetrics : endpointMetrics.getOutcomeMetrics().values()) {
+                    out.writeUTF(outcomeMetrics.getOutcome());
+                    out.writeInt(outcomeMetrics.getStatus());
+                    out.writeLong(outcomeMetrics.getCount());
+                    out.writeDouble(outcomeMetrics.getTotalDuration());
+                    out.writeDouble(outcomeMetrics.getMaxDuration());
+                    writeBuckets(out, outcomeMetrics);
+                }
+            }
+            out.writeInt(snapshot.getCircuitBreakerMetrics().size());
+            for (CircuitBreakerMetrics circuitBreakerMetrics : snapshot.getCircuitBreakerMetrics().values()) {
+                out.writeUTF(circuitBreakerMetrics.getName());
+                out.writeByte(circuitBreakerMetrics.getState() == null ? -1 : circuitBreakerMetrics.getState().ordinal());
+                out.writeInt(circuitBreakerMetrics.getNotPermittedCallsCount());
+                out.writeDouble(circuitBreakerMetrics.getFailureRate());
+                out.writeDouble(circuitBreakerMetrics.getSlowCallRate());
+                writeIntMap(out, circuitBreakerMetrics.getBufferedCallsCount());
+                writeIntMap(out, circuitBreakerMetrics.getCallCount());
+                writeIntMap(out, circuitBreakerMetrics.getSlowCallCount());
+                writeDoubleMap(out, circuitBreakerMetrics.getCallDuration());
+                writeDoubleMap(out, circuitBreakerMetrics.getCallMaxDuration());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Adds to the snapshot the HTTP and circuit breaker metrics packed in the blob
+    public static void decodeInto(byte[] blob, InstanceMetricsSnapshot snapshot) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(blob))) {
+            byte version = in.readByte();
+            if (version != VERSION && version != VERSION_WITHOUT_BUCKETS)
+                throw new IllegalArgumentException("Unsupported metrics blob version: " + version);
+            int endpoints = in.readInt();
+            for (int i = 0; i < endpoints; i++) {
+                HttpEndpointMetrics endpointMetrics = new HttpEndpointMetrics();
+                endpointMetrics.setHttpMethod(in.readUTF());
+                endpointMetrics.setEndpoint(in.readUTF());
+                int outcomes = in.readInt();
+                for (int j = 0; j < outcomes; j++) {
+                    HttpEndpointMetrics.OutcomeMetrics outcomeMetrics = new HttpEndpointMetrics.OutcomeMetrics(in.readUTF());
+                    outcomeMetrics.setStatus(in.readInt());
+                    outcomeMetrics.setCount(in.readLong());
+                    outcomeMetrics.setTotalDuration(in.readDouble());
+                    outcomeMetrics.setMaxDuration(in.readDouble());
+                    if (version != VERSION_WITHOUT_BUCKETS)
+                        readBuckets(in, outcomeMetrics);
+                    endpointMetrics.getOutcomeMetrics().put(outcomeMetrics.getOutcome(), outcomeMetrics);
+                }
+                snapshot.addHttpMetrics(endpointMetrics);
+            }
+            int circuitBreakers = in.readInt();
+            for (int i = 0; i < circuitBreakers; i++) {
+                CircuitBreakerMetrics circuitBreakerMetrics = new CircuitBreakerMetrics(in.readUTF());
+                byte state = in.readByte();
+                circuitBreakerMetrics.setState(state < 0 ? null : CircuitBreakerMetrics.State.values()[state]);
+                circuitBreakerMetrics.setNotPermittedCallsCount(in.readInt());
+                circuitBreakerMetrics.setFailureRate(in.readDouble());
+                circuitBreakerMetrics.setSlowCallRate(in.readDouble());
+                circuitBreakerMetrics.setBufferedCallsCount(readIntMap(in));
+                circuitBreakerMetrics.setCallCount(readIntMap(in));
+                circuitBreakerMetrics.setSlowCallCount(readIntMap(in));
+                circuitBreakerMetrics.setCallDuration(readDoubleMap(in));
+                circuitBreakerMetrics.setCallMaxDuration(readDoubleMap(in));
+                snapshot.getCircuitBreakerMetrics().put(circuitBreakerMetrics.getName(), circuitBreakerMetrics);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeBuckets(DataOutputStream out, HttpEndpointMetrics.OutcomeMetrics outcomeMetrics) throws IOException {
+        if (outcomeMetrics.getBucketBounds() == null || outcomeMetrics.getBucketCounts() == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(outcomeMetrics.getBucketBounds().length);
+        for (int i = 0; i < outcomeMetrics.getBucketBounds().length; i++) {
+            out.writeDouble(outcomeMetrics.getBucketBounds()[i]);
+            out.writeLong(outcomeMetrics.getBucketCounts()[i]);
+        }
+    }
+
+    private static void readBuckets(DataInputStream in, HttpEndpointMetrics.OutcomeMetrics outcomeMetrics) throws IOException {
+        int buckets = in.readInt();
+        if (buckets < 0)
+            return;
+        double[] bucketBounds = new double[buckets];
+        long[] bucketCounts = new long[buckets];
+        for (int i = 0; i < buckets; i++) {
+            bucketBounds[i] = in.readDouble();
+            bucketCounts[i] = in.readLong();
+        }
+        outcomeMetrics.setBucketBounds(bucketBounds);
+        outcomeMetrics.setBucketCounts(bucketCounts);
+    }
+
+    private static void writeIntMap(DataOutputStream out, Map<CircuitBreakerMetrics.CallOutcomeStatus, Integer> map) throws IOException {
+        out.writeInt(map == null ? -1 : map.size());
+        if (map == null)
+            return;
+        for (Map.Entry<CircuitBreakerMetrics.CallOutcomeStatus, Integer> entry : map.entrySet()) {
+            out.writeByte(entry.getKey().ordinal());
+            out.writeInt(entry.getValue());
+        }
+    }
+
+    private static void writeDoubleMap(DataOutputStream out, Map<CircuitBreakerMetrics.CallOutcomeStatus, Double> map) throws IOException {
+        out.writeInt(map == null ? -1 : map.size());
+        if (map == null)
+            return;
+        for (Map.Entry<CircuitBreakerMetrics.CallOutcomeStatus, Double> entry : map.entrySet()) {
+            out.writeByte(entry.getKey().ordinal());
+            out.writeDouble(entry.getValue());
+        }
+    }
+
+    private static Map<CircuitBreakerMetrics.CallOutcomeStatus, Integer> readIntMap(DataInputStream in) throws IOException {
+        int entries = in.readInt();
+        if (entries < 0)
+            return null;
+        Map<CircuitBreakerMetrics.CallOutcomeStatus, Integer> map = new EnumMap<>(CircuitBreakerMetrics.CallOutcomeStatus.class);
+        for (int i = 0; i < entries; i++)
+            map.put(CircuitBreakerMetrics.CallOutcomeStatus.values()[in.readByte()], in.readInt());
+        return map;
+    }
+
+    private static Map<CircuitBreakerMetrics.CallOutcomeStatus, Double> readDoubleMap(DataInputStream in) throws IOException {
+        int entries = in.readInt();
+        if (entries < 0)
+            return null;
+        Map<CircuitBreakerMetrics.CallOutcomeStatus, Double> map = new EnumMap<>(CircuitBreakerMetrics.CallOutcomeStatus.class);
+        for (int i = 0; i < entries; i++)
+            map.put(CircuitBreakerMetrics.CallOutcomeStatus.values()[in.readByte()], in.readDouble());
+        return map;
+    }
+}
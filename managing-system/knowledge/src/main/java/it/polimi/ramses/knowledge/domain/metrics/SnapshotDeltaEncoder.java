@@ -0,0 +1,24 @@
+package it.polimi.ramses.knowledge.domain.metrics;
+
+import it.polimi.ramses.knowledge.domain.architecture.InstanceStatus;
+import it.polimi.ramses.snapshotdelta.AbstractSnapshotDeltaEncoder;
+
+// Encodes the snapshots sent to a single receiver, which rebuilds them with a SnapshotReconstructor
+public class SnapshotDeltaEncoder extends AbstractSnapshotDeltaEncoder<InstanceStatus, InstanceMetricsSnapshot,
+        HttpEndpointMetrics, HttpEndpointMetrics.OutcomeMetrics, CircuitBreakerMetrics, InstanceMetricsSnapshotDelta> {
+
+    // A keyframe is sent for an instance after keyframeInterval deltas
+    public SnapshotDeltaEncoder(int keyframeInterval) {
+        super(keyframeInterval);
+    }
+
+    @Override
+    protected InstanceMetricsSnapshotDelta newDelta(InstanceMetricsSnapshot snapshot) {
+        return new InstanceMetricsSnapshotDelta();
+    }
+
+    @Override
+    protected HttpEndpointMetrics newEndpointMetrics(String endpoint, String httpMethod) {
+        return new HttpEndpointMetrics(endpoint, httpMethod);
+    }
+}
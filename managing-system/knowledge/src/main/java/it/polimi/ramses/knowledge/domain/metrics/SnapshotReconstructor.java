@@ -0,0 +1,117 @@
+package it.polimi.ramses.knowledge.domain.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+
+// Rebuilds the full snapshots from the deltas produced by a SnapshotDeltaEncoder, remembering the last snapshot
+// rebuilt for each instance. The rebuilt snapshots are new objects, not shared with the previous ones.
+@Slf4j
+public class SnapshotReconstructor {
+    // Map<InstanceId, ReconstructedInstance>
+    private Map<String, ReconstructedInstance> reconstructedInstances = new HashMap<>();
+
+    private static class ReconstructedInstance {
+        private final InstanceMetricsSnapshot snapshot;
+        private final long sequence;
+
+        private ReconstructedInstance(InstanceMetricsSnapshot snapshot, long sequence) {
+            this.snapshot = snapshot;
+            this.sequence = sequence;
+        }
+    }
+
+    // Rebuilds the snapshots of the given lists of deltas, in order. If a delta does not apply to the last snapshot
+    // of its instance (e.g., the receiver or the sender has been restarted), nothing is rebuilt and null is returned,
+    // so that the sender can be asked for keyframes.
+    public synchronized List<List<InstanceMetricsSnapshot>> reconstruct(Collection<List<InstanceMetricsSnapshotDelta>> deltaLists) {
+        Map<String, ReconstructedInstance> instances = new HashMap<>(reconstructedInstances);
+        List<List<InstanceMetricsSnapshot>> snapshotLists = new LinkedList<>();
+        for (List<InstanceMetricsSnapshotDelta> deltas : deltaLists) {
+            List<InstanceMetricsSnapshot> snapshots = new LinkedList<>();
+            for (InstanceMetricsSnapshotDelta delta : deltas) {
+                ReconstructedInstance base = instances.get(delta.getInstanceId());
+                if (!delta.isKeyframe() && (base == null || base.sequence != delta.getSequence() - 1)) {
+                    log.warn("Delta {} of instance {} does not apply to the last snapshot received", delta.getSequence(), delta.getInstanceId());
+                    return null;
+                }
+                InstanceMetricsSnapshot snapshot = apply(delta.isKeyframe() ? null : base.snapshot, delta);
+                instances.put(delta.getInstanceId(), new ReconstructedInstance(snapshot, delta.getSequence()));
+                snapshots.add(snapshot);
+            }
+            snapshotLists.add(snapshots);
+        }
+        reconstructedInstances = instances;
+        return snapshotLists;
+    }
+
+    public List<InstanceMetricsSnapshot> reconstruct(List<InstanceMetricsSnapshotDelta> deltas) {
+        List<List<InstanceMetricsSnapshot>> snapshotLists = reconstruct(List.of(deltas));
+        return snapshotLists == null ? null : snapshotLists.get(0);
+    }
+
+    private static InstanceMetricsSnapshot apply(InstanceMetricsSnapshot base, InstanceMetricsSnapshotDelta delta) {
+        InstanceMetricsSnapshot snapshot = new InstanceMetricsSnapshot(delta.getServiceId(), delta.getInstanceId());
+        snapshot.setStatus(delta.getStatus());
+        snapshot.setCpuUsage(delta.getCpuUsage());
+        snapshot.setDiskTotalSpace(delta.getDiskTotalSpace());
+        snapshot.setDiskFreeSpace(delta.getDiskFreeSpace());
+        snapshot.setTimestamp(delta.getTimestamp());
+
+        if (base != null) {
+            base.getHttpMetrics().forEach((endpointId, endpointMetrics) -> {
+                if (!delta.getRemovedHttpMetrics().contains(endpointId))
+                    snapshot.getHttpMetrics().put(endpointId, copy(endpointMetrics));
+            });
+            base.getCircuitBreakerMetrics().forEach((circuitBreakerName, circuitBreakerMetrics) -> {
+                if (!delta.getRemovedCircuitBreakerMetrics().contains(circuitBreakerName))
+                    snapshot.getCircuitBreakerMetrics().put(circuitBreakerName, copy(circuitBreakerMetrics));
+            });
+            delta.getRemovedOutcomes().forEach((endpointId, removedOutcomes) -> {
+                HttpEndpointMetrics endpointMetrics = snapshot.getHttpMetrics().get(endpointId);
+                if (endpointMetrics != null)
+                    endpointMetrics.getOutcomeMetrics().keySet().removeAll(removedOutcomes);
+            });
+        }
+        delta.getHttpMetrics().forEach((endpointId, changedMetrics) -> {
+            HttpEndpointMetrics endpointMetrics = snapshot.getHttpMetrics().computeIfAbsent(endpointId,
+                    id -> new HttpEndpointMetrics(changedMetrics.getEndpoint(), changedMetrics.getHttpMethod()));
+            changedMetrics.getOutcomeMetrics().forEach((outcome, outcomeMetrics) -> endpointMetrics.getOutcomeMetrics().put(outcome, copy(outcomeMetrics)));
+        });
+        delta.getCircuitBreakerMetrics().forEach((circuitBreakerName, circuitBreakerMetrics) ->
+                snapshot.getCircuitBreakerMetrics().put(circuitBreakerName, copy(circuitBreakerMetrics)));
+        return snapshot;
+    }
+
+    private static HttpEndpointMetrics copy(HttpEndpointMetrics endpointMetrics) {
+        HttpEndpointMetrics copy = new HttpEndpointMetrics(endpointMetrics.getEndpoint(), endpointMetrics.getHttpMethod());
+        endpointMetrics.getOutcomeMetrics().forEach((outcome, outcomeMetrics) -> copy.getOutcomeMetrics().put(outcome, copy(outcomeMetrics)));
+        return copy;
+    }
+
+    private static HttpEndpointMetrics.OutcomeMetrics copy(HttpEndpointMetrics.OutcomeMetrics outcomeMetrics) {
+        HttpEndpointMetrics.OutcomeMetrics copy = new HttpEndpointMetrics.OutcomeMetrics(outcomeMetrics.getOutcome());
+        copy.setStatus(outcomeMetrics.getStatus());
+        copy.setCount(outcomeMetrics.getCount());
+        copy.setTotalDuration(outcomeMetrics.getTotalDuration());
+        copy.setMaxDuration(outcomeMetrics.getMaxDuration());
+        // The bucket arrays are never modified once received, so they are shared
+        copy.setBucketBounds(outcomeMetrics.getBucketBounds());
+        copy.setBucketCounts(outcomeMetrics.getBucketCounts());
+        return copy;
+    }
+
+    private static CircuitBreakerMetrics copy(CircuitBreakerMetrics circuitBreakerMetrics) {
+        CircuitBreakerMetrics copy = new CircuitBreakerMetrics(circuitBreakerMetrics.getName());
+        copy.setState(circuitBreakerMetrics.getState());
+        copy.getBufferedCallsCount().putAll(circuitBreakerMetrics.getBufferedCallsCount());
+        copy.getCallDuration().putAll(circuitBreakerMetrics.getCallDuration());
+        copy.getCallMaxDuration().putAll(circuitBreakerMetrics.getCallMaxDuration());
+        copy.getCallCount().putAll(circuitBreakerMetrics.getCallCount());
+        copy.getSlowCallCount().putAll(circuitBreakerMetrics.getSlowCallCount());
+        copy.setNotPermittedCallsCount(circuitBreakerMetrics.getNotPermittedCallsCount());
+        copy.setFailureRate(circuitBreakerMetrics.getFailureRate());
+        copy.setSlowCallRate(circuitBreakerMetrics.getSlowCallRate());
+        return copy;
+    }
+}
@@ -0,0 +1,4 @@
+package it.polimi.ramses.knowledge.domain.persistence;
+
+public interface FiveMinutesMetricsRollupRepository extends MetricsRollupRepository<FiveMinutesMetricsRollup> {
+}
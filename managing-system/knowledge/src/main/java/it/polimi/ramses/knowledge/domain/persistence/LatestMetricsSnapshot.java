@@ -0,0 +1,47 @@
+package it.polimi.ramses.knowledge.domain.persistence;
+
+import it.polimi.ramses.knowledge.domain.architecture.InstanceStatus;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.ramses.knowledge.domain.metrics.MetricsSnapshotCodec;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.util.Date;
+
+// The latest metrics snapshot of an instance, one row per instance, upserted at each new snapshot.
+// The HTTP and circuit breaker metrics are packed by MetricsSnapshotCodec.
+@Entity
+@Table(indexes = @Index(columnList = "serviceId"))
+@Getter
+@Setter
+@NoArgsConstructor
+public class LatestMetricsSnapshot {
+    @Id
+    private String instanceId;
+    private Long snapshotId;
+    private String serviceId;
+    @Enumerated(EnumType.STRING)
+    private InstanceStatus status;
+    private Double cpuUsage;
+    private Double diskTotalSpace;
+    private Double diskFreeSpace;
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date timestamp;
+
+    @Lob
+    private byte[] metrics;
+
+    public InstanceMetricsSnapshot toInstanceMetricsSnapshot() {
+        InstanceMetricsSnapshot snapshot = new InstanceMetricsSnapshot(serviceId, instanceId);
+        snapshot.setId(snapshotId);
+        snapshot.setStatus(status);
+        snapshot.setCpuUsage(cpuUsage);
+        snapshot.setDiskTotalSpace(diskTotalSpace);
+        snapshot.setDiskFreeSpace(diskFreeSpace);
+        snapshot.setTimestamp(timestamp);
+        MetricsSnapshotCodec.decodeInto(metrics, snapshot);
+        return snapshot;
+    }
+}
@@ -0,0 +1,39 @@
+package it.polimi.ramses.knowledge.domain.persistence;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+
+@Transactional
+public interface LatestMetricsSnapshotRepository extends CrudRepository<LatestMetricsSnapshot, String> {
+
+    List<LatestMetricsSnapshot> findAllByServiceId(String serviceId);
+
+    // Inserts the snapshot, or replaces the one of the instance if older
+    @Modifying
+    @Query(value =
+            "insert into latest_metrics_snapshot (instance_id, snapshot_id, service_id, status, cpu_usage, disk_total_space, disk_free_space, timestamp, metrics) " +
+            "values (:instanceId, :snapshotId, :serviceId, :status, :cpuUsage, :diskTotalSpace, :diskFreeSpace, :timestamp, :metrics) " +
+            "on duplicate key update " +
+                "snapshot_id = if(values(timestamp) >= timestamp, values(snapshot_id), snapshot_id), " +
+                "service_id = if(values(timestamp) >= timestamp, values(service_id), service_id), " +
+                "status = if(values(timestamp) >= timestamp, values(status), status), " +
+                "cpu_usage = if(values(timestamp) >= timestamp, values(cpu_usage), cpu_usage), " +
+                "disk_total_space = if(values(timestamp) >= timestamp, values(disk_total_space), disk_total_space), " +
+                "disk_free_space = if(values(timestamp) >= timestamp, values(disk_free_space), disk_free_space), " +
+                "metrics = if(values(timestamp) >= timestamp, values(metrics), metrics), " +
+                // timestamp last, since the previous assignments read its old value
+                "timestamp = if(values(timestamp) >= timestamp, values(timestamp), timestamp)", nativeQuery = true)
+    void upsert(String instanceId, Long snapshotId, String serviceId, String status, Double cpuUsage, Double diskTotalSpace,
+                Double diskFreeSpace, Date timestamp, byte[] metrics);
+
+    // Points the row of the instance to the new id of its snapshot, unless it has been replaced by a newer snapshot
+    @Modifying
+    @Query("UPDATE LatestMetricsSnapshot l SET l.snapshotId = :newSnapshotId " +
+            "WHERE l.instanceId = :instanceId AND l.snapshotId = :oldSnapshotId AND l.timestamp = :timestamp")
+    int updateSnapshotId(String instanceId, Long oldSnapshotId, Date timestamp, Long newSnapshotId);
+}
@@ -0,0 +1,172 @@
+package it.polimi.ramses.knowledge.domain.persistence;
+
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.ramses.knowledge.domain.metrics.MetricsSnapshotCodec;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+// Saves and reads the persisted metrics snapshots in the METRICS_STORAGE_LAYOUT layout. The latest snapshot of each
+// instance is upserted in the latest_metrics_snapshot table, so that the lookups of the latest snapshots do not scan
+// the history, and the one of each instance in the services map is also kept in memory. The instances removed from
+// the services map are evicted from memory (see evict) and read from the table.
+@Component
+public class MetricsHistory {
+    @Autowired
+    private MetricsRepository metricsRepository;
+    @Autowired
+    private PackedMetricsRepository packedMetricsRepository;
+    @Autowired
+    private LatestMetricsSnapshotRepository latestMetricsSnapshotRepository;
+
+    @Getter
+    @Value("${METRICS_STORAGE_LAYOUT}")
+    private MetricsStorageLayout layout;
+
+    // <instanceId, latest snapshot of the instance>
+    private final Map<String, InstanceMetricsSnapshot> latestSnapshots = new ConcurrentHashMap<>();
+    // <serviceId, ids of the instances of the service>
+    private final Map<String, Set<String>> serviceInstances = new ConcurrentHashMap<>();
+
+    // Called as soon as a snapshot is received, before it is persisted
+    public void recordLatest(InstanceMetricsSnapshot snapshot) {
+        serviceInstances.computeIfAbsent(snapshot.getServiceId(), serviceId -> ConcurrentHashMap.newKeySet()).add(snapshot.getInstanceId());
+        latestSnapshots.merge(snapshot.getInstanceId(), snapshot, (previous, current) -> current.getTimestamp().before(previous.getTimestamp()) ? previous : current);
+    }
+
+    // Called when the instance is removed from the services map
+    public void evict(String serviceId, String instanceId) {
+        latestSnapshots.remove(instanceId);
+        Set<String> instanceIds = serviceInstances.get(serviceId);
+        if (instanceIds != null)
+            instanceIds.remove(instanceId);
+    }
+
+    // The snapshots and the latest snapshot of each instance are saved together, so that the latest_metrics_snapshot
+    // table never points to a snapshot that was not saved. The snapshots are already shared with the readers, so
+    // copies are saved, and returned with their ids in the same order, instead of letting Hibernate change them
+    @Transactional
+    public List<InstanceMetricsSnapshot> saveAll(List<InstanceMetricsSnapshot> snapshots) {
+        List<InstanceMetricsSnapshot> savedSnapshots;
+        if (layout == MetricsStorageLayout.PACKED) {
+            List<PackedMetricsSnapshot> packedSnapshots = snapshots.stream().map(PackedMetricsSnapshot::new).toList();
+            packedMetricsRepository.saveAll(packedSnapshots);
+            savedSnapshots = packedSnapshots.stream().map(PackedMetricsSnapshot::toInstanceMetricsSnapshot).toList();
+        } else {
+            // Copied through the codec of the packed layout
+            savedSnapshots = snapshots.stream().map(snapshot -> new PackedMetricsSnapshot(snapshot).toInstanceMetricsSnapshot()).toList();
+            metricsRepository.saveAll(savedSnapshots);
+        }
+        // Upsert the latest snapshot of each instance in the batch
+        savedSnapshots.stream().collect(Collectors.toMap(InstanceMetricsSnapshot::getInstanceId, snapshot -> snapshot,
+                (first, second) -> second.getTimestamp().before(first.getTimestamp()) ? first : second)).values()
+                .forEach(snapshot -> latestMetricsSnapshotRepository.upsert(snapshot.getInstanceId(), snapshot.getId(), snapshot.getServiceId(),
+                        snapshot.getStatus().name(), snapshot.getCpuUsage(), snapshot.getDiskTotalSpace(), snapshot.getDiskFreeSpace(),
+                        snapshot.getTimestamp(), MetricsSnapshotCodec.encode(snapshot)));
+        return savedSnapshots;
+    }
+
+    // Called once the snapshots are saved: the latest snapshots in memory are replaced by their saved copies, which
+    // have an id
+    public void recordSaved(List<InstanceMetricsSnapshot> snapshots, List<InstanceMetricsSnapshot> savedSnapshots) {
+        for (int i = 0; i < snapshots.size(); i++)
+            latestSnapshots.replace(snapshots.get(i).getInstanceId(), snapshots.get(i), savedSnapshots.get(i));
+    }
+
+    public InstanceMetricsSnapshot findById(long id) {
+        if (layout == MetricsStorageLayout.PACKED)
+            return packedMetricsRepository.findById(id).map(PackedMetricsSnapshot::toInstanceMetricsSnapshot).orElse(null);
+        return metricsRepository.findById(id).orElse(null);
+    }
+
+    public List<InstanceMetricsSnapshot> findAllByInstanceId(String instanceId) {
+        if (layout == MetricsStorageLayout.PACKED)
+            return unpack(packedMetricsRepository.findAllByInstanceId(instanceId));
+        return metricsRepository.findAllByInstanceId(instanceId).stream().toList();
+    }
+
+    public List<InstanceMetricsSnapshot> findAllByTimestampBetween(Date start, Date end) {
+        if (layout == MetricsStorageLayout.PACKED)
+            return unpack(packedMetricsRepository.findAllByTimestampBetween(start, end));
+        return metricsRepository.findAllByTimestampBetween(start, end).stream().toList();
+    }
+
+    public List<InstanceMetricsSnapshot> findAllByInstanceIdAndTimestampBetween(String instanceId, Date start, Date end) {
+        if (layout == MetricsStorageLayout.PACKED)
+            return unpack(packedMetricsRepository.findAllByInstanceIdAndTimestampBetween(instanceId, start, end));
+        return metricsRepository.findAllByInstanceIdAndTimestampBetween(instanceId, start, end).stream().toList();
+    }
+
+    public List<InstanceMetricsSnapshot> findLatestOfCurrentInstance(String instanceId, Date after, int n) {
+        if (layout == MetricsStorageLayout.PACKED)
+            return unpack(packedMetricsRepository.findLatestOfCurrentInstanceOrderByTimestampDesc(instanceId, after, Pageable.ofSize(n)).getContent());
+        return metricsRepository.findLatestOfCurrentInstanceOrderByTimestampDesc(instanceId, after, Pageable.ofSize(n)).stream().toList();
+    }
+
+    public List<InstanceMetricsSnapshot> findNBefore(String instanceId, Date timestamp, int n) {
+        if (layout == MetricsStorageLayout.PACKED)
+            return unpack(packedMetricsRepository.findAllByInstanceIdAndTimestampBeforeOrderByTimestampDesc(instanceId, timestamp, Pageable.ofSize(n)).getContent());
+        return metricsRepository.findAllByInstanceIdAndTimestampBeforeOrderByTimestampDesc(instanceId, timestamp, Pageable.ofSize(n)).stream().toList();
+    }
+
+    public List<InstanceMetricsSnapshot> findNAfter(String instanceId, Date timestamp, int n) {
+        if (layout == MetricsStorageLayout.PACKED)
+            return unpack(packedMetricsRepository.findAllByInstanceIdAndTimestampAfterOrderByTimestampDesc(instanceId, timestamp, Pageable.ofSize(n)).getContent());
+        return metricsRepository.findAllByInstanceIdAndTimestampAfterOrderByTimestampDesc(instanceId, timestamp, Pageable.ofSize(n)).stream().toList();
+    }
+
+    public InstanceMetricsSnapshot findLatestByInstanceId(String instanceId) {
+        InstanceMetricsSnapshot latestSnapshot = latestSnapshots.get(instanceId);
+        if (latestSnapshot != null)
+            return latestSnapshot;
+        return latestMetricsSnapshotRepository.findById(instanceId).map(LatestMetricsSnapshot::toInstanceMetricsSnapshot).orElse(null);
+    }
+
+    // The snapshots in memory are newer than the rows of their instances, which may not be upserted yet
+    public List<InstanceMetricsSnapshot> findLatestByServiceId(String serviceId) {
+        Map<String, InstanceMetricsSnapshot> serviceLatestSnapshots = new HashMap<>();
+        latestMetricsSnapshotRepository.findAllByServiceId(serviceId).forEach(latestSnapshot ->
+                serviceLatestSnapshots.put(latestSnapshot.getInstanceId(), latestSnapshot.toInstanceMetricsSnapshot()));
+        serviceInstances.getOrDefault(serviceId, Set.of()).forEach(instanceId -> {
+            InstanceMetricsSnapshot latestSnapshot = latestSnapshots.get(instanceId);
+            if (latestSnapshot != null)
+                serviceLatestSnapshots.put(instanceId, latestSnapshot);
+        });
+        return new ArrayList<>(serviceLatestSnapshots.values());
+    }
+
+    // The latest snapshot of the instance, if it is ACTIVE
+    public InstanceMetricsSnapshot findLatestOnlineMeasurementByInstanceId(String instanceId) {
+        InstanceMetricsSnapshot latestSnapshot = findLatestByInstanceId(instanceId);
+        return latestSnapshot != null && latestSnapshot.isActive() ? latestSnapshot : null;
+    }
+
+    public Date findEarliestTimestamp() {
+        if (layout == MetricsStorageLayout.PACKED)
+            return packedMetricsRepository.findEarliestTimestamp();
+        return metricsRepository.findEarliestTimestamp();
+    }
+
+    // Deletes at most batchSize snapshots taken before the cutoff. Returns the number of deleted snapshots.
+    public int deleteBatchBefore(Date cutoff, int batchSize) {
+        if (layout == MetricsStorageLayout.PACKED) {
+            List<Long> ids = packedMetricsRepository.findIdsByTimestampBefore(cutoff, Pageable.ofSize(batchSize));
+            return ids.isEmpty() ? 0 : packedMetricsRepository.deleteByIdIn(ids);
+        }
+        // The relational snapshots are deleted one by one, to cascade to their endpoint and circuit breaker metrics
+        List<InstanceMetricsSnapshot> snapshots = metricsRepository.findAllByTimestampBefore(cutoff, Pageable.ofSize(batchSize)).getContent();
+        metricsRepository.deleteAll(snapshots);
+        return snapshots.size();
+    }
+
+    private static List<InstanceMetricsSnapshot> unpack(Collection<PackedMetricsSnapshot> packedSnapshots) {
+        return packedSnapshots.stream().map(PackedMetricsSnapshot::toInstanceMetricsSnapshot).toList();
+    }
+}
@@ -0,0 +1,58 @@
+package it.polimi.ramses.knowledge.domain.persistence;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.Map;
+
+// The metrics entities take their ids in blocks from the metrics_id_generator table, whose rows start at 1 when they
+// are created. The tables of a database written by a previous version already hold rows with identity ids, so at
+// startup the row of each generator segment is moved past the largest id of the tables it serves, before any metrics
+// are saved. The rows already past it are left untouched.
+@Slf4j
+@Component
+// The generator table is created with the schema, together with the metrics tables
+@DependsOn("entityManagerFactory")
+public class MetricsIdGeneratorSeeder {
+    private static final String GENERATOR_TABLE = "metrics_id_generator";
+    // <segment_value of the generator, tables whose ids come from it>
+    private static final Map<String, List<String>> SEGMENT_TABLES = Map.of(
+            "InstanceMetricsSnapshot", List.of("instance_metrics_snapshot"),
+            "HttpEndpointMetrics", List.of("http_endpoint_metrics"),
+            "CircuitBreakerMetrics", List.of("circuit_breaker_metrics"),
+            "PackedMetricsSnapshot", List.of("packed_metrics_snapshot"),
+            "MetricsRollup", List.of("one_minute_metrics_rollup", "five_minutes_metrics_rollup", "one_hour_metrics_rollup"));
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void seed() {
+        SEGMENT_TABLES.forEach((segment, tables) -> transactionTemplate.executeWithoutResult(status -> seed(segment, tables)));
+    }
+
+    private void seed(String segment, List<String> tables) {
+        long nextId = 1;
+        for (String table : tables) {
+            Long maxId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM " + table, Long.class);
+            if (maxId != null)
+                nextId = Math.max(nextId, maxId + 1);
+        }
+        List<Long> nextValues = jdbcTemplate.queryForList("SELECT next_val FROM " + GENERATOR_TABLE + " WHERE sequence_name = ? FOR UPDATE", Long.class, segment);
+        if (nextValues.isEmpty()) {
+            jdbcTemplate.update("INSERT INTO " + GENERATOR_TABLE + " (sequence_name, next_val) VALUES (?, ?)", segment, nextId);
+            log.info("Metrics id generator {} seeded at {}", segment, nextId);
+        } else if (nextValues.get(0) < nextId) {
+            jdbcTemplate.update("UPDATE " + GENERATOR_TABLE + " SET next_val = ? WHERE sequence_name = ?", nextId, segment);
+            log.info("Metrics id generator {} moved from {} to {}", segment, nextValues.get(0), nextId);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package it.polimi.ramses.knowledge.domain.persistence;
+
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+// When the PACKED layout is in use and snapshots remain in the RELATIONAL tables (e.g., written before the layout was
+// switched), moves them to the packed one, METRICS_MIGRATION_BATCH_SIZE snapshots per transaction. It runs in the background after
+// the startup and can be interrupted at any time: the moved snapshots are deleted from the relational tables in the
+// same transaction, so the next run resumes from where the previous one stopped. The moved snapshots get new ids from
+// the generator of the packed layout (the ids of the two layouts may overlap), so the rows of latest_metrics_snapshot
+// pointing to them are moved to the new ids in the same transaction.
+@Slf4j
+@Component
+public class MetricsMigration {
+    @Autowired
+    private MetricsRepository metricsRepository;
+    @Autowired
+    private PackedMetricsRepository packedMetricsRepository;
+    @Autowired
+    private LatestMetricsSnapshotRepository latestMetricsSnapshotRepository;
+    @Autowired
+    private MetricsHistory metricsHistory;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${METRICS_MIGRATION_BATCH_SIZE}")
+    private int batchSize;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (metricsHistory.getLayout() != MetricsStorageLayout.PACKED || metricsRepository.findAllByOrderByIdAsc(Pageable.ofSize(1)).isEmpty())
+            return;
+        Thread thread = new Thread(this::migrate, "metrics-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void migrate() {
+        log.info("Migrating the metrics snapshots to the packed layout");
+        long migrated = 0;
+        try {
+            Integer moved;
+            do {
+                moved = transactionTemplate.execute(status -> {
+                    List<InstanceMetricsSnapshot> snapshots = metricsRepository.findAllByOrderByIdAsc(Pageable.ofSize(batchSize)).getContent();
+                    List<PackedMetricsSnapshot> packedSnapshots = snapshots.stream().map(PackedMetricsSnapshot::new).toList();
+                    packedMetricsRepository.saveAll(packedSnapshots);
+                    moveLatestSnapshots(snapshots, packedSnapshots);
+                    metricsRepository.deleteAll(snapshots);
+                    return snapshots.size();
+                });
+                migrated += moved;
+                log.debug("Migrated {} metrics snapshots", migrated);
+            } while (moved != null && moved == batchSize);
+            log.info("Migration of the metrics snapshots completed: {} snapshots moved", migrated);
+        } catch (Exception e) {
+            log.error("Migration of the metrics snapshots interrupted after {} snapshots: {}", migrated, e.getMessage());
+        }
+    }
+
+    // Only the latest snapshot of each instance has a row, so the rows of the instances of the batch are read first, and
+    // only the ones pointing to a moved snapshot are updated
+    private void moveLatestSnapshots(List<InstanceMetricsSnapshot> snapshots, List<PackedMetricsSnapshot> packedSnapshots) {
+        Map<String, LatestMetricsSnapshot> latestSnapshots = new HashMap<>();
+        latestMetricsSnapshotRepository.findAllById(snapshots.stream().map(InstanceMetricsSnapshot::getInstanceId).collect(Collectors.toSet()))
+                .forEach(latestSnapshot -> latestSnapshots.put(latestSnapshot.getInstanceId(), latestSnapshot));
+        for (int i = 0; i < snapshots.size(); i++) {
+            InstanceMetricsSnapshot snapshot = snapshots.get(i);
+            LatestMetricsSnapshot latestSnapshot = latestSnapshots.get(snapshot.getInstanceId());
+            if (latestSnapshot != null && snapshot.getId().equals(latestSnapshot.getSnapshotId()) && snapshot.getTimestamp().getTime() == latestSnapshot.getTimestamp().getTime())
+                latestMetricsSnapshotRepository.updateSnapshotId(snapshot.getInstanceId(), snapshot.getId(), snapshot.getTimestamp(), packedSnapshots.get(i).getId());
+        }
+    }
+}
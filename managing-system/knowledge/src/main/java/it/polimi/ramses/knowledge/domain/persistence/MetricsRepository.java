@@ -5,19 +5,24 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
-import org.springframework.data.repository.query.Param;
 
 import java.sql.Timestamp;
 import java.util.Collection;
 import java.util.Date;
 
-
 public interface MetricsRepository extends CrudRepository<InstanceMetricsSnapshot, Long> {
     Timestamp MIN_TIMESTAMP = new Timestamp(0);
     String SHUTDOWNSTATUS = "it.polimi.ramses.knowledge.domain.architecture.InstanceStatus.SHUTDOWN";
 
     Collection<InstanceMetricsSnapshot> findAllByInstanceId(String instanceId);
 
+    Page<InstanceMetricsSnapshot> findAllByOrderByIdAsc(Pageable pageable);
+
+    Page<InstanceMetricsSnapshot> findAllByTimestampBefore(Date before, Pageable pageable);
+
+    @Query("SELECT MIN(m.timestamp) FROM InstanceMetricsSnapshot m")
+    Date findEarliestTimestamp();
+
     Collection<InstanceMetricsSnapshot> findAllByTimestampBetween(Date start, Date end);
 
     Collection<InstanceMetricsSnapshot> findAllByInstanceIdAndTimestampBetween(String instanceId, Date start, Date end);
@@ -30,15 +35,5 @@ public interface MetricsRepository extends CrudRepository<InstanceMetricsSnapsho
     Page<InstanceMetricsSnapshot> findAllByInstanceIdAndTimestampBeforeOrderByTimestampDesc(String instanceId, Date timestamp, Pageable pageable);
 
     Page<InstanceMetricsSnapshot> findAllByInstanceIdAndTimestampAfterOrderByTimestampDesc(String instanceId, Date timestamp, Pageable pageable);
-
-    @Query("SELECT m FROM InstanceMetricsSnapshot m WHERE m.instanceId = :instanceId AND m.timestamp = (SELECT MAX(m2.timestamp) FROM InstanceMetricsSnapshot m2 WHERE m2.instanceId = :instanceId)")
-    Collection<InstanceMetricsSnapshot> findLatestByInstanceId(@Param("instanceId") String instanceId);
-
-    @Query("SELECT m FROM InstanceMetricsSnapshot m WHERE m.serviceId = :serviceId AND m.timestamp = (SELECT MAX(m2.timestamp) FROM InstanceMetricsSnapshot m2 WHERE m2.serviceId = :serviceId and m2.instanceId = m.instanceId)")
-    Collection<InstanceMetricsSnapshot> findLatestByServiceId(String serviceId);
-
-    @Query("SELECT m FROM InstanceMetricsSnapshot m WHERE m.instanceId = :instanceId AND m.status=it.polimi.ramses.knowledge.domain.architecture.InstanceStatus.ACTIVE " +
-            "AND m.timestamp = (SELECT MAX(m2.timestamp) FROM InstanceMetricsSnapshot m2 WHERE m2.instanceId = :instanceId)")
-    Collection<InstanceMetricsSnapshot> findLatestOnlineMeasurementByInstanceId(String instanceId);
 }
 
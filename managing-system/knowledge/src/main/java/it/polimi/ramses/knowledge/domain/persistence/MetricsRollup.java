@@ -0,0 +1,78 @@
+package it.polimi.ramses.knowledge.domain.persistence;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import javax.persistence.*;
+import java.util.Date;
+
+// Aggregated metrics of an instance over the durationMs long bucket starting at bucketStart. The request counts and
+// durations are the increments of the counters of the instance in the bucket. The rollups of each resolution are
+// stored in their own table (see the subclasses); the plain class is used for the rollups computed on the fly.
+@MappedSuperclass
+@Getter
+@Setter
+@NoArgsConstructor
+public class MetricsRollup {
+    @Id
+    @GeneratedValue(generator = "MetricsRollup_id")
+    @GenericGenerator(name = "MetricsRollup_id", strategy = "org.hibernate.id.enhanced.TableGenerator", parameters = {
+            @Parameter(name = "table_name", value = "metrics_id_generator"),
+            @Parameter(name = "segment_value", value = "MetricsRollup"),
+            @Parameter(name = "increment_size", value = "500"),
+            @Parameter(name = "optimizer", value = "pooled-lo")})
+    private Long id;
+
+    private String serviceId;
+    private String instanceId;
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date bucketStart;
+    private long durationMs;
+
+    private int snapshotsCount;
+    private int activeSnapshotsCount;
+    private long requestsCount;
+    private long successfulRequestsCount;
+    private double totalDuration;
+    private double successfulDuration;
+    private double maxDuration;
+    private double cpuUsageSum;
+    private int cpuUsageSamples;
+
+    public MetricsRollup(String serviceId, String instanceId, Date bucketStart, long durationMs) {
+        this.serviceId = serviceId;
+        this.instanceId = instanceId;
+        this.bucketStart = bucketStart;
+        this.durationMs = durationMs;
+    }
+
+    // Adds the aggregates of a finer rollup of the same instance
+    public void merge(MetricsRollup other) {
+        snapshotsCount += other.snapshotsCount;
+        activeSnapshotsCount += other.activeSnapshotsCount;
+        requestsCount += other.requestsCount;
+        successfulRequestsCount += other.successfulRequestsCount;
+        totalDuration += other.totalDuration;
+        successfulDuration += other.successfulDuration;
+        maxDuration = Math.max(maxDuration, other.maxDuration);
+        cpuUsageSum += other.cpuUsageSum;
+        cpuUsageSamples += other.cpuUsageSamples;
+    }
+
+    // Ratio of successful requests, null if there were no requests
+    public Double getAvailability() {
+        return requestsCount == 0 ? null : (double) successfulRequestsCount / requestsCount;
+    }
+
+    // Average duration of the successful requests, null if there were none
+    public Double getAverageResponseTime() {
+        return successfulRequestsCount == 0 ? null : successfulDuration / successfulRequestsCount;
+    }
+
+    public Double getAverageCpuUsage() {
+        return cpuUsageSamples == 0 ? null : cpuUsageSum / cpuUsageSamples;
+    }
+}
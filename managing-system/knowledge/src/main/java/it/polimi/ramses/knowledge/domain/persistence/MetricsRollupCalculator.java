@@ -0,0 +1,79 @@
+package it.polimi.ramses.knowledge.domain.persistence;
+
+import it.polimi.ramses.knowledge.domain.metrics.HttpEndpointMetrics;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+// Rolls the metrics snapshots up into buckets. The request counters of the snapshots are cumulative, so each
+// snapshot contributes its increments with respect to the latest active snapshot of the same instance (its baseline).
+// The baselines are kept across calls, so that consecutive ranges of snapshots can be rolled up one after the other.
+public class MetricsRollupCalculator {
+    // <instanceId, latest active snapshot of the instance>
+    private final Map<String, InstanceMetricsSnapshot> baselines = new HashMap<>();
+
+    public List<MetricsRollup> rollUp(Collection<InstanceMetricsSnapshot> snapshots, long bucketMs, Supplier<? extends MetricsRollup> rollupFactory) {
+        // <instanceId@bucketStart, rollup>
+        Map<String, MetricsRollup> rollups = new LinkedHashMap<>();
+        snapshots.stream().sorted(Comparator.comparing(InstanceMetricsSnapshot::getTimestamp)).forEach(snapshot -> {
+            long bucketStart = floor(snapshot.getTimestamp().getTime(), bucketMs);
+            MetricsRollup rollup = rollups.computeIfAbsent(snapshot.getInstanceId() + "@" + bucketStart, key -> {
+                MetricsRollup newRollup = rollupFactory.get();
+                newRollup.setServiceId(snapshot.getServiceId());
+                newRollup.setInstanceId(snapshot.getInstanceId());
+                newRollup.setBucketStart(new Date(bucketStart));
+                newRollup.setDurationMs(bucketMs);
+                return newRollup;
+            });
+            accumulate(rollup, baselines.get(snapshot.getInstanceId()), snapshot);
+            if (snapshot.isActive())
+                baselines.put(snapshot.getInstanceId(), snapshot);
+        });
+        return new ArrayList<>(rollups.values());
+    }
+
+    // Forgets the baselines of the instances with no active snapshot since the given date
+    public void forgetBaselinesBefore(Date date) {
+        baselines.values().removeIf(baseline -> baseline.getTimestamp().before(date));
+    }
+
+    public static long floor(long timestamp, long bucketMs) {
+        return timestamp - Math.floorMod(timestamp, bucketMs);
+    }
+
+    private static void accumulate(MetricsRollup rollup, InstanceMetricsSnapshot baseline, InstanceMetricsSnapshot snapshot) {
+        rollup.setSnapshotsCount(rollup.getSnapshotsCount() + 1);
+        if (snapshot.isActive())
+            rollup.setActiveSnapshotsCount(rollup.getActiveSnapshotsCount() + 1);
+        if (snapshot.getCpuUsage() != null) {
+            rollup.setCpuUsageSum(rollup.getCpuUsageSum() + snapshot.getCpuUsage());
+            rollup.setCpuUsageSamples(rollup.getCpuUsageSamples() + 1);
+        }
+        // Without a baseline the increments of the counters are unknown
+        if (baseline == null || !snapshot.isActive())
+            return;
+        snapshot.getHttpMetrics().forEach((endpointKey, endpointMetrics) -> {
+            HttpEndpointMetrics baselineEndpointMetrics = baseline.getHttpMetrics().get(endpointKey);
+            endpointMetrics.getOutcomeMetrics().forEach((outcome, outcomeMetrics) -> {
+                HttpEndpointMetrics.OutcomeMetrics baselineOutcomeMetrics = baselineEndpointMetrics == null ? null : baselineEndpointMetrics.getOutcomeMetrics().get(outcome);
+                long count = outcomeMetrics.getCount() - (baselineOutcomeMetrics == null ? 0 : baselineOutcomeMetrics.getCount());
+                double duration = outcomeMetrics.getTotalDuration() - (baselineOutcomeMetrics == null ? 0 : baselineOutcomeMetrics.getTotalDuration());
+                if (count < 0) {
+                    // The counters have been reset (e.g., the instance has been restarted)
+                    count = outcomeMetrics.getCount();
+                    duration = outcomeMetrics.getTotalDuration();
+                }
+                if (count == 0)
+                    return;
+                rollup.setRequestsCount(rollup.getRequestsCount() + count);
+                rollup.setTotalDuration(rollup.getTotalDuration() + duration);
+                if (outcomeMetrics.getStatus() < 500) {
+                    rollup.setSuccessfulRequestsCount(rollup.getSuccessfulRequestsCount() + count);
+                    rollup.setSuccessfulDuration(rollup.getSuccessfulDuration() + duration);
+                }
+                rollup.setMaxDuration(Math.max(rollup.getMaxDuration(), outcomeMetrics.getMaxDuration()));
+            });
+        });
+    }
+}
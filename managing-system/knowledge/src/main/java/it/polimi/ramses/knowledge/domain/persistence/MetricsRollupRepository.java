@@ -0,0 +1,35 @@
+package it.polimi.ramses.knowledge.domain.persistence;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.NoRepositoryBean;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+// Queries shared by the repositories of the rollups of each resolution
+@NoRepositoryBean
+public interface MetricsRollupRepository<T extends MetricsRollup> extends CrudRepository<T, Long> {
+
+    List<T> findAllByInstanceIdAndBucketStartBetweenOrderByBucketStartAsc(String instanceId, Date start, Date end);
+
+    List<T> findAllByBucketStartGreaterThanEqualAndBucketStartLessThan(Date start, Date end);
+
+    @Query("SELECT MIN(r.bucketStart) FROM #{#entityName} r")
+    Date findEarliestBucketStart();
+
+    @Query("SELECT MAX(r.bucketStart) FROM #{#entityName} r")
+    Date findLatestBucketStart();
+
+    @Query("SELECT r.id FROM #{#entityName} r WHERE r.bucketStart < :before")
+    List<Long> findIdsByBucketStartBefore(Date before, Pageable pageable);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM #{#entityName} r WHERE r.id IN :ids")
+    int deleteByIdIn(Collection<Long> ids);
+}
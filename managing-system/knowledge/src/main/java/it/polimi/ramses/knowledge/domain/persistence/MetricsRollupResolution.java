@@ -0,0 +1,19 @@
+package it.polimi.ramses.knowledge.domain.persistence;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+// Resolutions of the metrics rollups, from the finest to the coarsest. Each one is computed from the previous one.
+@Getter
+public enum MetricsRollupResolution {
+    ONE_MINUTE(TimeUnit.MINUTES.toMillis(1)),
+    FIVE_MINUTES(TimeUnit.MINUTES.toMillis(5)),
+    ONE_HOUR(TimeUnit.HOURS.toMillis(1));
+
+    private final long durationMs;
+
+    MetricsRollupResolution(long durationMs) {
+        this.durationMs = durationMs;
+    }
+}
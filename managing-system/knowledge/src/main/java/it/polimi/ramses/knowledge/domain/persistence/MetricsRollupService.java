@@ -0,0 +1,230 @@
+package it.polimi.ramses.knowledge.domain.persistence;
+
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.function.Function;
+
+// Rolls the persisted metrics snapshots up into 1-minute, 5-minute and 1-hour aggregates and deletes the snapshots,
+// the rollups and the QoS values older than their retention. The raw snapshots are rolled up into 1-minute rollups,
+// which are rolled up into 5-minute rollups, which are rolled up into 1-hour rollups. A bucket is rolled up
+// METRICS_ROLLUP_DELAY_MS after its end, to let the write-behind persistence catch up, and the rows of a level are
+// never deleted before being rolled up into the next one. A retention of 0 keeps the rows forever.
+@Slf4j
+@EnableScheduling
+@org.springframework.stereotype.Service
+public class MetricsRollupService {
+    @Autowired
+    private MetricsHistory metricsHistory;
+    @Autowired
+    private OneMinuteMetricsRollupRepository oneMinuteMetricsRollupRepository;
+    @Autowired
+    private FiveMinutesMetricsRollupRepository fiveMinutesMetricsRollupRepository;
+    @Autowired
+    private OneHourMetricsRollupRepository oneHourMetricsRollupRepository;
+    @Autowired
+    private QoSRepository qosRepository;
+
+    @Value("${METRICS_ROLLUP}")
+    private boolean enabled;
+    @Value("${METRICS_ROLLUP_DELAY_MS}")
+    private long rollupDelayMs;
+    // Maximum number of buckets of each resolution rolled up in one run
+    @Value("${METRICS_ROLLUP_MAX_BUCKETS}")
+    private int maxBucketsPerRun;
+    @Value("${RAW_METRICS_RETENTION_MS}")
+    private long rawMetricsRetentionMs;
+    @Value("${ONE_MINUTE_ROLLUP_RETENTION_MS}")
+    private long oneMinuteRollupRetentionMs;
+    @Value("${FIVE_MINUTES_ROLLUP_RETENTION_MS}")
+    private long fiveMinutesRollupRetentionMs;
+    @Value("${ONE_HOUR_ROLLUP_RETENTION_MS}")
+    private long oneHourRollupRetentionMs;
+    @Value("${QOS_VALUES_RETENTION_MS}")
+    private long qosValuesRetentionMs;
+    @Value("${RETENTION_DELETE_BATCH_SIZE}")
+    private int deleteBatchSize;
+
+    private final MetricsRollupCalculator rollupCalculator = new MetricsRollupCalculator();
+    private final Map<MetricsRollupResolution, MetricsRollupRepository<MetricsRollup>> repositories = new EnumMap<>(MetricsRollupResolution.class);
+    private final Map<MetricsRollupResolution, Long> retentions = new EnumMap<>(MetricsRollupResolution.class);
+    // <resolution, start of the first bucket not rolled up yet>
+    private final Map<MetricsRollupResolution, Date> watermarks = new EnumMap<>(MetricsRollupResolution.class);
+
+    @PostConstruct
+    public void init() {
+        repositories.put(MetricsRollupResolution.ONE_MINUTE, asRollupRepository(oneMinuteMetricsRollupRepository));
+        repositories.put(MetricsRollupResolution.FIVE_MINUTES, asRollupRepository(fiveMinutesMetricsRollupRepository));
+        repositories.put(MetricsRollupResolution.ONE_HOUR, asRollupRepository(oneHourMetricsRollupRepository));
+        retentions.put(MetricsRollupResolution.ONE_MINUTE, oneMinuteRollupRetentionMs);
+        retentions.put(MetricsRollupResolution.FIVE_MINUTES, fiveMinutesRollupRetentionMs);
+        retentions.put(MetricsRollupResolution.ONE_HOUR, oneHourRollupRetentionMs);
+    }
+
+    @Scheduled(fixedDelayString = "${METRICS_ROLLUP_PERIOD_MS}", initialDelayString = "${METRICS_ROLLUP_PERIOD_MS}")
+    public void rollUpAndApplyRetention() {
+        if (!enabled)
+            return;
+        try {
+            long upTo = System.currentTimeMillis() - rollupDelayMs;
+            rollUpRawMetrics(upTo);
+            rollUp(MetricsRollupResolution.ONE_MINUTE, MetricsRollupResolution.FIVE_MINUTES);
+            rollUp(MetricsRollupResolution.FIVE_MINUTES, MetricsRollupResolution.ONE_HOUR);
+            applyRetention();
+        } catch (Exception e) {
+            log.error("Error rolling up the metrics: {}", e.getMessage());
+        }
+    }
+
+    // Returns the rollups of the instance between the two dates at the coarsest resolution not coarser than the
+    // requested one. If the rollups of that resolution starting from the requested date have already been deleted, a
+    // coarser resolution is used. Resolutions finer than one minute are computed on the fly from the raw snapshots.
+    // The latest buckets, not rolled up yet, are not included.
+    public List<MetricsRollup> getInstanceMetricsRollups(String instanceId, Date start, Date end, long resolutionMs) {
+        if (resolutionMs <= 0)
+            throw new IllegalArgumentException("The resolution must be positive");
+        MetricsRollupResolution resolution = null;
+        for (MetricsRollupResolution candidate : MetricsRollupResolution.values())
+            if (candidate.getDurationMs() <= resolutionMs)
+                resolution = candidate;
+        long now = System.currentTimeMillis();
+        if (resolution == null && isExpired(start, rawMetricsRetentionMs, now))
+            resolution = MetricsRollupResolution.ONE_MINUTE;
+        while (resolution != null && resolution.ordinal() < MetricsRollupResolution.values().length - 1 && isExpired(start, retentions.get(resolution), now))
+            resolution = MetricsRollupResolution.values()[resolution.ordinal() + 1];
+
+        if (resolution == null) {
+            List<InstanceMetricsSnapshot> snapshots = metricsHistory.findAllByInstanceIdAndTimestampBetween(instanceId, start, end);
+            return new MetricsRollupCalculator().rollUp(snapshots, resolutionMs, MetricsRollup::new);
+        }
+        return new ArrayList<>(repositories.get(resolution).findAllByInstanceIdAndBucketStartBetweenOrderByBucketStartAsc(instanceId, start, end));
+    }
+
+    private void rollUpRawMetrics(long upTo) {
+        MetricsRollupResolution resolution = MetricsRollupResolution.ONE_MINUTE;
+        Date watermark = getWatermark(resolution);
+        if (watermark == null)
+            return;
+        long end = Math.min(MetricsRollupCalculator.floor(upTo, resolution.getDurationMs()),
+                watermark.getTime() + maxBucketsPerRun * resolution.getDurationMs());
+        if (end <= watermark.getTime())
+            return;
+        // Between is inclusive: the end of the range is the last millisecond of the last bucket
+        List<InstanceMetricsSnapshot> snapshots = metricsHistory.findAllByTimestampBetween(watermark, new Date(end - 1));
+        List<MetricsRollup> rollups = rollupCalculator.rollUp(snapshots, resolution.getDurationMs(), () -> createRollup(resolution));
+        repositories.get(resolution).saveAll(rollups);
+        watermarks.put(resolution, new Date(end));
+        rollupCalculator.forgetBaselinesBefore(new Date(end - MetricsRollupResolution.ONE_HOUR.getDurationMs()));
+        log.debug("Rolled up {} metrics snapshots into {} {} rollups", snapshots.size(), rollups.size(), resolution);
+    }
+
+    private void rollUp(MetricsRollupResolution finer, MetricsRollupResolution coarser) {
+        Date watermark = getWatermark(coarser);
+        Date finerWatermark = watermarks.get(finer);
+        if (watermark == null || finerWatermark == null)
+            return;
+        // Only the buckets whose finer rollups have all been computed
+        long end = Math.min(MetricsRollupCalculator.floor(finerWatermark.getTime(), coarser.getDurationMs()),
+                watermark.getTime() + maxBucketsPerRun * coarser.getDurationMs());
+        if (end <= watermark.getTime())
+            return;
+        // <instanceId@bucketStart, rollup>
+        Map<String, MetricsRollup> rollups = new LinkedHashMap<>();
+        for (MetricsRollup finerRollup : repositories.get(finer).findAllByBucketStartGreaterThanEqualAndBucketStartLessThan(watermark, new Date(end))) {
+            long bucketStart = MetricsRollupCalculator.floor(finerRollup.getBucketStart().getTime(), coarser.getDurationMs());
+            rollups.computeIfAbsent(finerRollup.getInstanceId() + "@" + bucketStart, key -> {
+                MetricsRollup rollup = createRollup(coarser);
+                rollup.setServiceId(finerRollup.getServiceId());
+                rollup.setInstanceId(finerRollup.getInstanceId());
+                rollup.setBucketStart(new Date(bucketStart));
+                rollup.setDurationMs(coarser.getDurationMs());
+                return rollup;
+            }).merge(finerRollup);
+        }
+        repositories.get(coarser).saveAll(rollups.values());
+        watermarks.put(coarser, new Date(end));
+        log.debug("Rolled up {} rollups into {} {} rollups", finer, rollups.size(), coarser);
+    }
+
+    private void applyRetention() {
+        long now = System.currentTimeMillis();
+        deleteInBatches("raw metrics snapshots", getCutoff(rawMetricsRetentionMs, MetricsRollupResolution.ONE_MINUTE, now),
+                cutoff -> metricsHistory.deleteBatchBefore(cutoff, deleteBatchSize));
+        for (MetricsRollupResolution resolution : MetricsRollupResolution.values()) {
+            MetricsRollupResolution next = resolution.ordinal() < MetricsRollupResolution.values().length - 1 ? MetricsRollupResolution.values()[resolution.ordinal() + 1] : null;
+            MetricsRollupRepository<MetricsRollup> repository = repositories.get(resolution);
+            deleteInBatches(resolution + " rollups", getCutoff(retentions.get(resolution), next, now), cutoff -> {
+                List<Long> ids = repository.findIdsByBucketStartBefore(cutoff, Pageable.ofSize(deleteBatchSize));
+                return ids.isEmpty() ? 0 : repository.deleteByIdIn(ids);
+            });
+        }
+        deleteInBatches("QoS values", getCutoff(qosValuesRetentionMs, null, now), cutoff -> {
+            List<Long> ids = qosRepository.findIdsByTimestampBefore(cutoff, Pageable.ofSize(deleteBatchSize));
+            return ids.isEmpty() ? 0 : qosRepository.deleteByIdIn(ids);
+        });
+    }
+
+    // Returns the date before which the rows can be deleted, or null if none can be
+    private Date getCutoff(long retentionMs, MetricsRollupResolution rolledUpInto, long now) {
+        if (retentionMs <= 0)
+            return null;
+        Date cutoff = new Date(now - retentionMs);
+        if (rolledUpInto != null) {
+            Date watermark = watermarks.get(rolledUpInto);
+            if (watermark == null)
+                return null;
+            if (watermark.before(cutoff))
+                cutoff = watermark;
+        }
+        return cutoff;
+    }
+
+    // Deletes the rows in batches, each in its own transaction, until there are none left before the cutoff
+    private void deleteInBatches(String rowsName, Date cutoff, Function<Date, Integer> deleteBatch) {
+        if (cutoff == null)
+            return;
+        int total = 0, deleted;
+        do {
+            deleted = deleteBatch.apply(cutoff);
+            total += deleted;
+        } while (deleted >= deleteBatchSize);
+        if (total > 0)
+            log.debug("Deleted {} {} older than {}", total, rowsName, cutoff);
+    }
+
+    private Date getWatermark(MetricsRollupResolution resolution) {
+        return watermarks.computeIfAbsent(resolution, key -> {
+            Date latestBucketStart = repositories.get(resolution).findLatestBucketStart();
+            if (latestBucketStart != null)
+                return new Date(latestBucketStart.getTime() + resolution.getDurationMs());
+            Date earliest = resolution == MetricsRollupResolution.ONE_MINUTE ? metricsHistory.findEarliestTimestamp() :
+                    repositories.get(MetricsRollupResolution.values()[resolution.ordinal() - 1]).findEarliestBucketStart();
+            return earliest == null ? null : new Date(MetricsRollupCalculator.floor(earliest.getTime(), resolution.getDurationMs()));
+        });
+    }
+
+    private static boolean isExpired(Date date, long retentionMs, long now) {
+        return retentionMs > 0 && date.getTime() < now - retentionMs;
+    }
+
+    private static MetricsRollup createRollup(MetricsRollupResolution resolution) {
+        return switch (resolution) {
+            case ONE_MINUTE -> new OneMinuteMetricsRollup();
+            case FIVE_MINUTES -> new FiveMinutesMetricsRollup();
+            case ONE_HOUR -> new OneHourMetricsRollup();
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MetricsRollupRepository<MetricsRollup> asRollupRepository(MetricsRollupRepository<? extends MetricsRollup> repository) {
+        // Each repository is only given rollups created by createRollup for its resolution
+        return (MetricsRollupRepository<MetricsRollup>) repository;
+    }
+}
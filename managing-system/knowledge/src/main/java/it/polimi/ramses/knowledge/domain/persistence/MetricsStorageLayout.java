@@ -0,0 +1,9 @@
+package it.polimi.ramses.knowledge.domain.persistence;
+
+// How the metrics snapshots are stored in the database
+public enum MetricsStorageLayout {
+    // One row per snapshot, endpoint, outcome and circuit breaker (InstanceMetricsSnapshot and its collections)
+    RELATIONAL,
+    // One row per snapshot, with the endpoint and circuit breaker metrics packed in a blob (PackedMetricsSnapshot)
+    PACKED
+}
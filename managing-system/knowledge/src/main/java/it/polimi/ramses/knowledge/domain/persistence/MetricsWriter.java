@@ -0,0 +1,164 @@
+package it.polimi.ramses.knowledge.domain.persistence;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Write-behind persistence of the metrics snapshots. The snapshots are queued and saved by a background thread in
+// batches of at most METRICS_WRITE_BATCH_SIZE snapshots, each in a single transaction, so that Hibernate can group the
+// inserts in JDBC batches. A batch is written when it is full or when its oldest snapshot has been waiting for
+// METRICS_WRITE_MAX_DELAY_MS. A batch that fails is retried, waiting METRICS_WRITE_RETRY_BACKOFF_MS before the first
+// retry and twice as long before each next one, up to METRICS_WRITE_MAX_RETRY_BACKOFF_MS, until it is saved. Meanwhile
+// the queue fills up, and the callers wait for room (backpressure): the snapshots are only lost when the writer stops.
+@Slf4j
+@Component
+public class MetricsWriter {
+    @Autowired
+    private MetricsHistory metricsHistory;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${METRICS_WRITE_QUEUE_SIZE}")
+    private int queueSize;
+    @Value("${METRICS_WRITE_BATCH_SIZE}")
+    private int batchSize;
+    @Value("${METRICS_WRITE_MAX_DELAY_MS}")
+    private long maxDelayMs;
+    @Value("${METRICS_WRITE_RETRY_BACKOFF_MS}")
+    private long retryBackoffMs;
+    @Value("${METRICS_WRITE_MAX_RETRY_BACKOFF_MS}")
+    private long maxRetryBackoffMs;
+
+    private BlockingQueue<InstanceMetricsSnapshot> queue;
+    private Thread writerThread;
+    private volatile boolean running;
+
+    private Counter writtenCounter;
+    private Counter droppedCounter;
+    private Counter failedCounter;
+    private Timer batchTimer;
+    private Timer backpressureTimer;
+
+    @PostConstruct
+    public void init() {
+        queue = new ArrayBlockingQueue<>(queueSize);
+        Gauge.builder("knowledge.metrics.writer.queue.size", queue, BlockingQueue::size).register(meterRegistry);
+        writtenCounter = meterRegistry.counter("knowledge.metrics.writer.written");
+        droppedCounter = meterRegistry.counter("knowledge.metrics.writer.dropped");
+        failedCounter = meterRegistry.counter("knowledge.metrics.writer.failed");
+        batchTimer = meterRegistry.timer("knowledge.metrics.writer.batch");
+        backpressureTimer = meterRegistry.timer("knowledge.metrics.writer.backpressure");
+        running = true;
+        writerThread = new Thread(this::writeLoop, "metrics-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        // Let the queued snapshots be written
+        running = false;
+        writerThread.interrupt();
+        writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        if (!queue.isEmpty())
+            log.warn("{} metrics snapshots have not been persisted", queue.size());
+    }
+
+    // Waits while the queue is full. Returns false if the snapshot has been dropped because the writer is stopping
+    public boolean enqueue(InstanceMetricsSnapshot metricsSnapshot) {
+        if (queue.offer(metricsSnapshot))
+            return true;
+        log.warn("Metrics persistence queue full. Waiting to enqueue the metrics snapshot of {}", metricsSnapshot.getInstanceId());
+        long waitStart = System.nanoTime();
+        try {
+            while (running) {
+                if (queue.offer(metricsSnapshot, maxDelayMs, TimeUnit.MILLISECONDS)) {
+                    backpressureTimer.record(System.nanoTime() - waitStart, TimeUnit.NANOSECONDS);
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        droppedCounter.increment();
+        log.error("Metrics writer stopped. Dropping the metrics snapshot of {}", metricsSnapshot.getInstanceId());
+        return false;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private void writeLoop() {
+        List<InstanceMetricsSnapshot> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                InstanceMetricsSnapshot first = queue.poll(maxDelayMs, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                // Wait for the batch to fill up, but no longer than maxDelayMs from its first snapshot
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0)
+                        break;
+                    InstanceMetricsSnapshot next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null)
+                        break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Interrupted by destroy(): write what is left without waiting
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+            if (!batch.isEmpty())
+                write(batch);
+            batch.clear();
+        }
+    }
+
+    // Retries the batch until it is saved. Once the writer is stopping, a failed batch is dropped
+    private void write(List<InstanceMetricsSnapshot> batch) {
+        long backoffMs = retryBackoffMs;
+        while (true) {
+            try {
+                List<InstanceMetricsSnapshot> savedSnapshots = batchTimer.record(() -> metricsHistory.saveAll(batch));
+                metricsHistory.recordSaved(batch, savedSnapshots);
+                writtenCounter.increment(batch.size());
+                log.debug("Persisted {} metrics snapshots", batch.size());
+                return;
+            } catch (Exception e) {
+                failedCounter.increment(batch.size());
+                log.error("Error persisting {} metrics snapshots: {}", batch.size(), e.getMessage());
+            }
+            if (!running) {
+                droppedCounter.increment(batch.size());
+                log.error("Metrics writer stopped. Dropping {} metrics snapshots", batch.size());
+                return;
+            }
+            try {
+                log.info("Retrying to persist {} metrics snapshots in {} ms", batch.size(), backoffMs);
+                Thread.sleep(backoffMs);
+            } catch (InterruptedException e) {
+                // Interrupted by destroy(): one last attempt
+            }
+            backoffMs = Math.min(backoffMs * 2, maxRetryBackoffMs);
+        }
+    }
+}
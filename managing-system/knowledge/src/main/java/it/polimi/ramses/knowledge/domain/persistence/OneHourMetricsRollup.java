@@ -0,0 +1,13 @@
+package it.polimi.ramses.knowledge.domain.persistence;
+
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+@Entity
+@Table(indexes = @Index(columnList = "instanceId, bucketStart"))
+@NoArgsConstructor
+public class OneHourMetricsRollup extends MetricsRollup {
+}
@@ -0,0 +1,4 @@
+package it.polimi.ramses.knowledge.domain.persistence;
+
+public interface OneHourMetricsRollupRepository extends MetricsRollupRepository<OneHourMetricsRollup> {
+}
@@ -0,0 +1,4 @@
+package it.polimi.ramses.knowledge.domain.persistence;
+
+public interface OneMinuteMetricsRollupRepository extends MetricsRollupRepository<OneMinuteMetricsRollup> {
+}
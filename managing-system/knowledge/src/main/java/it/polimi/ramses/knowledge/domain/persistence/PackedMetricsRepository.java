@@ -0,0 +1,42 @@
+package it.polimi.ramses.knowledge.domain.persistence;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+// Same queries as MetricsRepository, on the packed layout
+public interface PackedMetricsRepository extends CrudRepository<PackedMetricsSnapshot, Long> {
+
+    Collection<PackedMetricsSnapshot> findAllByInstanceId(String instanceId);
+
+    Collection<PackedMetricsSnapshot> findAllByTimestampBetween(Date start, Date end);
+
+    Collection<PackedMetricsSnapshot> findAllByInstanceIdAndTimestampBetween(String instanceId, Date start, Date end);
+
+    @Query("SELECT m FROM PackedMetricsSnapshot m WHERE m.instanceId = :instanceId AND " +
+            "m.timestamp > IFNULL((SELECT MAX(m1.timestamp) FROM PackedMetricsSnapshot m1 WHERE m1.instanceId = :instanceId AND m1.status=" + MetricsRepository.SHUTDOWNSTATUS + "), it.polimi.ramses.knowledge.domain.persistence.MetricsRepository.MIN_TIMESTAMP) " +
+            "AND m.timestamp >= :after ORDER BY m.timestamp DESC")
+    Page<PackedMetricsSnapshot> findLatestOfCurrentInstanceOrderByTimestampDesc(String instanceId, Date after, Pageable pageable);
+
+    Page<PackedMetricsSnapshot> findAllByInstanceIdAndTimestampBeforeOrderByTimestampDesc(String instanceId, Date timestamp, Pageable pageable);
+
+    Page<PackedMetricsSnapshot> findAllByInstanceIdAndTimestampAfterOrderByTimestampDesc(String instanceId, Date timestamp, Pageable pageable);
+
+    @Query("SELECT MIN(m.timestamp) FROM PackedMetricsSnapshot m")
+    Date findEarliestTimestamp();
+
+    @Query("SELECT m.id FROM PackedMetricsSnapshot m WHERE m.timestamp < :before")
+    List<Long> findIdsByTimestampBefore(Date before, Pageable pageable);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM PackedMetricsSnapshot m WHERE m.id IN :ids")
+    int deleteByIdIn(Collection<Long> ids);
+}
@@ -0,0 +1,67 @@
+package it.polimi.ramses.knowledge.domain.persistence;
+
+import it.polimi.ramses.knowledge.domain.architecture.InstanceStatus;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.ramses.knowledge.domain.metrics.MetricsSnapshotCodec;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import javax.persistence.*;
+import java.util.Date;
+
+// A metrics snapshot stored in a single row. The HTTP and circuit breaker metrics are packed by MetricsSnapshotCodec.
+@Entity
+@Table(indexes = @Index(columnList = "instanceId, timestamp"))
+@Getter
+@Setter
+@NoArgsConstructor
+public class PackedMetricsSnapshot {
+    @Id
+    // Ids are allocated in blocks, so that the inserts can be batched
+    @GeneratedValue(generator = "PackedMetricsSnapshot_id")
+    @GenericGenerator(name = "PackedMetricsSnapshot_id", strategy = "org.hibernate.id.enhanced.TableGenerator", parameters = {
+            @Parameter(name = "table_name", value = "metrics_id_generator"),
+            @Parameter(name = "segment_value", value = "PackedMetricsSnapshot"),
+            @Parameter(name = "increment_size", value = "500"),
+            @Parameter(name = "optimizer", value = "pooled-lo")})
+    private Long id;
+
+    private String serviceId;
+    private String instanceId;
+    @Enumerated(EnumType.STRING)
+    private InstanceStatus status;
+    private Double cpuUsage;
+    private Double diskTotalSpace;
+    private Double diskFreeSpace;
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date timestamp;
+
+    @Lob
+    private byte[] metrics;
+
+    public PackedMetricsSnapshot(InstanceMetricsSnapshot snapshot) {
+        serviceId = snapshot.getServiceId();
+        instanceId = snapshot.getInstanceId();
+        status = snapshot.getStatus();
+        cpuUsage = snapshot.getCpuUsage();
+        diskTotalSpace = snapshot.getDiskTotalSpace();
+        diskFreeSpace = snapshot.getDiskFreeSpace();
+        timestamp = snapshot.getTimestamp();
+        metrics = MetricsSnapshotCodec.encode(snapshot);
+    }
+
+    public InstanceMetricsSnapshot toInstanceMetricsSnapshot() {
+        InstanceMetricsSnapshot snapshot = new InstanceMetricsSnapshot(serviceId, instanceId);
+        snapshot.setId(id);
+        snapshot.setStatus(status);
+        snapshot.setCpuUsage(cpuUsage);
+        snapshot.setDiskTotalSpace(diskTotalSpace);
+        snapshot.setDiskFreeSpace(diskFreeSpace);
+        snapshot.setTimestamp(timestamp);
+        MetricsSnapshotCodec.decodeInto(metrics, snapshot);
+        return snapshot;
+    }
+}
@@ -1,10 +1,15 @@
 package it.polimi.ramses.knowledge.domain.persistence;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
 
 @Transactional
 public interface QoSRepository extends CrudRepository<QoSValueEntity, Long> {
@@ -19,4 +24,11 @@ public interface QoSRepository extends CrudRepository<QoSValueEntity, Long> {
             ") as t)", nativeQuery = true)
     void invalidateServiceQoSHistory(String serviceId, String implementationId);
 
+    @Query("SELECT q.id FROM QoSValueEntity q WHERE q.timestamp < :before")
+    List<Long> findIdsByTimestampBefore(Date before, Pageable pageable);
+
+    @Modifying
+    @Query("DELETE FROM QoSValueEntity q WHERE q.id IN :ids")
+    int deleteByIdIn(Collection<Long> ids);
+
 }
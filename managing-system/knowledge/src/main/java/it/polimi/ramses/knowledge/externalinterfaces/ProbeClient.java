@@ -8,7 +8,7 @@ import org.springframework.web.bind.annotation.*;
 import java.util.List;
 import java.util.Map;
 
-@FeignClient(name = "PROBE", url = "${PROBE_URL}")
+@FeignClient(name = "PROBE", contextId = "knowledgeProbeClient", url = "${PROBE_URL}")
 public interface ProbeClient {
     @GetMapping("/rest/systemArchitecture")
     Map<String, ServiceInfo> getSystemArchitecture();
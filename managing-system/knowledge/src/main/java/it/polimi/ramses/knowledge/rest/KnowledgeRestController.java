@@ -6,11 +6,15 @@ import it.polimi.ramses.knowledge.domain.adaptation.values.QoSCollection;
 import it.polimi.ramses.knowledge.domain.architecture.Instance;
 import it.polimi.ramses.knowledge.domain.architecture.Service;
 import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshotDelta;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceWindowStats;
 import it.polimi.ramses.knowledge.domain.KnowledgeService;
 import it.polimi.ramses.knowledge.domain.architecture.ServiceConfiguration;
+import it.polimi.ramses.knowledge.domain.persistence.MetricsRollup;
 import it.polimi.ramses.knowledge.rest.api.*;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -56,6 +60,12 @@ public class KnowledgeRestController {
         return knowledgeService.getServicesMap();
     }
 
+    // Services changed since the given version of the services map. See ServicesMapCache
+    @GetMapping("/servicesMap/changes")
+    public ServicesMapDelta getServicesMapChanges(@RequestParam long epoch, @RequestParam long since) {
+        return knowledgeService.getServicesMapChangesSince(epoch, since);
+    }
+
     @GetMapping("/service/{serviceId}")
     public Service getService(@PathVariable String serviceId) {
         return knowledgeService.getService(serviceId);
@@ -89,12 +99,32 @@ public class KnowledgeRestController {
         knowledgeService.addMetricsFromBuffer(metricsSnapshotBuffer);
     }
 
+    // Answers CONFLICT if the deltas cannot be applied: the Monitor must then send keyframes
+    @PostMapping("/metrics/addMetricsDeltasBuffer")
+    public ResponseEntity<String> addMetricsDeltasFromBuffer(@RequestBody Queue<List<InstanceMetricsSnapshotDelta>> metricsDeltasBuffer) {
+        if (!knowledgeService.addMetricsDeltasFromBuffer(metricsDeltasBuffer))
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("The deltas do not apply to the last metrics received");
+        return ResponseEntity.ok().body("Metrics correctly added");
+    }
+
     // Analyse-related functions
     @GetMapping("/metrics/getLatestNOfCurrentInstance")
     public List<InstanceMetricsSnapshot> getLatestNMetricsOfCurrentInstance(@RequestParam String serviceId, @RequestParam String instanceId, @RequestParam int n) {
         return knowledgeService.getLatestNMetricsOfCurrentInstance(serviceId, instanceId, n);
     }
 
+    // Windows of all the instances to analyse, so that the Analyse gets them with a single request
+    @GetMapping("/metrics/getLatestNOfAnalysableInstances")
+    public Map<String, Map<String, List<InstanceMetricsSnapshot>>> getLatestNMetricsOfAnalysableInstances(@RequestParam int n) {
+        return knowledgeService.getLatestNMetricsOfAnalysableInstances(n);
+    }
+
+    // Statistics of the windows of all the instances to analyse, computed from running counters
+    @GetMapping("/metrics/getLatestNWindowStatsOfAnalysableInstances")
+    public Map<String, Map<String, InstanceWindowStats>> getLatestNWindowStatsOfAnalysableInstances(@RequestParam int n) {
+        return knowledgeService.getLatestNWindowStatsOfAnalysableInstances(n);
+    }
+
     @GetMapping("/proposedAdaptationOptions")
     public Map<String, List<AdaptationOption>> getProposedAdaptationOptions() {
         return knowledgeService.getProposedAdaptationOptions();
@@ -222,6 +252,7 @@ public class KnowledgeRestController {
     }
 
 
+    // Only the snapshots kept by the retention (see RAW_METRICS_RETENTION_MS): the older ones are served as /metrics/rollups
     @GetMapping("/metrics/get")
     public List<InstanceMetricsSnapshot> getMetrics(
             @RequestParam(required = false) String instanceId,
@@ -245,6 +276,17 @@ public class KnowledgeRestController {
     }
 
 
+    // Aggregated metrics of an instance, at the coarsest stored resolution not coarser than the requested one
+    @GetMapping("/metrics/rollups")
+    public List<MetricsRollup> getMetricsRollups(
+            @RequestParam String instanceId,
+            @RequestParam(name = "after") String startDate, // The date MUST be in the format yyyy-MM-dd'T'HH:mm:ss (without the ' around the T)
+            @RequestParam(name = "before") String endDate, // The date MUST be in the format yyyy-MM-dd'T'HH:mm:ss (without the ' around the T)
+            @RequestParam(name = "resolution") long resolutionSeconds
+    ) {
+        return knowledgeService.getInstanceMetricsRollupsBetween(instanceId, startDate, endDate, resolutionSeconds);
+    }
+
     @GetMapping("/metrics/{metricsId}")
     public InstanceMetricsSnapshot getMetrics(@PathVariable long metricsId) {
         return knowledgeService.getMetrics(metricsId);
@@ -0,0 +1,84 @@
+package it.polimi.ramses.knowledge.rest.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.polimi.ramses.knowledge.domain.architecture.Service;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Client-side copy of the services map of the Knowledge, kept up to date by applying the changes since the version
+// of the latest synchronization, so that only the services that changed are transferred.
+// Modules that change the services they get (e.g., to simulate the effects of an adaptation) must ask for copies,
+// otherwise their changes would leak into the cache. A module can skip the copies only if its changes are also sent
+// to the Knowledge, so that the services it changes come back with the next changes, and if it invalidates the cache
+// when it cannot send them. The copies are deep copies of each service read, so they are made only when needed.
+@Slf4j
+public class ServicesMapCache {
+    // Fetches the changes of the services map given the epoch and the version of the cache
+    public interface ChangesFetcher {
+        ServicesMapDelta getServicesMapChanges(long epoch, long since);
+    }
+
+    private final ChangesFetcher fetcher;
+    private final boolean copyOnRead;
+    private static final ObjectMapper copyMapper = Jackson2ObjectMapperBuilder.smile().build();
+
+    private final Map<String, Service> services = new HashMap<>();
+    private long epoch = 0;
+    // 0 means not synchronized yet
+    private long version = 0;
+
+    public ServicesMapCache(ChangesFetcher fetcher, boolean copyOnRead) {
+        this.fetcher = fetcher;
+        this.copyOnRead = copyOnRead;
+    }
+
+    // Synchronizes the cache and returns the services map
+    public synchronized Map<String, Service> getServicesMap() {
+        synchronize();
+        Map<String, Service> servicesMap = new HashMap<>();
+        services.forEach((serviceId, service) -> servicesMap.put(serviceId, read(service)));
+        return servicesMap;
+    }
+
+    // Synchronizes the cache and returns the service, or null if it does not exist
+    public synchronized Service getService(String serviceId) {
+        synchronize();
+        Service service = services.get(serviceId);
+        return service == null ? null : read(service);
+    }
+
+    // The next synchronization fetches the whole services map, discarding any change made to the services read
+    public synchronized void invalidate() {
+        version = 0;
+    }
+
+    private void synchronize() {
+        ServicesMapDelta delta = fetcher.getServicesMapChanges(epoch, version);
+        if (delta.isFull()) {
+            log.debug("Full services map received (version {})", delta.getVersion());
+            services.clear();
+        } else
+            log.debug("{} services changed from version {} to version {}", delta.getChangedServices().size(), version, delta.getVersion());
+        services.putAll(delta.getChangedServices());
+        epoch = delta.getEpoch();
+        version = delta.getVersion();
+    }
+
+    private Service read(Service service) {
+        return copyOnRead ? copyOf(service) : service;
+    }
+
+    // Deep copy of the service, not sharing anything with it
+    public static Service copyOf(Service service) {
+        try {
+            return copyMapper.readValue(copyMapper.writeValueAsBytes(service), Service.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
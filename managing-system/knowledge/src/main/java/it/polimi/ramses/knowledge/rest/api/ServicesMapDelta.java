@@ -0,0 +1,22 @@
+package it.polimi.ramses.knowledge.rest.api;
+
+import it.polimi.ramses.knowledge.domain.architecture.Service;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+// Changes of the services map since a given version. The epoch identifies the run of the Knowledge that assigned the
+// versions: when it differs from the one of the client, or when the client has no version yet, the delta is full,
+// i.e., it contains all the services.
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ServicesMapDelta {
+    private long epoch;
+    private long version;
+    private boolean full;
+    // <serviceId, Service> of the services changed since the version of the client
+    private Map<String, Service> changedServices;
+}
@@ -0,0 +1,180 @@
+package it.polimi.ramses.knowledge.domain;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.Availability;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.AverageResponseTime;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.QoSSpecification;
+import it.polimi.ramses.knowledge.domain.architecture.Instance;
+import it.polimi.ramses.knowledge.domain.architecture.InstanceStatus;
+import it.polimi.ramses.knowledge.domain.architecture.Service;
+import it.polimi.ramses.knowledge.domain.architecture.ServiceConfiguration;
+import it.polimi.ramses.knowledge.domain.architecture.ServiceImplementation;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Stress test of the concurrency model of CopyOnWriteServicesMap. Writers stamp a service with a new generation:
+// they add a value equal to the generation to the Availability history of the service and of each of its instances,
+// and set the latest adaptation date of the service to the generation. Readers check, without any lock, that every
+// snapshot they read carries a single generation (no torn reads), that the generation of a service never goes back
+// (no lost publications), and that the snapshots can be serialized while the writers work.
+class CopyOnWriteServicesMapConcurrencyTest {
+    private static final int SERVICES = 8;
+    private static final int INSTANCES_PER_SERVICE = 10;
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final long DURATION_SECONDS = 3;
+    private static final int SERIALIZE_EVERY = 50;
+
+    @Test
+    void readersSeeOnlyWholeAndIncreasingGenerations() throws InterruptedException {
+        CopyOnWriteServicesMap services = new CopyOnWriteServicesMap();
+        List<String> serviceIds = new ArrayList<>();
+        for (int s = 0; s < SERVICES; s++) {
+            Service service = createService("SERVICE-" + s, INSTANCES_PER_SERVICE);
+            services.put(service);
+            serviceIds.add(service.getServiceId());
+        }
+
+        AtomicLong generations = new AtomicLong(0);
+        LongAdder writes = new LongAdder(), reads = new LongAdder();
+        LongAdder tornReads = new LongAdder(), regressions = new LongAdder(), serializationErrors = new LongAdder();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    // The first writer also exercises the multi-service updates, which take several locks
+                    if (writer == 0 && random.nextInt(10) == 0) {
+                        services.updateAll(serviceIds, drafts -> {
+                            for (String serviceId : serviceIds)
+                                stamp(drafts.edit(serviceId), generations.incrementAndGet());
+                        });
+                    } else {
+                        String serviceId = serviceIds.get(random.nextInt(serviceIds.size()));
+                        services.update(serviceId, service -> {
+                            stamp(service, generations.incrementAndGet());
+                            return null;
+                        });
+                    }
+                    writes.increment();
+                }
+            }, "writer-" + w));
+        }
+
+        for (int r = 0; r < READERS; r++) {
+            threads.add(new Thread(() -> {
+                ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+                Map<String, Long> lastSeen = new HashMap<>();
+                long readCount = 0;
+                while (System.nanoTime() < deadline) {
+                    for (String serviceId : serviceIds) {
+                        Service service = services.get(serviceId);
+                        long generation = service.getLatestAdaptationDate().getTime();
+                        if (!hasGeneration(service, generation))
+                            tornReads.increment();
+                        if (generation < lastSeen.getOrDefault(serviceId, 0L))
+                            regressions.increment();
+                        lastSeen.put(serviceId, generation);
+                        if (++readCount % SERIALIZE_EVERY == 0) {
+                            try {
+                                mapper.writeValueAsBytes(service);
+                            } catch (Exception e) {
+                                serializationErrors.increment();
+                            }
+                        }
+                        reads.increment();
+                    }
+                }
+            }, "reader-" + r));
+        }
+
+        threads.forEach(thread -> thread.setUncaughtExceptionHandler((t, e) -> errors.add(e)));
+        threads.forEach(Thread::start);
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(List.of(), errors, "Exceptions in the writers or readers");
+        assertTrue(writes.sum() > 0 && reads.sum() > 0, "The writers and the readers must have run");
+        assertEquals(0, tornReads.sum(), "Torn reads");
+        assertEquals(0, regressions.sum(), "Generation regressions");
+        assertEquals(0, serializationErrors.sum(), "Serialization errors");
+    }
+
+    // A writer works on a copy sharing the QoS histories with the published snapshot: the histories it changes must be
+    // copied, the others must stay shared
+    @Test
+    void updateCopiesOnlyTheChangedHistories() {
+        CopyOnWriteServicesMap services = new CopyOnWriteServicesMap();
+        services.put(createService("SERVICE", 2));
+        Service published = services.get("SERVICE");
+        Instance changed = published.getInstances().get(0);
+        Instance unchanged = published.getInstances().get(1);
+        int publishedSize = changed.getQoSCollection().getQoSHistory(Availability.class).size();
+
+        services.update("SERVICE", service -> service.getInstance(changed.getInstanceId()).getQoSCollection()
+                .createNewQoSValue(Availability.class, 0.5, new Date()));
+        Service updated = services.get("SERVICE");
+
+        assertEquals(publishedSize, changed.getQoSCollection().getQoSHistory(Availability.class).size());
+        assertEquals(publishedSize + 1, updated.getInstance(changed.getInstanceId()).getQoSCollection().getQoSHistory(Availability.class).size());
+        assertSame(changed.getQoSCollection().getQoSHistory(AverageResponseTime.class),
+                updated.getInstance(changed.getInstanceId()).getQoSCollection().getQoSHistory(AverageResponseTime.class));
+        assertSame(unchanged.getQoSCollection().getQoSHistory(Availability.class),
+                updated.getInstance(unchanged.getInstanceId()).getQoSCollection().getQoSHistory(Availability.class));
+        assertNotSame(changed, updated.getInstance(changed.getInstanceId()));
+    }
+
+    // Gives all the values read by the readers the same generation
+    private static void stamp(Service service, long generation) {
+        Date date = new Date(generation);
+        for (Instance instance : service.getInstances())
+            instance.getQoSCollection().createNewQoSValue(Availability.class, generation, date);
+        service.getCurrentImplementation().getQoSCollection().createNewQoSValue(Availability.class, generation, date);
+        service.setLatestAdaptationDate(date);
+    }
+
+    private static boolean hasGeneration(Service service, long generation) {
+        if (generation == 0)
+            return true;
+        for (Instance instance : service.getInstances()) {
+            if (instance.getLatestValueForQoS(Availability.class).getDoubleValue() != generation)
+                return false;
+        }
+        return service.getCurrentImplementation().getQoSCollection().getQoSHistory(Availability.class).getLatestValue().getDoubleValue() == generation;
+    }
+
+    private static Service createService(String serviceId, int instanceCount) {
+        ServiceImplementation implementation = new ServiceImplementation(serviceId.toLowerCase() + "-impl", 1.0, 1, 0.4);
+        implementation.setBenchmark(Availability.class, 0.95);
+        implementation.setBenchmark(AverageResponseTime.class, 100.0);
+        Service service = new Service(serviceId, List.of(implementation), List.of());
+        service.setCurrentImplementationId(implementation.getImplementationId());
+        service.setLatestAdaptationDate(new Date(0));
+        Availability availability = new Availability();
+        availability.setWeight(0.5);
+        availability.setMinThreshold(0.9);
+        AverageResponseTime averageResponseTime = new AverageResponseTime();
+        averageResponseTime.setWeight(0.5);
+        averageResponseTime.setMaxThreshold(200.0);
+        service.setAllQoS(List.<QoSSpecification>of(availability, averageResponseTime));
+        for (int i = 0; i < instanceCount; i++)
+            service.createInstance("10.0.0." + i + ":" + (58080 + i)).setCurrentStatus(InstanceStatus.ACTIVE);
+        ServiceConfiguration configuration = new ServiceConfiguration(serviceId);
+        configuration.setTimestamp(new Date());
+        configuration.setLoadBalancerType(ServiceConfiguration.LoadBalancerType.WEIGHTED_RANDOM);
+        service.setConfiguration(configuration);
+        return service;
+    }
+}
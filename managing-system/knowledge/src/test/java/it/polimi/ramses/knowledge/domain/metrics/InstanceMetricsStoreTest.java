@@ -0,0 +1,56 @@
+package it.polimi.ramses.knowledge.domain.metrics;
+
+import it.polimi.ramses.knowledge.domain.architecture.InstanceStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstanceMetricsStoreTest {
+    private static final String SERVICE_ID = "SERVICE";
+    private static final String INSTANCE_ID = "service-impl@10.0.0.1:58080";
+
+    @Test
+    void shortWindowIsCoveredAfterTheFirstSnapshot() {
+        InstanceMetricsStore store = new InstanceMetricsStore(10);
+        assertFalse(store.covers(INSTANCE_ID, new Date(0)));
+        for (long second = 10; second <= 20; second++)
+            store.add(createSnapshot(second, InstanceStatus.ACTIVE));
+        // e.g., an adaptation at second 18: the window holds the 3 snapshots taken since
+        assertEquals(3, store.getLatest(INSTANCE_ID, new Date(18_000), 5).size());
+        assertTrue(store.covers(INSTANCE_ID, new Date(18_000)));
+        // Also when the oldest snapshots have been evicted
+        assertTrue(store.covers(INSTANCE_ID, new Date(10_000)));
+        // The snapshots taken before the first one received may only be in the database
+        assertFalse(store.covers(INSTANCE_ID, new Date(9_000)));
+    }
+
+    @Test
+    void currentRunIsCoveredAfterShutdown() {
+        InstanceMetricsStore store = new InstanceMetricsStore(10);
+        store.add(createSnapshot(10, InstanceStatus.ACTIVE));
+        store.add(createSnapshot(11, InstanceStatus.SHUTDOWN));
+        store.add(createSnapshot(20, InstanceStatus.ACTIVE));
+        assertTrue(store.covers(INSTANCE_ID, new Date(0)));
+        assertEquals(1, store.getLatest(INSTANCE_ID, new Date(0), 5).size());
+    }
+
+    @Test
+    void removedInstanceIsNotCovered() {
+        InstanceMetricsStore store = new InstanceMetricsStore(10);
+        store.add(createSnapshot(10, InstanceStatus.ACTIVE));
+        store.remove(INSTANCE_ID);
+        assertFalse(store.covers(INSTANCE_ID, new Date(10_000)));
+        store.add(createSnapshot(20, InstanceStatus.ACTIVE));
+        assertFalse(store.covers(INSTANCE_ID, new Date(10_000)));
+        assertTrue(store.covers(INSTANCE_ID, new Date(20_000)));
+    }
+
+    private static InstanceMetricsSnapshot createSnapshot(long second, InstanceStatus status) {
+        InstanceMetricsSnapshot snapshot = new InstanceMetricsSnapshot(SERVICE_ID, INSTANCE_ID);
+        snapshot.setStatus(status);
+        snapshot.setTimestamp(new Date(second * 1000));
+        return snapshot;
+    }
+}
@@ -0,0 +1,92 @@
+package it.polimi.ramses.knowledge.domain.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Round trip of the snapshots of an instance through a SnapshotDeltaEncoder, the wire (JSON) and a SnapshotReconstructor:
+// the rebuilt snapshots must hold the same metrics as the encoded ones, between two keyframes.
+class SnapshotDeltaRoundTripTest {
+    private static final String SERVICE_ID = "SERVICE";
+    private static final String INSTANCE_ID = "service-impl@10.0.0.1:58080";
+    private static final String ENDPOINT_ID = "GET@/api";
+
+    private final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+    private final SnapshotDeltaEncoder encoder = new SnapshotDeltaEncoder(100);
+    private final SnapshotReconstructor reconstructor = new SnapshotReconstructor();
+
+    @Test
+    void outcomeRemovedFromKeptEndpointIsRemovedFromRebuiltSnapshot() throws Exception {
+        InstanceMetricsSnapshot first = createSnapshot(1, "SUCCESS", 100, "SERVER_ERROR", 5);
+        assertSameMetrics(first, roundTrip(first));
+
+        // The instance restarted with the same id: the errors are gone and the successes start again from a lower count
+        InstanceMetricsSnapshot second = createSnapshot(2, "SUCCESS", 10);
+        InstanceMetricsSnapshotDelta delta = encoder.encode(second);
+        assertFalse(delta.isKeyframe());
+        assertEquals(Set.of("SERVER_ERROR"), delta.getRemovedOutcomes().get(ENDPOINT_ID));
+        InstanceMetricsSnapshot rebuilt = rebuild(delta);
+        assertSameMetrics(second, rebuilt);
+        assertEquals(Set.of("SUCCESS"), rebuilt.getHttpMetrics().get(ENDPOINT_ID).getOutcomeMetrics().keySet());
+
+        // The outcome comes back with a new count
+        InstanceMetricsSnapshot third = createSnapshot(3, "SUCCESS", 20, "SERVER_ERROR", 1);
+        assertSameMetrics(third, roundTrip(third));
+    }
+
+    @Test
+    void unchangedEndpointIsNotSent() throws Exception {
+        roundTrip(createSnapshot(1, "SUCCESS", 100));
+        InstanceMetricsSnapshotDelta delta = encoder.encode(createSnapshot(2, "SUCCESS", 100));
+        assertTrue(delta.getHttpMetrics().isEmpty());
+        assertTrue(delta.getRemovedOutcomes().isEmpty());
+        assertTrue(delta.getRemovedHttpMetrics().isEmpty());
+    }
+
+    private InstanceMetricsSnapshot roundTrip(InstanceMetricsSnapshot snapshot) throws Exception {
+        return rebuild(encoder.encode(snapshot));
+    }
+
+    private InstanceMetricsSnapshot rebuild(InstanceMetricsSnapshotDelta delta) throws Exception {
+        InstanceMetricsSnapshotDelta received = mapper.readValue(mapper.writeValueAsBytes(delta), InstanceMetricsSnapshotDelta.class);
+        List<InstanceMetricsSnapshot> snapshots = reconstructor.reconstruct(List.of(received));
+        assertNotNull(snapshots, "Delta " + delta.getSequence() + " not applied");
+        return snapshots.get(0);
+    }
+
+    // Snapshot with one endpoint and the given outcomes, as pairs of outcome and count
+    private static InstanceMetricsSnapshot createSnapshot(long second, Object... outcomes) {
+        InstanceMetricsSnapshot snapshot = new InstanceMetricsSnapshot(SERVICE_ID, INSTANCE_ID);
+        snapshot.setTimestamp(new Date(second * 1000));
+        snapshot.setCpuUsage(0.5);
+        HttpEndpointMetrics endpointMetrics = new HttpEndpointMetrics("/api", "GET");
+        for (int i = 0; i < outcomes.length; i += 2) {
+            String outcome = (String) outcomes[i];
+            long count = ((Number) outcomes[i + 1]).longValue();
+            endpointMetrics.addOrSetOutcomeMetricsDetails(outcome, outcome.equals("SUCCESS") ? 200 : 500, count, count * 20.0);
+        }
+        snapshot.addHttpMetrics(endpointMetrics);
+        return snapshot;
+    }
+
+    private static void assertSameMetrics(InstanceMetricsSnapshot expected, InstanceMetricsSnapshot actual) {
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getHttpMetrics().keySet(), actual.getHttpMetrics().keySet());
+        expected.getHttpMetrics().forEach((endpointId, endpointMetrics) -> {
+            HttpEndpointMetrics actualMetrics = actual.getHttpMetrics().get(endpointId);
+            assertEquals(endpointMetrics.getOutcomeMetrics().keySet(), actualMetrics.getOutcomeMetrics().keySet(), endpointId);
+            endpointMetrics.getOutcomeMetrics().forEach((outcome, outcomeMetrics) -> {
+                HttpEndpointMetrics.OutcomeMetrics actualOutcome = actualMetrics.getOutcomeMetrics().get(outcome);
+                assertEquals(outcomeMetrics.getStatus(), actualOutcome.getStatus(), outcome);
+                assertEquals(outcomeMetrics.getCount(), actualOutcome.getCount(), outcome);
+                assertEquals(outcomeMetrics.getTotalDuration(), actualOutcome.getTotalDuration(), outcome);
+            });
+        });
+    }
+}
@@ -4,20 +4,30 @@ import it.polimi.ramses.knowledge.domain.Modules;
 import it.polimi.ramses.monitor.externalinterfaces.KnowledgeClient;
 import it.polimi.ramses.knowledge.domain.architecture.Service;
 import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshotDelta;
+import it.polimi.ramses.knowledge.domain.metrics.SnapshotDeltaEncoder;
+import it.polimi.ramses.knowledge.domain.metrics.SnapshotReconstructor;
 import it.polimi.ramses.monitor.externalinterfaces.ProbeClient;
 import it.polimi.ramses.monitor.externalinterfaces.AnalyseClient;
+import feign.FeignException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
+import javax.annotation.PostConstruct;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.*;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 @Slf4j
@@ -38,13 +48,34 @@ public class MonitorService {
     @Autowired
     private ProbeClient probeClient;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Getter
     @Value("${SCHEDULING_PERIOD}")
     private int schedulingPeriod = 5000; // monitor scheduling period [ms]
 
+    // If true, the snapshots of all the managed services are taken with a single request to the probe
+    @Value("${PROBE_BATCH_SNAPSHOT}")
+    private boolean probeBatchSnapshot;
+    // If true, the snapshots are received from the probe (in batch mode) and sent to the Knowledge as deltas
+    @Value("${SNAPSHOT_DELTAS}")
+    private boolean snapshotDeltas;
+    @Value("${SNAPSHOT_KEYFRAME_INTERVAL}")
+    private int snapshotKeyframeInterval;
+
+    private final SnapshotReconstructor probeSnapshotReconstructor = new SnapshotReconstructor();
+    private boolean probeKeyframesNeeded = true;
+    private SnapshotDeltaEncoder knowledgeSnapshotEncoder;
+
     private final AtomicBoolean loopIterationFinished = new AtomicBoolean(true);
     private final Queue<List<InstanceMetricsSnapshot>> instanceMetricsListBuffer = new LinkedList<>();
 
+    // Latency of the loop iterations, from the update of the Knowledge to the notification of the Execute.
+    // Compare the distributed and the embedded deployment with the "deployment" tag of the metric
+    private Timer loopIterationTimer;
+    private volatile long loopIterationStartNanos = 0;
+
 
     public MonitorService(KnowledgeClient knowledgeClient, ThreadPoolTaskScheduler taskScheduler) {
         this.knowledgeClient = knowledgeClient;
@@ -52,6 +83,16 @@ public class MonitorService {
         knowledgeClient.getServicesMap().values().forEach(service -> managedServices.add(service.getServiceId()));
     }
 
+    @PostConstruct
+    public void initSnapshotDeltas() {
+        knowledgeSnapshotEncoder = new SnapshotDeltaEncoder(snapshotKeyframeInterval);
+    }
+
+    @PostConstruct
+    public void initLoopIterationTimer() {
+        loopIterationTimer = Timer.builder("ramses.loop.iteration").publishPercentiles(0.5, 0.95, 0.99).register(meterRegistry);
+    }
+
     /*
     // Decomment to start routine on startup instead of manually starting it
     @PostConstruct
@@ -66,34 +107,12 @@ public class MonitorService {
             log.debug("\nA new Monitor routine iteration started");
             try {
                 List<InstanceMetricsSnapshot> metricsList = Collections.synchronizedList(new LinkedList<>());
-                List<Thread> threads = new LinkedList<>();
                 AtomicBoolean invalidIteration = new AtomicBoolean(false);
 
-                managedServices.forEach(serviceId -> {
-                    Thread thread = new Thread( () -> {
-                        try {
-                            List<InstanceMetricsSnapshot> instancesSnapshots = probeClient.takeSnapshot(serviceId);
-                            if (instancesSnapshots == null) {
-                                invalidIteration.set(true);
-                            } else {
-                                metricsList.addAll(instancesSnapshots);
-                            }
-                        } catch (Exception e) {
-                            log.error("Error while taking snapshot for service {}", serviceId, e);
-                            invalidIteration.set(true);
-                        }
-                    });
-                    threads.add(thread);
-                    thread.start();
-                });
-
-                threads.forEach(thread -> {
-                    try {
-                        thread.join();
-                    } catch (InterruptedException e) {
-                        log.error(e.getMessage());
-                    }
-                });
+                if (probeBatchSnapshot)
+                    takeSystemSnapshot(metricsList, invalidIteration);
+                else
+                    takeServiceSnapshots(metricsList, invalidIteration);
 
                 if (invalidIteration.get()) {
                     log.error("Invalid iteration. Skipping");
@@ -104,7 +123,8 @@ public class MonitorService {
                 instanceMetricsListBuffer.add(metricsList);
                 if (getLoopIterationFinished()) {
                     log.debug("Monitor routine completed. Updating Knowledge and notifying the Analyse to start the next iteration.\n");
-                    knowledgeClient.addMetricsFromBuffer(instanceMetricsListBuffer);
+                    loopIterationStartNanos = System.nanoTime();
+                    sendMetricsToKnowledge();
                     instanceMetricsListBuffer.clear();
                     loopIterationFinished.set(false);
                     analyseClient.start();
@@ -118,6 +138,103 @@ public class MonitorService {
         }
     }
 
+    private void takeSystemSnapshot(List<InstanceMetricsSnapshot> metricsList, AtomicBoolean invalidIteration) {
+        try {
+            Map<String, List<InstanceMetricsSnapshot>> servicesSnapshots = snapshotDeltas ? takeSystemSnapshotDelta() : probeClient.takeSystemSnapshot(managedServices);
+            if (servicesSnapshots == null) {
+                invalidIteration.set(true);
+                return;
+            }
+            managedServices.forEach(serviceId -> {
+                List<InstanceMetricsSnapshot> instancesSnapshots = servicesSnapshots.get(serviceId);
+                if (instancesSnapshots == null) {
+                    invalidIteration.set(true);
+                } else {
+                    metricsList.addAll(instancesSnapshots);
+                }
+            });
+        } catch (Exception e) {
+            log.error("Error while taking the snapshot of the system", e);
+            invalidIteration.set(true);
+        }
+    }
+
+    // Returns null if the deltas cannot be applied. In that case, the probe is asked for keyframes in the next iteration
+    private Map<String, List<InstanceMetricsSnapshot>> takeSystemSnapshotDelta() {
+        boolean keyframesRequested = probeKeyframesNeeded;
+        probeKeyframesNeeded = true;
+        Map<String, List<InstanceMetricsSnapshotDelta>> servicesDeltas = probeClient.takeSystemSnapshotDelta(managedServices, "monitor", keyframesRequested);
+        // The probe encoded the snapshots of the valid services only, so only those are applied
+        List<String> validServices = servicesDeltas.keySet().stream().filter(serviceId -> servicesDeltas.get(serviceId) != null).toList();
+        List<List<InstanceMetricsSnapshot>> snapshotsLists = probeSnapshotReconstructor.reconstruct(validServices.stream().map(servicesDeltas::get).toList());
+        if (snapshotsLists == null) {
+            log.warn("Cannot apply the deltas received from the probe. Asking for keyframes");
+            return null;
+        }
+        probeKeyframesNeeded = false;
+        Map<String, List<InstanceMetricsSnapshot>> servicesSnapshots = new HashMap<>();
+        for (int i = 0; i < validServices.size(); i++)
+            servicesSnapshots.put(validServices.get(i), snapshotsLists.get(i));
+        return servicesSnapshots;
+    }
+
+    private void sendMetricsToKnowledge() {
+        if (!snapshotDeltas) {
+            knowledgeClient.addMetricsFromBuffer(instanceMetricsListBuffer);
+            return;
+        }
+        if (!sendMetricsDeltasToKnowledge()) {
+            log.warn("The Knowledge cannot apply the deltas. Sending keyframes");
+            knowledgeSnapshotEncoder.reset();
+            knowledgeClient.addMetricsDeltasFromBuffer(encodeMetricsBuffer());
+        }
+    }
+
+    // Returns false if the Knowledge answers CONFLICT: through Feign as an exception, in the embedded deployment as the response
+    private boolean sendMetricsDeltasToKnowledge() {
+        try {
+            ResponseEntity<String> response = knowledgeClient.addMetricsDeltasFromBuffer(encodeMetricsBuffer());
+            return response == null || response.getStatusCode() != HttpStatus.CONFLICT;
+        } catch (FeignException.Conflict e) {
+            return false;
+        }
+    }
+
+    private Queue<List<InstanceMetricsSnapshotDelta>> encodeMetricsBuffer() {
+        Queue<List<InstanceMetricsSnapshotDelta>> metricsDeltasBuffer = new LinkedList<>();
+        instanceMetricsListBuffer.forEach(metricsList -> metricsDeltasBuffer.add(metricsList.stream().map(knowledgeSnapshotEncoder::encode).toList()));
+        return metricsDeltasBuffer;
+    }
+
+    private void takeServiceSnapshots(List<InstanceMetricsSnapshot> metricsList, AtomicBoolean invalidIteration) {
+        List<Thread> threads = new LinkedList<>();
+        managedServices.forEach(serviceId -> {
+            Thread thread = new Thread( () -> {
+                try {
+                    List<InstanceMetricsSnapshot> instancesSnapshots = probeClient.takeSnapshot(serviceId);
+                    if (instancesSnapshots == null) {
+                        invalidIteration.set(true);
+                    } else {
+                        metricsList.addAll(instancesSnapshots);
+                    }
+                } catch (Exception e) {
+                    log.error("Error while taking snapshot for service {}", serviceId, e);
+                    invalidIteration.set(true);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        });
+
+        threads.forEach(thread -> {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                log.error(e.getMessage());
+            }
+        });
+    }
+
     public void changeSchedulingPeriod(int newPeriod) {
         if (monitorRoutine.cancel(false)) {
             log.info("Monitor routine cancelled");
@@ -152,6 +269,12 @@ public class MonitorService {
 
     public void setLoopIterationFinished(boolean loopIterationFinished) {
         knowledgeClient.notifyModuleStart(Modules.MONITOR);
+        if (loopIterationFinished && loopIterationStartNanos != 0) {
+            long latencyNanos = System.nanoTime() - loopIterationStartNanos;
+            loopIterationStartNanos = 0;
+            loopIterationTimer.record(latencyNanos, TimeUnit.NANOSECONDS);
+            log.debug("Loop iteration completed in {} ms", TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+        }
         this.loopIterationFinished.set(loopIterationFinished);
     }
 
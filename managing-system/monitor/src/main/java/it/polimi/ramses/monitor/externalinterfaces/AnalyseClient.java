@@ -1,9 +1,10 @@
 package it.polimi.ramses.monitor.externalinterfaces;
 
+import it.polimi.ramses.knowledge.codec.InterModuleFeignConfiguration;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.GetMapping;
 
-@FeignClient(name = "ANALYSE", url = "${ANALYSE_URL}")
+@FeignClient(name = "ANALYSE", url = "${ANALYSE_URL}", configuration = InterModuleFeignConfiguration.class)
 public interface AnalyseClient {
     @GetMapping("/rest/start")
     String start();
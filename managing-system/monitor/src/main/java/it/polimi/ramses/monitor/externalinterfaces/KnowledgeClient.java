@@ -1,8 +1,11 @@
 package it.polimi.ramses.monitor.externalinterfaces;
 
+import it.polimi.ramses.knowledge.codec.InterModuleFeignConfiguration;
 import it.polimi.ramses.knowledge.domain.Modules;
 import it.polimi.ramses.knowledge.domain.architecture.Service;
 import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshotDelta;
+import it.polimi.ramses.knowledge.domain.persistence.MetricsRollup;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -12,7 +15,7 @@ import java.util.Map;
 import java.util.Queue;
 
 
-@FeignClient(name = "KNOWLEDGE", url = "${KNOWLEDGE_URL}")
+@FeignClient(name = "KNOWLEDGE", url = "${KNOWLEDGE_URL}", configuration = InterModuleFeignConfiguration.class)
 public interface KnowledgeClient {
 
     @PutMapping("/rest/activeModule")
@@ -21,9 +24,13 @@ public interface KnowledgeClient {
     @PostMapping("/rest/metrics/addMetricsBuffer")
     void addMetricsFromBuffer(@RequestBody Queue<List<InstanceMetricsSnapshot>> metricsSnapshotBuffer);
 
+    @PostMapping("/rest/metrics/addMetricsDeltasBuffer")
+    ResponseEntity<String> addMetricsDeltasFromBuffer(@RequestBody Queue<List<InstanceMetricsSnapshotDelta>> metricsDeltasBuffer);
+
     @GetMapping("/rest/metrics/{metricsId}")
     InstanceMetricsSnapshot getMetrics(@PathVariable long metricsId);
 
+    // Raw snapshots, available only within the RAW_METRICS_RETENTION_MS of the Knowledge
     @GetMapping("/rest/metrics/get")
     List<InstanceMetricsSnapshot> getMetrics(
             @RequestParam(required = false) String instanceId,
@@ -31,6 +38,15 @@ public interface KnowledgeClient {
             @RequestParam(required = false) String after
     );
 
+    // Aggregated metrics of an instance, available after the raw snapshots are deleted
+    @GetMapping("/rest/metrics/rollups")
+    List<MetricsRollup> getMetricsRollups(
+            @RequestParam String instanceId,
+            @RequestParam String after,
+            @RequestParam String before,
+            @RequestParam long resolution
+    );
+
     @GetMapping("/rest/metrics/getLatest")
     List<InstanceMetricsSnapshot> getLatestMetrics(
             @RequestParam(required = false) String serviceId,
@@ -2,20 +2,28 @@ package it.polimi.ramses.monitor.externalinterfaces;
 
 import it.polimi.ramses.knowledge.domain.architecture.ServiceConfiguration;
 import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.ramses.knowledge.domain.metrics.InstanceMetricsSnapshotDelta;
 import it.polimi.ramses.knowledge.externalinterfaces.ServiceInfo;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
-@FeignClient(name = "PROBE", url = "${PROBE_URL}")
+@FeignClient(name = "PROBE", contextId = "monitorProbeClient", url = "${PROBE_URL}")
 public interface ProbeClient {
     @GetMapping("/rest/service/{serviceId}/snapshot")
     List<InstanceMetricsSnapshot> takeSnapshot(@PathVariable("serviceId") String serviceId);
 
+    @GetMapping("/rest/snapshot")
+    Map<String, List<InstanceMetricsSnapshot>> takeSystemSnapshot(@RequestParam("serviceIds") Collection<String> serviceIds);
+
+    @GetMapping("/rest/snapshot/delta")
+    Map<String, List<InstanceMetricsSnapshotDelta>> takeSystemSnapshotDelta(@RequestParam("serviceIds") Collection<String> serviceIds, @RequestParam("consumerId") String consumerId, @RequestParam("reset") boolean reset);
+
     @GetMapping("/rest/systemArchitecture")
     Map<String, ServiceInfo> getSystemArchitecture();
 
@@ -12,6 +12,12 @@ import org.springframework.util.ResourceUtils;
 public class PlanApplication {
 
     public static void main(String[] args) throws Exception {
+        loadOrToolsLibraries(args);
+        SpringApplication.run(PlanApplication.class, args);
+    }
+
+    // Loads the OR-Tools native libraries from the classpath or, if they are not there, from the directory given as first argument
+    public static void loadOrToolsLibraries(String[] args) {
         String os = System.getProperty("os.name");
         String filename1;
         if (os.toLowerCase().contains("nux"))
@@ -44,6 +50,5 @@ public class PlanApplication {
                 throw new RuntimeException("Error loading or-tools libraries", e2);
             }
         }
-        SpringApplication.run(PlanApplication.class, args);
     }
 }
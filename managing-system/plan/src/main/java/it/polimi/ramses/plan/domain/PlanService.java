@@ -6,15 +6,19 @@ import it.polimi.ramses.knowledge.domain.adaptation.options.*;
 import it.polimi.ramses.knowledge.domain.adaptation.specifications.QoSSpecification;
 import it.polimi.ramses.knowledge.domain.adaptation.specifications.Availability;
 import it.polimi.ramses.knowledge.domain.adaptation.specifications.AverageResponseTime;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.LoadSpecification;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.PercentileResponseTime;
 import it.polimi.ramses.knowledge.domain.adaptation.specifications.Vulnerability;
 import it.polimi.ramses.knowledge.domain.architecture.*;
 import it.polimi.ramses.plan.externalInterfaces.ExecuteClient;
+import it.polimi.ramses.knowledge.rest.api.ServicesMapCache;
 import it.polimi.ramses.plan.externalInterfaces.KnowledgeClient;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import javax.annotation.PostConstruct;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -28,17 +32,25 @@ public class PlanService {
     @Autowired
     private ExecuteClient executeClient;
 
+    // The services are copied because the plan changes them to evaluate the adaptation options
+    private ServicesMapCache servicesMapCache;
+
     @Getter
     @Setter
     private boolean adaptationAuthorized = false;
 
+    @PostConstruct
+    public void init() {
+        servicesMapCache = new ServicesMapCache(knowledgeClient::getServicesMapChanges, true);
+    }
+
     // For a given service, the system must not be in a transition state.
     // In that case, only forced adaptation options are allowed.
     public void startPlan() {
         try {
             log.info("\nStarting plan");
             knowledgeClient.notifyModuleStart(Modules.PLAN);
-            Map<String, Service> servicesMap = knowledgeClient.getServicesMap();
+            Map<String, Service> servicesMap = servicesMapCache.getServicesMap();
             Map<String, List<AdaptationOption>> proposedAdaptationOptions = knowledgeClient.getProposedAdaptationOptions();
             Map<String, List<AdaptationOption>> chosenAdaptationOptions = new HashMap<>();
 
@@ -340,7 +352,7 @@ public class PlanService {
                     bestImplementationId = implementationId;
                     bestImplementationBenefit = benchmark;
                 }
-            } else if(AverageResponseTime.class == goal) {
+            } else if(AverageResponseTime.class == goal || PercentileResponseTime.class == goal) {
                 double benchmark = implementation.getBenchmark(changeImplementationOption.getQosGoal());
                 benchmark = benchmark / implementation.getPreference();
                 if (bestImplementationId == null) {
@@ -431,27 +443,30 @@ public class PlanService {
                     bestOptionForGoal.put(Availability.class, adaptationOption);
                 }
             }
-            else if(adaptationOption.getQosGoal() == AverageResponseTime.class){
+            else if(adaptationOption.getQosGoal() == AverageResponseTime.class || adaptationOption.getQosGoal() == PercentileResponseTime.class){
+                // The percentile response time is estimated as the average one: from the current values of the instances
+                // that would serve the requests, weighted by their share, and from the benchmark for a new instance
+                Class<? extends QoSSpecification> responseTimeGoal = adaptationOption.getQosGoal();
                 double avgResponseTimeEstimation = 0.0;
                 if (service.getConfiguration().getLoadBalancerType() == ServiceConfiguration.LoadBalancerType.WEIGHTED_RANDOM) {
                     if (ChangeLoadBalancerWeightsOption.class.equals(adaptationOption.getClass())) {
                         ChangeLoadBalancerWeightsOption changeLoadBalancerWeightsOption = (ChangeLoadBalancerWeightsOption) adaptationOption;
                         for (Instance instance : instances) {
                             if(!changeLoadBalancerWeightsOption.getInstancesToShutdownIds().contains(instance.getInstanceId()))
-                                avgResponseTimeEstimation += changeLoadBalancerWeightsOption.getNewWeights().get(instance.getInstanceId()) * instance.getCurrentValueForQoS(AverageResponseTime.class).getDoubleValue();
+                                avgResponseTimeEstimation += changeLoadBalancerWeightsOption.getNewWeights().get(instance.getInstanceId()) * instance.getCurrentValueForQoS(responseTimeGoal).getDoubleValue();
                         }
                     } else if (AddInstanceOption.class.equals(adaptationOption.getClass())) {
                         AddInstanceOption addInstanceOption = (AddInstanceOption) adaptationOption;
                         for (Instance instance : instances) {
                             if(!addInstanceOption.getInstancesToShutdownIds().contains(instance.getInstanceId()))
-                                avgResponseTimeEstimation += addInstanceOption.getOldInstancesNewWeights().get(instance.getInstanceId()) * instance.getCurrentValueForQoS(AverageResponseTime.class).getDoubleValue();
+                                avgResponseTimeEstimation += addInstanceOption.getOldInstancesNewWeights().get(instance.getInstanceId()) * instance.getCurrentValueForQoS(responseTimeGoal).getDoubleValue();
                         }
-                        avgResponseTimeEstimation += addInstanceOption.getNewInstanceWeight() * service.getCurrentImplementation().getBenchmark(AverageResponseTime.class);
+                        avgResponseTimeEstimation += addInstanceOption.getNewInstanceWeight() * service.getCurrentImplementation().getBenchmark(responseTimeGoal);
                     } else if (ShutdownInstanceOption.class.equals(adaptationOption.getClass())) {
                         ShutdownInstanceOption shutdownInstanceOption = (ShutdownInstanceOption) adaptationOption;
                         for (Instance instance : instances) {
                             if (!instance.getInstanceId().equals(shutdownInstanceOption.getInstanceToShutdownId()))
-                                avgResponseTimeEstimation += shutdownInstanceOption.getNewWeights().get(instance.getInstanceId()) * instance.getCurrentValueForQoS(AverageResponseTime.class).getDoubleValue();
+                                avgResponseTimeEstimation += shutdownInstanceOption.getNewWeights().get(instance.getInstanceId()) * instance.getCurrentValueForQoS(responseTimeGoal).getDoubleValue();
                         }
                     }
 
@@ -459,15 +474,15 @@ public class PlanService {
                 else {
                     if (AddInstanceOption.class.equals(adaptationOption.getClass())) {
                         for (Instance instance : instances) {
-                            avgResponseTimeEstimation += instance.getCurrentValueForQoS(AverageResponseTime.class).getDoubleValue();
+                            avgResponseTimeEstimation += instance.getCurrentValueForQoS(responseTimeGoal).getDoubleValue();
                         }
-                        avgResponseTimeEstimation += service.getCurrentImplementation().getBenchmark(AverageResponseTime.class);
+                        avgResponseTimeEstimation += service.getCurrentImplementation().getBenchmark(responseTimeGoal);
                         avgResponseTimeEstimation /= instances.size() + 1;
                     } else if (ShutdownInstanceOption.class.equals(adaptationOption.getClass())) {
                         ShutdownInstanceOption shutdownInstanceOption = (ShutdownInstanceOption) adaptationOption;
                         for (Instance instance : instances) {
                             if (!instance.getInstanceId().equals(shutdownInstanceOption.getInstanceToShutdownId()))
-                                avgResponseTimeEstimation += instance.getCurrentValueForQoS(AverageResponseTime.class).getDoubleValue();
+                                avgResponseTimeEstimation += instance.getCurrentValueForQoS(responseTimeGoal).getDoubleValue();
                         }
                         avgResponseTimeEstimation /= instances.size() - 1;
                     }
@@ -475,13 +490,36 @@ public class PlanService {
                 }
                 if(ChangeImplementationOption.class.equals(adaptationOption.getClass())) {
                     ChangeImplementationOption changeImplementationOption = (ChangeImplementationOption) adaptationOption;
-                    avgResponseTimeEstimation = service.getPossibleImplementations().get(changeImplementationOption.getNewImplementationId()).getBenchmark(AverageResponseTime.class);
+                    avgResponseTimeEstimation = service.getPossibleImplementations().get(changeImplementationOption.getNewImplementationId()).getBenchmark(responseTimeGoal);
                 }
-                double newBenefit =  service.getCurrentValueForQoS(AverageResponseTime.class).getDoubleValue() / avgResponseTimeEstimation;
-                log.debug(service.getServiceId() + ": " + adaptationOption.getClass().getSimpleName() + " option for AVG RT. BENEFIT: " + newBenefit);
-                if(newBenefit > 1 && (!benefits.containsKey(AverageResponseTime.class) || newBenefit > benefits.get(AverageResponseTime.class))){
-                    benefits.put(AverageResponseTime.class, newBenefit);
-                    bestOptionForGoal.put(AverageResponseTime.class, adaptationOption);
+                double newBenefit =  service.getCurrentValueForQoS(responseTimeGoal).getDoubleValue() / avgResponseTimeEstimation;
+                log.debug(service.getServiceId() + ": " + adaptationOption.getClass().getSimpleName() + " option for " + responseTimeGoal.getSimpleName() + ". BENEFIT: " + newBenefit);
+                if(newBenefit > 1 && (!benefits.containsKey(responseTimeGoal) || newBenefit > benefits.get(responseTimeGoal))){
+                    benefits.put(responseTimeGoal, newBenefit);
+                    bestOptionForGoal.put(responseTimeGoal, adaptationOption);
+                }
+            } else if (LoadSpecification.class.isAssignableFrom(adaptationOption.getQosGoal())) {
+                // The load of the service is spread over its instances, so the load of each instance is estimated from
+                // the current one and from the number of instances that would serve the requests. The benefit is how
+                // much closer to the target band the estimation is
+                Class<? extends QoSSpecification> loadGoal = adaptationOption.getQosGoal();
+                LoadSpecification loadSpecs = (LoadSpecification) service.getQoSSpecifications().get(loadGoal);
+                int newInstancesCount = instances.size();
+                if (AddInstanceOption.class.equals(adaptationOption.getClass()))
+                    newInstancesCount = instances.size() + 1 - ((AddInstanceOption) adaptationOption).getInstancesToShutdownIds().size();
+                else if (ShutdownInstanceOption.class.equals(adaptationOption.getClass()))
+                    newInstancesCount = instances.size() - 1;
+                if (newInstancesCount == instances.size() || newInstancesCount <= 0)
+                    continue;
+                // An option proposed ahead of the load is evaluated on the load forecast for when the new instance is up
+                double currentLoad = AddInstanceOption.class.equals(adaptationOption.getClass()) && ((AddInstanceOption) adaptationOption).getForecastedLoad() != null ?
+                        ((AddInstanceOption) adaptationOption).getForecastedLoad() : service.getCurrentValueForQoS(loadGoal).getDoubleValue();
+                double loadEstimation = currentLoad * instances.size() / newInstancesCount;
+                double newBenefit = (1 + loadSpecs.getDistanceFromBand(currentLoad)) / (1 + loadSpecs.getDistanceFromBand(loadEstimation));
+                log.debug(service.getServiceId() + ": " + adaptationOption.getClass().getSimpleName() + " option for " + loadGoal.getSimpleName() + ". BENEFIT: " + newBenefit);
+                if (newBenefit > 1 && (!benefits.containsKey(loadGoal) || newBenefit > benefits.get(loadGoal))) {
+                    benefits.put(loadGoal, newBenefit);
+                    bestOptionForGoal.put(loadGoal, adaptationOption);
                 }
             } else if (adaptationOption.getQosGoal() == Vulnerability.class && (ChangeImplementationOption.class.equals(adaptationOption.getClass()))) {
                     ChangeImplementationOption changeImplementationOption = (ChangeImplementationOption) adaptationOption;
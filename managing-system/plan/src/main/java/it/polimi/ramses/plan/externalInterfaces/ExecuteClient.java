@@ -1,9 +1,10 @@
 package it.polimi.ramses.plan.externalInterfaces;
 
+import it.polimi.ramses.knowledge.codec.InterModuleFeignConfiguration;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.GetMapping;
 
-@FeignClient(name = "EXECUTE", url = "${EXECUTE_URL}")
+@FeignClient(name = "EXECUTE", url = "${EXECUTE_URL}", configuration = InterModuleFeignConfiguration.class)
 public interface ExecuteClient {
 
     @GetMapping("/rest/start")
@@ -1,8 +1,10 @@
 package it.polimi.ramses.plan.externalInterfaces;
 
+import it.polimi.ramses.knowledge.codec.InterModuleFeignConfiguration;
 import it.polimi.ramses.knowledge.domain.Modules;
 import it.polimi.ramses.knowledge.domain.adaptation.options.AdaptationOption;
 import it.polimi.ramses.knowledge.domain.architecture.Service;
+import it.polimi.ramses.knowledge.rest.api.ServicesMapDelta;
 import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -11,7 +13,7 @@ import java.util.List;
 import java.util.Map;
 
 
-@FeignClient(name = "KNOWLEDGE", url = "${KNOWLEDGE_URL}")
+@FeignClient(name = "KNOWLEDGE", url = "${KNOWLEDGE_URL}", configuration = InterModuleFeignConfiguration.class)
 public interface KnowledgeClient {
 
     @PutMapping("/rest/activeModule")
@@ -20,6 +22,10 @@ public interface KnowledgeClient {
     @GetMapping("/rest/servicesMap")
     Map<String, Service> getServicesMap();
 
+    // Services changed since the given version of the services map. See ServicesMapCache
+    @GetMapping("/rest/servicesMap/changes")
+    ServicesMapDelta getServicesMapChanges(@RequestParam long epoch, @RequestParam long since);
+
     @PostMapping("/rest/chooseAdaptationOptions")
     ResponseEntity<String> chooseAdaptationOptions(@RequestBody Map<String, List<AdaptationOption>> adaptationOptions);
 
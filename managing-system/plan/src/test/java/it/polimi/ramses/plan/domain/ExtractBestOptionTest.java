@@ -0,0 +1,141 @@
+package it.polimi.ramses.plan.domain;
+
+import it.polimi.ramses.knowledge.domain.adaptation.options.AddInstanceOption;
+import it.polimi.ramses.knowledge.domain.adaptation.options.ChangeLoadBalancerWeightsOption;
+import it.polimi.ramses.knowledge.domain.adaptation.options.ShutdownInstanceOption;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.Availability;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.AverageResponseTime;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.PercentileResponseTime;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.QoSSpecification;
+import it.polimi.ramses.knowledge.domain.adaptation.specifications.Throughput;
+import it.polimi.ramses.knowledge.domain.architecture.Instance;
+import it.polimi.ramses.knowledge.domain.architecture.InstanceStatus;
+import it.polimi.ramses.knowledge.domain.architecture.Service;
+import it.polimi.ramses.knowledge.domain.architecture.ServiceConfiguration;
+import it.polimi.ramses.knowledge.domain.architecture.ServiceImplementation;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Benefit of the adaptation options proposed for the QoS that a service may not have, as estimated by
+// PlanService.extractBestOption for a service with two instances and a weighted random load balancer
+class ExtractBestOptionTest {
+    private static final String SERVICE_ID = "SERVICE";
+    private static final Date DATE = new Date(1_700_000_000_000L);
+
+    private final PlanService planService = new PlanService();
+    private Service service;
+    private Instance first, second;
+
+    @Test
+    void percentileWeightsChangeBeatsNewInstance() {
+        createService();
+        service.changeCurrentValueForQoS(PercentileResponseTime.class, 400, DATE);
+        first.changeCurrentValueForQoS(PercentileResponseTime.class, 500, DATE);
+        second.changeCurrentValueForQoS(PercentileResponseTime.class, 200, DATE);
+        // 0.2 * 500 + 0.8 * 200 = 260 ms: benefit 400 / 260
+        ChangeLoadBalancerWeightsOption changeWeightsOption = new ChangeLoadBalancerWeightsOption(SERVICE_ID, service.getCurrentImplementationId(), PercentileResponseTime.class, "");
+        changeWeightsOption.setNewWeights(new HashMap<>(Map.of(first.getInstanceId(), 0.2, second.getInstanceId(), 0.8)));
+        // (500 + 200 + 200 of the benchmark) / 3 = 300 ms: benefit 400 / 300
+        AddInstanceOption addInstanceOption = createAddInstanceOption(PercentileResponseTime.class);
+
+        assertSame(changeWeightsOption, planService.extractBestOption(service, List.of(addInstanceOption, changeWeightsOption)));
+        // An option that makes the percentile worse has no benefit
+        changeWeightsOption.setNewWeights(new HashMap<>(Map.of(first.getInstanceId(), 0.9, second.getInstanceId(), 0.1)));
+        assertSame(addInstanceOption, planService.extractBestOption(service, List.of(addInstanceOption, changeWeightsOption)));
+    }
+
+    @Test
+    void throughputAboveBandIsBroughtBackByNewInstance() {
+        createService();
+        service.changeCurrentValueForQoS(Throughput.class, 30, DATE);
+        // 30 * 2 / 3 = 20 requests/s, in the band: benefit (1 + 0.5) / 1
+        AddInstanceOption addInstanceOption = createAddInstanceOption(Throughput.class);
+        // 30 * 2 = 60 requests/s, further above the band: benefit (1 + 0.5) / (1 + 2)
+        ShutdownInstanceOption shutdownInstanceOption = createShutdownInstanceOption(Throughput.class);
+
+        assertSame(addInstanceOption, planService.extractBestOption(service, List.of(shutdownInstanceOption, addInstanceOption)));
+        assertNull(planService.extractBestOption(service, List.of(shutdownInstanceOption)));
+    }
+
+    @Test
+    void throughputBelowBandIsBroughtBackByShutdown() {
+        createService();
+        service.changeCurrentValueForQoS(Throughput.class, 2, DATE);
+        // 2 * 2 = 4 requests/s: benefit (1 + 0.6) / (1 + 0.2)
+        ShutdownInstanceOption shutdownInstanceOption = createShutdownInstanceOption(Throughput.class);
+        // 2 * 2 / 3 requests/s, further below the band
+        AddInstanceOption addInstanceOption = createAddInstanceOption(Throughput.class);
+
+        assertSame(shutdownInstanceOption, planService.extractBestOption(service, List.of(addInstanceOption, shutdownInstanceOption)));
+    }
+
+    @Test
+    void throughputNewInstanceAheadOfLoadIsEvaluatedOnForecast() {
+        createService();
+        // In the band now, but forecast at 25 requests/s per instance when a new one would be up
+        service.changeCurrentValueForQoS(Throughput.class, 15, DATE);
+        AddInstanceOption addInstanceOption = createAddInstanceOption(Throughput.class);
+        assertNull(planService.extractBestOption(service, List.of(addInstanceOption)));
+
+        // 25 * 2 / 3 requests/s, in the band: benefit (1 + 0.25) / 1
+        addInstanceOption.setForecastedLoad(25.0);
+        assertSame(addInstanceOption, planService.extractBestOption(service, List.of(addInstanceOption)));
+    }
+
+    // A service with a single implementation and two active instances, each serving half of the requests
+    private void createService() {
+        ServiceImplementation implementation = new ServiceImplementation("service-impl", 1.0, 1, 0.4);
+        implementation.setBenchmark(Availability.class, 0.99);
+        implementation.setBenchmark(AverageResponseTime.class, 100.0);
+        implementation.setBenchmark(PercentileResponseTime.class, 200.0);
+        implementation.setBenchmark(Throughput.class, 10.0);
+        service = new Service(SERVICE_ID, List.of(implementation), List.of());
+        service.setCurrentImplementationId(implementation.getImplementationId());
+        Availability availability = new Availability();
+        availability.setWeight(1.0);
+        availability.setMinThreshold(0.9);
+        AverageResponseTime averageResponseTime = new AverageResponseTime();
+        averageResponseTime.setWeight(1.0);
+        averageResponseTime.setMaxThreshold(200.0);
+        PercentileResponseTime percentileResponseTime = new PercentileResponseTime();
+        percentileResponseTime.setWeight(1.0);
+        percentileResponseTime.setPercentile(95);
+        percentileResponseTime.setMaxThreshold(300);
+        Throughput throughput = new Throughput();
+        throughput.setWeight(1.0);
+        throughput.setMinThreshold(5);
+        throughput.setMaxThreshold(20);
+        service.setAllQoS(List.<QoSSpecification>of(availability, averageResponseTime, percentileResponseTime, throughput));
+
+        ServiceConfiguration configuration = new ServiceConfiguration(SERVICE_ID);
+        configuration.setLoadBalancerType(ServiceConfiguration.LoadBalancerType.WEIGHTED_RANDOM);
+        service.setConfiguration(configuration);
+        first = createInstance("10.0.0.1:58080");
+        second = createInstance("10.0.0.2:58080");
+    }
+
+    private Instance createInstance(String address) {
+        Instance instance = service.createInstance(address);
+        instance.setCurrentStatus(InstanceStatus.ACTIVE);
+        service.getConfiguration().addLoadBalancerWeight(instance.getInstanceId(), 0.5);
+        return instance;
+    }
+
+    // New instance taking a third of the requests
+    private AddInstanceOption createAddInstanceOption(Class<? extends QoSSpecification> qosGoal) {
+        AddInstanceOption addInstanceOption = new AddInstanceOption(SERVICE_ID, service.getCurrentImplementationId(), qosGoal, "");
+        addInstanceOption.setOldInstancesNewWeights(new HashMap<>(Map.of(first.getInstanceId(), 1.0 / 3, second.getInstanceId(), 1.0 / 3)));
+        addInstanceOption.setNewInstanceWeight(1.0 / 3);
+        return addInstanceOption;
+    }
+
+    // Shutdown of the first instance, the second one taking all the requests
+    private ShutdownInstanceOption createShutdownInstanceOption(Class<? extends QoSSpecification> qosGoal) {
+        ShutdownInstanceOption shutdownInstanceOption = new ShutdownInstanceOption(SERVICE_ID, service.getCurrentImplementationId(), first.getInstanceId(), qosGoal, "");
+        shutdownInstanceOption.setNewWeights(new HashMap<>(Map.of(second.getInstanceId(), 1.0)));
+        return shutdownInstanceOption;
+    }
+}
@@ -0,0 +1,115 @@
+package it.polimi.sefa.probe.domain;
+
+import com.netflix.appinfo.InstanceInfo;
+import com.netflix.discovery.EurekaClient;
+import it.polimi.sefa.probe.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.sefa.probe.prometheus.PrometheusParser;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// When enabled, scrapes every instance registered in Eureka every BACKGROUND_SCRAPE_PERIOD_MS, each one on its own
+// schedule, and keeps its latest SNAPSHOT_HISTORY_SIZE snapshots. The snapshots can then be served without waiting
+// for the scrapes.
+@org.springframework.stereotype.Service
+@Slf4j
+public class BackgroundScraper {
+    @Autowired
+    private EurekaClient discoveryClient;
+    @Autowired
+    private PrometheusParser prometheusParser;
+
+    @Getter
+    @Value("${BACKGROUND_SCRAPING}")
+    private boolean enabled;
+    @Value("${BACKGROUND_SCRAPE_PERIOD_MS}")
+    private long scrapePeriodMs;
+    @Value("${SNAPSHOT_HISTORY_SIZE}")
+    private int snapshotHistorySize;
+    @Value("${SCRAPE_PARALLELISM}")
+    private int scrapeParallelism;
+
+    private ScheduledExecutorService scheduler;
+    // Map<InstanceId, InstanceInfo> of the instances currently registered in Eureka
+    private final Map<String, InstanceInfo> instances = new ConcurrentHashMap<>();
+    private final Map<String, ScheduledFuture<?>> scrapeRoutines = new ConcurrentHashMap<>();
+    private final Map<String, SnapshotRingBuffer> snapshotBuffers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled)
+            return;
+        AtomicInteger threadCount = new AtomicInteger();
+        scheduler = Executors.newScheduledThreadPool(scrapeParallelism, runnable -> {
+            Thread thread = new Thread(runnable, "probe-background-scrape-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::updateScrapeRoutines, 0, scrapePeriodMs, TimeUnit.MILLISECONDS);
+        log.info("Background scraping started, period {} ms", scrapePeriodMs);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+    }
+
+    public InstanceMetricsSnapshot getLatestSnapshot(String instanceId) {
+        SnapshotRingBuffer snapshotBuffer = snapshotBuffers.get(instanceId);
+        return snapshotBuffer == null ? null : snapshotBuffer.getLatest();
+    }
+
+    public List<InstanceMetricsSnapshot> getSnapshots(String instanceId) {
+        SnapshotRingBuffer snapshotBuffer = snapshotBuffers.get(instanceId);
+        return snapshotBuffer == null ? List.of() : snapshotBuffer.getAll();
+    }
+
+    // Starts scraping the new instances and stops scraping the ones no longer registered
+    private void updateScrapeRoutines() {
+        try {
+            Map<String, InstanceInfo> registeredInstances = new HashMap<>();
+            discoveryClient.getApplications().getRegisteredApplications().forEach(application ->
+                    application.getInstances().forEach(instance -> registeredInstances.put(instance.getInstanceId(), instance)));
+            instances.putAll(registeredInstances);
+            registeredInstances.keySet().forEach(instanceId -> scrapeRoutines.computeIfAbsent(instanceId, id -> {
+                snapshotBuffers.putIfAbsent(id, new SnapshotRingBuffer(snapshotHistorySize));
+                // the first scrapes are spread over the period, so that the instances are not all scraped at the same time
+                long initialDelay = ThreadLocalRandom.current().nextLong(scrapePeriodMs);
+                return scheduler.scheduleWithFixedDelay(() -> scrape(id), initialDelay, scrapePeriodMs, TimeUnit.MILLISECONDS);
+            }));
+            new HashSet<>(scrapeRoutines.keySet()).stream().filter(instanceId -> !registeredInstances.containsKey(instanceId)).forEach(instanceId -> {
+                log.debug("Instance {} no longer registered. Stopping its background scraping", instanceId);
+                scrapeRoutines.remove(instanceId).cancel(false);
+                instances.remove(instanceId);
+                snapshotBuffers.remove(instanceId);
+            });
+        } catch (Exception e) {
+            log.error("Error updating the background scraping routines: {}", e.getMessage());
+        }
+    }
+
+    private void scrape(String instanceId) {
+        InstanceInfo instance = instances.get(instanceId);
+        SnapshotRingBuffer snapshotBuffer = snapshotBuffers.get(instanceId);
+        if (instance == null || snapshotBuffer == null)
+            return;
+        InstanceMetricsSnapshot instanceMetricsSnapshot;
+        try {
+            instanceMetricsSnapshot = prometheusParser.parse(instance);
+        } catch (Exception e) {
+            log.debug("Background scrape of {} failed: {}", instanceId, e.getMessage());
+            instanceMetricsSnapshot = new InstanceMetricsSnapshot(instance.getAppName(), instance.getInstanceId());
+            instanceMetricsSnapshot.setStatus(InstanceStatus.UNREACHABLE);
+        }
+        instanceMetricsSnapshot.applyTimestamp();
+        snapshotBuffer.add(instanceMetricsSnapshot);
+    }
+}
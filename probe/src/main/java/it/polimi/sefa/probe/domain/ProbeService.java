@@ -1,23 +1,27 @@
 package it.polimi.sefa.probe.domain;
 
+import com.netflix.appinfo.InstanceInfo;
 import com.netflix.discovery.EurekaClient;
 import com.netflix.discovery.shared.Application;
 import it.polimi.sefa.probe.configuration.ConfigurationParser;
 import it.polimi.sefa.probe.configuration.ServiceConfiguration;
 import it.polimi.sefa.probe.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.sefa.probe.domain.metrics.InstanceMetricsSnapshotDelta;
+import it.polimi.sefa.probe.domain.metrics.SnapshotDeltaEncoder;
 import it.polimi.sefa.probe.prometheus.PrometheusParser;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import prometheus.transport.PoolStats;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @org.springframework.stereotype.Service
 @Slf4j
@@ -28,50 +32,246 @@ public class ProbeService {
     private PrometheusParser prometheusParser;
     @Autowired
     private ConfigurationParser configurationParser;
+    @Autowired
+    private BackgroundScraper backgroundScraper;
 
     @Value("${INTERNET_CONNECTION_CHECK_HOST}")
     private String internetConnectionCheckHost;
     @Value("${INTERNET_CONNECTION_CHECK_PORT}")
     private int internetConnectionCheckPort;
+    @Value("${SCRAPE_PARALLELISM}")
+    private int scrapeParallelism;
+    @Value("${INSTANCE_SCRAPE_TIMEOUT_MS}")
+    private long instanceScrapeTimeoutMs;
+    @Value("${SERVICE_SNAPSHOT_TIMEOUT_MS}")
+    private long serviceSnapshotTimeoutMs;
+    @Value("${CACHED_SNAPSHOT_MAX_AGE_MS}")
+    private long cachedSnapshotMaxAgeMs;
+    @Value("${SNAPSHOT_KEYFRAME_INTERVAL}")
+    private int snapshotKeyframeInterval;
+
+    private ExecutorService scrapeExecutor;
+    // Map<ConsumerId, SnapshotDeltaEncoder>, one for each module receiving the snapshots as deltas
+    private final Map<String, SnapshotDeltaEncoder> snapshotDeltaEncoders = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        scrapeExecutor = Executors.newFixedThreadPool(scrapeParallelism, runnable -> {
+            Thread thread = new Thread(runnable, "probe-scrape-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        scrapeExecutor.shutdownNow();
+    }
+
+    public List<InstanceMetricsSnapshot> getServiceSnapshot(String serviceId) {
+        return getSystemSnapshot(List.of(serviceId)).get(serviceId);
+    }
+
+    // With background scraping, the snapshots are served from the cache and their age is set. The services with an
+    // instance not scraped yet, or whose latest snapshot is older than CACHED_SNAPSHOT_MAX_AGE_MS, are scraped on demand
+    public Map<String, List<InstanceMetricsSnapshot>> getSystemSnapshot(Collection<String> serviceIds) {
+        if (!backgroundScraper.isEnabled())
+            return createSystemSnapshot(serviceIds);
+        if (serviceIds == null)
+            serviceIds = getRegisteredServiceIds();
+        Map<String, List<InstanceMetricsSnapshot>> serviceSnapshots = new LinkedHashMap<>();
+        Set<String> servicesWithUnreachableInstances = new HashSet<>();
+        List<String> servicesToScrape = new LinkedList<>();
+        long now = System.currentTimeMillis();
+        serviceIds.forEach(serviceId -> {
+            List<InstanceMetricsSnapshot> cachedSnapshots = getCachedServiceSnapshot(serviceId, now);
+            if (cachedSnapshots == null) {
+                servicesToScrape.add(serviceId);
+            } else if (cachedSnapshots.stream().anyMatch(InstanceMetricsSnapshot::isUnreachable)) {
+                servicesWithUnreachableInstances.add(serviceId);
+            }
+            serviceSnapshots.put(serviceId, cachedSnapshots);
+        });
+        if (!servicesToScrape.isEmpty())
+            serviceSnapshots.putAll(createSystemSnapshot(servicesToScrape));
+        invalidateIfDisconnected(serviceSnapshots, servicesWithUnreachableInstances);
+        return serviceSnapshots;
+    }
+
+    // Encodes the snapshots against the ones previously sent to the consumer. If reset is true, only keyframes are sent
+    public Map<String, List<InstanceMetricsSnapshotDelta>> encodeSystemSnapshot(String consumerId, boolean reset, Map<String, List<InstanceMetricsSnapshot>> serviceSnapshots) {
+        SnapshotDeltaEncoder encoder = snapshotDeltaEncoders.computeIfAbsent(consumerId, id -> new SnapshotDeltaEncoder(snapshotKeyframeInterval));
+        Map<String, List<InstanceMetricsSnapshotDelta>> serviceDeltas = new LinkedHashMap<>();
+        synchronized (encoder) {
+            if (reset)
+                encoder.reset();
+            serviceSnapshots.forEach((serviceId, snapshots) ->
+                    serviceDeltas.put(serviceId, snapshots == null ? null : snapshots.stream().map(encoder::encode).toList()));
+        }
+        return serviceDeltas;
+    }
+
+    public List<InstanceMetricsSnapshot> getCachedSnapshots(String instanceId) {
+        return backgroundScraper.getSnapshots(instanceId);
+    }
 
-    public List<InstanceMetricsSnapshot> createServiceSnapshot(String serviceId) {
-        AtomicBoolean invalidIteration = new AtomicBoolean(false);
-        final List<InstanceMetricsSnapshot> instanceMetricsSnapshots = new LinkedList<>();
+    private List<InstanceMetricsSnapshot> getCachedServiceSnapshot(String serviceId, long now) {
         Application application = discoveryClient.getApplication(serviceId);
-        if (application == null) {
-            log.error("Service {} not found in Eureka", serviceId);
-            return instanceMetricsSnapshots;
+        if (application == null)
+            return null;
+        List<InstanceMetricsSnapshot> instanceMetricsSnapshots = new LinkedList<>();
+        for (InstanceInfo instance : application.getInstances()) {
+            InstanceMetricsSnapshot cachedSnapshot = backgroundScraper.getLatestSnapshot(instance.getInstanceId());
+            if (cachedSnapshot == null || now - cachedSnapshot.getTimestamp().getTime() > cachedSnapshotMaxAgeMs)
+                return null;
+            InstanceMetricsSnapshot instanceMetricsSnapshot = cachedSnapshot.copy();
+            instanceMetricsSnapshot.setAge(now - cachedSnapshot.getTimestamp().getTime());
+            instanceMetricsSnapshots.add(instanceMetricsSnapshot);
         }
-        application.getInstances().forEach(instance -> {
-            if (invalidIteration.get()) return;
-            InstanceMetricsSnapshot instanceMetricsSnapshot;
-            try {
-                instanceMetricsSnapshot = prometheusParser.parse(instance);
-                instanceMetricsSnapshot.applyTimestamp();
-                log.debug("Adding metric for instance {}", instanceMetricsSnapshot.getInstanceId());
-                instanceMetricsSnapshots.add(instanceMetricsSnapshot);
-            } catch (Exception e) {
-                log.warn("Error adding metrics for {}. Note that it might have been shutdown by the executor. Creating a snapshot with status UNREACHABLE", instance.getInstanceId());
-                log.warn("The exception is: " + e.getMessage());
-                instanceMetricsSnapshot = new InstanceMetricsSnapshot(instance.getAppName(), instance.getInstanceId());
-                instanceMetricsSnapshot.setStatus(InstanceStatus.UNREACHABLE);
-                instanceMetricsSnapshot.applyTimestamp();
-                instanceMetricsSnapshots.add(instanceMetricsSnapshot);
+        return instanceMetricsSnapshots;
+    }
+
+    // Takes the snapshot of the given services, or of all the registered ones if serviceIds is null. All the instances
+    // are scraped concurrently. A scrape that does not complete within INSTANCE_SCRAPE_TIMEOUT_MS from its start, or
+    // within SERVICE_SNAPSHOT_TIMEOUT_MS from the start of the first scrape of its service, produces an UNREACHABLE
+    // snapshot. The deadline of each service starts with its own scrapes, so the services queued behind the others in
+    // the executor get the same time as the first ones.
+    // The snapshot of a service is null if it has unreachable instances and the probe has no internet connection.
+    public Map<String, List<InstanceMetricsSnapshot>> createSystemSnapshot(Collection<String> serviceIds) {
+        if (serviceIds == null)
+            serviceIds = getRegisteredServiceIds();
+        Map<String, List<ScrapeTask>> scrapeTasksByService = new LinkedHashMap<>();
+        serviceIds.forEach(serviceId -> {
+            List<ScrapeTask> scrapeTasks = new LinkedList<>();
+            Application application = discoveryClient.getApplication(serviceId);
+            if (application == null)
+                log.error("Service {} not found in Eureka", serviceId);
+            else {
+                ServiceScrape serviceScrape = new ServiceScrape();
+                application.getInstances().forEach(instance -> {
+                    ScrapeTask scrapeTask = new ScrapeTask(instance, serviceScrape);
+                    scrapeTask.future = scrapeExecutor.submit(scrapeTask);
+                    scrapeTasks.add(scrapeTask);
+                });
+            }
+            scrapeTasksByService.put(serviceId, scrapeTasks);
+        });
+
+        Map<String, List<InstanceMetricsSnapshot>> serviceSnapshots = new LinkedHashMap<>();
+        Set<String> servicesWithUnreachableInstances = new HashSet<>();
+        scrapeTasksByService.forEach((serviceId, scrapeTasks) -> {
+            final List<InstanceMetricsSnapshot> instanceMetricsSnapshots = new LinkedList<>();
+            for (ScrapeTask scrapeTask : scrapeTasks) {
+                InstanceMetricsSnapshot instanceMetricsSnapshot;
                 try {
-                    if (!pingHost(internetConnectionCheckHost, internetConnectionCheckPort, 5000))
-                        invalidIteration.set(true);
-                } catch (Exception e1) {
-                    log.error("Error checking internet connection");
-                    log.error(e1.getMessage());
-                    invalidIteration.set(true);
+                    instanceMetricsSnapshot = scrapeTask.await();
+                    instanceMetricsSnapshot.applyTimestamp();
+                    log.debug("Adding metric for instance {}", instanceMetricsSnapshot.getInstanceId());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    scrapeTasksByService.values().forEach(tasks -> tasks.forEach(task -> task.future.cancel(true)));
+                    throw new RuntimeException("Interrupted while taking the snapshot of service " + serviceId, e);
+                } catch (Exception e) {
+                    scrapeTask.future.cancel(true);
+                    log.warn("Error adding metrics for {}. Note that it might have been shutdown by the executor. Creating a snapshot with status UNREACHABLE", scrapeTask.instance.getInstanceId());
+                    log.warn("The exception is: " + (e instanceof TimeoutException ? "scrape timed out" : e.getMessage()));
+                    instanceMetricsSnapshot = new InstanceMetricsSnapshot(scrapeTask.instance.getAppName(), scrapeTask.instance.getInstanceId());
+                    instanceMetricsSnapshot.setStatus(InstanceStatus.UNREACHABLE);
+                    instanceMetricsSnapshot.applyTimestamp();
+                    servicesWithUnreachableInstances.add(serviceId);
                 }
+                instanceMetricsSnapshots.add(instanceMetricsSnapshot);
             }
+            serviceSnapshots.put(serviceId, instanceMetricsSnapshots);
         });
-        if (invalidIteration.get()) {
-            log.error("Invalid iteration. Skipping service {}", serviceId);
-            return null;
+
+        invalidateIfDisconnected(serviceSnapshots, servicesWithUnreachableInstances);
+        return serviceSnapshots;
+    }
+
+    // The connectivity of the probe is checked once per snapshot, after all the scrapes have completed
+    private void invalidateIfDisconnected(Map<String, List<InstanceMetricsSnapshot>> serviceSnapshots, Set<String> servicesWithUnreachableInstances) {
+        if (!servicesWithUnreachableInstances.isEmpty() && !isInternetConnectionAvailable()) {
+            servicesWithUnreachableInstances.forEach(serviceId -> {
+                log.error("Invalid iteration. Skipping service {}", serviceId);
+                serviceSnapshots.put(serviceId, null);
+            });
         }
-        return instanceMetricsSnapshots;
+    }
+
+    private List<String> getRegisteredServiceIds() {
+        return discoveryClient.getApplications().getRegisteredApplications().stream().map(Application::getName).toList();
+    }
+
+    private boolean isInternetConnectionAvailable() {
+        try {
+            return pingHost(internetConnectionCheckHost, internetConnectionCheckPort, 5000);
+        } catch (Exception e) {
+            log.error("Error checking internet connection");
+            log.error(e.getMessage());
+            return false;
+        }
+    }
+
+    // The scrapes of the instances of a service, which share the deadline of the service
+    private static class ServiceScrape {
+        private volatile boolean started = false;
+        private long startTime;
+
+        // Called when each scrape starts: the first one starts the deadline of the service
+        private synchronized void start(long scrapeStartTime) {
+            if (!started) {
+                startTime = scrapeStartTime;
+                started = true;
+            }
+        }
+    }
+
+    private class ScrapeTask implements Callable<InstanceMetricsSnapshot> {
+        private final InstanceInfo instance;
+        private final ServiceScrape serviceScrape;
+        private Future<InstanceMetricsSnapshot> future;
+        private volatile long startTime;
+        private volatile boolean started = false;
+
+        private ScrapeTask(InstanceInfo instance, ServiceScrape serviceScrape) {
+            this.instance = instance;
+            this.serviceScrape = serviceScrape;
+        }
+
+        @Override
+        public InstanceMetricsSnapshot call() {
+            startTime = System.nanoTime();
+            serviceScrape.start(startTime);
+            started = true;
+            return prometheusParser.parse(instance);
+        }
+
+        // Waits until the scrape completes, its own deadline expires or the deadline of its service expires
+        private InstanceMetricsSnapshot await() throws InterruptedException, ExecutionException, TimeoutException {
+            long timeout = TimeUnit.MILLISECONDS.toNanos(instanceScrapeTimeoutMs);
+            long serviceTimeout = TimeUnit.MILLISECONDS.toNanos(serviceSnapshotTimeoutMs);
+            while (true) {
+                boolean wasStarted = started;
+                boolean serviceWasStarted = serviceScrape.started;
+                long now = System.nanoTime();
+                long serviceDeadline = (serviceWasStarted ? serviceScrape.startTime : now) + serviceTimeout;
+                long deadline = Math.min(serviceDeadline, (wasStarted ? startTime : now) + timeout);
+                try {
+                    return future.get(Math.max(0, deadline - now), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    // a scrape still queued in the executor gets its own deadline once it starts, and the one of its
+                    // service once the first scrape of the service starts
+                    if (wasStarted || (serviceWasStarted && deadline == serviceDeadline))
+                        throw e;
+                }
+            }
+        }
+    }
+
+    public PoolStats getScrapeTransportStats() {
+        return prometheusParser.getTransportStats();
     }
 
     public Map<String, ServiceInfo> getServices() {
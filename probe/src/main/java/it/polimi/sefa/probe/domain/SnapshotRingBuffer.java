@@ -0,0 +1,48 @@
+package it.polimi.sefa.probe.domain;
+
+import it.polimi.sefa.probe.domain.metrics.InstanceMetricsSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Keeps the latest snapshots of an instance. The slots are allocated once and the oldest snapshot is overwritten
+public class SnapshotRingBuffer {
+    private final InstanceMetricsSnapshot[] snapshots;
+    private int next = 0; // slot the next snapshot is written to
+    private int size = 0;
+
+    public SnapshotRingBuffer(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The capacity must be positive");
+        snapshots = new InstanceMetricsSnapshot[capacity];
+    }
+
+    public synchronized void add(InstanceMetricsSnapshot snapshot) {
+        snapshots[next] = snapshot;
+        next = (next + 1) % snapshots.length;
+        if (size < snapshots.length)
+            size++;
+    }
+
+    public synchronized InstanceMetricsSnapshot getLatest() {
+        if (size == 0)
+            return null;
+        return snapshots[(next - 1 + snapshots.length) % snapshots.length];
+    }
+
+    // From the oldest to the latest
+    public synchronized List<InstanceMetricsSnapshot> getAll() {
+        List<InstanceMetricsSnapshot> all = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            all.add(snapshots[(next - size + i + snapshots.length) % snapshots.length]);
+        return all;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return snapshots.length;
+    }
+}
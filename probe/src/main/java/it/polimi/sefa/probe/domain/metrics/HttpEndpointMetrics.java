@@ -1,10 +1,14 @@
 package it.polimi.sefa.probe.domain.metrics;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import it.polimi.ramses.snapshotdelta.EndpointMetricsView;
+import it.polimi.ramses.snapshotdelta.OutcomeMetricsView;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -13,7 +17,7 @@ import java.util.Set;
 @Getter
 @Setter
 @NoArgsConstructor
-public class HttpEndpointMetrics {
+public class HttpEndpointMetrics implements EndpointMetricsView<HttpEndpointMetrics.OutcomeMetrics> {
 
     private Long id;
 
@@ -26,12 +30,20 @@ public class HttpEndpointMetrics {
     @Getter
     @Setter
     @NoArgsConstructor
-    public static class OutcomeMetrics {
+    public static class OutcomeMetrics implements OutcomeMetricsView {
         private String outcome;
         private int status;
         private long count = 0;
         private double totalDuration = 0;
         private double maxDuration = 0;
+        // Latency histogram of the outcome: upper bounds of the buckets in ms, without the +Inf bucket (whose count is
+        // the count of the outcome), and cumulative count of each bucket. Null if the endpoint exposes no histogram
+        private double[] bucketBounds;
+        private long[] bucketCounts;
+        // Number of series of the outcome (e.g., one per status code) merged into it
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        private int series = 0;
 
         @JsonIgnore
         public double getAverageDuration() {
@@ -57,6 +69,25 @@ public class HttpEndpointMetrics {
                 this.maxDuration = maxDuration;
         }
 
+        // Adds the counts of the buckets of another series of the outcome (e.g., of another status code), null if the
+        // series has no buckets. The histogram of the outcome is kept only if all its series have buckets with the same
+        // bounds: otherwise it is dropped, rather than covering only a part of the requests of the outcome
+        public void updateBuckets(double[] bounds, long[] counts) {
+            boolean firstSeries = series++ == 0;
+            if (firstSeries && bounds != null && counts != null) {
+                bucketBounds = bounds;
+                bucketCounts = counts;
+                return;
+            }
+            if (bucketCounts == null || bounds == null || counts == null || !Arrays.equals(bucketBounds, bounds)) {
+                bucketBounds = null;
+                bucketCounts = null;
+                return;
+            }
+            for (int i = 0; i < bucketCounts.length; i++)
+                bucketCounts[i] += counts[i];
+        }
+
 
 
     }
@@ -181,8 +212,14 @@ public class HttpEndpointMetrics {
         return outcomeMetrics.keySet();
     }
 
+    // Adds a series of the outcome without a latency histogram, which drops the histogram of the outcome
     public void addOrSetOutcomeMetricsDetails(String outcome, int status, long count, double totalDuration) {
+        addOrSetOutcomeMetricsDetails(outcome, status, count, totalDuration, null, null);
+    }
+
+    public void addOrSetOutcomeMetricsDetails(String outcome, int status, long count, double totalDuration, double[] bucketBounds, long[] bucketCounts) {
         OutcomeMetrics outcomeMetric = outcomeMetrics.getOrDefault(outcome, new OutcomeMetrics(outcome));
+        outcomeMetric.updateBuckets(bucketBounds, bucketCounts);
         outcomeMetric.setStatus(status);
         outcomeMetric.updateCount(count);
         outcomeMetric.updateTotalDuration(totalDuration);
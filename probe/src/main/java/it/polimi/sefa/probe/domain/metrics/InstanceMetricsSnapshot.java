@@ -1,6 +1,7 @@
 package it.polimi.sefa.probe.domain.metrics;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import it.polimi.ramses.snapshotdelta.MetricsSnapshotView;
 import it.polimi.sefa.probe.domain.InstanceStatus;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -14,7 +15,7 @@ import java.util.Objects;
 @Getter
 @Setter
 @NoArgsConstructor
-public class InstanceMetricsSnapshot {
+public class InstanceMetricsSnapshot implements MetricsSnapshotView<InstanceStatus, HttpEndpointMetrics, CircuitBreakerMetrics> {
 
     private Long id;
 
@@ -31,6 +32,8 @@ public class InstanceMetricsSnapshot {
     private Double diskFreeSpace;
 
     private Date timestamp;
+    // [ms] how old the snapshot was when it was served from the background scraping cache, null if scraped on demand
+    private Long age;
 
     public InstanceMetricsSnapshot(String serviceId, String instanceId) {
         this.serviceId = serviceId;
@@ -62,6 +65,21 @@ public class InstanceMetricsSnapshot {
         httpMetrics.put( metrics.getHttpMethod() + "@" + metrics.getEndpoint(), metrics);
     }
 
+    // Shallow copy, so that the status and the age can be changed without affecting the cached snapshot
+    public InstanceMetricsSnapshot copy() {
+        InstanceMetricsSnapshot copy = new InstanceMetricsSnapshot(serviceId, instanceId);
+        copy.id = id;
+        copy.status = status;
+        copy.circuitBreakerMetrics = circuitBreakerMetrics;
+        copy.httpMetrics = httpMetrics;
+        copy.cpuUsage = cpuUsage;
+        copy.diskTotalSpace = diskTotalSpace;
+        copy.diskFreeSpace = diskFreeSpace;
+        copy.timestamp = timestamp;
+        copy.age = age;
+        return copy;
+    }
+
     public void applyTimestamp() {
         timestamp = new Date();
     }
@@ -0,0 +1,16 @@
+package it.polimi.sefa.probe.domain.metrics;
+
+import it.polimi.ramses.snapshotdelta.MetricsSnapshotDelta;
+import it.polimi.sefa.probe.domain.InstanceStatus;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// An InstanceMetricsSnapshot encoded against the previous snapshot of the same instance (see MetricsSnapshotDelta)
+@Getter
+@Setter
+@NoArgsConstructor
+public class InstanceMetricsSnapshotDelta extends MetricsSnapshotDelta<InstanceStatus, HttpEndpointMetrics, CircuitBreakerMetrics> {
+    // [ms] how old the snapshot was when it was served from the background scraping cache, null if scraped on demand
+    private Long age;
+}
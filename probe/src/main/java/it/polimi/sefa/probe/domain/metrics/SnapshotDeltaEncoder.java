@@ -0,0 +1,26 @@
+package it.polimi.sefa.probe.domain.metrics;
+
+import it.polimi.ramses.snapshotdelta.AbstractSnapshotDeltaEncoder;
+import it.polimi.sefa.probe.domain.InstanceStatus;
+
+// Encodes the snapshots sent to a single receiver, remembering the last snapshot sent for each instance
+public class SnapshotDeltaEncoder extends AbstractSnapshotDeltaEncoder<InstanceStatus, InstanceMetricsSnapshot,
+        HttpEndpointMetrics, HttpEndpointMetrics.OutcomeMetrics, CircuitBreakerMetrics, InstanceMetricsSnapshotDelta> {
+
+    // A keyframe is sent for an instance after keyframeInterval deltas
+    public SnapshotDeltaEncoder(int keyframeInterval) {
+        super(keyframeInterval);
+    }
+
+    @Override
+    protected InstanceMetricsSnapshotDelta newDelta(InstanceMetricsSnapshot snapshot) {
+        InstanceMetricsSnapshotDelta delta = new InstanceMetricsSnapshotDelta();
+        delta.setAge(snapshot.getAge());
+        return delta;
+    }
+
+    @Override
+    protected HttpEndpointMetrics newEndpointMetrics(String endpoint, String httpMethod) {
+        return new HttpEndpointMetrics(endpoint, httpMethod);
+    }
+}
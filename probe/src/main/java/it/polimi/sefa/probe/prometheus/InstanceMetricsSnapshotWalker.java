@@ -0,0 +1,105 @@
+package it.polimi.sefa.probe.prometheus;
+
+import it.polimi.sefa.probe.domain.metrics.HttpEndpointMetrics;
+import it.polimi.sefa.probe.domain.metrics.InstanceMetricsSnapshot;
+import lombok.Getter;
+import prometheus.types.*;
+import prometheus.walkers.PrometheusMetricsWalker;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Fills the snapshot of an instance while the scraper walks the metrics, so the metric families are never collected.
+// A new walker must be used for each scrape.
+public class InstanceMetricsSnapshotWalker implements PrometheusMetricsWalker {
+    @Getter
+    private final InstanceMetricsSnapshot instanceMetricsSnapshot;
+    // Map<HTTP-Method@endpoint, HttpEndpointMetrics>
+    private final Map<String, HttpEndpointMetrics> httpMetricsMap = new HashMap<>();
+
+    public InstanceMetricsSnapshotWalker(InstanceMetricsSnapshot instanceMetricsSnapshot) {
+        this.instanceMetricsSnapshot = instanceMetricsSnapshot;
+    }
+
+    @Override
+    public void walkStart() {
+        httpMetricsMap.clear();
+    }
+
+    @Override
+    public void walkFinish(int familiesProcessed, int metricsProcessed) {
+        instanceMetricsSnapshot.setHttpMetrics(httpMetricsMap);
+    }
+
+    @Override
+    public void walkMetricFamily(MetricFamily family, int index) { }
+
+    @Override
+    public void walkCounterMetric(MetricFamily family, Counter counter, int index) {
+        Map<String, String> labels = counter.getLabels();
+        if (PrometheusMetrics.CB_NOT_PERMITTED_CALLS_TOTAL.equals(family.getName()))
+            instanceMetricsSnapshot.addCircuitBreakerNotPermittedCallsCount(labels.get("name"), (int) counter.getValue());
+    }
+
+    @Override
+    public void walkGaugeMetric(MetricFamily family, Gauge gauge, int index) {
+        Map<String, String> labels = gauge.getLabels();
+        switch (family.getName()) {
+            case PrometheusMetrics.HTTP_REQUESTS_MAX_TIME ->
+                    getOrInitHttpEndpointMetrics(labels).addOrSetOutcomeMetricsMaxDuration(labels.get("outcome"), gauge.getValue()*1000);
+            case PrometheusMetrics.DISK_FREE_SPACE ->
+                    instanceMetricsSnapshot.setDiskFreeSpace(gauge.getValue());
+            case PrometheusMetrics.DISK_TOTAL_SPACE ->
+                    instanceMetricsSnapshot.setDiskTotalSpace(gauge.getValue());
+            case PrometheusMetrics.CPU_USAGE ->
+                    instanceMetricsSnapshot.setCpuUsage(gauge.getValue());
+            case PrometheusMetrics.CB_BUFFERED_CALLS ->
+                    instanceMetricsSnapshot.addCircuitBreakerBufferedCalls(labels.get("name"), labels.get("kind"), (int) gauge.getValue());
+            case PrometheusMetrics.CB_STATE ->
+                    instanceMetricsSnapshot.addCircuitBreakerState(labels.get("name"), labels.get("state"), (int) gauge.getValue());
+            case PrometheusMetrics.CB_CALLS_SECONDS_MAX ->
+                    instanceMetricsSnapshot.addCircuitBreakerCallMaxDuration(labels.get("name"), labels.get("kind"), gauge.getValue());
+            case PrometheusMetrics.CB_SLOW_CALL_RATE ->
+                    instanceMetricsSnapshot.addCircuitBreakerSlowCallRate(labels.get("name"), gauge.getValue());
+            case PrometheusMetrics.CB_SLOW_CALLS ->
+                    instanceMetricsSnapshot.addCircuitBreakerSlowCallCount(labels.get("name"), labels.get("kind"), (int) gauge.getValue());
+            case PrometheusMetrics.CB_FAILURE_RATE ->
+                    instanceMetricsSnapshot.addCircuitBreakerFailureRate(labels.get("name"), gauge.getValue());
+            default -> { }
+        }
+    }
+
+    @Override
+    public void walkSummaryMetric(MetricFamily family, Summary summary, int index) {
+        Map<String, String> labels = summary.getLabels();
+        if (PrometheusMetrics.CB_CALLS_SECONDS.equals(family.getName()))
+            instanceMetricsSnapshot.addCircuitBreakerCallCountAndDurationSum(labels.get("name"), labels.get("kind"), (int) summary.getSampleCount(), summary.getSampleSum());
+    }
+
+    @Override
+    public void walkHistogramMetric(MetricFamily family, Histogram histogram, int index) {
+        Map<String, String> labels = histogram.getLabels(); //e.g. labels' key for http_server_requests_seconds are [exception, method, uri, status]
+        if (PrometheusMetrics.HTTP_REQUESTS_TIME.equals(family.getName())) {
+            HttpEndpointMetrics endpointMetrics = getOrInitHttpEndpointMetrics(labels);
+            // The finite buckets, in ms. The +Inf bucket is not kept: its count is the sample count
+            List<Histogram.Bucket> buckets = histogram.getBuckets().stream().filter(bucket -> !Double.isInfinite(bucket.getUpperBound())).toList();
+            if (buckets.isEmpty()) {
+                endpointMetrics.addOrSetOutcomeMetricsDetails(labels.get("outcome"), Integer.parseInt(labels.get("status")), (int) histogram.getSampleCount(), histogram.getSampleSum()*1000);
+                return;
+            }
+            double[] bucketBounds = new double[buckets.size()];
+            long[] bucketCounts = new long[buckets.size()];
+            for (int i = 0; i < buckets.size(); i++) {
+                bucketBounds[i] = buckets.get(i).getUpperBound()*1000;
+                bucketCounts[i] = buckets.get(i).getCumulativeCount();
+            }
+            endpointMetrics.addOrSetOutcomeMetricsDetails(labels.get("outcome"), Integer.parseInt(labels.get("status")), (int) histogram.getSampleCount(), histogram.getSampleSum()*1000, bucketBounds, bucketCounts);
+        }
+    }
+
+    private HttpEndpointMetrics getOrInitHttpEndpointMetrics(Map<String, String> labels) {
+        return httpMetricsMap.computeIfAbsent(labels.get("method") + "@" + labels.get("uri"),
+                key -> new HttpEndpointMetrics(labels.get("uri"), labels.get("method")));
+    }
+}
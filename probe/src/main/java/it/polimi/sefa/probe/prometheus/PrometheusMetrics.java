@@ -1,5 +1,7 @@
 package it.polimi.sefa.probe.prometheus;
 
+import java.util.List;
+
 public class PrometheusMetrics {
     public static final String CPU_USAGE = "system_cpu_usage";
     public static final String DISK_TOTAL_SPACE = "disk_total_bytes";
@@ -15,5 +17,9 @@ public class PrometheusMetrics {
     public static final String CB_SLOW_CALLS = "resilience4j_circuitbreaker_slow_calls";
     public static final String CB_FAILURE_RATE = "resilience4j_circuitbreaker_failure_rate";
 
+    public static final List<String> ALL = List.of(CPU_USAGE, DISK_TOTAL_SPACE, DISK_FREE_SPACE, HTTP_REQUESTS_TIME,
+            HTTP_REQUESTS_MAX_TIME, CB_BUFFERED_CALLS, CB_STATE, CB_CALLS_SECONDS, CB_CALLS_SECONDS_MAX,
+            CB_NOT_PERMITTED_CALLS_TOTAL, CB_SLOW_CALL_RATE, CB_SLOW_CALLS, CB_FAILURE_RATE);
+
     private PrometheusMetrics() { }
 }
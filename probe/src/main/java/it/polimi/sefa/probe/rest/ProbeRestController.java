@@ -5,10 +5,12 @@ import it.polimi.sefa.probe.domain.InstanceStatus;
 import it.polimi.sefa.probe.domain.ProbeService;
 import it.polimi.sefa.probe.domain.ServiceInfo;
 import it.polimi.sefa.probe.domain.metrics.InstanceMetricsSnapshot;
+import it.polimi.sefa.probe.domain.metrics.InstanceMetricsSnapshotDelta;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.*;
+import prometheus.transport.PoolStats;
 
 import java.util.List;
 import java.util.Map;
@@ -30,7 +32,36 @@ public class ProbeRestController {
 
     @GetMapping("/service/{serviceId}/snapshot")
     public List<InstanceMetricsSnapshot> takeSnapshot(@PathVariable("serviceId") String serviceId) {
-        List<InstanceMetricsSnapshot> snapshots = probeService.createServiceSnapshot(serviceId);
+        List<InstanceMetricsSnapshot> snapshots = probeService.getServiceSnapshot(serviceId);
+        fakeUnreachableRestaurant(serviceId, snapshots);
+        return snapshots;
+    }
+
+    // Snapshot of the given services (all the registered ones if none is given), taken with a single request.
+    // The snapshot of a service is null when the iteration is invalid for that service.
+    @GetMapping("/snapshot")
+    public Map<String, List<InstanceMetricsSnapshot>> takeSystemSnapshot(@RequestParam(value = "serviceIds", required = false) List<String> serviceIds) {
+        Map<String, List<InstanceMetricsSnapshot>> serviceSnapshots = probeService.getSystemSnapshot(serviceIds);
+        serviceSnapshots.forEach(this::fakeUnreachableRestaurant);
+        return serviceSnapshots;
+    }
+
+    // Same as takeSystemSnapshot, with each snapshot encoded against the previous one sent to the consumer.
+    // The consumer asks for keyframes with reset=true, e.g. when it cannot apply the deltas
+    @GetMapping("/snapshot/delta")
+    public Map<String, List<InstanceMetricsSnapshotDelta>> takeSystemSnapshotDelta(@RequestParam(value = "serviceIds", required = false) List<String> serviceIds,
+                                                                                   @RequestParam("consumerId") String consumerId,
+                                                                                   @RequestParam(value = "reset", defaultValue = "false") boolean reset) {
+        return probeService.encodeSystemSnapshot(consumerId, reset, takeSystemSnapshot(serviceIds));
+    }
+
+    // Latest snapshots of the instance kept by the background scraping, from the oldest to the latest
+    @GetMapping("/instance/{instanceId}/snapshots")
+    public List<InstanceMetricsSnapshot> getCachedSnapshots(@PathVariable("instanceId") String instanceId) {
+        return probeService.getCachedSnapshots(instanceId);
+    }
+
+    private void fakeUnreachableRestaurant(String serviceId, List<InstanceMetricsSnapshot> snapshots) {
         if (fakeUnreachableRestaurant.equalsIgnoreCase("Y") && snapshots != null && !snapshots.isEmpty() && serviceId.equalsIgnoreCase("restaurant-service")) {
             synchronized (lock) {
                 if (fakeCounter > 0) {
@@ -47,7 +78,6 @@ public class ProbeRestController {
                 }
             }
         }
-        return snapshots;
     }
 
     @GetMapping("/systemArchitecture")
@@ -60,6 +90,11 @@ public class ProbeRestController {
         return probeService.getServiceConfiguration(serviceId, implementationId);
     }
 
+    @GetMapping("/scrapeTransportStats")
+    public PoolStats getScrapeTransportStats() {
+        return probeService.getScrapeTransportStats();
+    }
+
     @PutMapping("/fakeCounter")
     public void setFakeCounter(@RequestParam("value") Integer value) {
         synchronized (lock) {